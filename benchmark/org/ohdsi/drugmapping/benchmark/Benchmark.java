@@ -0,0 +1,614 @@
+package org.ohdsi.drugmapping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ohdsi.drugmapping.DrugMapping;
+import org.ohdsi.drugmapping.DrugMappingMetrics;
+import org.ohdsi.drugmapping.MappingConfiguration;
+import org.ohdsi.drugmapping.UnitConversion;
+import org.ohdsi.drugmapping.cdm.CDM;
+import org.ohdsi.drugmapping.cdm.CDMDrug;
+import org.ohdsi.drugmapping.cdm.CDMIngredient;
+import org.ohdsi.drugmapping.files.DelimitedFileRow;
+import org.ohdsi.drugmapping.files.DelimitedFileWithHeader;
+import org.ohdsi.drugmapping.files.FileColumnDefinition;
+import org.ohdsi.drugmapping.files.FileDefinition;
+import org.ohdsi.drugmapping.genericmapping.GenericMappingInputFiles;
+import org.ohdsi.drugmapping.genericmapping.StrengthMatching;
+import org.ohdsi.drugmapping.genericmapping.StrengthMatching.SourceStrengths;
+import org.ohdsi.drugmapping.gui.ExecuteTab;
+import org.ohdsi.drugmapping.gui.MainFrameTab;
+import org.ohdsi.drugmapping.gui.files.DelimitedInputFileGUI;
+import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
+
+/**
+ * Measures the hot paths of the drug mapping in isolation on synthetic data.
+ *
+ * Usage: java -cp <classes and lib/*> org.ohdsi.drugmapping.benchmark.Benchmark
+ *          [filter=<part of benchmark name>] [ingredients=<number>] [drugs=<number>]
+ *          [names=<number>] [rows=<number>] [threads=<number>] [warmup=<iterations>] [iterations=<iterations>]
+ */
+public class Benchmark {
+	private static long sink = 0;              // Keeps the results of the benchmarks alive
+
+	private Map<String, String> parameters;
+	private SyntheticData data;
+	private MappingConfiguration configuration;
+	private File workFolder;
+	private List<BenchmarkCase> benchmarks = new ArrayList<BenchmarkCase>();
+
+
+	public static void main(String[] args) {
+		Map<String, String> parameters = new HashMap<String, String>();
+
+		for (int i = 0; i < args.length; i++) {
+			int equalSignIndex = args[i].indexOf("=");
+			String argVariable = args[i].toLowerCase();
+			String value = "";
+			if (equalSignIndex != -1) {
+				argVariable = args[i].substring(0, equalSignIndex).toLowerCase();
+				value = args[i].substring(equalSignIndex + 1);
+			}
+			parameters.put(argVariable, value);
+		}
+
+		System.setProperty("java.awt.headless", "true");
+		new Benchmark(parameters).run();
+	}
+
+
+	public Benchmark(Map<String, String> parameters) {
+		this.parameters = parameters;
+		data = new SyntheticData(20210101L, getIntParameter("ingredients", 10000), getIntParameter("drugs", 50000));
+
+		// The CDM and the mapping read their settings from the general settings
+		ExecuteTab.createGeneralSettings(new MainFrameTab());
+		configuration = new MappingConfiguration(DrugMapping.settings);
+
+		addStringBenchmarks();
+		addCDMBenchmarks();
+		addStrengthMatchingBenchmarks();
+		addUnitConversionBenchmarks();
+		addDelimitedFileBenchmarks();
+	}
+
+
+	public void run() {
+		String filter = parameters.containsKey("filter") ? parameters.get("filter").toLowerCase() : "";
+		int warmupIterations = getIntParameter("warmup", 3);
+		int measurementIterations = getIntParameter("iterations", 5);
+
+		try {
+			workFolder = Files.createTempDirectory("DrugMappingBenchmark").toFile();
+		}
+		catch (IOException exception) {
+			System.out.println("ERROR: Cannot create work folder: " + exception.getMessage());
+			return;
+		}
+
+		List<String> results = new ArrayList<String>();
+		results.add(String.format("%-50s %12s %12s %12s %12s", "Benchmark", "Ops/iter", "Avg ms/iter", "Min ms/iter", "Avg ns/op"));
+		for (BenchmarkCase benchmark : benchmarks) {
+			if (benchmark.getName().toLowerCase().contains(filter)) {
+				System.out.println("Running " + benchmark.getName() + " ...");
+				try {
+					benchmark.setUp();
+
+					for (int iteration = 0; iteration < warmupIterations; iteration++) {
+						benchmark.run();
+					}
+
+					long operations = 0;
+					long totalTime = 0;
+					long minimumTime = Long.MAX_VALUE;
+					for (int iteration = 0; iteration < measurementIterations; iteration++) {
+						long start = System.nanoTime();
+						operations = benchmark.run();
+						long time = System.nanoTime() - start;
+						totalTime += time;
+						minimumTime = Math.min(minimumTime, time);
+					}
+
+					benchmark.tearDown();
+
+					double averageTime = (double) totalTime / measurementIterations;
+					results.add(String.format("%-50s %12d %12.2f %12.2f %12.1f", benchmark.getName(), operations, averageTime / 1000000.0, minimumTime / 1000000.0, averageTime / Math.max(1, operations)));
+				}
+				catch (Exception exception) {
+					System.out.println("ERROR: Benchmark " + benchmark.getName() + " failed: " + exception.getMessage());
+					exception.printStackTrace();
+				}
+			}
+		}
+
+		for (File file : workFolder.listFiles()) {
+			file.delete();
+		}
+		workFolder.delete();
+
+		System.out.println();
+		for (String result : results) {
+			System.out.println(result);
+		}
+		System.out.println();
+		System.out.println("Checksum: " + sink);
+	}
+
+
+	private void addStringBenchmarks() {
+		final List<String> ingredientNames = data.getSourceIngredientNames(getIntParameter("names", 20000));
+		final List<String> drugNames = data.getSourceDrugNames(getIntParameter("names", 20000));
+
+		benchmarks.add(new BenchmarkCase("DrugMappingStringUtilities.standardizedName") {
+
+			@Override
+			public long run() {
+				for (String name : ingredientNames) {
+					consume(DrugMappingStringUtilities.standardizedName(name));
+				}
+				return ingredientNames.size();
+			}
+		});
+
+		benchmarks.add(new BenchmarkCase("DrugMappingStringUtilities.sortWords") {
+
+			@Override
+			public long run() {
+				for (String name : drugNames) {
+					consume(DrugMappingStringUtilities.sortWords(name));
+				}
+				return drugNames.size();
+			}
+		});
+
+		benchmarks.add(new BenchmarkCase("DrugMappingStringUtilities.generateMatchingNames") {
+
+			@Override
+			public long run() {
+				for (String name : drugNames) {
+					consume(DrugMappingStringUtilities.generateMatchingNames(name, ""));
+				}
+				return drugNames.size();
+			}
+		});
+	}
+
+
+	private void addCDMBenchmarks() {
+		final List<String> ingredientNames = data.getSourceIngredientNames(getIntParameter("names", 20000));
+
+		benchmarks.add(new BenchmarkCase("CDM.LoadCDMFromDatabase (synthetic)") {
+
+			@Override
+			public long run() {
+				CDM cdm = new CDM(configuration, new DrugMappingMetrics());
+				cdm.LoadCDMFromDatabase(new SyntheticCDMDatabase(data), new ArrayList<String>());
+				consume(cdm.getCDMIngredients().size());
+				return 1;
+			}
+		});
+
+		benchmarks.add(new BenchmarkCase("CDM.findIngredientByName") {
+			private CDM cdm;
+
+			@Override
+			public void setUp() {
+				cdm = new CDM(configuration, new DrugMappingMetrics());
+				cdm.LoadCDMFromDatabase(new SyntheticCDMDatabase(data), new ArrayList<String>());
+			}
+
+			@Override
+			public long run() {
+				for (String name : ingredientNames) {
+					CDMIngredient cdmIngredient = cdm.findIngredientByName(DrugMappingStringUtilities.safeToUpperCase(name));
+					consume(cdmIngredient == null ? 0 : cdmIngredient.getConceptId());
+				}
+				return ingredientNames.size();
+			}
+
+			@Override
+			public void tearDown() {
+				cdm = null;
+			}
+		});
+
+		benchmarks.add(new BenchmarkCase("CDM.findIngredientByName (parallel)") {
+			private CDM cdm;
+			private ExecutorService executor;
+			private int threadCount;
+
+			@Override
+			public void setUp() {
+				cdm = new CDM(configuration, new DrugMappingMetrics());
+				cdm.LoadCDMFromDatabase(new SyntheticCDMDatabase(data), new ArrayList<String>());
+				// As the ingredient matching of a mapping run: the threads share the name caches of the CDM
+				threadCount = getIntParameter("threads", Runtime.getRuntime().availableProcessors());
+				executor = Executors.newFixedThreadPool(threadCount);
+			}
+
+			@Override
+			public long run() throws Exception {
+				final AtomicInteger nextNameNr = new AtomicInteger(0);
+				List<Future<Long>> workers = new ArrayList<Future<Long>>();
+				for (int threadNr = 0; threadNr < threadCount; threadNr++) {
+					workers.add(executor.submit(new Callable<Long>() {
+
+						@Override
+						public Long call() {
+							long conceptIdSum = 0;
+							int nameNr;
+							while ((nameNr = nextNameNr.getAndIncrement()) < ingredientNames.size()) {
+								CDMIngredient cdmIngredient = cdm.findIngredientByName(DrugMappingStringUtilities.safeToUpperCase(ingredientNames.get(nameNr)));
+								conceptIdSum += cdmIngredient == null ? 0 : cdmIngredient.getConceptId().hashCode();
+							}
+							return conceptIdSum;
+						}
+					}));
+				}
+				for (Future<Long> worker : workers) {
+					consume(worker.get());
+				}
+				return ingredientNames.size();
+			}
+
+			@Override
+			public void tearDown() {
+				executor.shutdown();
+				cdm = null;
+			}
+		});
+
+		benchmarks.add(new BenchmarkCase("CDM.getCDMDrugsContainingIngredients") {
+			private CDM cdm;
+			private List<List<CDMIngredient>> sourceIngredients;
+
+			@Override
+			public void setUp() {
+				cdm = new CDM(configuration, new DrugMappingMetrics());
+				cdm.LoadCDMFromDatabase(new SyntheticCDMDatabase(data), new ArrayList<String>());
+				// The ingredients of random CDM drugs as the matched ingredients of the source drugs
+				sourceIngredients = new ArrayList<List<CDMIngredient>>();
+				for (CDMDrug cdmDrug : getRandomCDMDrugs(cdm, ingredientNames.size())) {
+					sourceIngredients.add(cdmDrug.getIngredients());
+				}
+			}
+
+			@Override
+			public long run() {
+				for (List<CDMIngredient> ingredients : sourceIngredients) {
+					List<CDMDrug> cdmDrugs = cdm.getCDMDrugsContainingIngredients(ingredients.size(), ingredients);
+					consume(cdmDrugs == null ? 0 : cdmDrugs.size());
+				}
+				return sourceIngredients.size();
+			}
+
+			@Override
+			public void tearDown() {
+				cdm = null;
+				sourceIngredients = null;
+			}
+		});
+	}
+
+
+	private void addStrengthMatchingBenchmarks() {
+		final int sourceDrugCount = getIntParameter("names", 20000);
+
+		benchmarks.add(new StrengthMatchingBenchmarkCase("StrengthMatching.matchingStrength", sourceDrugCount) {
+
+			@Override
+			public double score(SourceStrengths source, CDMDrug cdmDrug, double maximumStrengthDeviation) {
+				return StrengthMatching.matchingStrength(source, cdmDrug, maximumStrengthDeviation);
+			}
+		});
+
+		benchmarks.add(new StrengthMatchingBenchmarkCase("StrengthMatching.averageMatchingStrength", sourceDrugCount) {
+
+			@Override
+			public double score(SourceStrengths source, CDMDrug cdmDrug, double maximumStrengthDeviation) {
+				return StrengthMatching.averageMatchingStrength(source, cdmDrug, maximumStrengthDeviation);
+			}
+		});
+	}
+
+
+	private List<CDMDrug> getRandomCDMDrugs(CDM cdm, int count) {
+		List<CDMDrug> cdmDrugs = new ArrayList<CDMDrug>(cdm.getCDMDrugs().values());
+		// The order of the loaded drugs may differ between runs
+		Collections.sort(cdmDrugs, new Comparator<CDMDrug>() {
+
+			@Override
+			public int compare(CDMDrug cdmDrug1, CDMDrug cdmDrug2) {
+				return Long.compare(cdmDrug1.getConceptIdValue(), cdmDrug2.getConceptIdValue());
+			}
+		});
+		List<CDMDrug> randomCDMDrugs = new ArrayList<CDMDrug>();
+		Random random = data.getRandom();
+		while ((!cdmDrugs.isEmpty()) && (randomCDMDrugs.size() < count)) {
+			CDMDrug cdmDrug = cdmDrugs.get(random.nextInt(cdmDrugs.size()));
+			if (!cdmDrug.getIngredients().isEmpty()) {
+				randomCDMDrugs.add(cdmDrug);
+			}
+		}
+		return randomCDMDrugs;
+	}
+
+
+	private void addUnitConversionBenchmarks() {
+		benchmarks.add(new BenchmarkCase("UnitConversion.getConversion") {
+			private UnitConversion unitConversion;
+			private String[] sourceUnits;
+			private String[] targetUnits;
+			private Double[] values;
+
+			@Override
+			public void setUp() throws Exception {
+				String fileName = workFolder.getAbsolutePath() + File.separator + "UnitMapping.csv";
+				if (!data.writeUnitMappingFile(fileName)) {
+					throw new Exception("Cannot create unit mapping file");
+				}
+				FileDefinition unitMappingFileDefinition = new GenericMappingInputFiles().getInputFileDefinition("Unit Mapping File");
+				DelimitedInputFileGUI unitMappingFile = new DelimitedInputFileGUI(null, unitMappingFileDefinition);
+				unitMappingFile.setFileName(fileName);
+				for (FileColumnDefinition column : unitMappingFileDefinition.getColumns()) {
+					unitMappingFile.addColumnMapping(column.getColumnName(), column.getColumnName());
+				}
+				// The synthetic unit mapping gives no warnings, so there is no mapping run to add them to
+				unitConversion = new UnitConversion(null, unitMappingFile);
+
+				Random random = data.getRandom();
+				int conversionCount = getIntParameter("names", 20000) * 10;
+				sourceUnits = new String[conversionCount];
+				targetUnits = new String[conversionCount];
+				values = new Double[conversionCount];
+				for (int conversionNr = 0; conversionNr < conversionCount; conversionNr++) {
+					sourceUnits[conversionNr] = data.getSourceUnits()[random.nextInt(data.getSourceUnits().length)];
+					targetUnits[conversionNr] = data.getTargetUnits()[random.nextInt(data.getTargetUnits().length)];
+					values[conversionNr] = (random.nextInt(100) + 1) * 5.0;
+				}
+			}
+
+			@Override
+			public long run() {
+				for (int conversionNr = 0; conversionNr < values.length; conversionNr++) {
+					Double result = unitConversion.getConversion(sourceUnits[conversionNr], values[conversionNr], targetUnits[conversionNr]);
+					consume(result == null ? 0 : result.hashCode());
+				}
+				return values.length;
+			}
+		});
+	}
+
+
+	private void addDelimitedFileBenchmarks() {
+		final int rowCount = getIntParameter("rows", 100000);
+
+		benchmarks.add(new BenchmarkCase("DelimitedFileWithHeader write") {
+			private List<String> header = new ArrayList<String>();
+			private List<DelimitedFileRow> rows;
+
+			@Override
+			public void setUp() {
+				rows = getFileRows(header, rowCount);
+			}
+
+			@Override
+			public long run() {
+				DelimitedFileWithHeader file = new DelimitedFileWithHeader(workFolder.getAbsolutePath() + File.separator + "Write.csv");
+				file.openForWriting();
+				file.setHeader(header);
+				for (DelimitedFileRow row : rows) {
+					file.writeRow(row);
+				}
+				file.closeForWriting();
+				return rows.size();
+			}
+		});
+
+		benchmarks.add(new BenchmarkCase("DelimitedFileWithHeader read") {
+			private String fileName;
+
+			@Override
+			public void setUp() {
+				List<String> header = new ArrayList<String>();
+				List<DelimitedFileRow> rows = getFileRows(header, rowCount);
+				fileName = workFolder.getAbsolutePath() + File.separator + "Read.csv";
+				DelimitedFileWithHeader file = new DelimitedFileWithHeader(fileName);
+				file.openForWriting();
+				file.setHeader(header);
+				for (DelimitedFileRow row : rows) {
+					file.writeRow(row);
+				}
+				file.closeForWriting();
+			}
+
+			@Override
+			public long run() {
+				long rowsRead = 0;
+				DelimitedFileWithHeader file = new DelimitedFileWithHeader(fileName);
+				if (file.openForReading()) {
+					Iterator<DelimitedFileRow> iterator = file.iterator();
+					while (iterator.hasNext()) {
+						DelimitedFileRow row = iterator.next();
+						consume(row.get("SourceName", true));
+						rowsRead++;
+					}
+				}
+				return rowsRead;
+			}
+		});
+	}
+
+
+	private List<DelimitedFileRow> getFileRows(List<String> header, int rowCount) {
+		header.add("SourceCode");
+		header.add("SourceName");
+		header.add("SourceATCCode");
+		header.add("SourceFormulation");
+		header.add("SourceCount");
+		header.add("IngredientName");
+		header.add("Dosage");
+		header.add("DosageUnit");
+
+		Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+		for (int columnNr = 0; columnNr < header.size(); columnNr++) {
+			columnIndex.put(header.get(columnNr), columnNr);
+		}
+
+		List<String> drugNames = data.getSourceDrugNames(rowCount);
+		List<String> ingredientNames = data.getSourceIngredientNames(rowCount);
+		List<DelimitedFileRow> rows = new ArrayList<DelimitedFileRow>();
+		for (int rowNr = 0; rowNr < rowCount; rowNr++) {
+			List<String> cells = new ArrayList<String>();
+			cells.add(Integer.toString(rowNr));
+			cells.add(drugNames.get(rowNr));
+			cells.add("N02BE01");
+			cells.add("TABLET, \"FILM COATED\"");
+			cells.add(Integer.toString(rowNr * 7));
+			cells.add(ingredientNames.get(rowNr));
+			cells.add("500");
+			cells.add("MG");
+			rows.add(new DelimitedFileRow(cells, columnIndex));
+		}
+		return rows;
+	}
+
+
+	private int getIntParameter(String name, int defaultValue) {
+		int value = defaultValue;
+		if (parameters.containsKey(name)) {
+			try {
+				value = Integer.parseInt(parameters.get(name));
+			}
+			catch (NumberFormatException exception) {
+				System.out.println("WARNING: Illegal value '" + parameters.get(name) + "' for parameter '" + name + "'. Using " + defaultValue + ".");
+			}
+		}
+		return value;
+	}
+
+
+	private static void consume(Object result) {
+		sink += (result == null ? 0 : result.hashCode());
+	}
+
+
+	private static void consume(int result) {
+		sink += result;
+	}
+
+
+
+
+	private abstract class BenchmarkCase {
+		private String name;
+
+
+		public BenchmarkCase(String name) {
+			this.name = name;
+		}
+
+
+		public String getName() {
+			return name;
+		}
+
+
+		public void setUp() throws Exception {
+		}
+
+
+		public abstract long run() throws Exception;
+
+
+		public void tearDown() {
+		}
+	}
+
+
+	private abstract class StrengthMatchingBenchmarkCase extends BenchmarkCase {
+		private int sourceDrugCount;
+		private List<SourceStrengths> sources;
+		private List<List<CDMDrug>> candidates;
+		private double maximumStrengthDeviation;
+
+
+		public StrengthMatchingBenchmarkCase(String name, int sourceDrugCount) {
+			super(name);
+			this.sourceDrugCount = sourceDrugCount;
+		}
+
+
+		@Override
+		public void setUp() {
+			CDM cdm = new CDM(configuration, new DrugMappingMetrics());
+			cdm.LoadCDMFromDatabase(new SyntheticCDMDatabase(data), new ArrayList<String>());
+			maximumStrengthDeviation = configuration.getMaximumStrengthDeviation();
+			int unitCount = cdm.getCDMStrengthUnits().size();
+
+			// The strengths of random CDM drugs deviating up to 5% as the source drugs
+			// scored against the CDM drugs containing their ingredients
+			Random random = data.getRandom();
+			sources = new ArrayList<SourceStrengths>();
+			candidates = new ArrayList<List<CDMDrug>>();
+			for (CDMDrug cdmDrug : getRandomCDMDrugs(cdm, sourceDrugCount)) {
+				List<CDMDrug> cdmDrugs = cdm.getCDMDrugsContainingIngredients(cdmDrug.getIngredients().size(), cdmDrug.getIngredients());
+				if (cdmDrugs != null) {
+					long[] ingredientIds = cdmDrug.getStrengthIngredientIds().clone();
+					double[] dosages = new double[ingredientIds.length];
+					double[][] unitFactors = new double[ingredientIds.length][];
+					for (int componentNr = 0; componentNr < ingredientIds.length; componentNr++) {
+						dosages[componentNr] = cdmDrug.getStrengthDosages()[componentNr] * (0.95 + (random.nextDouble() * 0.1));
+						unitFactors[componentNr] = new double[unitCount];
+						Arrays.fill(unitFactors[componentNr], Double.NaN);
+						if (cdmDrug.getStrengthUnits()[componentNr] != -1) {
+							unitFactors[componentNr][cdmDrug.getStrengthUnits()[componentNr]] = 1.0;
+						}
+					}
+					sources.add(new SourceStrengths(ingredientIds, dosages, unitFactors));
+					candidates.add(cdmDrugs);
+				}
+			}
+		}
+
+
+		@Override
+		public long run() {
+			long scoreCount = 0;
+			for (int sourceNr = 0; sourceNr < sources.size(); sourceNr++) {
+				SourceStrengths source = sources.get(sourceNr);
+				for (CDMDrug cdmDrug : candidates.get(sourceNr)) {
+					consume((int) Math.round(score(source, cdmDrug, maximumStrengthDeviation) * 1000));
+					scoreCount++;
+				}
+			}
+			return scoreCount;
+		}
+
+
+		public abstract double score(SourceStrengths source, CDMDrug cdmDrug, double maximumStrengthDeviation);
+
+
+		@Override
+		public void tearDown() {
+			sources = null;
+			candidates = null;
+		}
+	}
+}
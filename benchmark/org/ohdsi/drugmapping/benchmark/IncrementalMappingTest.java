@@ -0,0 +1,202 @@
+package org.ohdsi.drugmapping.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ohdsi.drugmapping.DrugMapping;
+import org.ohdsi.drugmapping.MappingConfiguration;
+import org.ohdsi.drugmapping.files.FileColumnDefinition;
+import org.ohdsi.drugmapping.files.FileDefinition;
+import org.ohdsi.drugmapping.files.HeadlessDelimitedInputFile;
+import org.ohdsi.drugmapping.genericmapping.GenericMapping;
+import org.ohdsi.drugmapping.genericmapping.GenericMappingInputFiles;
+import org.ohdsi.drugmapping.gui.ExecuteTab;
+import org.ohdsi.drugmapping.gui.MainFrameTab;
+
+/**
+ * Runs an incremental mapping of synthetic source drugs three times and checks
+ * that the runs that carry over the results of the previous run write the
+ * same mapping results as the first run. The last run reads the general
+ * settings without the setting components, as the batch mapping does.
+ *
+ * Usage: java -cp <classes and lib/*> org.ohdsi.drugmapping.benchmark.IncrementalMappingTest
+ *          [ingredients=<number>] [drugs=<number>] [sourcedrugs=<number>]
+ *
+ * The exit code is 0 when the results are the same and 1 otherwise.
+ */
+public class IncrementalMappingTest {
+	private static final String[] COMPARED_FILES = new String[] { "DrugMapping Mapping Log.csv", "DrugMapping.csv", "SourceToConceptMap.csv" };
+
+	private Map<String, String> parameters;
+	private SyntheticData data;
+	private File workFolder;
+	private Map<String, HeadlessDelimitedInputFile> inputFiles = new HashMap<String, HeadlessDelimitedInputFile>();
+
+
+	public static void main(String[] args) {
+		Map<String, String> parameters = new HashMap<String, String>();
+
+		for (int i = 0; i < args.length; i++) {
+			int equalSignIndex = args[i].indexOf("=");
+			String argVariable = args[i].toLowerCase();
+			String value = "";
+			if (equalSignIndex != -1) {
+				argVariable = args[i].substring(0, equalSignIndex).toLowerCase();
+				value = args[i].substring(equalSignIndex + 1);
+			}
+			parameters.put(argVariable, value);
+		}
+
+		System.setProperty("java.awt.headless", "true");
+		boolean ok = new IncrementalMappingTest(parameters).run();
+		System.out.println(ok ? "Incremental mapping test passed." : "Incremental mapping test FAILED.");
+		System.exit(ok ? 0 : 1);
+	}
+
+
+	public IncrementalMappingTest(Map<String, String> parameters) {
+		this.parameters = parameters;
+		data = new SyntheticData(20210101L, getIntParameter("ingredients", 300), getIntParameter("drugs", 1000));
+	}
+
+
+	public boolean run() {
+		boolean ok = true;
+
+		try {
+			workFolder = Files.createTempDirectory("DrugMappingIncrementalTest").toFile();
+		}
+		catch (IOException exception) {
+			System.out.println("ERROR: Cannot create work folder: " + exception.getMessage());
+			return false;
+		}
+		DrugMapping.setBasePath(workFolder.getAbsolutePath());
+		DrugMapping.outputVersion = "";
+		DrugMapping.baseName = workFolder.getAbsolutePath() + File.separator;
+
+		ExecuteTab.createGeneralSettings(new MainFrameTab());
+		List<String> generalSettings = new ArrayList<String>();
+		generalSettings.add("incrementalMapping=Yes");
+		DrugMapping.settings.putSettings(generalSettings);
+		MappingConfiguration configuration = new MappingConfiguration(DrugMapping.settings);
+		MappingConfiguration headlessConfiguration = new MappingConfiguration(generalSettings);
+		ok = ok && checkSameSettings(configuration, headlessConfiguration);
+
+		String sourceDrugsFileName = workFolder.getAbsolutePath() + File.separator + "SourceDrugs.csv";
+		String unitMappingFileName = workFolder.getAbsolutePath() + File.separator + "UnitMapping.csv";
+		String formMappingFileName = workFolder.getAbsolutePath() + File.separator + "FormMapping.csv";
+		ok = ok && data.writeSourceDrugsFile(sourceDrugsFileName, getIntParameter("sourcedrugs", 500));
+		ok = ok && data.writeUnitMappingFile(unitMappingFileName);
+		ok = ok && data.writeFormMappingFile(formMappingFileName);
+		ok = ok && addInputFile("Generic Drugs File", sourceDrugsFileName);
+		ok = ok && addInputFile("Unit Mapping File", unitMappingFileName);
+		ok = ok && addInputFile("Dose Form Mapping File", formMappingFileName);
+
+		List<Map<String, List<String>>> runResults = new ArrayList<Map<String, List<String>>>();
+		for (int runNr = 1; ok && (runNr <= 3); runNr++) {
+			System.out.println("Mapping run " + runNr + " ...");
+			ok = runMapping(runNr < 3 ? configuration : headlessConfiguration);
+			if (ok) {
+				Map<String, List<String>> results = new HashMap<String, List<String>>();
+				for (String fileName : COMPARED_FILES) {
+					results.put(fileName, readFile(fileName));
+				}
+				runResults.add(results);
+			}
+			else {
+				System.out.println("ERROR: Mapping run " + runNr + " failed.");
+			}
+		}
+
+		for (int runNr = 1; ok && (runNr < runResults.size()); runNr++) {
+			for (String fileName : COMPARED_FILES) {
+				List<String> firstRunLines = runResults.get(0).get(fileName);
+				List<String> runLines = runResults.get(runNr).get(fileName);
+				if (!firstRunLines.equals(runLines)) {
+					System.out.println("ERROR: " + fileName + " of mapping run " + (runNr + 1) + " differs from mapping run 1 (" + runLines.size() + " lines instead of " + firstRunLines.size() + ").");
+					ok = false;
+				}
+			}
+		}
+
+		for (File file : workFolder.listFiles()) {
+			file.delete();
+		}
+		workFolder.delete();
+
+		return ok;
+	}
+
+
+	private boolean addInputFile(String fileDefinitionName, String fileName) {
+		FileDefinition fileDefinition = new GenericMappingInputFiles().getInputFileDefinition(fileDefinitionName);
+		List<String> fileSettings = new ArrayList<String>();
+		fileSettings.add(fileDefinitionName + ".filename=" + fileName);
+		fileSettings.add(fileDefinitionName + ".selected=Yes");
+		for (FileColumnDefinition column : fileDefinition.getColumns()) {
+			fileSettings.add(fileDefinitionName + ".column." + column.getColumnName() + "=" + column.getColumnName());
+		}
+		HeadlessDelimitedInputFile inputFile = new HeadlessDelimitedInputFile(fileDefinition);
+		inputFile.putSettings(fileSettings);
+		inputFiles.put(fileDefinitionName, inputFile);
+		return true;
+	}
+
+
+	private boolean checkSameSettings(MappingConfiguration configuration, MappingConfiguration headlessConfiguration) {
+		boolean ok = true;
+		if (headlessConfiguration.getSettingCount() != configuration.getSettingCount()) {
+			System.out.println("ERROR: " + headlessConfiguration.getSettingCount() + " general settings without setting components instead of " + configuration.getSettingCount() + ".");
+			ok = false;
+		}
+		for (int settingNr = 0; ok && (settingNr < configuration.getSettingCount()); settingNr++) {
+			String setting = configuration.getSettingName(settingNr) + " " + configuration.getSettingLabel(settingNr) + " " + configuration.getValue(settingNr);
+			String headlessSetting = headlessConfiguration.getSettingName(settingNr) + " " + headlessConfiguration.getSettingLabel(settingNr) + " " + headlessConfiguration.getValue(settingNr);
+			if (!headlessSetting.equals(setting)) {
+				System.out.println("ERROR: General setting " + settingNr + " without setting components is '" + headlessSetting + "' instead of '" + setting + "'.");
+				ok = false;
+			}
+		}
+		return ok;
+	}
+
+
+	private boolean runMapping(MappingConfiguration configuration) {
+		GenericMapping genericMapping = new GenericMapping(
+				null,
+				configuration,
+				new SyntheticCDMDatabase(data),
+				inputFiles.get("Generic Drugs File"),
+				null,
+				inputFiles.get("Unit Mapping File"),
+				inputFiles.get("Dose Form Mapping File"),
+				null,
+				null,
+				null,
+				null
+				);
+		return genericMapping.isMappingOk();
+	}
+
+
+	private List<String> readFile(String fileName) {
+		List<String> lines = new ArrayList<String>();
+		try {
+			lines = Files.readAllLines(new File(DrugMapping.baseName + fileName).toPath());
+		}
+		catch (IOException exception) {
+			System.out.println("ERROR: Cannot read file '" + fileName + "': " + exception.getMessage());
+		}
+		return lines;
+	}
+
+
+	private int getIntParameter(String name, int defaultValue) {
+		return parameters.containsKey(name) ? Integer.parseInt(parameters.get(name)) : defaultValue;
+	}
+}
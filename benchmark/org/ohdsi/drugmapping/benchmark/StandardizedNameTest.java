@@ -0,0 +1,435 @@
+package org.ohdsi.drugmapping.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ohdsi.drugmapping.files.DelimitedFileRow;
+import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
+
+/**
+ * Checks that DrugMappingStringUtilities.standardizedName returns the same
+ * names as the former implementation with the chain of regular expressions,
+ * for the synthetic CDM and source names, edge cases and random strings.
+ *
+ * Usage: java -cp <classes and lib/*> org.ohdsi.drugmapping.benchmark.StandardizedNameTest
+ *          [ingredients=<number>] [drugs=<number>] [names=<number>] [random=<number>]
+ *          [namesfile=<file with one name per line>]
+ *
+ * The exit code is 0 when all names are the same and 1 otherwise.
+ */
+public class StandardizedNameTest {
+	private static final String[] EDGE_CASES = new String[] {
+			"",
+			" ",
+			"   ",
+			"\t",
+			"-",
+			",,,",
+			"()[]_^'/",
+			"-,/()_^'[]",
+			"A",
+			"a",
+			"A A A",
+			" A O E U P H ",
+			"a-a-a",
+			"A--B,,C//D((E))F__G^^H''I[[J]]",
+			"  AA  OO  EE  UU  ",
+			"AAAAAAT",
+			"OOOT",
+			"ZUUR ZUURAAT",
+			"PHTHALEEN",
+			"YTHAEA",
+			"SODIUM CHLORIDE 0.9% 10 MG/ML",
+			"ACETYLSALICYLZUUR",
+			"Æther",
+			"Ærosol æ",
+			"ß-Carotene",
+			"CAFÉ crème",
+			"Ñandú",
+			"Ødem ø",
+			"µg",
+			"½ ¼ ¾",
+			"© ®",
+			"× ÷",
+			"¹²³",
+			"α-TOCOPHEROL",
+			"Þorn þ",
+			"¡¿•–",
+			"ÀÁÂÃÄÅ àáâãäå",
+			"ÈÉÊË èéêë ÌÍÎÏ ìíîï",
+			"ÒÓÔÕÖ òóôõö ÙÚÛÜ ùúûü Ýý ÿ",
+			"中文",
+			"Ωmega",
+			"\u0000",
+			"name\r\nwith\nnewlines"
+	};
+	private static final String RANDOM_CHARACTERS = "AAAEEIOOUUYHPTSZRaeiouyhptsz -,/()_^'[].%0123456789ÆæßÉéÖöÞþαµ½©";
+
+	private Map<String, String> parameters;
+
+
+	public static void main(String[] args) {
+		Map<String, String> parameters = new HashMap<String, String>();
+
+		for (int i = 0; i < args.length; i++) {
+			int equalSignIndex = args[i].indexOf("=");
+			String argVariable = args[i].toLowerCase();
+			String value = "";
+			if (equalSignIndex != -1) {
+				argVariable = args[i].substring(0, equalSignIndex).toLowerCase();
+				value = args[i].substring(equalSignIndex + 1);
+			}
+			parameters.put(argVariable, value);
+		}
+
+		boolean ok = new StandardizedNameTest(parameters).run();
+		System.out.println(ok ? "Standardized name test passed." : "Standardized name test FAILED.");
+		System.exit(ok ? 0 : 1);
+	}
+
+
+	public StandardizedNameTest(Map<String, String> parameters) {
+		this.parameters = parameters;
+	}
+
+
+	public boolean run() {
+		List<String> names = getNames();
+		if (names == null) {
+			return false;
+		}
+
+		int differenceCount = 0;
+		for (String name : names) {
+			String expected = formerStandardizedName(name);
+			String actual = DrugMappingStringUtilities.standardizedName(name);
+			if (!expected.equals(actual)) {
+				differenceCount++;
+				if (differenceCount <= 20) {
+					System.out.println("ERROR: standardizedName(\"" + name + "\") = \"" + actual + "\" instead of \"" + expected + "\"");
+				}
+			}
+		}
+		System.out.println("Names compared: " + names.size() + ", differences: " + differenceCount);
+
+		return differenceCount == 0;
+	}
+
+
+	private List<String> getNames() {
+		List<String> names = new ArrayList<String>();
+
+		for (String edgeCase : EDGE_CASES) {
+			names.add(edgeCase);
+		}
+
+		SyntheticData data = new SyntheticData(20210101L, getIntParameter("ingredients", 10000), getIntParameter("drugs", 50000));
+		for (String resourceName : new String[] { "GetCDMForms.sql", "GetRxNormIngredients.sql", "GetRxNormClinicalDrugsIngredients.sql" }) {
+			for (DelimitedFileRow row : data.getQueryResult(resourceName)) {
+				for (String fieldName : new String[] { "concept_name", "concept_synonym_name", "drug_concept_name" }) {
+					String name = row.get(fieldName, false);
+					if (name != null) {
+						names.add(name);
+					}
+				}
+			}
+		}
+		names.addAll(data.getSourceIngredientNames(getIntParameter("names", 20000)));
+		names.addAll(data.getSourceDrugNames(getIntParameter("names", 20000)));
+
+		Random random = new Random(20210101L);
+		int randomCount = getIntParameter("random", 100000);
+		for (int nameNr = 0; nameNr < randomCount; nameNr++) {
+			StringBuilder name = new StringBuilder();
+			int length = random.nextInt(20);
+			for (int charNr = 0; charNr < length; charNr++) {
+				name.append(RANDOM_CHARACTERS.charAt(random.nextInt(RANDOM_CHARACTERS.length())));
+			}
+			names.add(name.toString());
+		}
+
+		if (parameters.containsKey("namesfile")) {
+			try {
+				names.addAll(Files.readAllLines(Paths.get(parameters.get("namesfile")), StandardCharsets.UTF_8));
+			}
+			catch (IOException exception) {
+				System.out.println("ERROR: Cannot read names file '" + parameters.get("namesfile") + "': " + exception.getMessage());
+				names = null;
+			}
+		}
+
+		return names;
+	}
+
+
+	private int getIntParameter(String name, int defaultValue) {
+		return parameters.containsKey(name) ? Integer.parseInt(parameters.get(name)) : defaultValue;
+	}
+
+
+	// The former implementation of DrugMappingStringUtilities.standardizedName
+
+	private static String formerStandardizedName(String name) {
+
+		if (name != null) {
+			name = " " + formerSafeToUpperCase(formerConvertToStandardCharacters(name)) + " ";
+
+			name = name.replaceAll("-", " ");
+			name = name.replaceAll(",", " ");
+			name = name.replaceAll("/", " ");
+			name = name.replaceAll("[(]", " ");
+			name = name.replaceAll("[)]", " ");
+			name = name.replaceAll("_", " ");
+			name = name.replaceAll("^", " ");
+			name = name.replaceAll("'", " ");
+			name = name.replaceAll("\\]", " ");
+			name = name.replaceAll("\\[", " ");
+
+			// Prevent these seperate letters to be patched
+			name = name.replaceAll(" A ", "_A_");
+			name = name.replaceAll(" O ", "_O_");
+			name = name.replaceAll(" E ", "_E_");
+			name = name.replaceAll(" U ", "_U_");
+			name = name.replaceAll(" P ", "_P_");
+			name = name.replaceAll(" H ", "_H_");
+
+			name = name.replaceAll("AAT", "ATE");
+			name = name.replaceAll("OOT", "OTE");
+			name = name.replaceAll("ZUUR", "ACID");
+			name = name.replaceAll("AA", "A");
+			name = name.replaceAll("OO", "O");
+			name = name.replaceAll("EE", "E");
+			name = name.replaceAll("UU", "U");
+			name = name.replaceAll("TH", "T");
+			name = name.replaceAll("AE", "A");
+			name = name.replaceAll("EA", "A");
+			name = name.replaceAll("PH", "F");
+			name = name.replaceAll("Y", "I");
+			name = name.replaceAll("S ", " ");
+			name = name.replaceAll("E ", " ");
+			name = name.replaceAll("A ", " ");
+			name = name.replaceAll("O ", " ");
+			name = name.replaceAll(" ", "");
+
+			name = name.replaceAll("_", " ");
+
+			name = name.replaceAll("AA", "A");
+			name = name.replaceAll("OO", "O");
+			name = name.replaceAll("EE", "E");
+			name = name.replaceAll("UU", "U");
+			name = name.replaceAll("TH", "T");
+			name = name.replaceAll("AE", "A");
+			name = name.replaceAll("EA", "A");
+			name = name.replaceAll("PH", "F");
+
+			name = name.trim();
+		}
+
+		return name;
+	}
+
+
+	private static String formerConvertToStandardCharacters(String text) {
+		String convertedText = null;
+
+		if (text != null) {
+			convertedText = "";
+
+			for (int charNr = 0; charNr < text.length(); charNr++) {
+				char character = text.charAt(charNr);
+
+				if (
+						(character != ' ') &&
+						(character != ',') &&
+						(character != '.') &&
+						(!DrugMappingStringUtilities.characterInRange(character, 'a', 'z')) &&
+						(!DrugMappingStringUtilities.characterInRange(character, 'A', 'Z')) &&
+						(!DrugMappingStringUtilities.characterInRange(character, '0', '9'))
+				) {
+					if (DrugMappingStringUtilities.characterInRange(character, 'À', 'Å')) {
+						convertedText += 'A';
+					}
+					else if (character == 'Æ') {
+						convertedText += "AE";
+					}
+					else if (character == 'Ç') {
+						convertedText += "C";
+					}
+					else if (DrugMappingStringUtilities.characterInRange(character, 'È', 'Ë')) {
+						convertedText += 'E';
+					}
+					else if (DrugMappingStringUtilities.characterInRange(character, 'Ì', 'Ï')) {
+						convertedText += 'I';
+					}
+					else if (character == 'Ð') {
+						convertedText += "D";
+					}
+					else if (character == 'Ñ') {
+						convertedText += "N";
+					}
+					else if (DrugMappingStringUtilities.characterInRange(character, 'Ò', 'Ö')) {
+						convertedText += 'O';
+					}
+					else if (character == 'Ø') {
+						convertedText += "O";
+					}
+					else if (DrugMappingStringUtilities.characterInRange(character, 'Ù', 'Ü')) {
+						convertedText += 'U';
+					}
+					else if (character == 'Ý') {
+						convertedText += "Y";
+					}
+					else if (character == 'Þ') {
+						convertedText += "SH";
+					}
+					else if (character == 'α') {
+						convertedText += "a";
+					}
+					else if (character == 'ß') {
+						convertedText += "SS";
+					}
+					else if (DrugMappingStringUtilities.characterInRange(character, 'à', 'å')) {
+						convertedText += 'a';
+					}
+					else if (character == 'æ') {
+						convertedText += "ae";
+					}
+					else if (character == 'ç') {
+						convertedText += "c";
+					}
+					else if (DrugMappingStringUtilities.characterInRange(character, 'è', 'ë')) {
+						convertedText += 'e';
+					}
+					else if (DrugMappingStringUtilities.characterInRange(character, 'ì', 'ï')) {
+						convertedText += 'i';
+					}
+					else if (character == 'ð') {
+						convertedText += "o";
+					}
+					else if (character == 'ñ') {
+						convertedText += "n";
+					}
+					else if (DrugMappingStringUtilities.characterInRange(character, 'ò', 'ö')) {
+						convertedText += 'o';
+					}
+					else if (character == 'ø') {
+						convertedText += "o";
+					}
+					else if (DrugMappingStringUtilities.characterInRange(character, 'ù', 'ü')) {
+						convertedText += 'u';
+					}
+					else if (character == 'ý') {
+						convertedText += "y";
+					}
+					else if (character == 'ÿ') {
+						convertedText += "y";
+					}
+					else if (character == 'þ') {
+						convertedText += "sh";
+					}
+
+					// Other characters
+					else if (character == '×') {
+						convertedText += "x";
+					}
+					else if (character == '÷') {
+						convertedText += "/";
+					}
+					else if (character == 'µ') {
+						convertedText += "u";
+					}
+					else if (character == '¶') {
+						convertedText += "n";
+					}
+					else if (character == '¹') {
+						convertedText += "1";
+					}
+					else if (character == '²') {
+						convertedText += "2";
+					}
+					else if (character == '³') {
+						convertedText += "3";
+					}
+					else if (character == '–') {
+						convertedText += "-";
+					}
+					else if (character == '¢') {
+						convertedText += "c";
+					}
+					else if (character == '¡') {
+						convertedText += "!";
+					}
+					else if (character == '¥') {
+						convertedText += "Y";
+					}
+					else if (character == 'ª') {
+						convertedText += "a";
+					}
+					else if (character == 'º') {
+						convertedText += "o";
+					}
+					else if (character == '¿') {
+						convertedText += "?";
+					}
+					else if (character == '©') {
+						convertedText += "(C)";
+					}
+					else if (character == '®') {
+						convertedText += "(R)";
+					}
+					else if (character == '¼') {
+						convertedText += "1/4";
+					}
+					else if (character == '½') {
+						convertedText += "1/2";
+					}
+					else if (character == '¾') {
+						convertedText += "3/4";
+					}
+					else if (character == '•') {
+						convertedText += "*";
+					}
+					else {
+						convertedText += character;
+					}
+				}
+				else {
+					convertedText += character;
+				}
+			}
+		}
+
+		return convertedText;
+	}
+
+
+	private static String formerSafeToUpperCase(String string) {
+		String safeUpperCaseString = "";
+
+		for (int charNr = 0; charNr < string.length(); charNr++) {
+			Character character = string.charAt(charNr);
+			if (character == 'α') {
+				character = 'A';
+			}
+			if (
+					((character >=  97) && (character <= 122)) ||
+					((character >= 224) && (character <= 246)) ||
+					((character >= 248) && (character <= 253))
+			) {
+				safeUpperCaseString += Character.toUpperCase(character);
+			}
+			else {
+				safeUpperCaseString += character;
+			}
+		}
+
+		return safeUpperCaseString;
+	}
+}
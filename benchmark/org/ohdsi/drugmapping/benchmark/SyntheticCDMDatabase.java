@@ -0,0 +1,74 @@
+package org.ohdsi.drugmapping.benchmark;
+
+import java.util.Iterator;
+
+import org.ohdsi.drugmapping.DrugMappingMetrics;
+import org.ohdsi.drugmapping.files.DelimitedFileRow;
+import org.ohdsi.drugmapping.gui.CDMDatabase;
+
+/**
+ * A CDM database that returns the rows of the synthetic data instead of
+ * querying a server, so that the CDM can be loaded by the normal code.
+ */
+public class SyntheticCDMDatabase extends CDMDatabase {
+	private static final long serialVersionUID = 2718046209377412185L;
+
+	private SyntheticData data;
+	private Iterator<DelimitedFileRow> queryResultIterator = null;
+
+
+	public SyntheticCDMDatabase(SyntheticData data) {
+		super();
+		this.data = data;
+	}
+
+
+	@Override
+	public String getVocabSchema() {
+		return "synthetic";
+	}
+
+
+	@Override
+	public boolean connect(Class<?> context, DrugMappingMetrics metrics) {
+		return true;
+	}
+
+
+	@Override
+	public boolean isReadFromCache() {
+		return false;
+	}
+
+
+	@Override
+	public String getCacheFileName(String fileName) {
+		// No CDM snapshot
+		return null;
+	}
+
+
+	@Override
+	public boolean excuteQueryResource(String resourceName) {
+		queryResultIterator = data.getQueryResult(resourceName).iterator();
+		return true;
+	}
+
+
+	@Override
+	public boolean hasNext() {
+		return (queryResultIterator != null) && queryResultIterator.hasNext();
+	}
+
+
+	@Override
+	public DelimitedFileRow next() {
+		return queryResultIterator.next();
+	}
+
+
+	@Override
+	public void disconnect() {
+		queryResultIterator = null;
+	}
+}
@@ -0,0 +1,356 @@
+package org.ohdsi.drugmapping.benchmark;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ohdsi.drugmapping.files.DelimitedFileRow;
+
+/**
+ * Generates reproducible synthetic vocabulary and source data for the benchmarks,
+ * so that they can run without a CDM database and without real source files.
+ */
+public class SyntheticData {
+	private static final String[] NAME_PREFIXES = new String[] { "AMOX", "ACETYL", "BENZ", "CEF", "CLARI", "DEXA", "DOXY", "ERY", "FLU", "GLI", "HYDRO", "IBU", "KETO", "LEVO", "METO", "NAPRO", "OXY", "PARA", "PRED", "SULFA", "THEO", "VALPRO" };
+	private static final String[] NAME_STEMS    = new String[] { "CILL", "SALICYL", "OXAZ", "TRIAX", "THROMY", "METHAS", "CYCL", "CONAZ", "PIZ", "CORTIS", "PROF", "TIFEN", "THYROX", "PROL", "XEN", "CODON", "CETAM", "NISOL", "METHOX", "PHYLL", "ATE" };
+	private static final String[] NAME_SUFFIXES = new String[] { "IN", "IC ACID", "OLE", "ONE", "INE", "IDE", "AMIDE", "OL", "EN", "ATE", "YCINE" };
+	private static final String[] SALTS         = new String[] { "", "", "", "HYDROCHLORIDE", "SODIUM", "POTASSIUM", "CALCIUM", "SULFATE", "MALEATE", "TRIHYDRATE" };
+
+	private static final String[] FORMS         = new String[] { "Oral Tablet", "Oral Capsule", "Injectable Solution", "Oral Solution", "Topical Cream", "Rectal Suppository", "Nasal Spray", "Ophthalmic Solution", "Transdermal System", "Inhalation Powder" };
+	private static final String[] CDM_UNITS     = new String[] { "mg", "g", "ug", "[iU]", "mL", "mg/mL", "%" };
+	private static final String[] SOURCE_UNITS  = new String[] { "MG", "G", "MCG", "UG", "IE", "IU", "ML", "MG/ML", "MG/G", "%", "MILLIGRAM", "MICROGRAM" };
+
+	private static final String[] CONCEPT_COLUMNS = new String[] { "concept_id", "concept_name", "domain_id", "vocabulary_id", "concept_class_id", "standard_concept", "concept_code", "valid_start_date", "valid_end_date", "invalid_reason" };
+
+	private Random random;
+	private int ingredientCount;
+	private int drugCount;
+
+	private List<String> ingredientNames = new ArrayList<String>();
+	private Map<String, List<DelimitedFileRow>> queryResults = null;
+
+
+	public SyntheticData(long seed, int ingredientCount, int drugCount) {
+		this.random = new Random(seed);
+		this.ingredientCount = ingredientCount;
+		this.drugCount = drugCount;
+
+		while (ingredientNames.size() < ingredientCount) {
+			String name = NAME_PREFIXES[random.nextInt(NAME_PREFIXES.length)] + NAME_STEMS[random.nextInt(NAME_STEMS.length)] + NAME_SUFFIXES[random.nextInt(NAME_SUFFIXES.length)];
+			String salt = SALTS[random.nextInt(SALTS.length)];
+			name = salt.equals("") ? name : name + " " + salt;
+			if (ingredientNames.contains(name)) {
+				name += " " + Integer.toString(ingredientNames.size());
+			}
+			ingredientNames.add(name);
+		}
+	}
+
+
+	public List<String> getIngredientNames() {
+		return ingredientNames;
+	}
+
+
+	/**
+	 * Returns names as they appear in source files: exact names, names written
+	 * differently, names with the words reordered, and unknown names.
+	 */
+	public List<String> getSourceIngredientNames(int count) {
+		List<String> sourceNames = new ArrayList<String>();
+		for (int nameNr = 0; nameNr < count; nameNr++) {
+			String name = ingredientNames.get(random.nextInt(ingredientNames.size()));
+			switch (nameNr % 5) {
+				case 0:
+					break;
+				case 1:
+					name = name.toLowerCase();
+					break;
+				case 2:
+					name = name.replaceAll("PH", "F").replaceAll("Y", "I").replaceAll("E ", " ") + "E";
+					break;
+				case 3:
+					String[] words = name.split(" ");
+					List<String> wordList = new ArrayList<String>(Arrays.asList(words));
+					Collections.reverse(wordList);
+					name = String.join(" ", wordList);
+					break;
+				default:
+					name = "UNKNOWN " + name.substring(0, Math.max(1, name.length() / 2));
+					break;
+			}
+			sourceNames.add(name);
+		}
+		return sourceNames;
+	}
+
+
+	/**
+	 * Returns full drug names as they appear in source files.
+	 */
+	public List<String> getSourceDrugNames(int count) {
+		List<String> sourceNames = new ArrayList<String>();
+		for (int nameNr = 0; nameNr < count; nameNr++) {
+			String name = ingredientNames.get(random.nextInt(ingredientNames.size()));
+			if (random.nextInt(3) == 0) {
+				name += "/" + ingredientNames.get(random.nextInt(ingredientNames.size()));
+			}
+			name += " " + Integer.toString((random.nextInt(100) + 1) * 5) + SOURCE_UNITS[random.nextInt(SOURCE_UNITS.length)];
+			name += " " + FORMS[random.nextInt(FORMS.length)].toUpperCase();
+			sourceNames.add(name);
+		}
+		return sourceNames;
+	}
+
+
+	public String[] getSourceUnits() {
+		return SOURCE_UNITS;
+	}
+
+
+	public String[] getTargetUnits() {
+		String[] targetUnits = new String[CDM_UNITS.length];
+		for (int unitNr = 0; unitNr < CDM_UNITS.length; unitNr++) {
+			targetUnits[unitNr] = CDM_UNITS[unitNr].toUpperCase();
+		}
+		return targetUnits;
+	}
+
+
+	public Random getRandom() {
+		return random;
+	}
+
+
+	/**
+	 * Writes a unit mapping file in the format of the "Unit Mapping File" input file.
+	 */
+	public boolean writeUnitMappingFile(String fileName) {
+		boolean ok = true;
+		try {
+			PrintWriter unitMappingFile = new PrintWriter(new File(fileName));
+			unitMappingFile.println("SourceUnit,DrugCount,RecordCount,Factor,TargetUnit,Comment");
+			String[] targetUnits = getTargetUnits();
+			for (String sourceUnit : SOURCE_UNITS) {
+				// Each target unit only once per source unit to prevent double conversion warnings
+				int firstTargetNr = random.nextInt(targetUnits.length);
+				for (int targetNr = 0; targetNr < 3; targetNr++) {
+					String factor = Double.toString(Math.pow(10.0, random.nextInt(7) - 3));
+					unitMappingFile.println("\"" + sourceUnit + "\"," + random.nextInt(1000) + "," + random.nextInt(100000) + "," + factor + "," + targetUnits[(firstTargetNr + targetNr) % targetUnits.length] + ",");
+				}
+			}
+			unitMappingFile.close();
+		}
+		catch (FileNotFoundException exception) {
+			System.out.println("ERROR: Cannot create unit mapping file '" + fileName + "'.");
+			ok = false;
+		}
+		return ok;
+	}
+
+
+	/**
+	 * Writes a dose form mapping file in the format of the "Dose Form Mapping File"
+	 * input file that maps the source forms to the synthetic CDM forms.
+	 */
+	public boolean writeFormMappingFile(String fileName) {
+		boolean ok = true;
+		try {
+			PrintWriter formMappingFile = new PrintWriter(new File(fileName));
+			formMappingFile.println("DoseForm,DrugCount,RecordCount,Priority,concept_id,concept_name,Comments");
+			for (int formNr = 0; formNr < FORMS.length; formNr++) {
+				formMappingFile.println("\"" + FORMS[formNr].toUpperCase() + "\",0,0,1," + getFormConceptId(formNr) + ",\"" + FORMS[formNr] + "\",");
+			}
+			formMappingFile.close();
+		}
+		catch (FileNotFoundException exception) {
+			System.out.println("ERROR: Cannot create dose form mapping file '" + fileName + "'.");
+			ok = false;
+		}
+		return ok;
+	}
+
+
+	/**
+	 * Writes a source drugs file in the format of the "Generic Drugs File" input
+	 * file with one row per ingredient of the source drugs. Every tenth source
+	 * drug has an unknown ingredient.
+	 */
+	public boolean writeSourceDrugsFile(String fileName, int count) {
+		boolean ok = true;
+		try {
+			PrintWriter sourceDrugsFile = new PrintWriter(new File(fileName));
+			sourceDrugsFile.println("SourceCode,SourceName,SourceATCCode,SourceFormulation,SourceCount,IngredientCode,IngredientName,Dosage,DosageUnit,CASNumber");
+			for (int drugNr = 0; drugNr < count; drugNr++) {
+				String form = FORMS[random.nextInt(FORMS.length)].toUpperCase();
+				List<String> drugIngredients = new ArrayList<String>();
+				drugIngredients.add(ingredientNames.get(random.nextInt(ingredientNames.size())));
+				if (random.nextInt(3) == 0) {
+					String ingredientName = ingredientNames.get(random.nextInt(ingredientNames.size()));
+					if (!drugIngredients.contains(ingredientName)) {
+						drugIngredients.add(ingredientName);
+					}
+				}
+				if (drugNr % 10 == 9) {
+					drugIngredients.add("UNKNOWN " + drugIngredients.get(0).substring(0, Math.max(1, drugIngredients.get(0).length() / 2)));
+				}
+				String[] dosages = new String[drugIngredients.size()];
+				String[] units = new String[drugIngredients.size()];
+				String drugName = "";
+				for (int componentNr = 0; componentNr < drugIngredients.size(); componentNr++) {
+					dosages[componentNr] = Integer.toString((random.nextInt(100) + 1) * 5);
+					units[componentNr] = SOURCE_UNITS[random.nextInt(4)];
+					drugName += (componentNr == 0 ? "" : "/") + drugIngredients.get(componentNr) + " " + dosages[componentNr] + units[componentNr];
+				}
+				drugName += " " + form;
+				int useCount = random.nextInt(1000) + 1;
+				for (int componentNr = 0; componentNr < drugIngredients.size(); componentNr++) {
+					int ingredientNr = ingredientNames.indexOf(drugIngredients.get(componentNr));
+					String ingredientCode = (ingredientNr == -1) ? ("U" + drugNr) : ("I" + ingredientNr);
+					sourceDrugsFile.println("S" + drugNr + ",\"" + drugName + "\",,\"" + form + "\"," + useCount + "," + ingredientCode + ",\"" + drugIngredients.get(componentNr) + "\"," + dosages[componentNr] + "," + units[componentNr] + ",");
+				}
+			}
+			sourceDrugsFile.close();
+		}
+		catch (FileNotFoundException exception) {
+			System.out.println("ERROR: Cannot create source drugs file '" + fileName + "'.");
+			ok = false;
+		}
+		return ok;
+	}
+
+
+	/**
+	 * Returns the rows the CDM database would return for the query resource.
+	 * Queries that are not simulated return no rows.
+	 */
+	public List<DelimitedFileRow> getQueryResult(String resourceName) {
+		if (queryResults == null) {
+			queryResults = new HashMap<String, List<DelimitedFileRow>>();
+			createQueryResults();
+		}
+		List<DelimitedFileRow> queryResult = queryResults.get(resourceName);
+		return queryResult == null ? new ArrayList<DelimitedFileRow>() : queryResult;
+	}
+
+
+	private void createQueryResults() {
+		// Vocabulary version
+		List<DelimitedFileRow> versionRows = new ArrayList<DelimitedFileRow>();
+		Map<String, Integer> versionColumns = getColumnIndex(new String[] { "vocabulary_version" });
+		versionRows.add(createRow(versionColumns, new String[] { "Synthetic " + ingredientCount + "/" + drugCount }));
+		queryResults.put("GetVocabularyVersion.sql", versionRows);
+
+		// Forms
+		List<DelimitedFileRow> formRows = new ArrayList<DelimitedFileRow>();
+		Map<String, Integer> formColumns = getColumnIndex(CONCEPT_COLUMNS);
+		for (int formNr = 0; formNr < FORMS.length; formNr++) {
+			formRows.add(createRow(formColumns, getConcept(getFormConceptId(formNr), FORMS[formNr], "Drug", "RxNorm", "Dose Form", "", "F" + formNr)));
+		}
+		queryResults.put("GetCDMForms.sql", formRows);
+
+		// Ingredients with their synonyms
+		List<DelimitedFileRow> ingredientRows = new ArrayList<DelimitedFileRow>();
+		Map<String, Integer> ingredientColumns = getColumnIndex(concatenate(CONCEPT_COLUMNS, new String[] { "concept_synonym_name" }));
+		for (int ingredientNr = 0; ingredientNr < ingredientCount; ingredientNr++) {
+			String name = ingredientNames.get(ingredientNr);
+			String[] concept = getConcept(getIngredientConceptId(ingredientNr), name, "Drug", (ingredientNr % 4 == 0) ? "RxNorm Extension" : "RxNorm", "Ingredient", "S", "I" + ingredientNr);
+			ingredientRows.add(createRow(ingredientColumns, concatenate(concept, new String[] { name })));
+			ingredientRows.add(createRow(ingredientColumns, concatenate(concept, new String[] { name.toLowerCase() + " (synonym)" })));
+		}
+		queryResults.put("GetRxNormIngredients.sql", ingredientRows);
+
+		// Ingredient relationships
+		List<DelimitedFileRow> relationshipRows = new ArrayList<DelimitedFileRow>();
+		Map<String, Integer> relationshipColumns = getColumnIndex(new String[] { "relationship_id", "drug_concept_name", "drug_vocabulary_id", "drug_concept_class_id", "drug_concept_code", "ingredient_concept_id", "drug_synonym_name" });
+		for (int ingredientNr = 0; ingredientNr < ingredientCount; ingredientNr++) {
+			String name = ingredientNames.get(ingredientNr);
+			String atc = "N" + String.format("%02d", ingredientNr % 100) + "AA" + String.format("%02d", (ingredientNr / 100) % 100);
+			relationshipRows.add(createRow(relationshipColumns, new String[] { "Maps to", name.replaceAll("INE", "INUM"), "ATC", "ATC 5th", atc, getIngredientConceptId(ingredientNr), name.replaceAll("INE", "IN") }));
+		}
+		queryResults.put("GetRxNormIngredientRelationships.sql", relationshipRows);
+
+		// Clinical Drugs with their form and ingredient strengths
+		List<DelimitedFileRow> drugRows = new ArrayList<DelimitedFileRow>();
+		Map<String, Integer> drugColumns = getColumnIndex(concatenate(concatenate(prefix("drug_", CONCEPT_COLUMNS), new String[] { "form_concept_id", "ingredient_concept_id", "amount_value" }), prefix("amount_unit_", CONCEPT_COLUMNS)));
+		for (int drugNr = 0; drugNr < drugCount; drugNr++) {
+			int formNr = random.nextInt(FORMS.length);
+			int componentCount = 1 + (random.nextInt(4) == 0 ? 1 : 0);
+			List<Integer> drugIngredients = new ArrayList<Integer>();
+			String drugName = "";
+			for (int componentNr = 0; componentNr < componentCount; componentNr++) {
+				int ingredientNr = random.nextInt(ingredientCount);
+				if (!drugIngredients.contains(ingredientNr)) {
+					drugIngredients.add(ingredientNr);
+				}
+			}
+			String[] amounts = new String[drugIngredients.size()];
+			int[] units = new int[drugIngredients.size()];
+			for (int componentNr = 0; componentNr < drugIngredients.size(); componentNr++) {
+				amounts[componentNr] = Integer.toString((random.nextInt(100) + 1) * 5);
+				units[componentNr] = random.nextInt(4);
+				drugName += (componentNr == 0 ? "" : " / ") + ingredientNames.get(drugIngredients.get(componentNr)) + " " + amounts[componentNr] + " " + CDM_UNITS[units[componentNr]];
+			}
+			drugName += " " + FORMS[formNr];
+			String[] drugConcept = getConcept(Integer.toString(40000000 + drugNr), drugName, "Drug", "RxNorm", "Clinical Drug", "S", "D" + drugNr);
+			for (int componentNr = 0; componentNr < drugIngredients.size(); componentNr++) {
+				String[] unitConcept = getConcept(Integer.toString(8500 + units[componentNr]), CDM_UNITS[units[componentNr]], "Unit", "UCUM", "Unit", "S", CDM_UNITS[units[componentNr]]);
+				drugRows.add(createRow(drugColumns, concatenate(concatenate(drugConcept, new String[] { getFormConceptId(formNr), getIngredientConceptId(drugIngredients.get(componentNr)), amounts[componentNr] }), unitConcept)));
+			}
+		}
+		queryResults.put("GetRxNormClinicalDrugsIngredients.sql", drugRows);
+	}
+
+
+	private String getIngredientConceptId(int ingredientNr) {
+		return Integer.toString(1000000 + ingredientNr);
+	}
+
+
+	private String getFormConceptId(int formNr) {
+		return Integer.toString(19000000 + formNr);
+	}
+
+
+	private String[] getConcept(String conceptId, String conceptName, String domainId, String vocabularyId, String conceptClassId, String standardConcept, String conceptCode) {
+		String validStartDate = Integer.toString(1970 + random.nextInt(50)) + "-01-01";
+		return new String[] { conceptId, conceptName, domainId, vocabularyId, conceptClassId, standardConcept, conceptCode, validStartDate, "2099-12-31", "" };
+	}
+
+
+	private static Map<String, Integer> getColumnIndex(String[] columns) {
+		Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+		for (int columnNr = 0; columnNr < columns.length; columnNr++) {
+			columnIndex.put(columns[columnNr], columnNr);
+		}
+		return columnIndex;
+	}
+
+
+	private static DelimitedFileRow createRow(Map<String, Integer> columnIndex, String[] values) {
+		return new DelimitedFileRow(new ArrayList<String>(Arrays.asList(values)), columnIndex);
+	}
+
+
+	private static String[] prefix(String prefix, String[] columns) {
+		String[] prefixedColumns = new String[columns.length];
+		for (int columnNr = 0; columnNr < columns.length; columnNr++) {
+			prefixedColumns[columnNr] = prefix + columns[columnNr];
+		}
+		return prefixedColumns;
+	}
+
+
+	private static String[] concatenate(String[] first, String[] second) {
+		String[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+}
@@ -19,6 +19,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -44,9 +45,13 @@ import org.ohdsi.utilities.files.ReadCSVFileWithHeader;
 import org.ohdsi.utilities.files.ReadTextFile;
 import org.ohdsi.utilities.files.Row;
 import org.ohdsi.utilities.files.WriteCSVFileWithHeader;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 
 public class RichConnection {
 	public static int				INSERT_BATCH_SIZE	= 100000;
+	public static int				QUERY_FETCH_SIZE	= 10000;
 	private static String			SUBSTITUTE 			= Character.toString((char) 26) + Character.toString((char) 26);
 	private Connection				connection;
 	private Class<?>				context;											// Used for locating resources
@@ -55,11 +60,13 @@ public class RichConnection {
 	private Map<String, String>		localVariables		= new HashMap<String, String>();
 	private DbType					dbType;
 	private String					password;
+	private int						fetchSize;
 
 	public RichConnection(String server, String domain, String user, String password, DbType dbType) {
 		this.password = password;
 		this.connection = DBConnector.connect(server, domain, user, password, dbType);
 		this.dbType = dbType;
+		this.fetchSize = getDefaultFetchSize(dbType);
 		
 		// In case of SQL Server make sure the database is the default database for the user.
 		if (this.dbType == DbType.MSSQL) {
@@ -810,6 +817,33 @@ public class RichConnection {
 		return sql.toString();
 	}
 
+	/**
+	 * Returns the number of rows fetched from the server per round trip for the database type. MySQL only streams with a fetch
+	 * size of Integer.MIN_VALUE, which locks the connection until all rows are read, so it keeps the driver default.
+	 * 
+	 * @param dbType
+	 * @return
+	 */
+	public static int getDefaultFetchSize(DbType dbType) {
+		if ((dbType == DbType.POSTGRESQL) || (dbType == DbType.ORACLE) || (dbType == DbType.MSSQL) || (dbType == DbType.MSAZURE))
+			return QUERY_FETCH_SIZE;
+		else
+			return 0;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Set the number of rows fetched from the server per round trip. Zero uses the default of the driver.
+	 * 
+	 * @param fetchSize
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
 	public Class<?> getContext() {
 		return context;
 	}
@@ -841,6 +875,176 @@ public class RichConnection {
 		}
 	}
 
+	public class BulkInsert {
+		private static final int	COPY_BUFFER_SIZE	= 1024 * 1024;
+
+		private String				tableName;
+		private List<String>		columns;
+		private Map<String, String>	columnTypes			= null;
+		private String				nullValueString;
+		private boolean				useCopy;
+		private CopyIn				copyIn				= null;
+		private StringBuilder		copyBuffer			= null;
+		private PreparedStatement	statement			= null;
+		private int					batchSize			= 0;
+		private long				rowCount			= 0;
+
+		public BulkInsert(String schema, String table, List<String> columns, String nullValueString) {
+			this.tableName = schema + "." + table;
+			this.columns = columns;
+			this.nullValueString = nullValueString;
+
+			if ((dbType == DbType.POSTGRESQL) || (dbType == DbType.ORACLE) || (dbType == DbType.MSSQL)) {
+				columnTypes = getFieldTypes(schema, table);
+				for (String column : columns)
+					if (!columnTypes.containsKey(column.toUpperCase()))
+						throw new RuntimeException("Column " + column + " not found in table " + tableName);
+			}
+			try {
+				useCopy = (dbType == DbType.POSTGRESQL) && connection.isWrapperFor(PGConnection.class);
+				connection.setAutoCommit(false);
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/**
+		 * Adds a row with the values in the order of the columns.
+		 * 
+		 * @param values
+		 */
+		public void add(String... values) {
+			try {
+				if (useCopy) {
+					if (copyIn == null) {
+						CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+						copyIn = copyManager.copyIn("COPY " + tableName + " (" + StringUtilities.join(columns, ",") + ") FROM STDIN WITH (FORMAT csv)");
+						copyBuffer = new StringBuilder(COPY_BUFFER_SIZE);
+					}
+					// An unquoted empty value is NULL, so all other values are quoted
+					for (int i = 0; i < values.length; i++) {
+						if (i > 0)
+							copyBuffer.append(',');
+						if ((values[i] != null) && ((nullValueString == null) || (!values[i].equals(nullValueString))))
+							copyBuffer.append('"').append(values[i].replace("\"", "\"\"")).append('"');
+					}
+					copyBuffer.append('\n');
+					if (copyBuffer.length() >= COPY_BUFFER_SIZE)
+						flushCopyBuffer();
+				} else {
+					if (statement == null) {
+						String sql = "INSERT INTO " + tableName;
+						sql = sql + " (" + StringUtilities.join(columns, ",") + ")";
+						sql = sql + " VALUES (?";
+						for (int i = 1; i < columns.size(); i++)
+							sql = sql + ",?";
+						sql = sql + ")";
+						statement = connection.prepareStatement(sql);
+					}
+					for (int i = 0; i < values.length; i++) {
+						String value = values[i];
+						if (value != null && (nullValueString != null) && value.equals(nullValueString))
+							value = null;
+						setValue(statement, i + 1, tableName, columns.get(i), columnTypes, value);
+					}
+					statement.addBatch();
+					batchSize++;
+					if (batchSize == INSERT_BATCH_SIZE) {
+						statement.executeBatch();
+						batchSize = 0;
+					}
+				}
+				rowCount++;
+			} catch (SQLException e) {
+				throw failed(e);
+			}
+		}
+
+		/**
+		 * Deletes the rows of the table with the value in the column, as part of
+		 * the same transaction as the added rows.
+		 * 
+		 * @return The number of rows deleted.
+		 */
+		public int delete(String column, String value) {
+			int deletedRowCount = 0;
+			try {
+				PreparedStatement deleteStatement = connection.prepareStatement("DELETE FROM " + tableName + " WHERE " + column + " = ?");
+				try {
+					deleteStatement.setString(1, value);
+					deletedRowCount = deleteStatement.executeUpdate();
+				} finally {
+					deleteStatement.close();
+				}
+			} catch (SQLException e) {
+				throw failed(e);
+			}
+			return deletedRowCount;
+		}
+
+		/**
+		 * Sends the remaining rows and commits the transaction.
+		 * 
+		 * @return The number of rows inserted.
+		 */
+		public long commit() {
+			try {
+				if (copyIn != null) {
+					flushCopyBuffer();
+					copyIn.endCopy();
+					copyIn = null;
+				}
+				if (statement != null) {
+					if (batchSize > 0)
+						statement.executeBatch();
+					statement.close();
+					statement = null;
+				}
+				connection.commit();
+				connection.setAutoCommit(true);
+			} catch (SQLException e) {
+				throw failed(e);
+			}
+			return rowCount;
+		}
+
+		/**
+		 * Discards all rows and the other changes of the transaction.
+		 */
+		public void rollback() {
+			try {
+				if (copyIn != null) {
+					if (copyIn.isActive())
+						copyIn.cancelCopy();
+					copyIn = null;
+				}
+				if (statement != null) {
+					statement.close();
+					statement = null;
+				}
+				connection.rollback();
+				connection.setAutoCommit(true);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+
+		private void flushCopyBuffer() throws SQLException {
+			byte[] bytes = copyBuffer.toString().getBytes(StandardCharsets.UTF_8);
+			copyIn.writeToCopy(bytes, 0, bytes.length);
+			copyBuffer.setLength(0);
+		}
+
+		private RuntimeException failed(SQLException e) {
+			e.printStackTrace();
+			if ((e instanceof BatchUpdateException) && (e.getNextException() != null)) {
+				System.err.println(e.getNextException().getMessage());
+			}
+			rollback();
+			return new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Writes the results of a query to the specified file in CSV format.
 	 * 
@@ -897,6 +1101,22 @@ public class RichConnection {
 		}
 	}
 
+	/**
+	 * Starts inserting rows into an existing table in one transaction. On PostgreSQL the rows are sent with COPY, on the other
+	 * databases in batches of INSERT_BATCH_SIZE rows. Statements executed on this connection before the first row is added are
+	 * part of the same transaction.
+	 * 
+	 * @param schema
+	 * @param table
+	 * @param columns
+	 * @param nullValueString
+	 *            Values equal to this string are inserted as NULL.
+	 * @return
+	 */
+	public BulkInsert startBulkInsert(String schema, String table, List<String> columns, String nullValueString) {
+		return new BulkInsert(schema, table, columns, nullValueString);
+	}
+
 	private void insert(String tableName, Map<String, String> columnTypes, List<Row> rows, String nullValueString) {
 		List<String> columns = null;
 		columns = rows.get(0).getFieldNames();
@@ -917,41 +1137,7 @@ public class RichConnection {
 					String value = row.get(columns.get(i), true);
 					if (value != null && (nullValueString != null) && value.equals(nullValueString))
 						value = null;
-					if (dbType == DbType.POSTGRESQL) {// PostgreSQL does not allow unspecified types
-						if (tableName.equals("note") && (value != null) && (value.contains("\\"))) {
-							value = value.replace("\\\\", SUBSTITUTE).replace("\\n", "\n").replace("\\t", "\t").replace(SUBSTITUTE, "\\");
-						}
-						else if ((columnTypes != null) && (columnTypes.get(columns.get(i).toUpperCase()).equals("DATE")))
-							statement.setDate(i + 1, getSQLDate(value));
-						else if ((columnTypes != null) && (columnTypes.get(columns.get(i).toUpperCase()).equals("TIMESTAMP")))
-							statement.setTimestamp(i + 1, getSQLTimeStamp(value));
-						else
-						statement.setObject(i + 1, value, Types.OTHER);
-					}
-					else if (dbType == DbType.ORACLE) {
-						if ((columnTypes != null) && (columnTypes.get(columns.get(i).toUpperCase()).equals("DATE")))
-							statement.setDate(i + 1, getSQLDate(value));
-						else if ((columnTypes != null) && (columnTypes.get(columns.get(i).toUpperCase()).startsWith("TIMESTAMP(")))
-							statement.setTimestamp(i + 1, getSQLTimeStamp(value));
-						else
-							statement.setString(i + 1, value);
-					}
-					else if (dbType == DbType.MSSQL) {
-						if ((columnTypes != null) && (columnTypes.get(columns.get(i).toUpperCase()).equals("DATE")))
-							statement.setDate(i + 1, getSQLDate(value));
-						else if ((columnTypes != null) && (columnTypes.get(columns.get(i).toUpperCase()).equals("DATETIME")))
-							statement.setTimestamp(i + 1, getSQLTimeStamp(value));
-						else if ((columnTypes != null) && (columnTypes.get(columns.get(i).toUpperCase()).equals("DATETIME2")))
-							statement.setTimestamp(i + 1, getSQLTimeStamp(value));
-						else if ((columnTypes != null) && (columnTypes.get(columns.get(i).toUpperCase()).equals("DATETIMEOFFSET")))
-							statement.setTimestamp(i + 1, getSQLTimeStamp(value));
-						else if ((columnTypes != null) && (columnTypes.get(columns.get(i).toUpperCase()).equals("SMALLDATETIME")))
-							statement.setTimestamp(i + 1, getSQLTimeStamp(value));
-						else
-							statement.setString(i + 1, value);
-					}
-					else
-						statement.setString(i + 1, value);
+					setValue(statement, i + 1, tableName, columns.get(i), columnTypes, value);
 				}
 				statement.addBatch();
 			}
@@ -968,6 +1154,44 @@ public class RichConnection {
 			throw new RuntimeException(e);
 		}
 	}
+
+	private void setValue(PreparedStatement statement, int index, String tableName, String column, Map<String, String> columnTypes, String value) throws SQLException {
+		if (dbType == DbType.POSTGRESQL) {// PostgreSQL does not allow unspecified types
+			if (tableName.equals("note") && (value != null) && (value.contains("\\"))) {
+				value = value.replace("\\\\", SUBSTITUTE).replace("\\n", "\n").replace("\\t", "\t").replace(SUBSTITUTE, "\\");
+			}
+			else if ((columnTypes != null) && (columnTypes.get(column.toUpperCase()).equals("DATE")))
+				statement.setDate(index, getSQLDate(value));
+			else if ((columnTypes != null) && (columnTypes.get(column.toUpperCase()).equals("TIMESTAMP")))
+				statement.setTimestamp(index, getSQLTimeStamp(value));
+			else
+			statement.setObject(index, value, Types.OTHER);
+		}
+		else if (dbType == DbType.ORACLE) {
+			if ((columnTypes != null) && (columnTypes.get(column.toUpperCase()).equals("DATE")))
+				statement.setDate(index, getSQLDate(value));
+			else if ((columnTypes != null) && (columnTypes.get(column.toUpperCase()).startsWith("TIMESTAMP(")))
+				statement.setTimestamp(index, getSQLTimeStamp(value));
+			else
+				statement.setString(index, value);
+		}
+		else if (dbType == DbType.MSSQL) {
+			if ((columnTypes != null) && (columnTypes.get(column.toUpperCase()).equals("DATE")))
+				statement.setDate(index, getSQLDate(value));
+			else if ((columnTypes != null) && (columnTypes.get(column.toUpperCase()).equals("DATETIME")))
+				statement.setTimestamp(index, getSQLTimeStamp(value));
+			else if ((columnTypes != null) && (columnTypes.get(column.toUpperCase()).equals("DATETIME2")))
+				statement.setTimestamp(index, getSQLTimeStamp(value));
+			else if ((columnTypes != null) && (columnTypes.get(column.toUpperCase()).equals("DATETIMEOFFSET")))
+				statement.setTimestamp(index, getSQLTimeStamp(value));
+			else if ((columnTypes != null) && (columnTypes.get(column.toUpperCase()).equals("SMALLDATETIME")))
+				statement.setTimestamp(index, getSQLTimeStamp(value));
+			else
+				statement.setString(index, value);
+		}
+		else
+			statement.setString(index, value);
+	}
 	
 	private java.sql.Timestamp getSQLTimeStamp(String timeStampValue) {
 		if (timeStampValue != null) {
@@ -1276,7 +1500,11 @@ public class RichConnection {
 
 		private boolean		hasNext;
 
-		private Set<String>	columnNames	= new HashSet<String>();
+		private List<String>	columnNames		= new ArrayList<String>();
+
+		private List<Integer>	columnIndexes	= new ArrayList<Integer>();
+
+		private boolean		restoreAutoCommit	= false;
 
 		public DBRowIterator(String sql) {
 			try {
@@ -1290,9 +1518,30 @@ public class RichConnection {
 					System.out.println("Executing query: " + abbrSQL);
 				}
 				long start = System.currentTimeMillis();
+				// PostgreSQL only uses a cursor for the fetch size outside auto commit mode
+				if ((fetchSize > 0) && (dbType == DbType.POSTGRESQL) && connection.getAutoCommit()) {
+					connection.setAutoCommit(false);
+					restoreAutoCommit = true;
+				}
 				Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				if (fetchSize > 0)
+					statement.setFetchSize(fetchSize);
 				resultSet = statement.executeQuery(sql.toString());
+
+				// The columns do not change between rows
+				Set<String> uniqueColumnNames = new HashSet<String>();
+				ResultSetMetaData metaData = resultSet.getMetaData();
+				for (int i = 1; i < metaData.getColumnCount() + 1; i++) {
+					String columnName = metaData.getColumnName(i);
+					if (uniqueColumnNames.add(columnName)) {
+						columnNames.add(columnName);
+						columnIndexes.add(i);
+					}
+				}
+
 				hasNext = resultSet.next();
+				if (!hasNext)
+					close();
 				if (verbose)
 					outputQueryStats(statement, System.currentTimeMillis() - start);
 			} catch (SQLException e) {
@@ -1312,6 +1561,14 @@ public class RichConnection {
 				resultSet = null;
 				hasNext = false;
 			}
+			if (restoreAutoCommit) {
+				try {
+					connection.setAutoCommit(true);
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+				restoreAutoCommit = false;
+			}
 		}
 
 		@Override
@@ -1323,25 +1580,16 @@ public class RichConnection {
 		public Row next() {
 			try {
 				Row row = new Row();
-				ResultSetMetaData metaData;
-				metaData = resultSet.getMetaData();
-				columnNames.clear();
+				for (int columnNr = 0; columnNr < columnIndexes.size(); columnNr++) {
+					String value = resultSet.getString(columnIndexes.get(columnNr));
+					if (value == null)
+						value = "";
 
-				for (int i = 1; i < metaData.getColumnCount() + 1; i++) {
-					String columnName = metaData.getColumnName(i);
-					if (columnNames.add(columnName)) {
-						String value = resultSet.getString(i);
-						if (value == null)
-							value = "";
-
-						row.add(columnName, value.replace(" 00:00:00", ""));
-					}
+					row.add(columnNames.get(columnNr), value.replace(" 00:00:00", ""));
 				}
 				hasNext = resultSet.next();
-				if (!hasNext) {
-					resultSet.close();
-					resultSet = null;
-				}
+				if (!hasNext)
+					close();
 				return row;
 			} catch (SQLException e) {
 				e.printStackTrace();
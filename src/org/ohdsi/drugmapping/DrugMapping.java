@@ -40,7 +40,7 @@ public class DrugMapping {
 	private MainFrame mainFrame;
 	
 	
-	private static String getOutputVersion(String logFileName) {
+	static String getOutputVersion(String logFileName) {
 		String version = "";
 		
 		String date = DrugMappingDateUtilities.getCurrentDate();
@@ -191,6 +191,7 @@ public class DrugMapping {
 			}
 			new GenericMapping(
 					mainFrame,
+					new MappingConfiguration(settings),
 					getDatabase(), 
 					(DelimitedInputFileGUI) getFile("Generic Drugs File"),
 					(DelimitedInputFileGUI) getFile("Ingredient Name Translation File"),
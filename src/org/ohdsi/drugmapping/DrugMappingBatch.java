@@ -0,0 +1,302 @@
+package org.ohdsi.drugmapping;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ohdsi.drugmapping.files.FileDefinition;
+import org.ohdsi.drugmapping.files.HeadlessDelimitedInputFile;
+import org.ohdsi.drugmapping.genericmapping.GenericMapping;
+import org.ohdsi.drugmapping.genericmapping.GenericMappingInputFiles;
+import org.ohdsi.drugmapping.gui.CDMDatabase;
+
+/**
+ * Runs the drug mapping without user interface from the same settings files
+ * as the user interface uses. Parameters:
+ *
+ *   databasesettings=<file>   The database settings file.
+ *   password=<password>       The password of the database user.
+ *   filesettings=<file>       The file settings file with the input files and the output folder.
+ *   generalsettings=<file>    The general settings file.
+ *   outputfolder=<folder>     Overrules the output folder of the file settings.
+ *   cachelocation=<folder>    The folder of the CDM cache. Default the CDM Cache folder next to the jar.
+ *   refreshcache=yes          Reload the CDM from the database instead of from the cache.
+ *   debug                     Prefix the output files with the date and a version number.
+ *   special                   Log the general settings.
+ *
+ * The exit code is 0 when the mapping succeeded and 1 otherwise.
+ */
+public class DrugMappingBatch {
+	private static final String OUTPUT_FOLDER = "Output Folder";
+
+	private Map<String, String> parameters;
+	private MappingConfiguration configuration = null;
+	private CDMDatabase database = null;
+	private Map<String, HeadlessDelimitedInputFile> inputFiles = new HashMap<String, HeadlessDelimitedInputFile>();
+	private String outputFolder = null;
+
+
+	public DrugMappingBatch(Map<String, String> parameters) {
+		this.parameters = parameters;
+	}
+
+
+	public boolean run() {
+		boolean ok = loadSettings();
+
+		PrintStream standardOut = System.out;
+		PrintStream standardErr = System.err;
+		PrintStream logFile = null;
+		if (ok) {
+			File outputFolderFile = new File(outputFolder);
+			if ((!outputFolderFile.mkdirs()) && (!outputFolderFile.isDirectory())) {
+				System.out.println("ERROR: Cannot create output folder " + outputFolder + "!");
+				ok = false;
+			}
+		}
+		if (ok) {
+			DrugMapping.setBasePath(outputFolder);
+			DrugMapping.outputVersion = DrugMapping.debug ? DrugMapping.getOutputVersion(GenericMapping.LOGFILE_NAME) : "";
+			DrugMapping.baseName = outputFolder + "/" + DrugMapping.outputVersion;
+			try {
+				logFile = new PrintStream(new FileOutputStream(DrugMapping.baseName + GenericMapping.LOGFILE_NAME), true);
+				System.setOut(new PrintStream(new LogOutputStream(standardOut, logFile), true));
+				System.setErr(new PrintStream(new LogOutputStream(standardErr, logFile), true));
+			} catch (FileNotFoundException e) {
+				System.out.println("ERROR: Cannot create log file " + DrugMapping.baseName + GenericMapping.LOGFILE_NAME + "!");
+				ok = false;
+			}
+		}
+
+		if (ok) {
+			logDatabaseSettings();
+			for (String inputFileName : getMappingFileNames()) {
+				inputFiles.get(inputFileName).logFileSettings();
+			}
+			System.out.println(OUTPUT_FOLDER + ": " + outputFolder);
+			System.out.println();
+			if (DrugMapping.special) {
+				logGeneralSettings();
+			}
+
+			GenericMapping genericMapping = new GenericMapping(
+					null,
+					configuration,
+					database,
+					inputFiles.get("Generic Drugs File"),
+					inputFiles.get("Ingredient Name Translation File"),
+					inputFiles.get("Unit Mapping File"),
+					inputFiles.get("Dose Form Mapping File"),
+					inputFiles.get("Manual CAS Mappings File"),
+					inputFiles.get("Manual Ingedient Overrule Mappings File"),
+					inputFiles.get("Manual Ingedient Fallback Mappings File"),
+					inputFiles.get("Manual Drug Mappings File")
+					);
+			ok = genericMapping.isMappingOk();
+		}
+
+		if (logFile != null) {
+			System.setOut(standardOut);
+			System.setErr(standardErr);
+			logFile.close();
+		}
+
+		return ok;
+	}
+
+
+	private boolean loadSettings() {
+		boolean ok = true;
+
+		DrugMapping.special = (parameters.get("special") != null);
+		DrugMapping.debug = (parameters.get("debug") != null);
+
+		// The general settings are the same as in the user interface, but are read without the setting components
+		List<String> generalSettings = new ArrayList<String>();
+		if (parameters.containsKey("generalsettings")) {
+			generalSettings = readSettingsFromFile(parameters.get("generalsettings"));
+			ok = (generalSettings != null);
+		}
+		if (ok) {
+			try {
+				configuration = new MappingConfiguration(generalSettings);
+			} catch (IllegalArgumentException e) {
+				System.out.println("ERROR: " + e.getMessage() + " in general settings file '" + parameters.get("generalsettings") + "'!");
+				ok = false;
+			}
+		}
+
+		// Input files and output folder
+		List<String> fileSettings = null;
+		if (parameters.containsKey("filesettings")) {
+			fileSettings = readSettingsFromFile(parameters.get("filesettings"));
+			ok = ok && (fileSettings != null);
+		}
+		else {
+			System.out.println("ERROR: No file settings specified.");
+			ok = false;
+		}
+		if (fileSettings != null) {
+			for (FileDefinition fileDefinition : new GenericMappingInputFiles().getInputFiles()) {
+				if (fileDefinition.isUsedInInterface()) {
+					HeadlessDelimitedInputFile inputFile = new HeadlessDelimitedInputFile(fileDefinition);
+					inputFile.putSettings(fileSettings);
+					inputFiles.put(fileDefinition.getFileName(), inputFile);
+				}
+			}
+			for (String setting : fileSettings) {
+				if ((!setting.trim().equals("")) && (!setting.substring(0, 1).equals("#")) && setting.startsWith(OUTPUT_FOLDER + ".folderName=")) {
+					outputFolder = setting.substring(setting.indexOf("=") + 1).trim();
+				}
+			}
+		}
+		if (parameters.containsKey("outputfolder")) {
+			outputFolder = parameters.get("outputfolder");
+		}
+		if ((outputFolder == null) || outputFolder.equals("")) {
+			outputFolder = new File(".").getAbsolutePath();
+		}
+
+		// Database
+		if (parameters.containsKey("databasesettings")) {
+			List<String> databaseSettings = readSettingsFromFile(parameters.get("databasesettings"));
+			if (databaseSettings != null) {
+				if (parameters.containsKey("password")) {
+					databaseSettings.add("password=" + parameters.get("password"));
+				}
+				database = new CDMDatabase();
+				if (parameters.containsKey("cachelocation")) {
+					database.setCacheLocation(parameters.get("cachelocation"));
+				}
+				database.setRefreshCache(parameters.containsKey("refreshcache") && parameters.get("refreshcache").toLowerCase().equals("yes"));
+				database.putSettings(databaseSettings);
+				ok = ok && (database.getDBSettings().password != null);
+			}
+			else {
+				ok = false;
+			}
+		}
+		else {
+			System.out.println("ERROR: No database settings specified.");
+			ok = false;
+		}
+
+		return ok;
+	}
+
+
+	private List<String> getMappingFileNames() {
+		List<String> mappingFileNames = new ArrayList<String>();
+		mappingFileNames.add("Generic Drugs File");
+		mappingFileNames.add("Ingredient Name Translation File");
+		mappingFileNames.add("Unit Mapping File");
+		mappingFileNames.add("Dose Form Mapping File");
+		mappingFileNames.add("Manual CAS Mappings File");
+		mappingFileNames.add("Manual Ingedient Overrule Mappings File");
+		mappingFileNames.add("Manual Ingedient Fallback Mappings File");
+		mappingFileNames.add("Manual Drug Mappings File");
+		return mappingFileNames;
+	}
+
+
+	private List<String> readSettingsFromFile(String settingsFileName) {
+		List<String> settings = new ArrayList<String>();
+		try {
+			BufferedReader settingsFileBufferedReader = new BufferedReader(new FileReader(settingsFileName));
+			String line = settingsFileBufferedReader.readLine();
+			while (line != null) {
+				settings.add(line);
+				line = settingsFileBufferedReader.readLine();
+			}
+			settingsFileBufferedReader.close();
+		}
+		catch (IOException e) {
+			System.out.println("ERROR: Unable to read settings from file '" + settingsFileName + "'!");
+			settings = null;
+		}
+		return settings;
+	}
+
+
+	private void logDatabaseSettings() {
+		DBSettings databaseSettings = database.getDBSettings();
+		System.out.println("Database Connection: " + databaseSettings.name);
+		System.out.println("  Database Type: " + databaseSettings.dbType);
+		System.out.println("  Database: " + databaseSettings.server);
+		System.out.println("  Schema: " + databaseSettings.schema);
+		System.out.println("  User: " + databaseSettings.user);
+		System.out.println();
+	}
+
+
+	private void logGeneralSettings() {
+		System.out.println("General Settings:");
+		for (int settingNr = 0; settingNr < configuration.getSettingCount(); settingNr++) {
+			System.out.println("  " + configuration.getSettingLabel(settingNr) + " " + configuration.getValue(settingNr));
+		}
+		System.out.println();
+	}
+
+
+	private class LogOutputStream extends OutputStream {
+		private OutputStream console;
+		private OutputStream logFile;
+
+
+		public LogOutputStream(OutputStream console, OutputStream logFile) {
+			this.console = console;
+			this.logFile = logFile;
+		}
+
+
+		@Override
+		public void write(int b) throws IOException {
+			console.write(b);
+			logFile.write(b);
+		}
+
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			console.write(b, off, len);
+			logFile.write(b, off, len);
+		}
+
+
+		@Override
+		public void flush() throws IOException {
+			console.flush();
+			logFile.flush();
+		}
+	}
+
+
+	public static void main(String[] args) {
+		// No display is needed for the settings components
+		System.setProperty("java.awt.headless", "true");
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		for (int i = 0; i < args.length; i++) {
+			int equalSignIndex = args[i].indexOf("=");
+			String argVariable = args[i].toLowerCase();
+			String value = "";
+			if (equalSignIndex != -1) {
+				argVariable = args[i].substring(0, equalSignIndex).toLowerCase();
+				value = args[i].substring(equalSignIndex + 1);
+			}
+			parameters.put(argVariable, value);
+		}
+
+		boolean ok = new DrugMappingBatch(parameters).run();
+		System.exit(ok ? 0 : 1);
+	}
+}
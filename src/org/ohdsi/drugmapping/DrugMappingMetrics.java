@@ -0,0 +1,265 @@
+package org.ohdsi.drugmapping;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ohdsi.drugmapping.utilities.DrugMappingFileUtilities;
+import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
+
+/**
+ * Collects the wall time, CPU time, row counts and heap high-water mark of
+ * the stages of a mapping run, and the number of candidates examined and
+ * rejected by the filters. The metrics are written to a CSV file next to
+ * the log file.
+ * Each mapping run owns its own metrics, so runs in the same JVM do not
+ * mix their metrics.
+ */
+public class DrugMappingMetrics {
+	public static String METRICSFILE_NAME = "DrugMapping Metrics.csv";
+
+	public static String TYPE_STAGE         = "Stage";
+	public static String TYPE_QUERY         = "Query";
+	public static String TYPE_PREFETCH      = "Prefetch query";  // Executing and receiving a query on an extra connection
+	public static String TYPE_PREFETCH_READ = "Prefetch read";   // Reading the rows of a prefetched query
+	public static String TYPE_CACHE_READ    = "Cache read";
+	public static String TYPE_COUNTER       = "Counter";
+
+	private static final long HEAP_SAMPLE_INTERVAL = 100; // milliseconds
+	private static final long MB = 1024L * 1024L;
+
+	private List<Stage> stages = new ArrayList<Stage>();
+	private List<Stage> runningStages = new ArrayList<Stage>();
+	private Map<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private Thread heapSampler = null;
+
+
+	/**
+	 * Starts sampling the heap.
+	 */
+	public synchronized void start() {
+		if (heapSampler == null) {
+			heapSampler = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							sampleHeap();
+							Thread.sleep(HEAP_SAMPLE_INTERVAL);
+						}
+					} catch (InterruptedException e) {
+						// Stopped
+					}
+				}
+			}, "Heap sampler");
+			heapSampler.setDaemon(true);
+			heapSampler.start();
+		}
+	}
+
+
+	public Stage startStage(String name) {
+		return startStage(TYPE_STAGE, name);
+	}
+
+
+	public Stage startStage(String type, String name) {
+		Stage stage = new Stage(this, type, name);
+		synchronized (this) {
+			stages.add(stage);
+			runningStages.add(stage);
+		}
+		return stage;
+	}
+
+
+	public void count(String counter, long count) {
+		getCounter(counter).addAndGet(count);
+	}
+
+
+	/**
+	 * Returns the counter, so that it can be counted without looking it up.
+	 */
+	public AtomicLong getCounter(String counter) {
+		// Counted from the mapping threads
+		AtomicLong counterValue = counters.get(counter);
+		if (counterValue == null) {
+			counters.putIfAbsent(counter, new AtomicLong(0));
+			counterValue = counters.get(counter);
+		}
+		return counterValue;
+	}
+
+
+	/**
+	 * Returns the counters of the candidates examined and rejected by the filter.
+	 */
+	public FilterCounter getFilterCounter(String filter) {
+		return new FilterCounter(getCounter(filter + " examined"), getCounter(filter + " rejected"));
+	}
+
+
+	/**
+	 * Stops sampling the heap and writes the metrics to the metrics file.
+	 */
+	public void write(boolean compressOutputFiles) {
+		List<Stage> writeStages;
+		Map<String, Long> writeCounters = new TreeMap<String, Long>();
+		synchronized (this) {
+			if (heapSampler != null) {
+				heapSampler.interrupt();
+				heapSampler = null;
+			}
+			for (Stage stage : runningStages) {
+				stage.stop();
+			}
+			runningStages.clear();
+			writeStages = new ArrayList<Stage>(stages);
+			for (String counter : counters.keySet()) {
+				writeCounters.put(counter, counters.get(counter).get());
+			}
+		}
+
+		String header = "Type";
+		header += "," + "Name";
+		header += "," + "WallTimeMs";
+		header += "," + "CPUTimeMs";
+		header += "," + "Count";
+		header += "," + "RowsPerSecond";
+		header += "," + "HeapStartMB";
+		header += "," + "HeapPeakMB";
+		PrintWriter metricsFile = DrugMappingFileUtilities.openOutputFile(METRICSFILE_NAME, header, compressOutputFiles);
+		if (metricsFile != null) {
+			for (Stage stage : writeStages) {
+				String record = DrugMappingStringUtilities.escapeFieldValue(stage.type);
+				record += "," + DrugMappingStringUtilities.escapeFieldValue(stage.name);
+				record += "," + (stage.wallTime / 1000000L);
+				record += "," + (stage.cpuTime < 0 ? "" : Long.toString(stage.cpuTime / 1000000L));
+				record += "," + (stage.rows < 0 ? "" : Long.toString(stage.rows));
+				record += "," + ((stage.rows < 0) || (stage.wallTime == 0) ? "" : Long.toString((stage.rows * 1000000000L) / stage.wallTime));
+				record += "," + (stage.heapStart / MB);
+				record += "," + (stage.heapPeak / MB);
+				metricsFile.println(record);
+			}
+			for (String counter : writeCounters.keySet()) {
+				String record = DrugMappingStringUtilities.escapeFieldValue(TYPE_COUNTER);
+				record += "," + DrugMappingStringUtilities.escapeFieldValue(counter);
+				record += ",";
+				record += ",";
+				record += "," + writeCounters.get(counter);
+				record += ",";
+				record += ",";
+				record += ",";
+				metricsFile.println(record);
+			}
+			DrugMappingFileUtilities.closeOutputFile(metricsFile);
+		}
+	}
+
+
+	private synchronized void sampleHeap() {
+		long usedHeap = getUsedHeap();
+		for (Stage stage : runningStages) {
+			stage.heapPeak = Math.max(stage.heapPeak, usedHeap);
+		}
+	}
+
+
+	private synchronized void stopStage(Stage stage) {
+		if (runningStages.remove(stage)) {
+			stage.stop();
+		}
+	}
+
+
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+
+	private static long getCPUTime() {
+		// The CPU time of the whole process includes the mapping threads
+		OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+		if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) operatingSystem).getProcessCpuTime();
+		}
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+	}
+
+
+	public static class FilterCounter {
+		private AtomicLong examined;
+		private AtomicLong rejected;
+
+
+		private FilterCounter(AtomicLong examined, AtomicLong rejected) {
+			this.examined = examined;
+			this.rejected = rejected;
+		}
+
+
+		public void count(int examinedCount, int selectedCount) {
+			examined.addAndGet(examinedCount);
+			rejected.addAndGet(examinedCount - selectedCount);
+		}
+	}
+
+
+	public static class Stage {
+		private DrugMappingMetrics metrics;
+		private String type;
+		private String name;
+		private long wallStart;
+		private long cpuStart;
+		private long wallTime = 0;
+		private long cpuTime = -1;
+		private long rows = -1;
+		private long heapStart;
+		private long heapPeak;
+
+
+		private Stage(DrugMappingMetrics metrics, String type, String name) {
+			this.metrics = metrics;
+			this.type = type;
+			this.name = name;
+			heapStart = getUsedHeap();
+			heapPeak = heapStart;
+			cpuStart = getCPUTime();
+			wallStart = System.nanoTime();
+		}
+
+
+		public void setType(String type) {
+			this.type = type;
+		}
+
+
+		public void addRows(long rowCount) {
+			rows = (rows < 0 ? 0 : rows) + rowCount;
+		}
+
+
+		public void end() {
+			metrics.stopStage(this);
+		}
+
+
+		private void stop() {
+			wallTime = System.nanoTime() - wallStart;
+			long cpuEnd = getCPUTime();
+			cpuTime = ((cpuStart < 0) || (cpuEnd < 0)) ? -1 : cpuEnd - cpuStart;
+			heapPeak = Math.max(heapPeak, getUsedHeap());
+		}
+	}
+}
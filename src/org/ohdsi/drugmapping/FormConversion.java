@@ -11,8 +11,8 @@ import java.util.Map;
 
 import org.ohdsi.drugmapping.cdm.CDM;
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
+import org.ohdsi.drugmapping.files.DelimitedInputFile;
 import org.ohdsi.drugmapping.genericmapping.GenericMapping;
-import org.ohdsi.drugmapping.gui.files.DelimitedInputFileGUI;
 import org.ohdsi.drugmapping.source.Source;
 import org.ohdsi.drugmapping.utilities.DrugMappingDateUtilities;
 import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
@@ -27,6 +27,7 @@ public class FormConversion {
 	private static String DEFAULT_FILENAME = "Form Mapping File.csv";
 	
 	
+	private GenericMapping genericMapping; // The mapping run the warnings are added to
 	private int status = STATE_OK;
 	private String fileName = "";
 	private CDM cdm = null;
@@ -39,9 +40,10 @@ public class FormConversion {
 	}
 	
 	
-	public FormConversion(DelimitedInputFileGUI sourceFormMappingFile, CDM cdm) {
+	public FormConversion(GenericMapping genericMapping, DelimitedInputFile sourceFormMappingFile, CDM cdm) {
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Create Dose Forms Conversion Map ...");
 		
+		this.genericMapping = genericMapping;
 		this.cdm = cdm;
 		
 		readFormConversionFile(sourceFormMappingFile);
@@ -57,7 +59,7 @@ public class FormConversion {
 		return fileName;
 	}
 	
-	private void readFormConversionFile(DelimitedInputFileGUI sourceFormMappingFile) {
+	private void readFormConversionFile(DelimitedInputFile sourceFormMappingFile) {
 		Map<String, Map<Integer, String>> tempFormConversionMap = new HashMap<String, Map<Integer, String>>();
 		if ((sourceFormMappingFile != null) && sourceFormMappingFile.openFileForReading(true)) {
 			fileName = sourceFormMappingFile.getFileName();
@@ -83,7 +85,7 @@ public class FormConversion {
 					}
 				}
 				else {
-					GenericMapping.addWarning(GenericMapping.FORM_MAPPING_WARNING, "No priority found for conversion from  '" + sourceForm + "' to '" + conceptName + "(" + conceptId + ")'. Defaults to 0.");
+					genericMapping.addWarning(GenericMapping.FORM_MAPPING_WARNING, "No priority found for conversion from  '" + sourceForm + "' to '" + conceptName + "(" + conceptId + ")'. Defaults to 0.");
 					priority = 0;
 				}
 				
@@ -95,7 +97,7 @@ public class FormConversion {
 					}
 					
 					if ((!sourceForm.equals("")) && (conceptId.equals(""))) {
-						GenericMapping.addWarning(GenericMapping.FORM_MAPPING_WARNING, "No target form specified for '" + sourceForm + ". Defaults to source form.");
+						genericMapping.addWarning(GenericMapping.FORM_MAPPING_WARNING, "No target form specified for '" + sourceForm + ". Defaults to source form.");
 					}
 					else {
 						String existingConversion = sourceFormConversion.get(priority);
@@ -104,7 +106,7 @@ public class FormConversion {
 						}
 						else {
 							if (existingConversion.equals(conceptName)) {
-								GenericMapping.addWarning(GenericMapping.FORM_MAPPING_WARNING, "Double definition found for conversion from  '" + sourceForm + "' to '" + conceptName + "(" + conceptId + ")'.");
+								genericMapping.addWarning(GenericMapping.FORM_MAPPING_WARNING, "Double definition found for conversion from  '" + sourceForm + "' to '" + conceptName + "(" + conceptId + ")'.");
 							}
 							else {
 								System.out.println("    ERROR: Conflicting definition found for conversion from  '" + sourceForm + "'.");
@@ -139,7 +141,7 @@ public class FormConversion {
 	}
 	
 	
-	private void createFormConversionFile(DelimitedInputFileGUI sourceFormMappingFile) {
+	private void createFormConversionFile(DelimitedInputFile sourceFormMappingFile) {
 		fileName = getDefaultFileName();
 		String fieldDelimiterName = "Comma";
 		String textQualifierName = "\"";
@@ -152,8 +154,8 @@ public class FormConversion {
 			newFile = false;
 		}
 		
-		String fieldDelimiter = Character.toString(DelimitedInputFileGUI.fieldDelimiter(fieldDelimiterName));
-		String textQualifier = Character.toString(DelimitedInputFileGUI.textQualifier(textQualifierName));
+		String fieldDelimiter = Character.toString(DelimitedInputFile.fieldDelimiter(fieldDelimiterName));
+		String textQualifier = Character.toString(DelimitedInputFile.textQualifier(textQualifierName));
 
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "        Write dose form conversion map to file " + fileName + " ...");
 		
@@ -209,10 +211,9 @@ public class FormConversion {
 	
 	public List<String> getMatchingForms(String sourceForm) {
 		List<String> targetForms = formConversionMap.get(sourceForm);
-		if (targetForms == null) {
+		if ((targetForms == null) || (targetForms.size() == 0)) {
+			// Do not modify the conversion map, it may be read by multiple threads.
 			targetForms = new ArrayList<String>();
-		}
-		if (targetForms.size() == 0) {
 			targetForms.add(sourceForm);
 		}
 		return targetForms;
@@ -10,8 +10,8 @@ import java.util.List;
 import java.util.Map;
 
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
+import org.ohdsi.drugmapping.files.DelimitedInputFile;
 import org.ohdsi.drugmapping.genericmapping.GenericMapping;
-import org.ohdsi.drugmapping.gui.files.DelimitedInputFileGUI;
 import org.ohdsi.drugmapping.source.Source;
 import org.ohdsi.drugmapping.source.SourceIngredient;
 import org.ohdsi.drugmapping.utilities.DrugMappingDateUtilities;
@@ -27,6 +27,7 @@ public class IngredientNameTranslation {
 	private static String DEFAULT_FILENAME = "Ingredient Name Translation File.csv";
 	
 	
+	private GenericMapping genericMapping; // The mapping run the warnings are added to
 	private int status = STATE_OK;
 	private String fileName = "";
 	
@@ -38,9 +39,11 @@ public class IngredientNameTranslation {
 	}
 	
 	
-	public IngredientNameTranslation(DelimitedInputFileGUI ingredientNameTranslationFile) {
+	public IngredientNameTranslation(GenericMapping genericMapping, DelimitedInputFile ingredientNameTranslationFile) {
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Create Ingredient Name Translation Map ...");
 		
+		this.genericMapping = genericMapping;
+		
 		if ((ingredientNameTranslationFile != null) && ingredientNameTranslationFile.isSelected()) {
 			readIngredientNameTranslationFile(ingredientNameTranslationFile);
 			if (status == STATE_EMPTY) {
@@ -56,7 +59,7 @@ public class IngredientNameTranslation {
 		return fileName;
 	}
 	
-	private void readIngredientNameTranslationFile(DelimitedInputFileGUI ingredientNameTranslationFile) {
+	private void readIngredientNameTranslationFile(DelimitedInputFile ingredientNameTranslationFile) {
 		if ((ingredientNameTranslationFile != null) && ingredientNameTranslationFile.openFileForReading(true)) {
 			fileName = ingredientNameTranslationFile.getFileName();
 			System.out.println(DrugMappingDateUtilities.getCurrentTime() + "        Get ingredient name translation map from file " + fileName + " ...");
@@ -76,7 +79,7 @@ public class IngredientNameTranslation {
 						String translation = ingredientNameTranslationMap.get(ingredient);
 						if (translation != null) {
 							if (translation.equals(ingredientNameEnglish)) {
-								GenericMapping.addWarning(GenericMapping.TRANSLATION_WARNING, "Double translation definition for '" + ingredientCode + " (" + ingredientName + ")'. Ignored.");
+								genericMapping.addWarning(GenericMapping.TRANSLATION_WARNING, "Double translation definition for '" + ingredientCode + " (" + ingredientName + ")'. Ignored.");
 							}
 							else {
 								System.out.println("    ERROR: Conflicting translations for '" + ingredientCode + " (" + ingredientName + ")'.");
@@ -89,7 +92,7 @@ public class IngredientNameTranslation {
 					}
 				}
 				else {
-					GenericMapping.addWarning(GenericMapping.TRANSLATION_WARNING, "Unknown ingredient '" + ingredientCode + " (" + ingredientName + ")'. Ignored.");
+					genericMapping.addWarning(GenericMapping.TRANSLATION_WARNING, "Unknown ingredient '" + ingredientCode + " (" + ingredientName + ")'. Ignored.");
 				}
 			}
 			
@@ -102,7 +105,7 @@ public class IngredientNameTranslation {
 	}
 	
 	
-	private void createIngredientNameTranslationFile(DelimitedInputFileGUI ingredientNameTranslationFile) {
+	private void createIngredientNameTranslationFile(DelimitedInputFile ingredientNameTranslationFile) {
 		fileName = getDefaultFileName();
 		String fieldDelimiterName = "Comma";
 		String textQualifierName = "\"";
@@ -115,8 +118,8 @@ public class IngredientNameTranslation {
 			newFile = false;
 		}
 		
-		String fieldDelimiter = Character.toString(DelimitedInputFileGUI.fieldDelimiter(fieldDelimiterName));
-		String textQualifier = Character.toString(DelimitedInputFileGUI.textQualifier(textQualifierName));
+		String fieldDelimiter = Character.toString(DelimitedInputFile.fieldDelimiter(fieldDelimiterName));
+		String textQualifier = Character.toString(DelimitedInputFile.textQualifier(textQualifierName));
 
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "        Write ingredient name translation map to file " + fileName + " ...");
 		
@@ -6,7 +6,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
-import org.ohdsi.drugmapping.gui.files.DelimitedInputFileGUI;
+import org.ohdsi.drugmapping.files.DelimitedInputFile;
 import org.ohdsi.drugmapping.utilities.DrugMappingDateUtilities;
 import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
 
@@ -15,7 +15,7 @@ public class Mapping {
 	private static List<String> replacementOrder = new ArrayList<String>();
 	
 	
-	public static void loadReplacements(DelimitedInputFileGUI replacementsFile) {
+	public static void loadReplacements(DelimitedInputFile replacementsFile) {
 		if (!replacementsFile.getFileName().equals("")) {
 			System.out.println(DrugMappingDateUtilities.getCurrentTime() + " Loading replacements ...");
 			if (replacementsFile.openFileForReading()) {
@@ -0,0 +1,478 @@
+package org.ohdsi.drugmapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ohdsi.drugmapping.gui.MainFrame;
+import org.ohdsi.drugmapping.gui.Setting;
+
+/**
+ * The general settings of a mapping run, read once from the setting
+ * components when the mapping starts, or from a general settings file when
+ * the mapping runs without user interface. The values are parsed into typed
+ * fields so the mapping never reads the user interface while it runs,
+ * and a change of the settings does not affect a running mapping.
+ */
+public final class MappingConfiguration {
+
+	public static final int RXNORM_PREFERENCE_RXNORM           = 0;
+	public static final int RXNORM_PREFERENCE_RXNORM_EXTENSION = 1;
+	public static final int RXNORM_PREFERENCE_NONE             = 2;
+
+	public static final int DATE_PREFERENCE_LATEST = 0;
+	public static final int DATE_PREFERENCE_OLDEST = 1;
+	public static final int DATE_PREFERENCE_NONE   = 2;
+
+	public static final int CONCEPT_ID_PREFERENCE_SMALLEST = 0;
+	public static final int CONCEPT_ID_PREFERENCE_LARGEST  = 1;
+	public static final int CONCEPT_ID_PREFERENCE_NONE     = 2;
+
+	public static final int FIRST_OR_LAST_PREFERENCE_FIRST = 0;
+	public static final int FIRST_OR_LAST_PREFERENCE_LAST  = 1;
+	public static final int FIRST_OR_LAST_PREFERENCE_NONE  = 2;
+
+	// The general settings in the order of ExecuteTab.createGeneralSettings
+	private static final GeneralSettingDefinition[] GENERAL_SETTINGS = new GeneralSettingDefinition[] {
+		new GeneralSettingDefinition("VocabularyID",                       "Vocabulary ID:",                          Setting.SETTING_TYPE_STRING, ""),
+		new GeneralSettingDefinition("minimumUseCount",                    "Minimum use count:",                      Setting.SETTING_TYPE_LONG,   "-1"),
+		new GeneralSettingDefinition("maximumStrengthDeviationPercentage", "Maximum strength deviation percentage:",  Setting.SETTING_TYPE_DOUBLE, "20.0"),
+		new GeneralSettingDefinition("preferenceCompForm",                 "Comp Form matching preference:",          "Form before Comp",    new String[] { "Comp before Form", "Form before Comp" }),
+		new GeneralSettingDefinition("preferenceMatchIngredientsToComp",   "Ingredient Matching preference:",         "Ingredient Only",     new String[] { "Ingredient Only", "Ingredient or Comp" }),
+		new GeneralSettingDefinition("preferenceNonOrphans",               "Prefer not-orphan ingredients:",          "Yes",                 new String[] { "Yes", "No" }),
+		new GeneralSettingDefinition("preferenceRxNorm",                   "RxNorm preference:",                      "RxNorm",              new String[] { "RxNorm", "RxNorm Extension", "None" }),
+		new GeneralSettingDefinition("preferenceATC",                      "Prefer matching ATC:",                    "Yes",                 new String[] { "Yes", "No" }),
+		new GeneralSettingDefinition("prioritizeByDate",                   "Valid start date preference:",            "No",                  new String[] { "Latest", "Oldest", "No" }),
+		new GeneralSettingDefinition("prioritizeByConceptId",              "Concept_id preference:",                  "Smallest (= oldest)", new String[] { "Smallest (= oldest)", "Largest (= newest)", "No" }),
+		new GeneralSettingDefinition("takeFirstOrLast",                    "First or last preferece:",                "None",                new String[] { "First", "Last", "None" }),
+		new GeneralSettingDefinition("mappingThreads",                     "Number of mapping threads:",              Setting.SETTING_TYPE_LONG,   "-1"),
+		new GeneralSettingDefinition("incrementalMapping",                 "Incremental mapping:",                    "No",                  new String[] { "Yes", "No" }),
+		new GeneralSettingDefinition("cdmFetchSize",                       "CDM query fetch size:",                   Setting.SETTING_TYPE_LONG,   "-1"),
+		new GeneralSettingDefinition("cdmConnections",                     "Number of CDM connections:",              Setting.SETTING_TYPE_LONG,   "1"),
+		new GeneralSettingDefinition("cdmExtraction",                      "CDM extraction:",                         "Full",                new String[] { "Full", "Normalized" }),
+		new GeneralSettingDefinition("sourceDrugStorage",                  "Source drug storage:",                    "Memory",              new String[] { "Memory", "Memory mapped file" }),
+		new GeneralSettingDefinition("compressOutputFiles",                "Compress output files:",                  "No",                  new String[] { "Yes", "No" }),
+		new GeneralSettingDefinition("databaseOutput",                     "Save Source To Concept Map in database:", "No",                  new String[] { "Yes", "No" }),
+		new GeneralSettingDefinition("databaseOutputTable",                "Source To Concept Map table:",            Setting.SETTING_TYPE_STRING, "source_to_concept_map"),
+		new GeneralSettingDefinition("saveDrugMappingsLog",                "Save Drugmapping Log file:",              "Yes",                 new String[] { "Yes", "No" }),
+		new GeneralSettingDefinition("suppressWarnings",                   "Suppress warnings:",                      "No",                  new String[] { "Yes", "No" })
+	};
+
+	private final List<String> settingNames;
+	private final List<String> settingLabels;
+	private final List<String> settingValues;
+
+	private final String vocabularyId;
+	private final long minimumUseCount;
+	private final double maximumStrengthDeviation;
+	private final boolean compBeforeForm;
+	private final boolean matchIngredientsToComp;
+	private final boolean preferNonOrphanIngredients;
+	private final int rxNormPreference;
+	private final boolean preferMatchingATC;
+	private final int datePreference;
+	private final int conceptIdPreference;
+	private final int firstOrLastPreference;
+	private final int mappingThreads;
+	private final boolean incrementalMapping;
+	private final long cdmFetchSize;
+	private final int cdmConnections;
+	private final boolean normalizedCDMExtraction;
+	private final boolean sourceDrugsMemoryMapped;
+	private final boolean compressOutputFiles;
+	private final boolean databaseOutput;
+	private final String databaseOutputTable;
+	private final boolean saveDrugMappingLog;
+	private final boolean suppressWarnings;
+
+
+	/**
+	 * Reads the general settings from the setting components of the user
+	 * interface.
+	 */
+	public MappingConfiguration(GeneralSettings settings) {
+		this(getSettingNames(settings), getSettingLabels(settings), getSettingValues(settings));
+	}
+
+
+	/**
+	 * Reads the general settings from the name=value lines of a general
+	 * settings file without creating the setting components. A setting that
+	 * is not in the lines has its default value. Throws an
+	 * IllegalArgumentException when a value is not allowed.
+	 */
+	public MappingConfiguration(List<String> generalSettings) {
+		this(getDefinedSettingNames(), getDefinedSettingLabels(), getSettingValues(generalSettings));
+	}
+
+
+	private MappingConfiguration(List<String> names, List<String> labels, List<String> values) {
+		settingNames = Collections.unmodifiableList(names);
+		settingLabels = Collections.unmodifiableList(labels);
+		settingValues = Collections.unmodifiableList(values);
+
+		vocabularyId               = getValue(MainFrame.VOCABULARY_ID);
+		minimumUseCount            = Long.parseLong(getValue(MainFrame.MINIMUM_USE_COUNT));
+		maximumStrengthDeviation   = Double.parseDouble(getValue(MainFrame.MAXIMUM_STRENGTH_DEVIATION));
+		compBeforeForm             = getValue(MainFrame.PREFERENCE_MATCH_COMP_FORM).equals("Comp before Form");
+		matchIngredientsToComp     = getValue(MainFrame.PREFERENCE_MATCH_INGREDIENTS_TO_COMP).equals("Ingredient or Comp");
+		preferNonOrphanIngredients = getValue(MainFrame.PREFERENCE_NON_ORPHAN_INGREDIENTS).equals("Yes");
+		preferMatchingATC          = getValue(MainFrame.PREFERENCE_ATC).equals("Yes");
+		incrementalMapping         = getValue(MainFrame.INCREMENTAL_MAPPING).equals("Yes");
+		cdmFetchSize               = Long.parseLong(getValue(MainFrame.CDM_FETCH_SIZE));
+		cdmConnections             = Integer.parseInt(getValue(MainFrame.CDM_CONNECTIONS));
+		normalizedCDMExtraction    = getValue(MainFrame.CDM_EXTRACTION).equals("Normalized");
+		sourceDrugsMemoryMapped    = getValue(MainFrame.SOURCE_DRUG_STORAGE).equals("Memory mapped file");
+		compressOutputFiles        = getValue(MainFrame.COMPRESS_OUTPUT_FILES).equals("Yes");
+		databaseOutput             = getValue(MainFrame.DATABASE_OUTPUT).equals("Yes");
+		databaseOutputTable        = getValue(MainFrame.DATABASE_OUTPUT_TABLE).trim();
+		saveDrugMappingLog         = getValue(MainFrame.SAVE_DRUGMAPPING_LOG).equals("Yes");
+		suppressWarnings           = getValue(MainFrame.SUPPRESS_WARNINGS).equals("Yes");
+
+		String rxNorm = getValue(MainFrame.PREFERENCE_RXNORM);
+		if (rxNorm.equals("RxNorm")) {
+			rxNormPreference = RXNORM_PREFERENCE_RXNORM;
+		}
+		else if (rxNorm.equals("RxNorm Extension")) {
+			rxNormPreference = RXNORM_PREFERENCE_RXNORM_EXTENSION;
+		}
+		else {
+			rxNormPreference = RXNORM_PREFERENCE_NONE;
+		}
+
+		String date = getValue(MainFrame.PREFERENCE_PRIORITIZE_BY_DATE);
+		if (date.equals("Latest")) {
+			datePreference = DATE_PREFERENCE_LATEST;
+		}
+		else if (date.equals("Oldest")) {
+			datePreference = DATE_PREFERENCE_OLDEST;
+		}
+		else {
+			datePreference = DATE_PREFERENCE_NONE;
+		}
+
+		String conceptId = getValue(MainFrame.PREFERENCE_PRIORITIZE_BY_CONCEPT_ID);
+		if (conceptId.equals("Smallest (= oldest)")) {
+			conceptIdPreference = CONCEPT_ID_PREFERENCE_SMALLEST;
+		}
+		else if (conceptId.equals("Largest (= newest)")) {
+			conceptIdPreference = CONCEPT_ID_PREFERENCE_LARGEST;
+		}
+		else {
+			conceptIdPreference = CONCEPT_ID_PREFERENCE_NONE;
+		}
+
+		String firstOrLast = getValue(MainFrame.PREFERENCE_TAKE_FIRST_OR_LAST);
+		if (firstOrLast.equals("First")) {
+			firstOrLastPreference = FIRST_OR_LAST_PREFERENCE_FIRST;
+		}
+		else if (firstOrLast.equals("Last")) {
+			firstOrLastPreference = FIRST_OR_LAST_PREFERENCE_LAST;
+		}
+		else {
+			firstOrLastPreference = FIRST_OR_LAST_PREFERENCE_NONE;
+		}
+
+		int threads = Integer.parseInt(getValue(MainFrame.MAPPING_THREADS));
+		mappingThreads = threads <= 0 ? Runtime.getRuntime().availableProcessors() : threads;
+	}
+
+
+	public int getSettingCount() {
+		return settingNames.size();
+	}
+
+
+	public String getSettingName(int index) {
+		return settingNames.get(index);
+	}
+
+
+	public String getSettingLabel(int index) {
+		return settingLabels.get(index);
+	}
+
+
+	public String getValue(int index) {
+		return settingValues.get(index);
+	}
+
+
+	public String getVocabularyId() {
+		return vocabularyId;
+	}
+
+
+	public long getMinimumUseCount() {
+		return minimumUseCount;
+	}
+
+
+	public double getMaximumStrengthDeviation() {
+		return maximumStrengthDeviation;
+	}
+
+
+	public boolean isCompBeforeForm() {
+		return compBeforeForm;
+	}
+
+
+	public boolean isMatchIngredientsToComp() {
+		return matchIngredientsToComp;
+	}
+
+
+	public boolean isPreferNonOrphanIngredients() {
+		return preferNonOrphanIngredients;
+	}
+
+
+	public int getRxNormPreference() {
+		return rxNormPreference;
+	}
+
+
+	/**
+	 * Returns the vocabulary_id of the preferred vocabulary, or null when
+	 * there is no preference.
+	 */
+	public String getPreferredRxNormVocabularyId() {
+		if (rxNormPreference == RXNORM_PREFERENCE_RXNORM) {
+			return "RxNorm";
+		}
+		if (rxNormPreference == RXNORM_PREFERENCE_RXNORM_EXTENSION) {
+			return "RxNorm Extension";
+		}
+		return null;
+	}
+
+
+	public boolean isPreferMatchingATC() {
+		return preferMatchingATC;
+	}
+
+
+	public int getDatePreference() {
+		return datePreference;
+	}
+
+
+	public int getConceptIdPreference() {
+		return conceptIdPreference;
+	}
+
+
+	public int getFirstOrLastPreference() {
+		return firstOrLastPreference;
+	}
+
+
+	/**
+	 * Returns the number of mapping threads. Without a positive setting it
+	 * is the number of available processors.
+	 */
+	public int getMappingThreads() {
+		return mappingThreads;
+	}
+
+
+	public boolean isIncrementalMapping() {
+		return incrementalMapping;
+	}
+
+
+	public long getCDMFetchSize() {
+		return cdmFetchSize;
+	}
+
+
+	public int getCDMConnections() {
+		return cdmConnections;
+	}
+
+
+	/**
+	 * Returns true when the drug strengths are extracted without the drug
+	 * and unit concept columns, which are loaded once as separate tables.
+	 */
+	public boolean isNormalizedCDMExtraction() {
+		return normalizedCDMExtraction;
+	}
+
+
+	/**
+	 * Returns true when the source drugs are kept in a memory mapped file
+	 * instead of on the heap.
+	 */
+	public boolean isSourceDrugsMemoryMapped() {
+		return sourceDrugsMemoryMapped;
+	}
+
+
+	/**
+	 * Returns true when the output files are written gzip compressed.
+	 */
+	public boolean isCompressOutputFiles() {
+		return compressOutputFiles;
+	}
+
+
+	/**
+	 * Returns true when the Source To Concept Map is also saved in a table
+	 * of the CDM database.
+	 */
+	public boolean isDatabaseOutput() {
+		return databaseOutput;
+	}
+
+
+	/**
+	 * Returns the table the Source To Concept Map is saved in, optionally
+	 * preceded by its schema.
+	 */
+	public String getDatabaseOutputTable() {
+		return databaseOutputTable;
+	}
+
+
+	public boolean isSaveDrugMappingLog() {
+		return saveDrugMappingLog;
+	}
+
+
+	public boolean isSuppressWarnings() {
+		return suppressWarnings;
+	}
+
+
+	/**
+	 * Returns the index of the general setting with the name, or -1 when
+	 * there is no such setting.
+	 */
+	public static int getSettingIndex(String name) {
+		for (int settingNr = 0; settingNr < GENERAL_SETTINGS.length; settingNr++) {
+			if (GENERAL_SETTINGS[settingNr].name.equals(name)) {
+				return settingNr;
+			}
+		}
+		return -1;
+	}
+
+
+	private static List<String> getSettingNames(GeneralSettings settings) {
+		List<String> names = new ArrayList<String>();
+		for (Setting setting : settings.getSettings()) {
+			names.add(setting.getName());
+		}
+		return names;
+	}
+
+
+	private static List<String> getSettingLabels(GeneralSettings settings) {
+		List<String> labels = new ArrayList<String>();
+		for (Setting setting : settings.getSettings()) {
+			labels.add(setting.getLabel());
+		}
+		return labels;
+	}
+
+
+	private static List<String> getSettingValues(GeneralSettings settings) {
+		List<String> values = new ArrayList<String>();
+		for (Setting setting : settings.getSettings()) {
+			values.add(setting.getValueAsString());
+		}
+		return values;
+	}
+
+
+	private static List<String> getDefinedSettingNames() {
+		List<String> names = new ArrayList<String>();
+		for (GeneralSettingDefinition definition : GENERAL_SETTINGS) {
+			names.add(definition.name);
+		}
+		return names;
+	}
+
+
+	private static List<String> getDefinedSettingLabels() {
+		List<String> labels = new ArrayList<String>();
+		for (GeneralSettingDefinition definition : GENERAL_SETTINGS) {
+			labels.add(definition.label);
+		}
+		return labels;
+	}
+
+
+	private static List<String> getSettingValues(List<String> generalSettings) {
+		List<String> values = new ArrayList<String>();
+		for (GeneralSettingDefinition definition : GENERAL_SETTINGS) {
+			values.add(definition.defaultValue);
+		}
+		// As GeneralSettings.putSettings: empty lines, comments and unknown settings are skipped
+		for (String setting : generalSettings) {
+			if ((!setting.trim().equals("")) && (!setting.substring(0, 1).equals("#"))) {
+				int equalSignIndex = setting.indexOf("=");
+				if (equalSignIndex == -1) {
+					throw new IllegalArgumentException("Illegal general setting '" + setting + "'");
+				}
+				int settingNr = getSettingIndex(setting.substring(0, equalSignIndex));
+				if (settingNr != -1) {
+					values.set(settingNr, GENERAL_SETTINGS[settingNr].getValue(setting.substring(equalSignIndex + 1)));
+				}
+			}
+		}
+		return values;
+	}
+
+
+	private static class GeneralSettingDefinition {
+		private final String name;
+		private final String label;
+		private final int valueType;
+		private final String defaultValue;
+		private final String[] choices;   // Null when any value of the type is allowed
+
+
+		private GeneralSettingDefinition(String name, String label, int valueType, String defaultValue) {
+			this.name = name;
+			this.label = label;
+			this.valueType = valueType;
+			this.defaultValue = defaultValue;
+			this.choices = null;
+		}
+
+
+		private GeneralSettingDefinition(String name, String label, String defaultValue, String[] choices) {
+			this.name = name;
+			this.label = label;
+			this.valueType = Setting.SETTING_TYPE_STRING;
+			this.defaultValue = defaultValue;
+			this.choices = choices;
+		}
+
+
+		/**
+		 * Returns the value as the setting component would return it.
+		 */
+		private String getValue(String stringValue) {
+			try {
+				if (valueType == Setting.SETTING_TYPE_LONG) {
+					return Long.toString(Long.parseLong(stringValue));
+				}
+				if (valueType == Setting.SETTING_TYPE_DOUBLE) {
+					return Double.toString(Double.parseDouble(stringValue));
+				}
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Illegal value '" + stringValue + "' for general setting '" + name + "'");
+			}
+			if ((choices != null) && (!Arrays.asList(choices).contains(stringValue))) {
+				throw new IllegalArgumentException("Illegal value '" + stringValue + "' for general setting '" + name + "'. Possible values are: " + String.join(", ", choices));
+			}
+			return stringValue;
+		}
+	}
+}
@@ -10,8 +10,8 @@ import java.util.List;
 import java.util.Map;
 
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
+import org.ohdsi.drugmapping.files.DelimitedInputFile;
 import org.ohdsi.drugmapping.genericmapping.GenericMapping;
-import org.ohdsi.drugmapping.gui.files.DelimitedInputFileGUI;
 import org.ohdsi.drugmapping.source.Source;
 import org.ohdsi.drugmapping.utilities.DrugMappingDateUtilities;
 import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
@@ -26,6 +26,7 @@ public class UnitConversion {
 	private static String DEFAULT_FILENAME = "Unit Mapping File.csv";
 	
 	
+	private GenericMapping genericMapping; // The mapping run the warnings are added to
 	private int status = STATE_OK;
 	private String fileName = "";
 	
@@ -37,9 +38,11 @@ public class UnitConversion {
 	}
 	
 	
-	public UnitConversion(DelimitedInputFileGUI sourceUnitMappingFile) {
+	public UnitConversion(GenericMapping genericMapping, DelimitedInputFile sourceUnitMappingFile) {
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Create Units Conversion Map ...");
 		
+		this.genericMapping = genericMapping;
+		
 		readUnitConversionFile(sourceUnitMappingFile);
 		if (status == STATE_EMPTY) {
 			createUnitConversionFile(sourceUnitMappingFile);
@@ -53,7 +56,7 @@ public class UnitConversion {
 		return fileName;
 	}
 	
-	private void readUnitConversionFile(DelimitedInputFileGUI sourceUnitMappingFile) {
+	private void readUnitConversionFile(DelimitedInputFile sourceUnitMappingFile) {
 		if ((sourceUnitMappingFile != null) && sourceUnitMappingFile.openFileForReading(true)) {
 			fileName = sourceUnitMappingFile.getFileName();
 			System.out.println(DrugMappingDateUtilities.getCurrentTime() + "        Get unit conversion map from file " + fileName + " ...");
@@ -78,13 +81,13 @@ public class UnitConversion {
 					}
 				}
 				else {
-					GenericMapping.addWarning(GenericMapping.UNIT_MAPPING_WARNING, "No factor found for conversion from  '" + sourceUnit + "' to '" + targetUnit + "'. Defaults to 1.0.");
+					genericMapping.addWarning(GenericMapping.UNIT_MAPPING_WARNING, "No factor found for conversion from  '" + sourceUnit + "' to '" + targetUnit + "'. Defaults to 1.0.");
 					factor = 1.0;
 				}
 				
 				if (factor != null) {
 					if ((!sourceUnit.equals("")) && (targetUnit.equals(""))) {
-						GenericMapping.addWarning(GenericMapping.UNIT_MAPPING_WARNING, "No target unit specified for '" + sourceUnit + ". Defaults to source unit with factor 1.0.");
+						genericMapping.addWarning(GenericMapping.UNIT_MAPPING_WARNING, "No target unit specified for '" + sourceUnit + ". Defaults to source unit with factor 1.0.");
 					}
 					else {
 						Map<String, Double> sourceUnitConversion = unitConversionMap.get(sourceUnit);
@@ -94,7 +97,7 @@ public class UnitConversion {
 						}
 						Double existingFactor = sourceUnitConversion.get(targetUnit);
 						if (existingFactor != null) {
-							GenericMapping.addWarning(GenericMapping.UNIT_MAPPING_WARNING, "Double conversion from  '" + sourceUnit + "' to '" + targetUnit + "' found: " + existingFactor + " (old) and " + factor + " (new). Last one used.");
+							genericMapping.addWarning(GenericMapping.UNIT_MAPPING_WARNING, "Double conversion from  '" + sourceUnit + "' to '" + targetUnit + "' found: " + existingFactor + " (old) and " + factor + " (new). Last one used.");
 						}
 						sourceUnitConversion.put(targetUnit, factor);
 					}
@@ -110,7 +113,7 @@ public class UnitConversion {
 	}
 	
 	
-	private void createUnitConversionFile(DelimitedInputFileGUI sourceUnitMappingFile) {
+	private void createUnitConversionFile(DelimitedInputFile sourceUnitMappingFile) {
 		fileName = getDefaultFileName();
 		String fieldDelimiterName = "Comma";
 		String textQualifierName = "\"";
@@ -123,8 +126,8 @@ public class UnitConversion {
 			newFile = false;
 		}
 		
-		String fieldDelimiter = Character.toString(DelimitedInputFileGUI.fieldDelimiter(fieldDelimiterName));
-		String textQualifier = Character.toString(DelimitedInputFileGUI.textQualifier(textQualifierName));
+		String fieldDelimiter = Character.toString(DelimitedInputFile.fieldDelimiter(fieldDelimiterName));
+		String textQualifier = Character.toString(DelimitedInputFile.textQualifier(textQualifierName));
 
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "        Write unit conversion map to file " + fileName + " ...");
 		
@@ -191,5 +194,29 @@ public class UnitConversion {
 		}
 		return result;
 	}
+	
+	
+	/**
+	 * Returns the factors to convert a value in the source unit to each of
+	 * the target units, with NaN for the target units without conversion.
+	 */
+	public double[] getConversionFactors(String sourceUnit, List<String> targetUnits) {
+		double[] factors = new double[targetUnits.size()];
+		Map<String, Double> sourceConversion = unitConversionMap.get(sourceUnit);
+		for (int unitNr = 0; unitNr < factors.length; unitNr++) {
+			String targetUnit = targetUnits.get(unitNr);
+			factors[unitNr] = Double.NaN;
+			if (sourceConversion != null) {
+				Double factor = sourceConversion.get(targetUnit);
+				if (factor != null) {
+					factors[unitNr] = factor;
+				}
+			}
+			else if ((sourceUnit != null) && sourceUnit.equals(targetUnit)) {
+				factors[unitNr] = 1.0;
+			}
+		}
+		return factors;
+	}
 
 }
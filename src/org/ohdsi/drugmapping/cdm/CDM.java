@@ -1,17 +1,29 @@
 package org.ohdsi.drugmapping.cdm;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.ohdsi.drugmapping.DrugMapping;
+import org.ohdsi.drugmapping.DrugMappingMetrics;
+import org.ohdsi.drugmapping.MappingConfiguration;
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
 import org.ohdsi.drugmapping.gui.CDMDatabase;
 import org.ohdsi.drugmapping.gui.MainFrame;
@@ -20,8 +32,42 @@ import org.ohdsi.drugmapping.utilities.DrugMappingNumberUtilities;
 import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
 
 public class CDM {
-
-	private Map<String, CDMIngredient> cdmIngredients;
+	private static final String SNAPSHOT_FILE_NAME = "CDM.snapshot";
+	private static final int SNAPSHOT_MAGIC        = 0x43444D53; // "CDMS"
+	private static final int SNAPSHOT_VERSION      = 1;
+	private static final int SNAPSHOT_END          = 0x454E4421; // "END!"
+	
+	// The CDM queries in the order they are used to build the CDM
+	private static final List<String> CDM_QUERY_RESOURCES = Arrays.asList(new String[] {
+			"GetCDMForms.sql",
+			"GetRxNormIngredients.sql",
+			"GetRxNormIngredientRelationships.sql",
+			"GetRxNormClinicalDrugsIngredients.sql",
+			"GetRxNormClinicalDrugCompsIngredients.sql",
+			"GetRxNormClinicalDrugFormsIngredients.sql",
+			"GetRxNormDrugATCs.sql",
+			"GetCASMapsToRxNormIngredients.sql",
+			"GetCVX.sql"
+	});
+	
+	// The normalized CDM queries in the order they are used to build the CDM.
+	// The drug strength queries only return concept_id's that are looked up
+	// in the unit and drug concepts loaded first.
+	private static final List<String> NORMALIZED_CDM_QUERY_RESOURCES = Arrays.asList(new String[] {
+			"GetCDMUnitConcepts.sql",
+			"GetRxNormClinicalDrugConcepts.sql",
+			"GetCDMForms.sql",
+			"GetRxNormIngredients.sql",
+			"GetRxNormIngredientRelationships.sql",
+			"GetRxNormClinicalDrugsIngredientsNormalized.sql",
+			"GetRxNormClinicalDrugCompsIngredientsNormalized.sql",
+			"GetRxNormClinicalDrugFormsIngredientsNormalized.sql",
+			"GetRxNormDrugATCs.sql",
+			"GetCASMapsToRxNormIngredients.sql",
+			"GetCVX.sql"
+	});
+
+	private CDMConceptIdMap<CDMIngredient> cdmIngredients;
 	
 	private List<CDMIngredient> cdmIngredientsList;
 	
@@ -30,21 +76,38 @@ public class CDM {
 	private MappingIngredientHitLibraryNames ingredientNameSynonyms;
 	private MappingIngredientHitLibraryNames ingredientNameRelations;
 	
-	private String matchString = "";
-	private String nameMatchString = "";
-	private String synonymMatchString = "";
-	private String relationMatchString = "";
+	private static final int NAME_CACHE_SIZE = 100000;
+	private static final String NAME_TIER     = "Name";
+	private static final String SYNONYM_TIER  = "Synonym";
+	private static final String RELATION_TIER = "Relation";
+	
+	private static final int NAME_TIER_BIT     = 1;
+	private static final int SYNONYM_TIER_BIT  = 2;
+	private static final int RELATION_TIER_BIT = 4;
+	private static final int ALL_TIER_BITS     = NAME_TIER_BIT | SYNONYM_TIER_BIT | RELATION_TIER_BIT;
+	
+	private static final int MAXIMUM_REDUCED_NAME_WORDS = 20; // As in DrugMappingStringUtilities.generateMatchingNames
 	
-	private Map<String, CDMDrug> cdmDrugs;
+	private CDMNameTrie nameTrie = null;                                        // The names of the three tiers on their words
+	
+	private CDMNameCache<CDMIngredientMatch> nameResolutionCache = new CDMNameCache<CDMIngredientMatch>(NAME_CACHE_SIZE); // Lookup name per tier to the resolved ingredient
+	private CDMNameCache<String[]> normalizedNameCache = new CDMNameCache<String[]>(NAME_CACHE_SIZE);             // Lookup name to its standardized, sorted and standardized sorted forms
+	
+	private CDMConceptIdMap<CDMDrug> cdmDrugs;
 	private Map<Integer, Map<CDMIngredient, List<CDMDrug>>> cdmDrugsContainingIngredient;
 
-	private Map<String, CDMDrug> cdmDrugComps;
+	private CDMConceptIdMap<CDMDrug> cdmDrugComps;
 	private Map<CDMIngredient, List<CDMDrug>> cdmDrugCompsContainingIngredient;
 
-	private Map<String, CDMDrug> cdmDrugForms;
+	private CDMConceptIdMap<CDMDrug> cdmDrugForms;
 	private Map<Integer, Map<CDMIngredient, List<CDMDrug>>> cdmDrugFormsContainingIngredient;
 	
-	private Map<String, CDMConcept> cdmForms;
+	// Ingredient indexes for finding the drugs containing a set of ingredients
+	private CDMDrugIngredientIndex cdmDrugsIngredientIndex;
+	private CDMDrugIngredientIndex cdmDrugCompsIngredientIndex;
+	private CDMDrugIngredientIndex cdmDrugFormsIngredientIndex;
+	
+	private CDMConceptIdMap<CDMConcept> cdmForms;
 
 	private Map<String, Set<CDMIngredient>> cdmATCIngredientMap;
 
@@ -53,19 +116,137 @@ public class CDM {
 	private Map<String, String> cdmUnitNameToConceptIdMap;                     // Map from CDM unit concept_name to CDM unit concept_id
 	private Map<String, String> cdmUnitConceptIdToNameMap;                     // Map from CDM unit concept_id to CDM unit concept_name
 	private List<String> cdmUnitConceptNames;                                  // List of CDM unit names for sorting
+	private CDMConceptIdMap<CDMConcept> cdmUnits;                              // The unit concepts shared by the ingredient strengths
+	
+	private boolean normalizedExtraction = false;                              // The drug strengths are read with the concepts below
+	private CDMConceptIdMap<CDMConcept> unitConcepts = null;                   // The unit concepts by concept_id while reading normalized drug strengths
+	private CDMConceptIdMap<CDMDrug> drugConcepts = null;                      // The drug concepts by concept_id while reading normalized drug strengths
 
 	private Map<String, String> cdmFormNameToConceptIdMap;                     // Map from CDM form concept_name to CDM form concept_id
 	private Map<String, String> cdmFormConceptIdToNameMap;                     // Map from CDM form concept_id to CDM form concept_name
 	private List<String> cdmFormConceptNames;                                  // List of CDM form names for sorting
 	
-	private Map<String, CDMDrug> cdmCVXVaccines;
+	private CDMConceptIdMap<CDMDrug> cdmCVXVaccines;
+	
+	private List<String> cdmStrengthUnits;                                     // The units of the ingredient strengths indexed by the drug strength tables
+	
+	private String versionDescription = null;                                   // Vocabulary release and settings the CDM was built with
+	
+	private MappingConfiguration configuration;
+	private DrugMappingMetrics metrics;                                        // The metrics of the mapping run the CDM is loaded for
+	
+	
+	public CDM(MappingConfiguration configuration, DrugMappingMetrics metrics) {
+		this.configuration = configuration;
+		this.metrics = metrics;
+	}
 	
 	
 	
 	public boolean LoadCDMFromDatabase(CDMDatabase database, List<String> report) {
 		boolean ok = false;
-
-		cdmIngredients = new HashMap<String, CDMIngredient>();
+		
+		try {
+			// Connect to the database
+			database.setFetchSize(configuration.getCDMFetchSize());
+			if (database.connect(CDM.class, metrics)) {
+				String snapshotFileName = database.getCacheFileName(SNAPSHOT_FILE_NAME);
+				String snapshotHeader = getSnapshotHeader(database);
+				versionDescription = snapshotHeader;
+				
+				if ((snapshotFileName != null) && (snapshotHeader != null) && database.isReadFromCache() && loadSnapshot(snapshotFileName, snapshotHeader, report)) {
+					database.disconnect();
+				}
+				else {
+					initialize();
+					int reportStart = report.size();
+					
+					normalizedExtraction = useNormalizedExtraction(database);
+					
+					// Start the queries concurrently when more connections are allowed
+					database.prefetchQueryResources(normalizedExtraction ? NORMALIZED_CDM_QUERY_RESOURCES : CDM_QUERY_RESOURCES, configuration.getCDMConnections());
+					
+					// Get CDM Units
+					//getCDMUnits(database, report);
+					
+					if (normalizedExtraction) {
+						// Get the CDM unit and drug concepts used by the drug strengths
+						getCDMUnitConcepts(database, report);
+						getRxNormClinicalDrugConcepts(database, report);
+					}
+					
+					// Get CDM Forms
+					getCDMForms(database, report);
+					
+					// Get CDM ingredients
+					getRxNormIngredients(database, report);
+					
+					// Get CDM Ingredient relationships
+					getRxNormIngredientRelationships(database, report);
+
+					// Get RxNorm Clinical Drugs with Form and Ingredients
+					getRxNormClinicalDrugsWithIngredients(database, report);
+							
+					// Get RxNorm Clinical Drugs with Form and Ingredients
+					getRxNormClinicalDrugCompsWithIngredients(database, report);
+							
+					// Get RxNorm Clinical Drugs with Form and Ingredients
+					getRxNormClinicalDrugFormsWithIngredients(database, report);
+
+					// Get CDM RxNorm Drug ATCs
+					getRxNormDrugATCs(database, report);
+							
+					// Get CAS code to CDM RxNorm (Extension) Ingredient mapping
+					getCASToRxNormIngredientsMapping(database, report);
+					
+					// Get CVX Vaccines
+					getCVXVaccines(database, report);
+					
+					unitConcepts = null;
+					drugConcepts = null;
+					
+					// Close database connection
+					database.disconnect();
+					
+					ingredientNames.reCalculateHitScores();
+					ingredientNameSynonyms.reCalculateHitScores();
+					ingredientNameRelations.reCalculateHitScores();
+					
+					if ((snapshotFileName != null) && (snapshotHeader != null)) {
+						saveSnapshot(snapshotFileName, snapshotHeader, report.subList(reportStart, report.size()));
+					}
+				}
+				
+				buildIngredientIndexes();
+				buildStrengthTables();
+				buildNameTrie();
+				nameResolutionCache.clear();
+				normalizedNameCache.clear();
+				
+				ok = true;
+			}
+			else {
+				System.out.println("ERROR: Could not connect to the database.");
+				ok = false;
+			}
+			
+		}
+		catch (Exception exception) {
+			ok = false;
+			exception.printStackTrace();
+		}
+		
+		report.add("");
+		
+		// For debugging only.
+		//dump("D:\\Temp\\DrugMapping\\Dump " + database.getDBSettings().name);
+		
+		return ok;
+	}
+	
+	
+	private void initialize() {
+		cdmIngredients = new CDMConceptIdMap<CDMIngredient>();
 		
 		cdmIngredientsList = new ArrayList<CDMIngredient>();
 		
@@ -74,16 +255,16 @@ public class CDM {
 		ingredientNameSynonyms = new MappingIngredientHitLibraryNames();
 		ingredientNameRelations = new MappingIngredientHitLibraryNames();
 		
-		cdmDrugs = new HashMap<String, CDMDrug>();
+		cdmDrugs = new CDMConceptIdMap<CDMDrug>();
 		cdmDrugsContainingIngredient = new HashMap<Integer, Map<CDMIngredient, List<CDMDrug>>>();
 
-		cdmDrugComps = new HashMap<String, CDMDrug>();
+		cdmDrugComps = new CDMConceptIdMap<CDMDrug>();
 		cdmDrugCompsContainingIngredient = new HashMap<CDMIngredient, List<CDMDrug>>();
 
-		cdmDrugForms = new HashMap<String, CDMDrug>();
+		cdmDrugForms = new CDMConceptIdMap<CDMDrug>();
 		cdmDrugFormsContainingIngredient = new HashMap<Integer, Map<CDMIngredient, List<CDMDrug>>>();
 		
-		cdmForms = new HashMap<String, CDMConcept>();
+		cdmForms = new CDMConceptIdMap<CDMConcept>();
 
 		cdmATCIngredientMap = new HashMap<String, Set<CDMIngredient>>();
 
@@ -97,76 +278,23 @@ public class CDM {
 		cdmFormConceptIdToNameMap = new HashMap<String, String>();                     // Map from CDM form concept_id to CDM form concept_name
 		cdmFormConceptNames = new ArrayList<String>();                                 // List of CDM form names for sorting
 		
-		cdmCVXVaccines = new HashMap<String, CDMDrug>();
-		
-		try {
-			// Connect to the database
-			if (database.connect(CDM.class)) {
-				// Get CDM Units
-				//getCDMUnits(database, report);
-				
-				// Get CDM Forms
-				getCDMForms(database, report);
-				
-				// Get CDM ingredients
-				getRxNormIngredients(database, report);
-				
-				// Get CDM Ingredient relationships
-				getRxNormIngredientRelationships(database, report);
-
-				// Get RxNorm Clinical Drugs with Form and Ingredients
-				getRxNormClinicalDrugsWithIngredients(database, report);
-						
-				// Get RxNorm Clinical Drugs with Form and Ingredients
-				getRxNormClinicalDrugCompsWithIngredients(database, report);
-						
-				// Get RxNorm Clinical Drugs with Form and Ingredients
-				getRxNormClinicalDrugFormsWithIngredients(database, report);
-
-				// Get CDM RxNorm Drug ATCs
-				getRxNormDrugATCs(database, report);
-						
-				// Get CAS code to CDM RxNorm (Extension) Ingredient mapping
-				getCASToRxNormIngredientsMapping(database, report);
-				
-				// Get CVX Vaccines
-				getCVXVaccines(database, report);
-				
-				// Close database connection
-				database.disconnect();
-				
-				ingredientNames.reCalculateHitScores();
-				ingredientNameSynonyms.reCalculateHitScores();
-				ingredientNameRelations.reCalculateHitScores();
-				
-				ok = true;
-			}
-			else {
-				System.out.println("ERROR: Could not connect to the database.");
-				ok = false;
-			}
-			
-		}
-		catch (Exception exception) {
-			ok = false;
-			exception.printStackTrace();
-		}
-		
-		report.add("");
-		
-		// For debugging only.
-		//dump("D:\\Temp\\DrugMapping\\Dump " + database.getDBSettings().name);
+		cdmCVXVaccines = new CDMConceptIdMap<CDMDrug>();
 		
-		return ok;
+		cdmUnits = new CDMConceptIdMap<CDMConcept>();
 	}
 	
 	
-	public Map<String, CDMIngredient> getCDMIngredients() {
+	public String getVersionDescription() {
+		return versionDescription;
+	}
+	
+	
+	public CDMConceptIdMap<CDMIngredient> getCDMIngredients() {
 		return cdmIngredients;
 	}
 
 
-	public Map<String, CDMDrug> getCDMDrugs() {
+	public CDMConceptIdMap<CDMDrug> getCDMDrugs() {
 		return cdmDrugs;
 	}
 
@@ -177,7 +305,12 @@ public class CDM {
 	}
 
 
-	public Map<String, CDMDrug> getCDMDrugComps() {
+	public List<CDMDrug> getCDMDrugsContainingIngredients(Integer ingredientCount, List<CDMIngredient> ingredients) {
+		return cdmDrugsIngredientIndex.getDrugsContainingIngredients(ingredientCount, ingredients);
+	}
+
+
+	public CDMConceptIdMap<CDMDrug> getCDMDrugComps() {
 		return cdmDrugComps;
 	}
 
@@ -187,7 +320,12 @@ public class CDM {
 	}
 
 
-	public Map<String, CDMDrug> getCDMDrugForms() {
+	public List<CDMDrug> getCDMDrugCompsContainingIngredients(List<CDMIngredient> ingredients) {
+		return cdmDrugCompsIngredientIndex.getDrugsContainingIngredients(ingredients);
+	}
+
+
+	public CDMConceptIdMap<CDMDrug> getCDMDrugForms() {
 		return cdmDrugForms;
 	}
 
@@ -198,6 +336,11 @@ public class CDM {
 	}
 
 
+	public List<CDMDrug> getCDMDrugFormsContainingIngredients(Integer ingredientCount, List<CDMIngredient> ingredients) {
+		return cdmDrugFormsIngredientIndex.getDrugsContainingIngredients(ingredientCount, ingredients);
+	}
+
+
 	public Map<String, Set<CDMIngredient>> getCDMATCIngredientMap() {
 		return cdmATCIngredientMap;
 	}
@@ -208,11 +351,20 @@ public class CDM {
 	}
 
 
-	public Map<String, CDMDrug> getCDMCVXVaccines() {
+	public CDMConceptIdMap<CDMDrug> getCDMCVXVaccines() {
 		return cdmCVXVaccines;
 	}
 	
 	
+	/**
+	 * Returns the units of the ingredient strengths in the order of the unit
+	 * indexes of the drug strength tables.
+	 */
+	public List<String> getCDMStrengthUnits() {
+		return cdmStrengthUnits;
+	}
+	
+	
 	public Map<String, String> getCDMUnitNameToConceptIdMap() {
 		return cdmUnitNameToConceptIdMap;
 	}
@@ -238,6 +390,44 @@ public class CDM {
 	}
 	
 	
+	/**
+	 * Returns the unit concept of the drug strength query row with the given
+	 * prefix. With a normalized extraction the row only contains the
+	 * concept_id and the unit concept is looked up.
+	 */
+	public CDMConcept getUnitConcept(DelimitedFileRow queryRow, String prefix) {
+		CDMConcept unit;
+		if (normalizedExtraction) {
+			String unitConceptId = queryRow.get(prefix + "concept_id", true).trim();
+			unit = unitConcepts.get(unitConceptId);
+			if (unit == null) {
+				unit = new CDMConcept(this, unitConceptId, "", "", "", "", "", "", "", "", "");
+			}
+		}
+		else {
+			unit = new CDMConcept(this, queryRow, prefix);
+		}
+		return shareUnitConcept(unit);
+	}
+	
+	
+	/**
+	 * Returns the unit concept with the same concept_id that was seen before,
+	 * so all ingredient strengths share one object per unit.
+	 */
+	public synchronized CDMConcept shareUnitConcept(CDMConcept unit) {
+		if ((unit == null) || (unit.getConceptIdValue() == -1)) {
+			return unit;
+		}
+		CDMConcept sharedUnit = cdmUnits.get(unit.getConceptIdValue());
+		if (sharedUnit == null) {
+			cdmUnits.put(unit.getConceptIdValue(), unit);
+			sharedUnit = unit;
+		}
+		return sharedUnit;
+	}
+	
+	
 	public Map<String, String> getCDMFormNameToConceptIdMap() {
 		return cdmFormNameToConceptIdMap;
 	}
@@ -323,6 +513,73 @@ public class CDM {
 	}
 	
 	
+	private boolean useNormalizedExtraction(CDMDatabase database) {
+		boolean normalized = configuration.isNormalizedCDMExtraction();
+		if (!hasQueryResources(database, normalized ? NORMALIZED_CDM_QUERY_RESOURCES : CDM_QUERY_RESOURCES)) {
+			// The cache was built with the other extraction
+			if (hasQueryResources(database, normalized ? CDM_QUERY_RESOURCES : NORMALIZED_CDM_QUERY_RESOURCES)) {
+				System.out.println("WARNING: The CDM cache does not contain the " + (normalized ? "normalized" : "full") + " extraction. Using the " + (normalized ? "full" : "normalized") + " extraction.");
+				normalized = !normalized;
+			}
+		}
+		return normalized;
+	}
+	
+	
+	private boolean hasQueryResources(CDMDatabase database, List<String> resourceNames) {
+		for (String resourceName : resourceNames) {
+			if (!database.hasQueryResource(resourceName)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	private void getCDMUnitConcepts(CDMDatabase database, List<String> report) {
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Get CDM unit concepts ...");
+		
+		unitConcepts = new CDMConceptIdMap<CDMConcept>();
+		database.excuteQueryResource("GetCDMUnitConcepts.sql");
+		while (database.hasNext()) {
+			DelimitedFileRow queryRow = database.next();
+			
+			CDMConcept unitConcept = new CDMConcept(this, queryRow, "");
+			unitConcepts.put(unitConcept.getConceptId(), unitConcept);
+		}
+		
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+	}
+	
+	
+	private void getRxNormClinicalDrugConcepts(CDMDatabase database, List<String> report) {
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Get CDM RxNorm Clinical Drug concepts ...");
+		
+		drugConcepts = new CDMConceptIdMap<CDMDrug>();
+		database.excuteQueryResource("GetRxNormClinicalDrugConcepts.sql");
+		while (database.hasNext()) {
+			DelimitedFileRow queryRow = database.next();
+			
+			CDMDrug drugConcept = new CDMDrug(this, queryRow, "");
+			drugConcepts.put(drugConcept.getConceptId(), drugConcept);
+		}
+		
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+	}
+	
+	
+	/**
+	 * Returns the drug of the drug strength query row with the given prefix,
+	 * or null when a normalized extraction has no concept for it.
+	 */
+	private CDMDrug getDrugConcept(DelimitedFileRow queryRow, String prefix) {
+		if (normalizedExtraction) {
+			return drugConcepts.get(queryRow.get(prefix + "concept_id", true));
+		}
+		return new CDMDrug(this, queryRow, prefix);
+	}
+	
+	
 	private void getCDMForms(CDMDatabase database, List<String> report) {
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Get CDM forms ...");
 		
@@ -444,7 +701,7 @@ public class CDM {
 		Set<CDMDrug> drugs = new HashSet<CDMDrug>();
 		String lastCDMFormConceptId = "xxxxxxxx";
 		int formCount = 0;
-		database.excuteQueryResource("GetRxNormClinicalDrugsIngredients.sql");
+		database.excuteQueryResource(normalizedExtraction ? "GetRxNormClinicalDrugsIngredientsNormalized.sql" : "GetRxNormClinicalDrugsIngredients.sql");
 		while (database.hasNext()) {
 			DelimitedFileRow queryRow = database.next();
 			String cdmDrugConceptId = queryRow.get("drug_concept_id", true);
@@ -454,7 +711,10 @@ public class CDM {
 			if ((cdmDrugConceptId != null) && (!cdmDrugConceptId.equals(""))) {
 				CDMDrug cdmDrug = cdmDrugForms.get(cdmDrugConceptId);
 				if (cdmDrug == null) {
-					cdmDrug = new CDMDrug(this, queryRow, "drug_");
+					cdmDrug = getDrugConcept(queryRow, "drug_");
+					if (cdmDrug == null) {
+						continue;
+					}
 					cdmDrugForms.put(cdmDrug.getConceptId(), cdmDrug);
 					drugs.add(cdmDrug);
 					lastCDMFormConceptId = "xxxxxxxx";
@@ -506,14 +766,17 @@ public class CDM {
 	private void getRxNormClinicalDrugCompsWithIngredients(CDMDatabase database, List<String> report) {
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Get CDM RxNorm Clinical Drug Comps with ingredients ...");
 
-		database.excuteQueryResource("GetRxNormClinicalDrugCompsIngredients.sql");
+		database.excuteQueryResource(normalizedExtraction ? "GetRxNormClinicalDrugCompsIngredientsNormalized.sql" : "GetRxNormClinicalDrugCompsIngredients.sql");
 		while (database.hasNext()) {
 			DelimitedFileRow queryRow = database.next();
 			String cdmDrugConceptId = queryRow.get("drugcomp_concept_id", true);
 			if ((cdmDrugConceptId != null) && (!cdmDrugConceptId.equals(""))) {
 				CDMDrug cdmDrugComp = cdmDrugComps.get(cdmDrugConceptId);
 				if (cdmDrugComp == null) {
-					cdmDrugComp = new CDMDrug(this, queryRow, "drugcomp_");
+					cdmDrugComp = getDrugConcept(queryRow, "drugcomp_");
+					if (cdmDrugComp == null) {
+						continue;
+					}
 					cdmDrugComps.put(cdmDrugComp.getConceptId(), cdmDrugComp);
 				}
 				
@@ -547,7 +810,7 @@ public class CDM {
 		Set<CDMDrug> drugForms = new HashSet<CDMDrug>();
 		String lastCDMFormConceptId = "xxxxxxxx";
 		int formCount = 0;
-		database.excuteQueryResource("GetRxNormClinicalDrugFormsIngredients.sql");
+		database.excuteQueryResource(normalizedExtraction ? "GetRxNormClinicalDrugFormsIngredientsNormalized.sql" : "GetRxNormClinicalDrugFormsIngredients.sql");
 		while (database.hasNext()) {
 			DelimitedFileRow queryRow = database.next();
 			String cdmDrugConceptId = queryRow.get("drugform_concept_id", true);
@@ -557,7 +820,10 @@ public class CDM {
 			if ((cdmDrugConceptId != null) && (!cdmDrugConceptId.equals(""))) {
 				CDMDrug cdmDrugForm = cdmDrugForms.get(cdmDrugConceptId);
 				if (cdmDrugForm == null) {
-					cdmDrugForm = new CDMDrug(this, queryRow, "drugform_");
+					cdmDrugForm = getDrugConcept(queryRow, "drugform_");
+					if (cdmDrugForm == null) {
+						continue;
+					}
 					cdmDrugForms.put(cdmDrugForm.getConceptId(), cdmDrugForm);
 					drugForms.add(cdmDrugForm);
 					lastCDMFormConceptId = "xxxxxxxx";
@@ -627,24 +893,21 @@ public class CDM {
 		}
 
 		Integer atcDrugCount = 0;
-		for (String cdmDrugConceptId : cdmDrugs.keySet()) {
-			CDMDrug cdmDrug = cdmDrugs.get(cdmDrugConceptId);
+		for (CDMDrug cdmDrug : cdmDrugs.values()) {
 			if (cdmDrug.getATCs().size() > 0) {
 				atcDrugCount++;
 			}
 		}
 
 		Integer atcDrugCompCount = 0;
-		for (String cdmDrugConceptId : cdmDrugComps.keySet()) {
-			CDMDrug cdmDrug = cdmDrugComps.get(cdmDrugConceptId);
+		for (CDMDrug cdmDrug : cdmDrugComps.values()) {
 			if (cdmDrug.getATCs().size() > 0) {
 				atcDrugCompCount++;
 			}
 		}
 
 		Integer atcDrugFormCount = 0;
-		for (String cdmDrugConceptId : cdmDrugForms.keySet()) {
-			CDMDrug cdmDrug = cdmDrugForms.get(cdmDrugConceptId);
+		for (CDMDrug cdmDrug : cdmDrugForms.values()) {
 			if (cdmDrug.getATCs().size() > 0) {
 				atcDrugFormCount++;
 			}
@@ -674,8 +937,8 @@ public class CDM {
 			CDMIngredient preferredIngredient = null;
 			if (previousIngredient != null) {
 				if (preferredIngredient == null) {
-					if (!DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_RXNORM).equals("None")) {
-						String preferredVocabulary_id = DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_RXNORM);
+					if (configuration.getRxNormPreference() != MappingConfiguration.RXNORM_PREFERENCE_NONE) {
+						String preferredVocabulary_id = configuration.getPreferredRxNormVocabularyId();
 
 						if (cdmIngredient.getVocabularyId().equals(preferredVocabulary_id)) {
 							if (!previousIngredient.getVocabularyId().equals(preferredVocabulary_id)) {
@@ -688,11 +951,11 @@ public class CDM {
 					}
 				}
 				if (preferredIngredient == null) {
-					if ((!DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_PRIORITIZE_BY_DATE).equals("No"))) {
-						boolean latest = DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_PRIORITIZE_BY_DATE).equals("Latest");
+					if (configuration.getDatePreference() != MappingConfiguration.DATE_PREFERENCE_NONE) {
+						boolean latest = (configuration.getDatePreference() == MappingConfiguration.DATE_PREFERENCE_LATEST);
 
-						Integer date = Integer.parseInt(cdmIngredient.getValidStartDate().replaceAll("-",""));
-						Integer previousDate = Integer.parseInt(previousIngredient.getValidStartDate().replaceAll("-",""));
+						int date = cdmIngredient.getValidStartDateValue();
+						int previousDate = previousIngredient.getValidStartDateValue();
 						
 						if (latest) {
 							if (date > previousDate) {
@@ -713,11 +976,11 @@ public class CDM {
 					}
 				}
 				if (preferredIngredient == null) {
-					if (!DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_PRIORITIZE_BY_CONCEPT_ID).equals("No")) {
-						boolean oldest = DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_PRIORITIZE_BY_CONCEPT_ID).equals("Smallest (= oldest)");
+					if (configuration.getConceptIdPreference() != MappingConfiguration.CONCEPT_ID_PREFERENCE_NONE) {
+						boolean oldest = (configuration.getConceptIdPreference() == MappingConfiguration.CONCEPT_ID_PREFERENCE_SMALLEST);
 						
-						Integer concept_id = Integer.parseInt(cdmIngredient.getConceptId());
-						Integer previousConcept_id = Integer.parseInt(previousIngredient.getConceptId());
+						long concept_id = cdmIngredient.getConceptIdValue();
+						long previousConcept_id = previousIngredient.getConceptIdValue();
 						
 						if (oldest) {
 							if (concept_id < previousConcept_id) {
@@ -738,8 +1001,8 @@ public class CDM {
 					}
 				}
 				if (preferredIngredient == null) {
-					if (!DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_TAKE_FIRST_OR_LAST).equals("None")) {
-						boolean first = DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_PRIORITIZE_BY_CONCEPT_ID).equals("First");
+					if (configuration.getFirstOrLastPreference() != MappingConfiguration.FIRST_OR_LAST_PREFERENCE_NONE) {
+						boolean first = (configuration.getFirstOrLastPreference() == MappingConfiguration.FIRST_OR_LAST_PREFERENCE_FIRST);
 						
 						if (first) {
 							preferredIngredient = lastCdmIngredient;
@@ -782,124 +1045,470 @@ public class CDM {
 	}
 
 
-	public CDMIngredient findIngredientByName(String name, String baseContext) {
-		matchString = "";
-
-		CDMIngredient cdmIngredient = findIngredientByName(name);
-		if (cdmIngredient != null) {
-			matchString = baseContext + " - Ingredient Term" + nameMatchString + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "")  + " (\"" + name + "\")";
-			return cdmIngredient;
-		}
-
-		cdmIngredient = findIngredientBySynonym(name);
-		if (cdmIngredient != null) {
-			matchString = baseContext + " - Synonym Term" + synonymMatchString + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "")  + " (\"" + name + "\")";
-			return cdmIngredient;
+	private void buildStrengthTables() {
+		cdmStrengthUnits = new ArrayList<String>();
+		Map<String, Integer> unitIndexes = new HashMap<String, Integer>();
+		for (Map<String, CDMDrug> drugMap : getSnapshotDrugMaps()) {
+			for (CDMDrug cdmDrug : drugMap.values()) {
+				if (cdmDrug.getStrengthIngredientIds() == null) {
+					cdmDrug.buildStrengthTable(unitIndexes, cdmStrengthUnits);
+				}
+			}
 		}
-
-		cdmIngredient = findIngredientByRelation(name);
-		if (cdmIngredient != null) {
-			matchString = baseContext + " - Ingredient Relationship" + relationMatchString + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "")  + " (\"" + name + "\")";
-			return cdmIngredient;
+	}
+	
+	
+	private void buildIngredientIndexes() {
+		cdmDrugsIngredientIndex = new CDMDrugIngredientIndex();
+		for (Integer ingredientCount : cdmDrugsContainingIngredient.keySet()) {
+			cdmDrugsIngredientIndex.addPartition(ingredientCount, cdmDrugsContainingIngredient.get(ingredientCount));
 		}
 		
-		return null;
+		cdmDrugCompsIngredientIndex = new CDMDrugIngredientIndex();
+		cdmDrugCompsIngredientIndex.addPartition(cdmDrugCompsContainingIngredient);
+		
+		cdmDrugFormsIngredientIndex = new CDMDrugIngredientIndex();
+		for (Integer ingredientCount : cdmDrugFormsContainingIngredient.keySet()) {
+			cdmDrugFormsIngredientIndex.addPartition(ingredientCount, cdmDrugFormsContainingIngredient.get(ingredientCount));
+		}
 	}
-
-
-	public CDMIngredient findIngredientByName(String name) {
-		nameMatchString = "";
-		CDMIngredient cdmIngredient = ingredientNames.findName(name);
-		if (cdmIngredient != null) {
-			nameMatchString = ingredientNames.getMatchString();
-			return cdmIngredient;
+	
+	
+	private String getSnapshotHeader(CDMDatabase database) {
+		String snapshotHeader = null;
+		
+		// The snapshot is only valid for the same vocabulary release and the settings used while building it
+		String vocabularyVersion = null;
+		if (database.excuteQueryResource("GetVocabularyVersion.sql")) {
+			while (database.hasNext()) {
+				DelimitedFileRow queryRow = database.next();
+				vocabularyVersion = queryRow.get("vocabulary_version", true);
+			}
 		}
-
-		cdmIngredient = ingredientNames.findStandardizedName(name);
-		if (cdmIngredient != null) {
-			nameMatchString = " (Standardised)" + ingredientNames.getMatchString();
-			return cdmIngredient;
+		if (vocabularyVersion != null) {
+			snapshotHeader = "Vocabulary=" + vocabularyVersion;
+			snapshotHeader += ";Schema=" + database.getVocabSchema();
+			snapshotHeader += ";PreferenceRxNorm=" + configuration.getValue(MainFrame.PREFERENCE_RXNORM);
+			snapshotHeader += ";PrioritizeByDate=" + configuration.getValue(MainFrame.PREFERENCE_PRIORITIZE_BY_DATE);
+			snapshotHeader += ";PrioritizeByConceptId=" + configuration.getValue(MainFrame.PREFERENCE_PRIORITIZE_BY_CONCEPT_ID);
+			snapshotHeader += ";TakeFirstOrLast=" + configuration.getValue(MainFrame.PREFERENCE_TAKE_FIRST_OR_LAST);
 		}
-
-		cdmIngredient = ingredientNames.findSortedWordsName(name);
-		if (cdmIngredient != null) {
-			nameMatchString = " (Sorted)" + ingredientNames.getMatchString();
-			return cdmIngredient;
+		else if (database.getCacheFileName(SNAPSHOT_FILE_NAME) != null) {
+			// E.g. a CDM cache written before the vocabulary version was cached
+			System.out.println("WARNING: " + (database.isReadFromCache() ? "The CDM cache does not contain the vocabulary version" : "The vocabulary version could not be read") + ". No CDM snapshot is used.");
 		}
-
-		cdmIngredient = ingredientNames.findStandardizedSortedWordsName(name);
-		if (cdmIngredient != null) {
-			nameMatchString = " (Sorted, Standardised)" + ingredientNames.getMatchString();
-			return cdmIngredient;
+		
+		return snapshotHeader;
+	}
+	
+	
+	private void saveSnapshot(String snapshotFileName, String snapshotHeader, List<String> snapshotReport) {
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Write CDM snapshot ...");
+		DrugMappingMetrics.Stage stage = metrics.startStage("Write CDM snapshot");
+		
+		File snapshotFile = new File(snapshotFileName);
+		File temporaryFile = new File(snapshotFileName + ".tmp");
+		try {
+			CDMSnapshotWriter snapshot = new CDMSnapshotWriter(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 1024 * 1024)));
+			
+			snapshot.writeInt(SNAPSHOT_MAGIC);
+			snapshot.writeInt(SNAPSHOT_VERSION);
+			snapshot.writeString(snapshotHeader);
+			
+			snapshot.writeInt(cdmForms.size());
+			for (CDMConcept formConcept : cdmForms.values()) {
+				snapshot.writeConcept(formConcept);
+			}
+			writeSnapshotStringMap(snapshot, cdmFormNameToConceptIdMap);
+			writeSnapshotStringMap(snapshot, cdmFormConceptIdToNameMap);
+			snapshot.writeStringList(cdmFormConceptNames);
+			writeSnapshotStringMap(snapshot, cdmUnitNameToConceptIdMap);
+			writeSnapshotStringMap(snapshot, cdmUnitConceptIdToNameMap);
+			snapshot.writeStringList(cdmUnitConceptNames);
+			
+			snapshot.writeInt(cdmIngredientsList.size());
+			for (CDMIngredient cdmIngredient : cdmIngredientsList) {
+				snapshot.writeIngredient(cdmIngredient);
+			}
+			snapshot.writeInt(cdmIngredients.size());
+			for (CDMIngredient cdmIngredient : cdmIngredients.values()) {
+				snapshot.writeIngredientReference(cdmIngredient);
+			}
+			
+			// The drug maps share drug objects so every drug is written once and referenced afterwards
+			Set<CDMDrug> allDrugs = Collections.newSetFromMap(new IdentityHashMap<CDMDrug, Boolean>());
+			List<CDMDrug> allDrugsList = new ArrayList<CDMDrug>();
+			for (Map<String, CDMDrug> drugMap : getSnapshotDrugMaps()) {
+				for (CDMDrug cdmDrug : drugMap.values()) {
+					if (allDrugs.add(cdmDrug)) {
+						allDrugsList.add(cdmDrug);
+					}
+				}
+			}
+			snapshot.writeInt(allDrugsList.size());
+			for (CDMDrug cdmDrug : allDrugsList) {
+				snapshot.writeDrug(cdmDrug);
+			}
+			for (Map<String, CDMDrug> drugMap : getSnapshotDrugMaps()) {
+				snapshot.writeInt(drugMap.size());
+				for (CDMDrug cdmDrug : drugMap.values()) {
+					snapshot.writeDrugReference(cdmDrug);
+				}
+			}
+			
+			writeSnapshotIngredientCountMap(snapshot, cdmDrugsContainingIngredient);
+			writeSnapshotIngredientMap(snapshot, cdmDrugCompsContainingIngredient);
+			writeSnapshotIngredientCountMap(snapshot, cdmDrugFormsContainingIngredient);
+			
+			snapshot.writeInt(cdmATCIngredientMap.size());
+			for (String atc : cdmATCIngredientMap.keySet()) {
+				snapshot.writeString(atc);
+				Set<CDMIngredient> atcIngredients = cdmATCIngredientMap.get(atc);
+				snapshot.writeInt(atcIngredients.size());
+				for (CDMIngredient cdmIngredient : atcIngredients) {
+					snapshot.writeIngredientReference(cdmIngredient);
+				}
+			}
+			
+			snapshot.writeInt(cdmCASIngredientMap.size());
+			for (String casNumber : cdmCASIngredientMap.keySet()) {
+				snapshot.writeString(casNumber);
+				snapshot.writeIngredientReference(cdmCASIngredientMap.get(casNumber));
+			}
+			
+			ingredientNames.writeSnapshot(snapshot);
+			ingredientNameSynonyms.writeSnapshot(snapshot);
+			ingredientNameRelations.writeSnapshot(snapshot);
+			
+			snapshot.writeStringList(snapshotReport);
+			snapshot.writeInt(SNAPSHOT_END);
+			snapshot.close();
+			
+			Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException exception) {
+			System.out.println("WARNING: Could not write CDM snapshot '" + snapshotFileName + "': " + exception.getMessage());
+			temporaryFile.delete();
+		}
+		
+		stage.end();
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+	}
+	
+	
+	private boolean loadSnapshot(String snapshotFileName, String snapshotHeader, List<String> report) {
+		boolean ok = false;
+		
+		File snapshotFile = new File(snapshotFileName);
+		if (snapshotFile.canRead() && (snapshotFile.length() < Integer.MAX_VALUE)) {
+			System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Load CDM snapshot ...");
+			DrugMappingMetrics.Stage stage = metrics.startStage("Load CDM snapshot");
+			
+			initialize();
+			List<String> snapshotReport = null;
+			try (RandomAccessFile snapshotAccessFile = new RandomAccessFile(snapshotFile, "r")) {
+				FileChannel snapshotChannel = snapshotAccessFile.getChannel();
+				MappedByteBuffer snapshotBuffer = snapshotChannel.map(FileChannel.MapMode.READ_ONLY, 0, snapshotChannel.size());
+				CDMSnapshotReader snapshot = new CDMSnapshotReader(snapshotBuffer, this);
+				
+				if ((snapshot.readInt() == SNAPSHOT_MAGIC) && (snapshot.readInt() == SNAPSHOT_VERSION) && snapshotHeader.equals(snapshot.readString())) {
+					int formCount = snapshot.readInt();
+					for (int formNr = 0; formNr < formCount; formNr++) {
+						CDMConcept formConcept = snapshot.readConcept();
+						cdmForms.put(formConcept.getConceptId(), formConcept);
+					}
+					readSnapshotStringMap(snapshot, cdmFormNameToConceptIdMap);
+					readSnapshotStringMap(snapshot, cdmFormConceptIdToNameMap);
+					cdmFormConceptNames.addAll(snapshot.readStringList());
+					readSnapshotStringMap(snapshot, cdmUnitNameToConceptIdMap);
+					readSnapshotStringMap(snapshot, cdmUnitConceptIdToNameMap);
+					cdmUnitConceptNames.addAll(snapshot.readStringList());
+					
+					int ingredientCount = snapshot.readInt();
+					for (int ingredientNr = 0; ingredientNr < ingredientCount; ingredientNr++) {
+						cdmIngredientsList.add(snapshot.readIngredient());
+					}
+					ingredientCount = snapshot.readInt();
+					for (int ingredientNr = 0; ingredientNr < ingredientCount; ingredientNr++) {
+						CDMIngredient cdmIngredient = snapshot.readIngredientReference();
+						cdmIngredients.put(cdmIngredient.getConceptId(), cdmIngredient);
+					}
+					
+					int drugCount = snapshot.readInt();
+					for (int drugNr = 0; drugNr < drugCount; drugNr++) {
+						snapshot.readDrug();
+					}
+					for (Map<String, CDMDrug> drugMap : getSnapshotDrugMaps()) {
+						drugCount = snapshot.readInt();
+						for (int drugNr = 0; drugNr < drugCount; drugNr++) {
+							CDMDrug cdmDrug = snapshot.readDrugReference();
+							drugMap.put(cdmDrug.getConceptId(), cdmDrug);
+						}
+					}
+					
+					readSnapshotIngredientCountMap(snapshot, cdmDrugsContainingIngredient);
+					readSnapshotIngredientMap(snapshot, cdmDrugCompsContainingIngredient);
+					readSnapshotIngredientCountMap(snapshot, cdmDrugFormsContainingIngredient);
+					
+					int atcCount = snapshot.readInt();
+					for (int atcNr = 0; atcNr < atcCount; atcNr++) {
+						String atc = snapshot.readString();
+						Set<CDMIngredient> atcIngredients = new HashSet<CDMIngredient>();
+						int atcIngredientCount = snapshot.readInt();
+						for (int atcIngredientNr = 0; atcIngredientNr < atcIngredientCount; atcIngredientNr++) {
+							atcIngredients.add(snapshot.readIngredientReference());
+						}
+						cdmATCIngredientMap.put(atc, atcIngredients);
+					}
+					
+					int casCount = snapshot.readInt();
+					for (int casNr = 0; casNr < casCount; casNr++) {
+						String casNumber = snapshot.readString();
+						cdmCASIngredientMap.put(casNumber, snapshot.readIngredientReference());
+					}
+					
+					ingredientNames.readSnapshot(snapshot);
+					ingredientNameSynonyms.readSnapshot(snapshot);
+					ingredientNameRelations.readSnapshot(snapshot);
+					
+					snapshotReport = snapshot.readStringList();
+					ok = (snapshot.readInt() == SNAPSHOT_END);
+				}
+			}
+			catch (IOException | RuntimeException exception) {
+				ok = false;
+			}
+			stage.end();
+			
+			if (ok) {
+				report.addAll(snapshotReport);
+				System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+			}
+			else {
+				System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     CDM snapshot is outdated or invalid. Loading from cache instead.");
+			}
 		}
 		
-		return null;
+		return ok;
+	}
+	
+	
+	private List<Map<String, CDMDrug>> getSnapshotDrugMaps() {
+		List<Map<String, CDMDrug>> drugMaps = new ArrayList<Map<String, CDMDrug>>();
+		drugMaps.add(cdmDrugs);
+		drugMaps.add(cdmDrugComps);
+		drugMaps.add(cdmDrugForms);
+		drugMaps.add(cdmCVXVaccines);
+		return drugMaps;
+	}
+	
+	
+	private void writeSnapshotStringMap(CDMSnapshotWriter snapshot, Map<String, String> map) throws IOException {
+		snapshot.writeInt(map.size());
+		for (String key : map.keySet()) {
+			snapshot.writeString(key);
+			snapshot.writeString(map.get(key));
+		}
+	}
+	
+	
+	private void readSnapshotStringMap(CDMSnapshotReader snapshot, Map<String, String> map) {
+		int size = snapshot.readInt();
+		for (int entryNr = 0; entryNr < size; entryNr++) {
+			String key = snapshot.readString();
+			map.put(key, snapshot.readString());
+		}
+	}
+	
+	
+	private void writeSnapshotIngredientMap(CDMSnapshotWriter snapshot, Map<CDMIngredient, List<CDMDrug>> map) throws IOException {
+		snapshot.writeInt(map.size());
+		for (CDMIngredient cdmIngredient : map.keySet()) {
+			snapshot.writeIngredientReference(cdmIngredient);
+			List<CDMDrug> drugList = map.get(cdmIngredient);
+			snapshot.writeInt(drugList.size());
+			for (CDMDrug cdmDrug : drugList) {
+				snapshot.writeDrugReference(cdmDrug);
+			}
+		}
+	}
+	
+	
+	private void readSnapshotIngredientMap(CDMSnapshotReader snapshot, Map<CDMIngredient, List<CDMDrug>> map) {
+		int size = snapshot.readInt();
+		for (int entryNr = 0; entryNr < size; entryNr++) {
+			CDMIngredient cdmIngredient = snapshot.readIngredientReference();
+			int drugCount = snapshot.readInt();
+			List<CDMDrug> drugList = new ArrayList<CDMDrug>(drugCount);
+			for (int drugNr = 0; drugNr < drugCount; drugNr++) {
+				drugList.add(snapshot.readDrugReference());
+			}
+			map.put(cdmIngredient, drugList);
+		}
+	}
+	
+	
+	private void writeSnapshotIngredientCountMap(CDMSnapshotWriter snapshot, Map<Integer, Map<CDMIngredient, List<CDMDrug>>> map) throws IOException {
+		snapshot.writeInt(map.size());
+		for (Integer ingredientCount : map.keySet()) {
+			snapshot.writeInt(ingredientCount);
+			writeSnapshotIngredientMap(snapshot, map.get(ingredientCount));
+		}
+	}
+	
+	
+	private void readSnapshotIngredientCountMap(CDMSnapshotReader snapshot, Map<Integer, Map<CDMIngredient, List<CDMDrug>>> map) {
+		int size = snapshot.readInt();
+		for (int entryNr = 0; entryNr < size; entryNr++) {
+			Integer ingredientCount = snapshot.readInt();
+			Map<CDMIngredient, List<CDMDrug>> ingredientMap = new HashMap<CDMIngredient, List<CDMDrug>>();
+			readSnapshotIngredientMap(snapshot, ingredientMap);
+			map.put(ingredientCount, ingredientMap);
+		}
 	}
 
 
-	public CDMIngredient findIngredientBySynonym(String name) {
-		synonymMatchString = "";
-		CDMIngredient cdmIngredient = ingredientNameSynonyms.findName(name);
-		if (cdmIngredient != null) {
-			synonymMatchString = ingredientNameSynonyms.getMatchString();
-			return cdmIngredient;
-		}
+	private void buildNameTrie() {
+		nameTrie = new CDMNameTrie();
+		ingredientNames.addNamesToTrie(nameTrie, NAME_TIER_BIT);
+		ingredientNameSynonyms.addNamesToTrie(nameTrie, SYNONYM_TIER_BIT);
+		ingredientNameRelations.addNamesToTrie(nameTrie, RELATION_TIER_BIT);
+	}
+	
+	
+	/**
+	 * Returns the tiers in which the reduced names of the source name and the
+	 * translated name occur as they are, as generated by
+	 * DrugMappingStringUtilities.generateMatchingNames, from one walk over
+	 * each name. The result can be passed to matchIngredientByName to skip
+	 * the lookups of the names as they are in the other tiers.
+	 */
+	public Map<String, Integer> getReducedNameTiers(String name, String englishName) {
+		Map<String, Integer> reducedNameTiers = new HashMap<String, Integer>();
+		name = DrugMappingStringUtilities.safeToUpperCase(DrugMappingStringUtilities.removeExtraSpaces(name));
+		englishName = DrugMappingStringUtilities.safeToUpperCase(DrugMappingStringUtilities.removeExtraSpaces(englishName));
+		if (name != null) {
+			nameTrie.getReducedNameTiers(name, MAXIMUM_REDUCED_NAME_WORDS, reducedNameTiers);
+		}
+		if ((englishName != null) && (!englishName.equals(""))) {
+			nameTrie.getReducedNameTiers(englishName, MAXIMUM_REDUCED_NAME_WORDS, reducedNameTiers);
+		}
+		return reducedNameTiers;
+	}
+
 
-		cdmIngredient = ingredientNameSynonyms.findStandardizedName(name);
-		if (cdmIngredient != null) {
-			synonymMatchString = " (Standardised)" + ingredientNameSynonyms.getMatchString();
-			return cdmIngredient;
+	public CDMIngredientMatch matchIngredientByName(String name, String baseContext) {
+		return matchIngredientByName(name, baseContext, null);
+	}
+
+
+	/**
+	 * Finds the ingredient of the name in the ingredient names, synonyms and
+	 * relations, in that order, and returns it with a match string that
+	 * starts with the base context. When the tiers the name occurs in as it
+	 * is are known (from getReducedNameTiers) the lookups of the name as it
+	 * is in the other tiers are skipped.
+	 * The lookup does not change the state of the CDM so it can be done
+	 * from several threads at the same time.
+	 */
+	public CDMIngredientMatch matchIngredientByName(String name, String baseContext, Integer nameTiers) {
+		int lookupTiers = nameTiers == null ? ALL_TIER_BITS : nameTiers;
+
+		CDMIngredientMatch resolution = resolveName(ingredientNames, NAME_TIER, name, (lookupTiers & NAME_TIER_BIT) != 0);
+		if (resolution.isMatch()) {
+			return getIngredientMatch(resolution, baseContext + " - Ingredient Term", name);
 		}
 
-		cdmIngredient = ingredientNameSynonyms.findSortedWordsName(name);
-		if (cdmIngredient != null) {
-			synonymMatchString = " (Sorted)" + ingredientNameSynonyms.getMatchString();
-			return cdmIngredient;
+		resolution = resolveName(ingredientNameSynonyms, SYNONYM_TIER, name, (lookupTiers & SYNONYM_TIER_BIT) != 0);
+		if (resolution.isMatch()) {
+			return getIngredientMatch(resolution, baseContext + " - Synonym Term", name);
 		}
 
-		cdmIngredient = ingredientNameSynonyms.findStandardizedSortedWordsName(name);
-		if (cdmIngredient != null) {
-			synonymMatchString = " (Sorted, Standardised)" + ingredientNameSynonyms.getMatchString();
-			return cdmIngredient;
+		resolution = resolveName(ingredientNameRelations, RELATION_TIER, name, (lookupTiers & RELATION_TIER_BIT) != 0);
+		if (resolution.isMatch()) {
+			return getIngredientMatch(resolution, baseContext + " - Ingredient Relationship", name);
 		}
 		
-		return null;
+		return CDMIngredientMatch.NO_MATCH;
 	}
 	
-		
-	public CDMIngredient findIngredientByRelation(String name) {
-		relationMatchString = "";
-		
-		CDMIngredient cdmIngredient = ingredientNameRelations.findName(name);
-		if (cdmIngredient != null) {
-			relationMatchString = ingredientNameRelations.getMatchString();
-			return cdmIngredient;
-		}
+	
+	private CDMIngredientMatch getIngredientMatch(CDMIngredientMatch resolution, String context, String name) {
+		CDMIngredient cdmIngredient = resolution.getIngredient();
+		return new CDMIngredientMatch(cdmIngredient, context + resolution.getMatchString() + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "")  + " (\"" + name + "\")");
+	}
 
-		cdmIngredient = ingredientNameRelations.findStandardizedName(name);
-		if (cdmIngredient != null) {
-			relationMatchString = " (Standardised)" + ingredientNameRelations.getMatchString();
-			return cdmIngredient;
-		}
 
-		cdmIngredient = ingredientNameRelations.findSortedWordsName(name);
-		if (cdmIngredient != null) {
-			relationMatchString = " (Sorted)" + ingredientNameRelations.getMatchString();
-			return cdmIngredient;
-		}
+	public CDMIngredient findIngredientByName(String name) {
+		return resolveName(ingredientNames, NAME_TIER, name, true).getIngredient();
+	}
 
-		cdmIngredient = ingredientNameRelations.findStandardizedSortedWordsName(name);
-		if (cdmIngredient != null) {
-			relationMatchString = " (Sorted, Standardised)" + ingredientNameRelations.getMatchString();
-			return cdmIngredient;
-		}
+
+	public CDMIngredient findIngredientBySynonym(String name) {
+		return resolveName(ingredientNameSynonyms, SYNONYM_TIER, name, true).getIngredient();
+	}
+	
 		
-		return null;
+	public CDMIngredient findIngredientByRelation(String name) {
+		return resolveName(ingredientNameRelations, RELATION_TIER, name, true).getIngredient();
+	}
+	
+	
+	/**
+	 * Returns the ingredient a lookup name resolves to in a tier, or no
+	 * ingredient, with the part of the match string that describes the match.
+	 */
+	private CDMIngredientMatch resolveName(MappingIngredientHitLibraryNames library, String tier, String name, boolean lookupName) {
+		String key = tier + "\t" + name;
+		CDMIngredientMatch resolution = nameResolutionCache.get(key);
+		if (resolution == null) {
+			String[] normalizedNames = getNormalizedNames(name);
+			
+			// The name as it is is only looked up when it may occur in the tier
+			CDMIngredientMatch libraryMatch = lookupName ? library.findName(name) : null;
+			String matchType = "";
+			if (libraryMatch == null) {
+				libraryMatch = library.findStandardizedName(normalizedNames[0]);
+				matchType = " (Standardised)";
+			}
+			if (libraryMatch == null) {
+				libraryMatch = library.findSortedWordsName(normalizedNames[1]);
+				matchType = " (Sorted)";
+			}
+			if (libraryMatch == null) {
+				libraryMatch = library.findStandardizedSortedWordsName(normalizedNames[2]);
+				matchType = " (Sorted, Standardised)";
+			}
+			
+			resolution = libraryMatch == null ? CDMIngredientMatch.NO_MATCH : new CDMIngredientMatch(libraryMatch.getIngredient(), matchType + libraryMatch.getMatchString());
+			resolution = nameResolutionCache.put(key, resolution);
+		}
+		return resolution;
+	}
+	
+	
+	private String[] getNormalizedNames(String name) {
+		String[] normalizedNames = normalizedNameCache.get(name);
+		if (normalizedNames == null) {
+			String sortedWordsName = DrugMappingStringUtilities.sortWords(name);
+			normalizedNames = new String[] {
+					DrugMappingStringUtilities.standardizedName(name),
+					sortedWordsName,
+					DrugMappingStringUtilities.standardizedName(sortedWordsName)
+			};
+			normalizedNames = normalizedNameCache.put(name, normalizedNames);
+		}
+		return normalizedNames;
+	}
+	
+	
+	public CDMNameCache<?> getNameResolutionCache() {
+		return nameResolutionCache;
 	}
 	
 	
-	public String getMatchString() {
-		return matchString;
+	public CDMNameCache<?> getNormalizedNameCache() {
+		return normalizedNameCache;
 	}
 	
 	
@@ -909,8 +1518,6 @@ public class CDM {
 		private MappingIngredientHitLibrary sortedWordsamesLibrary;
 		private MappingIngredientHitLibrary standardizedSortedWordsamesLibrary;
 		
-		private String matchString = "";
-		
 		
 		public MappingIngredientHitLibraryNames() {
 			namesLibrary = new MappingIngredientHitLibrary();
@@ -929,39 +1536,28 @@ public class CDM {
 		}
 		
 		
-		public CDMIngredient findName(String name) {
-			CDMIngredient cdmIngredient = namesLibrary.findBestTargetIngredient(name);
-			if (cdmIngredient != null) {
-				matchString = namesLibrary.getLastMatchString();
-			}
-			return cdmIngredient;
+		public CDMIngredientMatch findName(String name) {
+			return namesLibrary.findBestTargetMatch(name);
 		}
 		
 		
-		public CDMIngredient findStandardizedName(String name) {
-			CDMIngredient cdmIngredient = standardizedNamesLibrary.findBestTargetIngredient(DrugMappingStringUtilities.standardizedName(name));
-			if (cdmIngredient != null) {
-				matchString = standardizedNamesLibrary.getLastMatchString();
-			}
-			return cdmIngredient;
+		public CDMIngredientMatch findStandardizedName(String standardizedName) {
+			return standardizedNamesLibrary.findBestTargetMatch(standardizedName);
 		}
 		
 		
-		public CDMIngredient findSortedWordsName(String name) {
-			CDMIngredient cdmIngredient = sortedWordsamesLibrary.findBestTargetIngredient(DrugMappingStringUtilities.sortWords(name));
-			if (cdmIngredient != null) {
-				matchString = sortedWordsamesLibrary.getLastMatchString();
-			}
-			return cdmIngredient;
+		public CDMIngredientMatch findSortedWordsName(String sortedWordsName) {
+			return sortedWordsamesLibrary.findBestTargetMatch(sortedWordsName);
 		}
 		
 		
-		public CDMIngredient findStandardizedSortedWordsName(String name) {
-			CDMIngredient cdmIngredient = standardizedSortedWordsamesLibrary.findBestTargetIngredient(DrugMappingStringUtilities.standardizedName(DrugMappingStringUtilities.sortWords(name)));
-			if (cdmIngredient != null) {
-				matchString = standardizedSortedWordsamesLibrary.getLastMatchString();
-			}
-			return cdmIngredient;
+		public CDMIngredientMatch findStandardizedSortedWordsName(String standardizedSortedWordsName) {
+			return standardizedSortedWordsamesLibrary.findBestTargetMatch(standardizedSortedWordsName);
+		}
+		
+		
+		public void addNamesToTrie(CDMNameTrie nameTrie, int tier) {
+			namesLibrary.addNamesToTrie(nameTrie, tier);
 		}
 		
 		
@@ -973,25 +1569,34 @@ public class CDM {
 		}
 		
 		
-		public String getMatchString() {
-			return matchString;
+		public void writeSnapshot(CDMSnapshotWriter snapshot) throws IOException {
+			namesLibrary.writeSnapshot(snapshot);
+			standardizedNamesLibrary.writeSnapshot(snapshot);
+			sortedWordsamesLibrary.writeSnapshot(snapshot);
+			standardizedSortedWordsamesLibrary.writeSnapshot(snapshot);
+		}
+		
+		
+		public void readSnapshot(CDMSnapshotReader snapshot) {
+			namesLibrary.readSnapshot(snapshot);
+			standardizedNamesLibrary.readSnapshot(snapshot);
+			sortedWordsamesLibrary.readSnapshot(snapshot);
+			standardizedSortedWordsamesLibrary.readSnapshot(snapshot);
 		}
 	}
 	
 	
 	private class MappingIngredientHitLibrary {
 		private Map<String, MappingIngredientHits> ingredientHitsMap = new HashMap<String, MappingIngredientHits>();
-		private String lastMatchString = null; // Contains last match result 
 		
 		
-		public CDMIngredient findBestTargetIngredient(String name) {
-			CDMIngredient cdmIngredient = null;
+		public CDMIngredientMatch findBestTargetMatch(String name) {
+			CDMIngredientMatch ingredientMatch = null;
 			MappingIngredientHits ingredientHits = findByName(name, false);
 			if (ingredientHits != null) {
-				cdmIngredient = ingredientHits.getBestTargetIngredient();
-				lastMatchString = ingredientHits.getLastMatchString();
+				ingredientMatch = ingredientHits.getBestTargetMatch();
 			}
-			return cdmIngredient;
+			return ingredientMatch;
 		}
 		
 		
@@ -1010,6 +1615,13 @@ public class CDM {
 		}
 		
 		
+		public void addNamesToTrie(CDMNameTrie nameTrie, int tier) {
+			for (String name : ingredientHitsMap.keySet()) {
+				nameTrie.addName(name, tier);
+			}
+		}
+		
+		
 		public void reCalculateHitScores() {
 			for (String name : ingredientHitsMap.keySet()) {
 				ingredientHitsMap.get(name).reCalculateHitScores();
@@ -1017,15 +1629,29 @@ public class CDM {
 		}
 		
 		
-		public String getLastMatchString() {
-			return lastMatchString;
+		public void writeSnapshot(CDMSnapshotWriter snapshot) throws IOException {
+			snapshot.writeInt(ingredientHitsMap.size());
+			for (String name : ingredientHitsMap.keySet()) {
+				snapshot.writeString(name);
+				ingredientHitsMap.get(name).writeSnapshot(snapshot);
+			}
+		}
+		
+		
+		public void readSnapshot(CDMSnapshotReader snapshot) {
+			int nameCount = snapshot.readInt();
+			for (int nameNr = 0; nameNr < nameCount; nameNr++) {
+				String name = snapshot.readString();
+				MappingIngredientHits ingredientHits = new MappingIngredientHits();
+				ingredientHits.readSnapshot(snapshot);
+				ingredientHitsMap.put(name, ingredientHits);
+			}
 		}
 	}
 	
 	
 	private class MappingIngredientHits {
 		private List<MappingIngredientHit> ingredientHits = new ArrayList<MappingIngredientHit>();
-		private String lastMatchString = null; // Contains last match result 
 		
 		
 		public void addHit(String searchVocabulary, String searchConceptClass, String searchRelationship, boolean synonym, CDMIngredient cdmIngredient) {
@@ -1055,9 +1681,34 @@ public class CDM {
 		}
 		
 		
-		public CDMIngredient getBestTargetIngredient() {
-			CDMIngredient result = null;
-			lastMatchString = "";
+		public void writeSnapshot(CDMSnapshotWriter snapshot) throws IOException {
+			snapshot.writeInt(ingredientHits.size());
+			for (MappingIngredientHit ingredientHit : ingredientHits) {
+				snapshot.writeString(ingredientHit.getSearchVocabulary());
+				snapshot.writeString(ingredientHit.getSearchConceptClass());
+				snapshot.writeString(ingredientHit.getSearchRelationship());
+				snapshot.writeBoolean(ingredientHit.isSnonym());
+				snapshot.writeIngredientReference(ingredientHit.getIngredient());
+			}
+		}
+		
+		
+		public void readSnapshot(CDMSnapshotReader snapshot) {
+			int hitCount = snapshot.readInt();
+			for (int hitNr = 0; hitNr < hitCount; hitNr++) {
+				String searchVocabulary = snapshot.readString();
+				String searchConceptClass = snapshot.readString();
+				String searchRelationship = snapshot.readString();
+				boolean synonym = snapshot.readBoolean();
+				CDMIngredient cdmIngredient = snapshot.readIngredientReference();
+				ingredientHits.add(new MappingIngredientHit(searchVocabulary, searchConceptClass, searchRelationship, synonym, cdmIngredient));
+			}
+		}
+		
+		
+		public CDMIngredientMatch getBestTargetMatch() {
+			CDMIngredientMatch result = null;
+			String matchString = "";
 			MappingIngredientHit bestIngredientHit = null;
 			int sameHitScoreCount = 0;
 			
@@ -1066,19 +1717,19 @@ public class CDM {
 			}
 			else {
 				int maxHitScore = -1;
-				int minimumConceptId = Integer.MAX_VALUE;
+				long minimumConceptId = Long.MAX_VALUE;
 				
 				for (MappingIngredientHit ingredientHit : ingredientHits) {
 					if (ingredientHit.getHitScore() > maxHitScore) {
 						bestIngredientHit = ingredientHit;
 						maxHitScore = ingredientHit.getHitScore();
-						minimumConceptId = Integer.parseInt(ingredientHit.getIngredient().getConceptId());
+						minimumConceptId = ingredientHit.getIngredient().getConceptIdValue();
 						sameHitScoreCount = 1;
 					}
 					else if (ingredientHit.getHitScore() == maxHitScore) {
 						sameHitScoreCount++;
-						if (Integer.parseInt(ingredientHit.getIngredient().getConceptId()) < minimumConceptId) {
-							minimumConceptId = Integer.parseInt(ingredientHit.getIngredient().getConceptId());
+						if (ingredientHit.getIngredient().getConceptIdValue() < minimumConceptId) {
+							minimumConceptId = ingredientHit.getIngredient().getConceptIdValue();
 							bestIngredientHit = ingredientHit;
 						}
 						
@@ -1087,33 +1738,28 @@ public class CDM {
 			}
 			
 			if (bestIngredientHit != null) {
-				result = bestIngredientHit.getIngredient();
-				
 				if (bestIngredientHit.isSnonym()) {
-					lastMatchString += " Synonym of";
+					matchString += " Synonym of";
 				}
 				
 				if (!bestIngredientHit.getSearchRelationship().equals("")) {
-					lastMatchString += " \"" + bestIngredientHit.getSearchConceptClass() + "\" with relation \"" + bestIngredientHit.getSearchRelationship() + "\"";
+					matchString += " \"" + bestIngredientHit.getSearchConceptClass() + "\" with relation \"" + bestIngredientHit.getSearchRelationship() + "\"";
 				}
 				
 				if (ingredientHits.size() > 1) {
 					if (ingredientHits.size() != sameHitScoreCount) {
-						lastMatchString += " - Filter on best fit";
+						matchString += " - Filter on best fit";
 					}
 					if (sameHitScoreCount > 1) {
-						lastMatchString += " - Filter on lowest concept_id";
+						matchString += " - Filter on lowest concept_id";
 					}
 				}
+				
+				result = new CDMIngredientMatch(bestIngredientHit.getIngredient(), matchString);
 			}
 			
 			return result;
 		}
-		
-		
-		public String getLastMatchString() {
-			return lastMatchString;
-		}
 	}
 	
 	
@@ -1169,10 +1815,10 @@ public class CDM {
 		
 		public void calculateHitScore() {
 			hitScrore = 0;
-			if (DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_NON_ORPHAN_INGREDIENTS).equals("Yes")) {
+			if (configuration.isPreferNonOrphanIngredients()) {
 				hitScrore += getIngredient().isOrphan() ? 100000 : 200000;
 			}
-			if (DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_RXNORM).equals("RxNorm")) {
+			if ((configuration.getRxNormPreference() == MappingConfiguration.RXNORM_PREFERENCE_RXNORM)) {
 				hitScrore += getSearchVocabulary().equals("RxNorm") ? 20000 : 10000;
 			}
 			else {
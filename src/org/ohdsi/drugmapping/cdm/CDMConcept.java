@@ -1,29 +1,106 @@
 package org.ohdsi.drugmapping.cdm;
 
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
 import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
 
 public class CDMConcept implements Comparable<CDMConcept> {
+	// The codes that repeat over the concepts are shared
+	private static Map<String, String> codes = new ConcurrentHashMap<String, String>();
+	
+	// Dates that are not yyyy-mm-dd are stored as negative indexes in this list
+	private static List<String> otherDates = new ArrayList<String>();
+	private static Map<String, Integer> otherDateIndexes = new ConcurrentHashMap<String, Integer>();
+	
 	protected CDM cdm = null;
 	
 	protected String concept_id       = null;
+	protected long   conceptIdValue   = -1;    // The concept_id as number, -1 when it is not a number
 	protected String concept_name     = null;
 	protected String domain_id        = null;
 	protected String vocabulary_id    = null;
 	protected String concept_class_id = null;
 	protected String standard_concept = null;
 	protected String concept_code     = null;
-	protected String valid_start_date = null;
-	protected String valid_end_date   = null;
+	protected int    valid_start_date = 0;     // yyyymmdd, 0 when null
+	protected int    valid_end_date   = 0;     // yyyymmdd, 0 when null
 	protected String invalid_reason   = null;
 	
 	protected String conceptNameNoSpaces = null;
 	protected String additional_info     = null;
 	
 	
+	public static String code(String value) {
+		if (value == null) {
+			return null;
+		}
+		String code = codes.putIfAbsent(value, value);
+		return code == null ? value : code;
+	}
+	
+	
+	public static int encodeDate(String date) {
+		if (date == null) {
+			return 0;
+		}
+		if ((date.length() == 10) && (date.charAt(4) == '-') && (date.charAt(7) == '-')) {
+			int value = 0;
+			for (int charNr = 0; charNr < 10; charNr++) {
+				if ((charNr != 4) && (charNr != 7)) {
+					char digit = date.charAt(charNr);
+					if ((digit < '0') || (digit > '9')) {
+						value = -1;
+						break;
+					}
+					value = (value * 10) + (digit - '0');
+				}
+			}
+			if (value > 0) {
+				return value;
+			}
+		}
+		synchronized (otherDates) {
+			Integer index = otherDateIndexes.get(date);
+			if (index == null) {
+				index = otherDates.size();
+				otherDates.add(date);
+				otherDateIndexes.put(date, index);
+			}
+			return -(index + 1);
+		}
+	}
+	
+	
+	public static String decodeDate(int date) {
+		if (date == 0) {
+			return null;
+		}
+		if (date < 0) {
+			synchronized (otherDates) {
+				return otherDates.get(-date - 1);
+			}
+		}
+		char[] chars = new char[10];
+		int value = date;
+		for (int charNr = 9; charNr >= 0; charNr--) {
+			if ((charNr == 4) || (charNr == 7)) {
+				chars[charNr] = '-';
+			}
+			else {
+				chars[charNr] = (char) ('0' + (value % 10));
+				value /= 10;
+			}
+		}
+		return new String(chars);
+	}
+	
+	
 	public static String getHeader() {
 		return getHeader("");
 	}
@@ -66,19 +143,21 @@ public class CDMConcept implements Comparable<CDMConcept> {
 		
 		concept_id       = queryRow.get(prefix + "concept_id", true).trim();
 		concept_name     = DrugMappingStringUtilities.safeToUpperCase(queryRow.get(prefix + "concept_name", true).replaceAll("\n", " ").replaceAll("\r", " ").trim());
-		domain_id        = queryRow.get(prefix + "domain_id", true).trim();
-		vocabulary_id    = queryRow.get(prefix + "vocabulary_id", true).trim();
-		concept_class_id = queryRow.get(prefix + "concept_class_id", true).trim();
-		standard_concept = queryRow.get(prefix + "standard_concept", true).trim();
+		domain_id        = code(queryRow.get(prefix + "domain_id", true).trim());
+		vocabulary_id    = code(queryRow.get(prefix + "vocabulary_id", true).trim());
+		concept_class_id = code(queryRow.get(prefix + "concept_class_id", true).trim());
+		standard_concept = code(queryRow.get(prefix + "standard_concept", true).trim());
 		concept_code     = DrugMappingStringUtilities.safeToUpperCase(queryRow.get(prefix + "concept_code", true).trim());
-		valid_start_date = queryRow.get(prefix + "valid_start_date", true).trim();
-		valid_end_date   = queryRow.get(prefix + "valid_end_date", true).trim();
-		invalid_reason   = queryRow.get(prefix + "invalid_reason", true).trim();
+		valid_start_date = encodeDate(queryRow.get(prefix + "valid_start_date", true).trim());
+		valid_end_date   = encodeDate(queryRow.get(prefix + "valid_end_date", true).trim());
+		invalid_reason   = code(queryRow.get(prefix + "invalid_reason", true).trim());
 		
 		concept_name = DrugMappingStringUtilities.removeExtraSpaces(concept_name);
 		if (vocabulary_id.equals("None"))         vocabulary_id    = "";
 		if (concept_class_id.equals("Undefined")) concept_class_id = "";
 		
+		conceptIdValue = CDMConceptIdMap.parseConceptId(concept_id);
+		
 		conceptNameNoSpaces = concept_name.replaceAll(" ", "").replaceAll("-", "").replaceAll(",", "");
 	}
 	
@@ -89,14 +168,16 @@ public class CDMConcept implements Comparable<CDMConcept> {
 		
 		concept_id       = conceptId;
 		concept_name     = conceptName;
-		domain_id        = domainId;
-		vocabulary_id    = vocabularyId;
-		concept_class_id = conceptClassId;
-		standard_concept = standardConcept;
+		domain_id        = code(domainId);
+		vocabulary_id    = code(vocabularyId);
+		concept_class_id = code(conceptClassId);
+		standard_concept = code(standardConcept);
 		concept_code     = conceptCode;
-		valid_start_date = validStartDate;
-		valid_end_date   = validEndDate;
-		invalid_reason   = invalidReason;
+		valid_start_date = encodeDate(validStartDate);
+		valid_end_date   = encodeDate(validEndDate);
+		invalid_reason   = code(invalidReason);
+		
+		conceptIdValue = CDMConceptIdMap.parseConceptId(concept_id);
 		
 		while (concept_name.contains("  ")) concept_name = concept_name.replaceAll("  ", " ");
 		
@@ -104,6 +185,26 @@ public class CDMConcept implements Comparable<CDMConcept> {
 	}
 	
 	
+	public CDMConcept(CDM cdm, CDMSnapshotReader snapshot) {
+		this.cdm = cdm;
+		
+		concept_id          = snapshot.readString();
+		concept_name        = snapshot.readString();
+		domain_id           = code(snapshot.readString());
+		vocabulary_id       = code(snapshot.readString());
+		concept_class_id    = code(snapshot.readString());
+		standard_concept    = code(snapshot.readString());
+		concept_code        = snapshot.readString();
+		valid_start_date    = encodeDate(snapshot.readString());
+		valid_end_date      = encodeDate(snapshot.readString());
+		invalid_reason      = code(snapshot.readString());
+		conceptNameNoSpaces = snapshot.readString();
+		additional_info     = snapshot.readString();
+		
+		conceptIdValue = CDMConceptIdMap.parseConceptId(concept_id);
+	}
+	
+	
 	public CDMConcept(String description) {
 		// For review only
 		
@@ -118,8 +219,8 @@ public class CDMConcept implements Comparable<CDMConcept> {
 				concept_class_id = descriptionSplit.get(4);
 				standard_concept = descriptionSplit.get(5);
 				concept_code     = descriptionSplit.get(6);
-				valid_start_date = descriptionSplit.get(7);
-				valid_end_date   = descriptionSplit.get(8);
+				valid_start_date = encodeDate(descriptionSplit.get(7));
+				valid_end_date   = encodeDate(descriptionSplit.get(8));
 				List<String> descriptionSplit9Split = DrugMappingStringUtilities.intelligentSplit(descriptionSplit.get(9), ':', '\0');
 				invalid_reason   = descriptionSplit9Split.get(0);
 				additional_info  = ""; 
@@ -129,6 +230,7 @@ public class CDMConcept implements Comparable<CDMConcept> {
 				for (int segmentNr = 1; segmentNr < descriptionSplit9Split.size(); segmentNr++) {
 					additional_info += (additional_info.equals("") ? "" : ":") + descriptionSplit9Split.get(segmentNr);
 				}
+				conceptIdValue = CDMConceptIdMap.parseConceptId(concept_id);
 			}
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
@@ -137,11 +239,32 @@ public class CDMConcept implements Comparable<CDMConcept> {
 	}
 
 	
+	public void writeSnapshot(CDMSnapshotWriter snapshot) throws IOException {
+		snapshot.writeString(concept_id);
+		snapshot.writeString(concept_name);
+		snapshot.writeString(domain_id);
+		snapshot.writeString(vocabulary_id);
+		snapshot.writeString(concept_class_id);
+		snapshot.writeString(standard_concept);
+		snapshot.writeString(concept_code);
+		snapshot.writeString(decodeDate(valid_start_date));
+		snapshot.writeString(decodeDate(valid_end_date));
+		snapshot.writeString(invalid_reason);
+		snapshot.writeString(conceptNameNoSpaces);
+		snapshot.writeString(additional_info);
+	}
+
+	
 	public String getConceptId() {
 		return concept_id;
 	}
 
 	
+	public long getConceptIdValue() {
+		return conceptIdValue;
+	}
+
+	
 	public String getConceptName() {
 		return concept_name;
 	}
@@ -178,12 +301,20 @@ public class CDMConcept implements Comparable<CDMConcept> {
 
 	
 	public String getValidStartDate() {
-		return valid_start_date;
+		return decodeDate(valid_start_date);
+	}
+
+	
+	/**
+	 * Returns the valid start date as yyyymmdd, or -1 when it is not a date.
+	 */
+	public int getValidStartDateValue() {
+		return valid_start_date > 0 ? valid_start_date : -1;
 	}
 
 	
 	public String getValidEndDate() {
-		return valid_end_date;
+		return decodeDate(valid_end_date);
 	}
 
 	
@@ -213,8 +344,8 @@ public class CDMConcept implements Comparable<CDMConcept> {
 			description += "," + (concept_class_id == null ? "null" : concept_class_id);
 			description += "," + (standard_concept == null ? "null" : standard_concept);
 			description += "," + DrugMappingStringUtilities.escapeFieldValue(concept_code == null ? "null" : concept_code);
-			description += "," + (valid_start_date == null ? "null" : valid_start_date);
-			description += "," + (valid_end_date == null ? "null" : valid_end_date);
+			description += "," + (valid_start_date == 0 ? "null" : decodeDate(valid_start_date));
+			description += "," + (valid_end_date == 0 ? "null" : decodeDate(valid_end_date));
 			description += "," + (invalid_reason == null ? "null" : invalid_reason);
 		}
 		else {
@@ -240,7 +371,7 @@ public class CDMConcept implements Comparable<CDMConcept> {
 				return 1;
 			}
 			else {
-				return Long.compare(Long.parseLong(concept_id), Long.parseLong(otherConcept.getConceptId()));
+				return Long.compare(conceptIdValue, otherConcept.conceptIdValue);
 			}
 		}
 	}
@@ -0,0 +1,275 @@
+package org.ohdsi.drugmapping.cdm;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from concept_id to a value that stores the concept_ids as longs.
+ * The entries are kept in arrays in insertion order with an open
+ * addressing table of entry indexes, so there are no entry or key objects
+ * per concept. Lookups with a String concept_id are supported to keep the
+ * Map interface; a key that is not a concept_id is never found.
+ * The map iterates in insertion order and entries cannot be removed.
+ */
+public class CDMConceptIdMap<V> extends AbstractMap<String, V> {
+	private static final int MINIMUM_CAPACITY = 2;
+
+	private long[] ids;
+	private Object[] values;
+	private int size = 0;
+
+	private int[] table;       // Entry index + 1, 0 is empty
+	private int mask;
+
+
+	/**
+	 * Returns the concept_id as a long, or -1 when it is not a concept_id.
+	 */
+	public static long parseConceptId(Object conceptId) {
+		if (!(conceptId instanceof String)) {
+			return -1;
+		}
+		String conceptIdString = (String) conceptId;
+		int length = conceptIdString.length();
+		if ((length == 0) || (length > 18)) {
+			return -1;
+		}
+		long value = 0;
+		for (int charNr = 0; charNr < length; charNr++) {
+			char digit = conceptIdString.charAt(charNr);
+			if ((digit < '0') || (digit > '9')) {
+				return -1;
+			}
+			value = (value * 10) + (digit - '0');
+		}
+		return value;
+	}
+
+
+	public CDMConceptIdMap() {
+		this(16);
+	}
+
+
+	public CDMConceptIdMap(int expectedSize) {
+		int capacity = Math.max(MINIMUM_CAPACITY, expectedSize);
+		ids = new long[capacity];
+		values = new Object[capacity];
+		table = new int[tableSize(capacity)];
+		mask = table.length - 1;
+	}
+
+
+	public V get(long conceptId) {
+		int index = indexOf(conceptId);
+		return index == -1 ? null : value(index);
+	}
+
+
+	@Override
+	public V get(Object conceptId) {
+		long id = parseConceptId(conceptId);
+		return id == -1 ? null : get(id);
+	}
+
+
+	public boolean containsKey(long conceptId) {
+		return indexOf(conceptId) != -1;
+	}
+
+
+	@Override
+	public boolean containsKey(Object conceptId) {
+		long id = parseConceptId(conceptId);
+		return (id != -1) && containsKey(id);
+	}
+
+
+	@Override
+	public V put(String conceptId, V value) {
+		long id = parseConceptId(conceptId);
+		if (id == -1) {
+			throw new IllegalArgumentException("Concept_id '" + conceptId + "' is not a number");
+		}
+		return put(id, value);
+	}
+
+
+	public V put(long conceptId, V value) {
+		int slot = slot(conceptId);
+		while (table[slot] != 0) {
+			int index = table[slot] - 1;
+			if (ids[index] == conceptId) {
+				V previousValue = value(index);
+				values[index] = value;
+				return previousValue;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == ids.length) {
+			int capacity = size + (size >> 1) + 1;
+			ids = Arrays.copyOf(ids, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		ids[size] = conceptId;
+		values[size] = value;
+		size++;
+
+		if (tableSize(size) > table.length) {
+			rehash(tableSize(size));
+		}
+		else {
+			table[slot] = size;
+		}
+		return null;
+	}
+
+
+	@Override
+	public V remove(Object conceptId) {
+		throw new UnsupportedOperationException("Concept_ids cannot be removed from a CDMConceptIdMap");
+	}
+
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+
+	@Override
+	public void clear() {
+		Arrays.fill(values, 0, size, null);
+		Arrays.fill(table, 0);
+		size = 0;
+	}
+
+
+	@Override
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new EntryIterator<V>() {
+
+					@Override
+					V get(int index) {
+						return value(index);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+
+	@Override
+	public Set<Entry<String, V>> entrySet() {
+		return new AbstractSet<Entry<String, V>>() {
+
+			@Override
+			public Iterator<Entry<String, V>> iterator() {
+				return new EntryIterator<Entry<String, V>>() {
+
+					@Override
+					Entry<String, V> get(int index) {
+						return new SimpleImmutableEntry<String, V>(Long.toString(ids[index]), value(index));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+
+	private int indexOf(long conceptId) {
+		int slot = slot(conceptId);
+		while (table[slot] != 0) {
+			int index = table[slot] - 1;
+			if (ids[index] == conceptId) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+
+	private int slot(long conceptId) {
+		return (int) ((conceptId * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+
+
+	private void rehash(int newTableSize) {
+		table = new int[newTableSize];
+		mask = newTableSize - 1;
+		for (int index = 0; index < size; index++) {
+			int slot = slot(ids[index]);
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = index + 1;
+		}
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private V value(int index) {
+		return (V) values[index];
+	}
+
+
+	private static int tableSize(int capacity) {
+		// At most half of the table is used
+		int tableSize = 4;
+		while (tableSize < (capacity * 2)) {
+			tableSize <<= 1;
+		}
+		return tableSize;
+	}
+
+
+	private abstract class EntryIterator<T> implements Iterator<T> {
+		private int index = 0;
+
+
+		abstract T get(int index);
+
+
+		@Override
+		public boolean hasNext() {
+			return index < size;
+		}
+
+
+		@Override
+		public T next() {
+			if (index >= size) {
+				throw new NoSuchElementException();
+			}
+			return get(index++);
+		}
+
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Concept_ids cannot be removed from a CDMConceptIdMap");
+		}
+	}
+}
@@ -1,9 +1,9 @@
 package org.ohdsi.drugmapping.cdm;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -14,9 +14,14 @@ public class CDMDrug extends CDMConcept {
 	private List<String> formConceptNames = new ArrayList<String>();
 	private List<CDMIngredientStrength> ingredientStrengths = new ArrayList<CDMIngredientStrength>();
 	private List<CDMIngredient> ingredients = new ArrayList<CDMIngredient>(); 
-	private Map<String, List<CDMIngredientStrength>> ingredientsMap = new HashMap<String, List<CDMIngredientStrength>>();
+	private Map<String, List<CDMIngredientStrength>> ingredientsMap = new CDMConceptIdMap<List<CDMIngredientStrength>>(2);
 	private List<String> atcList = new ArrayList<String>();
 	
+	// The ingredient strengths grouped by ingredient as in the ingredients map, for the strength matching
+	private long[] strengthIngredientIds = null;
+	private double[] strengthDosages = null;   // NaN when there is no dosage
+	private int[] strengthUnits = null;        // Index in the CDM strength units, -1 when there is no unit
+	
 	
 	public static String getHeader() {
 		return getHeader("");
@@ -31,6 +36,34 @@ public class CDMDrug extends CDMConcept {
 	}
 	
 	
+	public CDMDrug(CDM cdm, CDMSnapshotReader snapshot) {
+		super(cdm, snapshot);
+		
+		// Replay the forms, ATCs, and ingredient strengths so the derived lists, maps and ingredient drug sets are rebuilt
+		for (String formConceptId : snapshot.readStringList()) {
+			addForm(formConceptId);
+		}
+		for (String atc : snapshot.readStringList()) {
+			addATC(atc);
+		}
+		int ingredientStrengthCount = snapshot.readInt();
+		for (int ingredientStrengthNr = 0; ingredientStrengthNr < ingredientStrengthCount; ingredientStrengthNr++) {
+			addIngredientStrength(new CDMIngredientStrength(snapshot));
+		}
+	}
+	
+	
+	public void writeSnapshot(CDMSnapshotWriter snapshot) throws IOException {
+		super.writeSnapshot(snapshot);
+		snapshot.writeStringList(formConceptIds);
+		snapshot.writeStringList(atcList);
+		snapshot.writeInt(ingredientStrengths.size());
+		for (CDMIngredientStrength ingredientStrength : ingredientStrengths) {
+			ingredientStrength.writeSnapshot(snapshot);
+		}
+	}
+	
+	
 	public void addForm(String formConceptId) {
 		if (!formConceptIds.contains(formConceptId)) {
 			formConceptIds.add(formConceptId);
@@ -92,6 +125,57 @@ public class CDMDrug extends CDMConcept {
 	}
 	
 	
+	public long[] getStrengthIngredientIds() {
+		return strengthIngredientIds;
+	}
+	
+	
+	public double[] getStrengthDosages() {
+		return strengthDosages;
+	}
+	
+	
+	public int[] getStrengthUnits() {
+		return strengthUnits;
+	}
+	
+	
+	/**
+	 * Builds the strength table from the ingredients map once all ingredient
+	 * strengths are added. The unit indexes are added to when a unit is new.
+	 */
+	public void buildStrengthTable(Map<String, Integer> unitIndexes, List<String> units) {
+		int strengthCount = 0;
+		for (List<CDMIngredientStrength> strengthList : ingredientsMap.values()) {
+			strengthCount += strengthList.size();
+		}
+		strengthIngredientIds = new long[strengthCount];
+		strengthDosages = new double[strengthCount];
+		strengthUnits = new int[strengthCount];
+		
+		int strengthNr = 0;
+		for (List<CDMIngredientStrength> strengthList : ingredientsMap.values()) {
+			for (CDMIngredientStrength ingredientStrength : strengthList) {
+				strengthIngredientIds[strengthNr] = ingredientStrength.getIngredient().getConceptIdValue();
+				strengthDosages[strengthNr] = ingredientStrength.getDosage() == null ? Double.NaN : ingredientStrength.getDosage();
+				
+				String unit = ingredientStrength.getUnit();
+				Integer unitIndex = -1;
+				if (unit != null) {
+					unitIndex = unitIndexes.get(unit);
+					if (unitIndex == null) {
+						unitIndex = units.size();
+						units.add(unit);
+						unitIndexes.put(unit, unitIndex);
+					}
+				}
+				strengthUnits[strengthNr] = unitIndex;
+				strengthNr++;
+			}
+		}
+	}
+	
+	
 	public String getStrengthDescription() {
 		String description = "";
 		
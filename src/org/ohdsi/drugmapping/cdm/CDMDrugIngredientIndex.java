@@ -0,0 +1,161 @@
+package org.ohdsi.drugmapping.cdm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CDMDrugIngredientIndex {
+	private Map<CDMDrug, Integer> drugIds = new IdentityHashMap<CDMDrug, Integer>();          // Dense drug id per drug
+	private Map<Integer, Map<CDMIngredient, Posting>> partitions = new HashMap<Integer, Map<CDMIngredient, Posting>>();   // Postings per ingredient count
+
+
+	public void addPartition(Integer ingredientCount, Map<CDMIngredient, List<CDMDrug>> drugsContainingIngredient) {
+		Map<CDMIngredient, Posting> postings = new HashMap<CDMIngredient, Posting>();
+		for (CDMIngredient cdmIngredient : drugsContainingIngredient.keySet()) {
+			if (cdmIngredient != null) {
+				postings.put(cdmIngredient, new Posting(drugsContainingIngredient.get(cdmIngredient)));
+			}
+		}
+		partitions.put(ingredientCount, postings);
+	}
+
+
+	public void addPartition(Map<CDMIngredient, List<CDMDrug>> drugsContainingIngredient) {
+		addPartition(null, drugsContainingIngredient);
+	}
+
+
+	/**
+	 * Returns the drugs in the partition that contain all the ingredients, including
+	 * ingredients that occur more than once, in the order of the drugs containing the
+	 * first ingredient. Returns an empty list when there are none.
+	 */
+	public List<CDMDrug> getDrugsContainingIngredients(Integer ingredientCount, List<CDMIngredient> cdmIngredients) {
+		List<CDMDrug> cdmDrugsWithIngredients = new ArrayList<CDMDrug>();
+
+		Map<CDMIngredient, Posting> postings = partitions.get(ingredientCount);
+		if ((postings != null) && (cdmIngredients.size() > 0)) {
+			// Intersect the postings starting with the smallest one
+			Posting[] ingredientPostings = new Posting[cdmIngredients.size()];
+			Posting smallestPosting = null;
+			boolean duplicateIngredients = false;
+			for (int ingredientNr = 0; ingredientNr < cdmIngredients.size(); ingredientNr++) {
+				Posting posting = postings.get(cdmIngredients.get(ingredientNr));
+				if (posting == null) {
+					return cdmDrugsWithIngredients;
+				}
+				for (int previousIngredientNr = 0; previousIngredientNr < ingredientNr; previousIngredientNr++) {
+					if (ingredientPostings[previousIngredientNr] == posting) {
+						duplicateIngredients = true;
+					}
+				}
+				ingredientPostings[ingredientNr] = posting;
+				if ((smallestPosting == null) || (posting.sortedIds.length < smallestPosting.sortedIds.length)) {
+					smallestPosting = posting;
+				}
+			}
+
+			int[] candidateIds = smallestPosting.sortedIds;
+			for (Posting posting : ingredientPostings) {
+				if (posting != smallestPosting) {
+					candidateIds = intersect(candidateIds, posting.sortedIds);
+					if (candidateIds.length == 0) {
+						return cdmDrugsWithIngredients;
+					}
+				}
+			}
+
+			// Keep the order of the drugs containing the first ingredient
+			Posting firstPosting = ingredientPostings[0];
+			for (int drugNr = 0; drugNr < firstPosting.drugs.size(); drugNr++) {
+				if (Arrays.binarySearch(candidateIds, firstPosting.listIds[drugNr]) >= 0) {
+					CDMDrug cdmDrug = firstPosting.drugs.get(drugNr);
+					if ((!duplicateIngredients) || containsAllOccurrences(cdmDrug, cdmIngredients)) {
+						cdmDrugsWithIngredients.add(cdmDrug);
+					}
+				}
+			}
+		}
+
+		return cdmDrugsWithIngredients;
+	}
+
+
+	public List<CDMDrug> getDrugsContainingIngredients(List<CDMIngredient> cdmIngredients) {
+		return getDrugsContainingIngredients(null, cdmIngredients);
+	}
+
+
+	private int getDrugId(CDMDrug cdmDrug) {
+		Integer drugId = drugIds.get(cdmDrug);
+		if (drugId == null) {
+			drugId = drugIds.size();
+			drugIds.put(cdmDrug, drugId);
+		}
+		return drugId;
+	}
+
+
+	private static int[] intersect(int[] ids1, int[] ids2) {
+		int[] intersection = new int[Math.min(ids1.length, ids2.length)];
+		int size = 0;
+		int index1 = 0;
+		int index2 = 0;
+		while ((index1 < ids1.length) && (index2 < ids2.length)) {
+			if (ids1[index1] < ids2[index2]) {
+				index1++;
+			}
+			else if (ids1[index1] > ids2[index2]) {
+				index2++;
+			}
+			else {
+				intersection[size++] = ids1[index1];
+				index1++;
+				index2++;
+			}
+		}
+		return size == intersection.length ? intersection : Arrays.copyOf(intersection, size);
+	}
+
+
+	private static boolean containsAllOccurrences(CDMDrug cdmDrug, List<CDMIngredient> cdmIngredients) {
+		// The drug should contain an ingredient at least as many times as it occurs in the list
+		List<CDMIngredient> remainingIngredients = new ArrayList<CDMIngredient>(cdmDrug.getIngredients());
+		for (CDMIngredient cdmIngredient : cdmIngredients) {
+			if (!remainingIngredients.remove(cdmIngredient)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+
+
+	private class Posting {
+		private List<CDMDrug> drugs;     // The drugs containing the ingredient in their original order
+		private int[] listIds;           // The drug id of each drug in the list
+		private int[] sortedIds;         // The distinct drug ids in ascending order
+
+
+		public Posting(List<CDMDrug> drugs) {
+			this.drugs = drugs;
+			listIds = new int[drugs.size()];
+			for (int drugNr = 0; drugNr < drugs.size(); drugNr++) {
+				listIds[drugNr] = getDrugId(drugs.get(drugNr));
+			}
+			int[] ids = listIds.clone();
+			Arrays.sort(ids);
+			int size = 0;
+			for (int idNr = 0; idNr < ids.length; idNr++) {
+				if ((size == 0) || (ids[size - 1] != ids[idNr])) {
+					ids[size++] = ids[idNr];
+				}
+			}
+			sortedIds = Arrays.copyOf(ids, size);
+		}
+	}
+}
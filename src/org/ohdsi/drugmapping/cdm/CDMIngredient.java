@@ -1,5 +1,6 @@
 package org.ohdsi.drugmapping.cdm;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -57,6 +58,22 @@ public class CDMIngredient extends CDMConcept {
 	}
 	
 	
+	public CDMIngredient(CDM cdm, CDMSnapshotReader snapshot) {
+		super(cdm, snapshot);
+		atc = snapshot.readString();
+		synonyms = snapshot.readStringList();
+		synonymsNoSpaces = snapshot.readStringList();
+	}
+	
+	
+	public void writeSnapshot(CDMSnapshotWriter snapshot) throws IOException {
+		super.writeSnapshot(snapshot);
+		snapshot.writeString(atc);
+		snapshot.writeStringList(synonyms);
+		snapshot.writeStringList(synonymsNoSpaces);
+	}
+	
+	
 	public void setATC(String atc) {
 		this.atc = atc;
 	}
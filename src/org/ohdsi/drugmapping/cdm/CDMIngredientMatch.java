@@ -0,0 +1,34 @@
+package org.ohdsi.drugmapping.cdm;
+
+/**
+ * The result of an ingredient lookup: the ingredient found, or no
+ * ingredient, with the description of how it was found. A match is
+ * immutable so lookups can be done from several threads at the same time.
+ */
+public class CDMIngredientMatch {
+	public static final CDMIngredientMatch NO_MATCH = new CDMIngredientMatch(null, "");
+
+	private final CDMIngredient ingredient;
+	private final String matchString;
+
+
+	public CDMIngredientMatch(CDMIngredient ingredient, String matchString) {
+		this.ingredient = ingredient;
+		this.matchString = matchString;
+	}
+
+
+	public CDMIngredient getIngredient() {
+		return ingredient;
+	}
+
+
+	public String getMatchString() {
+		return matchString;
+	}
+
+
+	public boolean isMatch() {
+		return ingredient != null;
+	}
+}
@@ -1,5 +1,7 @@
 package org.ohdsi.drugmapping.cdm;
 
+import java.io.IOException;
+
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
 import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
 
@@ -43,11 +45,11 @@ public class CDMIngredientStrength {
 	
 	public CDMIngredientStrength(CDM cdm, DelimitedFileRow queryRow, String prefix, CDMIngredient ingredient) {
 		if (queryRow.get(prefix + "amount_value", true) != null)                amount_value_string      = queryRow.get(prefix + "amount_value", true);
-		if (queryRow.get(prefix + "amount_unit_concept_id", true) != null)      amount_unit              = new CDMConcept(cdm, queryRow, prefix + "amount_unit_");
+		if (queryRow.get(prefix + "amount_unit_concept_id", true) != null)      amount_unit              = cdm.getUnitConcept(queryRow, prefix + "amount_unit_");
 		if (queryRow.get(prefix + "numerator_value", true) != null)             numerator_value_string   = queryRow.get(prefix + "numerator_value", true);
-		if (queryRow.get(prefix + "numerator_unit_concept_id", true) != null)   numerator_unit           = new CDMConcept(cdm, queryRow, prefix + "numerator_unit_");
+		if (queryRow.get(prefix + "numerator_unit_concept_id", true) != null)   numerator_unit           = cdm.getUnitConcept(queryRow, prefix + "numerator_unit_");
 		if (queryRow.get(prefix + "denominator_value", true) != null)           denominator_value_string = queryRow.get(prefix + "denominator_value", true);
-		if (queryRow.get(prefix + "denominator_unit_concept_id", true) != null) denominator_unit         = new CDMConcept(cdm, queryRow, prefix + "denominator_unit_");
+		if (queryRow.get(prefix + "denominator_unit_concept_id", true) != null) denominator_unit         = cdm.getUnitConcept(queryRow, prefix + "denominator_unit_");
 		if (queryRow.get(prefix + "box_size", true) != null)                    box_size                 = queryRow.get(prefix + "box_size", true);
 		
 		if ((amount_value_string != null) && (!amount_value_string.equals(""))) {
@@ -94,6 +96,40 @@ public class CDMIngredientStrength {
 	}
 	
 	
+	public CDMIngredientStrength(CDMSnapshotReader snapshot) {
+		ingredient               = snapshot.readIngredientReference();
+		amount_value_string      = snapshot.readString();
+		amount_value             = snapshot.readDouble();
+		amount_unit              = snapshot.readUnitConcept();
+		numerator_value_string   = snapshot.readString();
+		numerator_value          = snapshot.readDouble();
+		numerator_unit           = snapshot.readUnitConcept();
+		denominator_value_string = snapshot.readString();
+		denominator_value        = snapshot.readDouble();
+		denominator_unit         = snapshot.readUnitConcept();
+		box_size                 = snapshot.readString();
+		dosage                   = snapshot.readDouble();
+		unit                     = snapshot.readString();
+	}
+	
+	
+	public void writeSnapshot(CDMSnapshotWriter snapshot) throws IOException {
+		snapshot.writeIngredientReference(ingredient);
+		snapshot.writeString(amount_value_string);
+		snapshot.writeDouble(amount_value);
+		snapshot.writeConcept(amount_unit);
+		snapshot.writeString(numerator_value_string);
+		snapshot.writeDouble(numerator_value);
+		snapshot.writeConcept(numerator_unit);
+		snapshot.writeString(denominator_value_string);
+		snapshot.writeDouble(denominator_value);
+		snapshot.writeConcept(denominator_unit);
+		snapshot.writeString(box_size);
+		snapshot.writeDouble(dosage);
+		snapshot.writeString(unit);
+	}
+	
+	
 	public String getAmountValueString() {
 		return amount_value_string;
 	}
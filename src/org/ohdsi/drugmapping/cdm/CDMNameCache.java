@@ -0,0 +1,142 @@
+package org.ohdsi.drugmapping.cdm;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of name lookups that is read by the mapping threads
+ * concurrently without locking. When the cache is full names are removed
+ * with the clock algorithm: a name that was used since the clock hand last
+ * passed it is kept for another round, so the eviction approximates least
+ * recently used. Only one thread evicts at a time; the other threads do not
+ * wait for it. The number of hits and misses is kept for the metrics of a
+ * mapping run.
+ */
+public class CDMNameCache<V> {
+	private final int maximumSize;
+	private final ConcurrentHashMap<String, CacheEntry<V>> cache;
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private Iterator<Map.Entry<String, CacheEntry<V>>> clockHand = null;   // Guarded by evictionLock
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+
+	public CDMNameCache(int maximumSize) {
+		this.maximumSize = maximumSize;
+		cache = new ConcurrentHashMap<String, CacheEntry<V>>(Math.min(maximumSize, 1024 * 1024));
+	}
+
+
+	/**
+	 * Returns the cached value of the name, or null when it is not cached.
+	 */
+	public V get(String name) {
+		CacheEntry<V> entry = cache.get(name);
+		if (entry != null) {
+			hits.increment();
+			if (!entry.used) {
+				entry.used = true;
+			}
+			return entry.value;
+		}
+		misses.increment();
+		return null;
+	}
+
+
+	/**
+	 * Caches the value of the name when it is not cached yet and returns
+	 * the cached value. When another thread cached the name first, its
+	 * value is returned so all threads share the same value.
+	 */
+	public V put(String name, V value) {
+		CacheEntry<V> entry = cache.putIfAbsent(name, new CacheEntry<V>(value));
+		if (entry != null) {
+			return entry.value;
+		}
+		if ((size.incrementAndGet() > maximumSize) && evictionLock.tryLock()) {
+			try {
+				evict();
+			}
+			finally {
+				evictionLock.unlock();
+			}
+		}
+		return value;
+	}
+
+
+	public void clear() {
+		evictionLock.lock();
+		try {
+			cache.clear();
+			size.set(0);
+			clockHand = null;
+			hits.reset();
+			misses.reset();
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+
+	public int size() {
+		return cache.size();
+	}
+
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+
+	private void evict() {
+		int sweptEntries = 0;
+		while (size.get() > maximumSize) {
+			if ((clockHand == null) || (!clockHand.hasNext())) {
+				clockHand = cache.entrySet().iterator();
+				if (!clockHand.hasNext()) {
+					break;
+				}
+			}
+			Map.Entry<String, CacheEntry<V>> entry = clockHand.next();
+			sweptEntries++;
+			// After two rounds the entries are removed even when the other threads keep using them
+			if (entry.getValue().used && (sweptEntries <= (2 * maximumSize))) {
+				entry.getValue().used = false;
+			}
+			else if (cache.remove(entry.getKey(), entry.getValue())) {
+				size.decrementAndGet();
+			}
+		}
+	}
+
+
+	private static class CacheEntry<V> {
+		private final V value;
+		private volatile boolean used = false;
+
+
+		private CacheEntry(V value) {
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package org.ohdsi.drugmapping.cdm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
+
+/**
+ * A trie of names on their words, with for every name the tiers (bits) of
+ * the name libraries it occurs in. The words are split the same way as
+ * DrugMappingStringUtilities.getReducedName does, so one walk over a name
+ * finds the tiers of all its reduced names and of the reduced names with
+ * " EXTRACT" appended.
+ */
+public class CDMNameTrie {
+	private static final String EXTRACT_SEGMENT = " EXTRACT";
+
+	private Node root = new Node();
+
+
+	/**
+	 * Adds the name for the tier. Names that end with a word delimiter can
+	 * never be a reduced name and are not added.
+	 */
+	public void addName(String name, int tier) {
+		List<Integer> segmentEnds = getSegmentEnds(name, Integer.MAX_VALUE);
+		if ((segmentEnds.size() > 0) && (segmentEnds.get(segmentEnds.size() - 1) == name.length())) {
+			Node node = root;
+			int segmentStart = 0;
+			for (int segmentEnd : segmentEnds) {
+				node = node.getChild(name.substring(segmentStart, segmentEnd), true);
+				segmentStart = segmentEnd;
+			}
+			node.tiers |= tier;
+		}
+	}
+
+
+	/**
+	 * Adds the tiers of the reduced names of the name up to the maximum
+	 * number of words, with and without " EXTRACT", to the map.
+	 * A reduced name that is not in any tier gets 0.
+	 */
+	public void getReducedNameTiers(String name, int maxWords, Map<String, Integer> reducedNameTiers) {
+		Node node = root;
+		int segmentStart = 0;
+		for (int segmentEnd : getSegmentEnds(name, maxWords)) {
+			String reducedName = name.substring(0, segmentEnd);
+			node = node == null ? null : node.getChild(name.substring(segmentStart, segmentEnd), false);
+			Node extractNode = node == null ? null : node.getChild(EXTRACT_SEGMENT, false);
+			reducedNameTiers.put(reducedName, node == null ? 0 : node.tiers);
+			reducedNameTiers.put(reducedName + EXTRACT_SEGMENT, extractNode == null ? 0 : extractNode.tiers);
+			segmentStart = segmentEnd;
+		}
+	}
+
+
+	private static List<Integer> getSegmentEnds(String name, int maxWords) {
+		// A segment ends where a run of delimiters starts, the first character is never a delimiter
+		List<Integer> segmentEnds = new ArrayList<Integer>();
+		boolean lastCharDelimiter = false;
+		for (int charNr = 1; (charNr <= name.length()) && (segmentEnds.size() < maxWords); charNr++) {
+			if ((charNr == name.length()) || (DrugMappingStringUtilities.WORD_DELIMITERS.indexOf(name.charAt(charNr)) != -1)) {
+				if (!lastCharDelimiter) {
+					segmentEnds.add(charNr);
+				}
+				lastCharDelimiter = true;
+			}
+			else {
+				lastCharDelimiter = false;
+			}
+		}
+		return segmentEnds;
+	}
+
+
+	private static class Node {
+		private Map<String, Node> children = null;
+		private int tiers = 0;
+
+
+		public Node getChild(String segment, boolean createWhenNotFound) {
+			Node child = children == null ? null : children.get(segment);
+			if ((child == null) && createWhenNotFound) {
+				if (children == null) {
+					children = new HashMap<String, Node>(4);
+				}
+				child = new Node();
+				children.put(segment, child);
+			}
+			return child;
+		}
+	}
+}
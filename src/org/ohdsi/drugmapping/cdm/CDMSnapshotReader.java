@@ -0,0 +1,98 @@
+package org.ohdsi.drugmapping.cdm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CDMSnapshotReader {
+	private ByteBuffer input;
+	private CDM cdm;
+
+	private List<String> strings = new ArrayList<String>();
+	private List<CDMIngredient> ingredients = new ArrayList<CDMIngredient>();
+	private List<CDMDrug> drugs = new ArrayList<CDMDrug>();
+
+
+	public CDMSnapshotReader(ByteBuffer input, CDM cdm) {
+		this.input = input;
+		this.cdm = cdm;
+	}
+
+
+	public int readInt() {
+		return input.getInt();
+	}
+
+
+	public boolean readBoolean() {
+		return input.get() != 0;
+	}
+
+
+	public Double readDouble() {
+		return readBoolean() ? input.getDouble() : null;
+	}
+
+
+	public String readString() {
+		String value = null;
+		int index = input.getInt();
+		if (index == strings.size()) {
+			byte[] bytes = new byte[input.getInt()];
+			input.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+			strings.add(value);
+		}
+		else if (index != -1) {
+			value = strings.get(index);
+		}
+		return value;
+	}
+
+
+	public List<String> readStringList() {
+		int size = input.getInt();
+		List<String> list = new ArrayList<String>(size);
+		for (int valueNr = 0; valueNr < size; valueNr++) {
+			list.add(readString());
+		}
+		return list;
+	}
+
+
+	public CDMConcept readConcept() {
+		return readBoolean() ? new CDMConcept(cdm, this) : null;
+	}
+
+
+	public CDMConcept readUnitConcept() {
+		return cdm.shareUnitConcept(readConcept());
+	}
+
+
+	public CDMIngredient readIngredient() {
+		CDMIngredient ingredient = new CDMIngredient(cdm, this);
+		ingredients.add(ingredient);
+		return ingredient;
+	}
+
+
+	public CDMIngredient readIngredientReference() {
+		int index = input.getInt();
+		return index == -1 ? null : ingredients.get(index);
+	}
+
+
+	public CDMDrug readDrug() {
+		CDMDrug drug = new CDMDrug(cdm, this);
+		drugs.add(drug);
+		return drug;
+	}
+
+
+	public CDMDrug readDrugReference() {
+		int index = input.getInt();
+		return index == -1 ? null : drugs.get(index);
+	}
+}
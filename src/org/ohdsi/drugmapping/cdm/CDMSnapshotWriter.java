@@ -0,0 +1,104 @@
+package org.ohdsi.drugmapping.cdm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CDMSnapshotWriter {
+	private DataOutputStream output;
+
+	private Map<String, Integer> stringIndex = new HashMap<String, Integer>();                 // Strings are written once and referenced by index afterwards
+	private Map<CDMIngredient, Integer> ingredientIndex = new IdentityHashMap<CDMIngredient, Integer>();
+	private Map<CDMDrug, Integer> drugIndex = new IdentityHashMap<CDMDrug, Integer>();
+
+
+	public CDMSnapshotWriter(DataOutputStream output) {
+		this.output = output;
+	}
+
+
+	public void writeInt(int value) throws IOException {
+		output.writeInt(value);
+	}
+
+
+	public void writeBoolean(boolean value) throws IOException {
+		output.writeByte(value ? 1 : 0);
+	}
+
+
+	public void writeDouble(Double value) throws IOException {
+		writeBoolean(value != null);
+		if (value != null) {
+			output.writeDouble(value);
+		}
+	}
+
+
+	public void writeString(String value) throws IOException {
+		if (value == null) {
+			output.writeInt(-1);
+		}
+		else {
+			Integer index = stringIndex.get(value);
+			if (index == null) {
+				index = stringIndex.size();
+				stringIndex.put(value, index);
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				output.writeInt(index);
+				output.writeInt(bytes.length);
+				output.write(bytes);
+			}
+			else {
+				output.writeInt(index);
+			}
+		}
+	}
+
+
+	public void writeStringList(List<String> list) throws IOException {
+		output.writeInt(list.size());
+		for (String value : list) {
+			writeString(value);
+		}
+	}
+
+
+	public void writeConcept(CDMConcept concept) throws IOException {
+		writeBoolean(concept != null);
+		if (concept != null) {
+			concept.writeSnapshot(this);
+		}
+	}
+
+
+	public void writeIngredient(CDMIngredient ingredient) throws IOException {
+		ingredientIndex.put(ingredient, ingredientIndex.size());
+		ingredient.writeSnapshot(this);
+	}
+
+
+	public void writeIngredientReference(CDMIngredient ingredient) throws IOException {
+		output.writeInt(ingredient == null ? -1 : ingredientIndex.get(ingredient));
+	}
+
+
+	public void writeDrug(CDMDrug drug) throws IOException {
+		drugIndex.put(drug, drugIndex.size());
+		drug.writeSnapshot(this);
+	}
+
+
+	public void writeDrugReference(CDMDrug drug) throws IOException {
+		output.writeInt(drug == null ? -1 : drugIndex.get(drug));
+	}
+
+
+	public void close() throws IOException {
+		output.close();
+	}
+}
@@ -0,0 +1,13 @@
+SELECT UNIT.*
+FROM @vocab.CONCEPT UNIT
+WHERE UNIT.CONCEPT_ID IN (
+    SELECT AMOUNT_UNIT_CONCEPT_ID
+    FROM @vocab.DRUG_STRENGTH
+  UNION
+    SELECT NUMERATOR_UNIT_CONCEPT_ID
+    FROM @vocab.DRUG_STRENGTH
+  UNION
+    SELECT DENOMINATOR_UNIT_CONCEPT_ID
+    FROM @vocab.DRUG_STRENGTH
+)
+ORDER BY UNIT.CONCEPT_ID
\ No newline at end of file
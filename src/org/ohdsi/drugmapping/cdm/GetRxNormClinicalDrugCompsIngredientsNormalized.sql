@@ -0,0 +1,28 @@
+SELECT DRUGCOMP.CONCEPT_ID AS DRUGCOMP_CONCEPT_ID,
+       STRENGTH.AMOUNT_VALUE,
+       STRENGTH.AMOUNT_UNIT_CONCEPT_ID,
+       STRENGTH.NUMERATOR_VALUE,
+       STRENGTH.NUMERATOR_UNIT_CONCEPT_ID,
+       STRENGTH.DENOMINATOR_VALUE,
+       STRENGTH.DENOMINATOR_UNIT_CONCEPT_ID,
+       STRENGTH.BOX_SIZE,
+       STRENGTH.INGREDIENT_CONCEPT_ID
+FROM @vocab.CONCEPT DRUGCOMP
+  INNER JOIN @vocab.DRUG_STRENGTH STRENGTH
+    ON STRENGTH.DRUG_CONCEPT_ID = DRUGCOMP.CONCEPT_ID
+WHERE DRUGCOMP.DOMAIN_ID = 'Drug'
+AND   UPPER(DRUGCOMP.VOCABULARY_ID) LIKE 'RXNORM%'
+AND   DRUGCOMP.CONCEPT_CLASS_ID = 'Clinical Drug Comp'
+AND   DRUGCOMP.STANDARD_CONCEPT = 'S'
+-- AND   DRUGCOMP.INVALID_REASON IS NULL
+GROUP BY DRUGCOMP.CONCEPT_ID,
+         STRENGTH.AMOUNT_VALUE,
+         STRENGTH.AMOUNT_UNIT_CONCEPT_ID,
+         STRENGTH.NUMERATOR_VALUE,
+         STRENGTH.NUMERATOR_UNIT_CONCEPT_ID,
+         STRENGTH.DENOMINATOR_VALUE,
+         STRENGTH.DENOMINATOR_UNIT_CONCEPT_ID,
+         STRENGTH.BOX_SIZE,
+         STRENGTH.INGREDIENT_CONCEPT_ID
+ORDER BY DRUGCOMP.CONCEPT_ID,
+         STRENGTH.INGREDIENT_CONCEPT_ID
\ No newline at end of file
@@ -0,0 +1,12 @@
+SELECT DRUG.*
+FROM @vocab.CONCEPT DRUG
+WHERE DRUG.DOMAIN_ID = 'Drug'
+AND   UPPER(DRUG.VOCABULARY_ID) LIKE 'RXNORM%'
+AND   DRUG.CONCEPT_CLASS_ID IN ('Clinical Drug', 'Clinical Drug Comp', 'Clinical Drug Form')
+AND   DRUG.STANDARD_CONCEPT = 'S'
+AND   EXISTS (
+        SELECT 1
+        FROM @vocab.DRUG_STRENGTH STRENGTH
+        WHERE STRENGTH.DRUG_CONCEPT_ID = DRUG.CONCEPT_ID
+      )
+ORDER BY DRUG.CONCEPT_ID
\ No newline at end of file
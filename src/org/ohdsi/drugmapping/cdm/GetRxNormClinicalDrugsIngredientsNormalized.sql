@@ -0,0 +1,36 @@
+SELECT DRUG.CONCEPT_ID AS DRUG_CONCEPT_ID,
+       FORM.CONCEPT_ID AS FORM_CONCEPT_ID,
+       STRENGTH.AMOUNT_VALUE,
+       STRENGTH.AMOUNT_UNIT_CONCEPT_ID,
+       STRENGTH.NUMERATOR_VALUE,
+       STRENGTH.NUMERATOR_UNIT_CONCEPT_ID,
+       STRENGTH.DENOMINATOR_VALUE,
+       STRENGTH.DENOMINATOR_UNIT_CONCEPT_ID,
+       STRENGTH.BOX_SIZE,
+       STRENGTH.INGREDIENT_CONCEPT_ID
+FROM @vocab.CONCEPT DRUG
+  INNER JOIN @vocab.DRUG_STRENGTH STRENGTH
+    ON STRENGTH.DRUG_CONCEPT_ID = DRUG.CONCEPT_ID
+  LEFT OUTER JOIN @vocab.CONCEPT_RELATIONSHIP HAS_FORM
+    ON DRUG.CONCEPT_ID = HAS_FORM.CONCEPT_ID_1
+  LEFT OUTER JOIN @vocab.CONCEPT FORM
+    ON HAS_FORM.CONCEPT_ID_2 = FORM.CONCEPT_ID
+WHERE DRUG.DOMAIN_ID = 'Drug'
+AND   UPPER(DRUG.VOCABULARY_ID) LIKE 'RXNORM%'
+AND   DRUG.CONCEPT_CLASS_ID = 'Clinical Drug'
+AND   DRUG.STANDARD_CONCEPT = 'S'
+-- AND   DRUG.INVALID_REASON IS NULL
+AND   HAS_FORM.RELATIONSHIP_ID = 'RxNorm has dose form'
+GROUP BY DRUG.CONCEPT_ID,
+         FORM.CONCEPT_ID,
+         STRENGTH.AMOUNT_VALUE,
+         STRENGTH.AMOUNT_UNIT_CONCEPT_ID,
+         STRENGTH.NUMERATOR_VALUE,
+         STRENGTH.NUMERATOR_UNIT_CONCEPT_ID,
+         STRENGTH.DENOMINATOR_VALUE,
+         STRENGTH.DENOMINATOR_UNIT_CONCEPT_ID,
+         STRENGTH.BOX_SIZE,
+         STRENGTH.INGREDIENT_CONCEPT_ID
+ORDER BY DRUG.CONCEPT_ID,
+         FORM.CONCEPT_ID,
+         STRENGTH.INGREDIENT_CONCEPT_ID
\ No newline at end of file
@@ -0,0 +1,3 @@
+SELECT VOCABULARY_VERSION
+FROM @vocab.VOCABULARY
+WHERE VOCABULARY_ID = 'None'
\ No newline at end of file
@@ -1,22 +1,21 @@
 package org.ohdsi.drugmapping.files;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
-import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
-
 
 public class DelimitedFile implements Iterable<List<String>> {
+	public static final long MEMORY_MAPPED_MINIMUM_SIZE = 64L * 1024L * 1024L; // 64 MB
+	
 	private static char DEFAULT_DELIMITER      = ',';
 	private static char DEFAULT_TEXT_DELIMITER = '"';
 	
@@ -25,13 +24,13 @@ public class DelimitedFile implements Iterable<List<String>> {
 	
 	private InputStream inputStream = null; 
 	private String fileName = null;
+	private boolean memoryMapped = false;
+	private MappedDelimitedFile mappedFile = null;
 	
-	private PrintWriter outputWriter = null;
+	private DelimitedOutputWriter outputWriter = null;
 
 	private char delimiter = DEFAULT_DELIMITER;
 	private char textDelimiter = DEFAULT_TEXT_DELIMITER;
-	private String delimiterString = Character.toString(DEFAULT_DELIMITER);
-	private String textDelimiterString = Character.toString(DEFAULT_TEXT_DELIMITER);
 	private String charSet = null; 
 	
 
@@ -65,9 +64,6 @@ public class DelimitedFile implements Iterable<List<String>> {
 		this.delimiter = delimiter;
 		this.textDelimiter = textDelimiter;
 		this.charSet = charSet;
-		
-		delimiterString = Character.toString(delimiter);
-		textDelimiterString = Character.toString(textDelimiter);
 	}
 
 	
@@ -104,7 +100,40 @@ public class DelimitedFile implements Iterable<List<String>> {
 	}
 	
 	
+	/**
+	 * Read the file through a memory mapping when it is opened by file name
+	 * and the charset allows it, see MappedDelimitedFile.
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+	
+	
 	public boolean openForReading() {
+		boolean result = false;
+		if (memoryMapped && (inputStream == null) && (fileName != null)) {
+			try {
+				Charset charset = (charSet == null) ? Charset.defaultCharset() : Charset.forName(charSet);
+				if (MappedDelimitedFile.canMap(charset, delimiter, textDelimiter)) {
+					mappedFile = new MappedDelimitedFile(fileName, delimiter, textDelimiter, charset);
+					result = true;
+				}
+			} catch (IllegalArgumentException e) {
+				// Unsupported charset, read as stream
+				mappedFile = null;
+			} catch (IOException e) {
+				// Cannot map the file, read as stream
+				mappedFile = null;
+			}
+		}
+		if (!result) {
+			result = openStreamForReading();
+		}
+		return result;
+	}
+	
+	
+	private boolean openStreamForReading() {
 		boolean result = false;
 		try {
 			if ((inputStream == null) && (fileName != null)) {
@@ -135,11 +164,10 @@ public class DelimitedFile implements Iterable<List<String>> {
 	
 	public boolean openForWriting() {
 		boolean result = false;
-		File file = new File(fileName);
 		try {
-			outputWriter = new PrintWriter(file);
+			outputWriter = DelimitedOutputWriter.open(fileName, delimiter, textDelimiter);
 			result = true;
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			result = false;
 		}
 		return result;
@@ -147,11 +175,7 @@ public class DelimitedFile implements Iterable<List<String>> {
 	
 	
 	public void writeRecord(List<String> record) {
-		String recordString = "";
-		for (String column : record) {
-			recordString += (recordString.equals("") ? "" : delimiterString) + DrugMappingStringUtilities.escapeFieldValue(column, delimiterString, textDelimiterString);
-		}
-		outputWriter.println(recordString);
+		outputWriter.writeRecord(record);
 	}
 	
 	
@@ -336,11 +360,17 @@ public class DelimitedFile implements Iterable<List<String>> {
 
 	
 	public Iterator<List<String>> iterator() {
-		return new DelimitedFileIterator();
+		return mappedFile != null ? mappedFile.iterator() : new DelimitedFileIterator();
 	}
 	
 
 	public Iterator<List<String>> iteratorWithHeader() {
+		if (mappedFile != null) {
+			// The header is record 0
+			MappedDelimitedFile.RecordIterator iterator = mappedFile.iterator();
+			iterator.setRecordNr(-1);
+			return iterator;
+		}
 		DelimitedFileIterator iterator = new DelimitedFileIterator();
 		iterator.setRecordNr(0);
 		return iterator;
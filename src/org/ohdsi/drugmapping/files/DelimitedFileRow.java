@@ -61,6 +61,10 @@ public class DelimitedFileRow {
 			return cells.get(index);
 	}
 	
+	public String get(int columnIndex) {
+		return (columnIndex < cells.size()) ? cells.get(columnIndex) : null;
+	}
+	
 	public List<String> getFieldNames() {
 		List<String> names = new ArrayList<String>(fieldName2ColumnIndex.size());
 		for (int i = 0; i < fieldName2ColumnIndex.size(); i++)
@@ -15,6 +15,7 @@ public class DelimitedFileWithHeader implements Iterable<DelimitedFileRow> {
 	private char delimiter	= DEFAULT_DELIMITER;
 	private char textDelimiter = DEFAULT_TEXT_DELIMITER;
 	private String charSet = null;
+	private boolean memoryMapped = false;
 
 	private InputStream	inputStream = null;
 	private DelimitedFile delimitedFile = null;
@@ -78,9 +79,15 @@ public class DelimitedFileWithHeader implements Iterable<DelimitedFileRow> {
 	}
 	
 	
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+	
+	
 	public boolean openForReading() {
 		if ((inputStream == null) && (fileName != null)) {
 			delimitedFile = new DelimitedFile(fileName, delimiter, textDelimiter, charSet);
+			delimitedFile.setMemoryMapped(memoryMapped);
 		}
 		if ((delimitedFile == null) && (inputStream != null)) {
 			delimitedFile = new DelimitedFile(inputStream, delimiter, textDelimiter, charSet);
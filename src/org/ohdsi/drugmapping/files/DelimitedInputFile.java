@@ -0,0 +1,80 @@
+package org.ohdsi.drugmapping.files;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A delimited input file as it is used by the mapping, independent of
+ * whether it is defined in the user interface or in a settings file.
+ */
+public interface DelimitedInputFile {
+
+	public static char fieldDelimiter(String delimiterName) {
+		if (delimiterName.equals("Tab")) return '\t';
+		if (delimiterName.equals("Semicolon")) return ';';
+		if (delimiterName.equals("Comma")) return ',';
+		if (delimiterName.equals("Space")) return ' ';
+		return delimiterName.charAt(0);
+	}
+
+
+	public static char textQualifier(String textQualifierName) {
+		if (textQualifierName.equals("None")) return (char) 0;
+		return textQualifierName.charAt(0);
+	}
+
+
+	/**
+	 * Returns the column indexes of the mapped fields in a file with the
+	 * given header, so the values can be read without looking up the
+	 * column names for every row.
+	 */
+	public static Map<String, Integer> getColumnIndexes(Map<String, String> columnMapping, List<String> columns) {
+		Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+		if (columns != null) {
+			for (String fieldName : columnMapping.keySet()) {
+				String mappedFieldName = columnMapping.get(fieldName);
+				if (mappedFieldName != null) {
+					int columnIndex = columns.lastIndexOf(mappedFieldName);
+					if (columnIndex == -1) {
+						columnIndex = columns.lastIndexOf(mappedFieldName.toUpperCase());
+					}
+					if (columnIndex != -1) {
+						columnIndexes.put(fieldName, columnIndex);
+					}
+				}
+			}
+		}
+		return columnIndexes;
+	}
+
+
+	public FileDefinition getFileDefinition();
+
+	public String getFileName();
+
+	public boolean isSelected();
+
+	public String getFieldDelimiter();
+
+	public String getTextQualifier();
+
+	public Map<String, String> getColumnMapping();
+
+	public boolean fileExists();
+
+	public boolean openFileForReading();
+
+	public boolean openFileForReading(boolean suppressError);
+
+	public boolean hasNext();
+
+	public DelimitedFileRow next();
+
+	public boolean hasField(String fieldName);
+
+	public String get(DelimitedFileRow row, String fieldName, boolean required);
+
+	public void logFileSettings();
+}
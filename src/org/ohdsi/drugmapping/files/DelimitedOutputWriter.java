@@ -0,0 +1,136 @@
+package org.ohdsi.drugmapping.files;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A buffered writer for delimited output files.
+ *
+ * Records can be written field by field with writeField, which writes the
+ * delimiter between the fields and escapes the values the same way as
+ * DrugMappingStringUtilities.escapeFieldValue without building the record
+ * as a string first. As it is a PrintWriter, existing code that writes
+ * complete lines keeps working. Files with a name ending in ".gz" are
+ * written gzip compressed.
+ */
+public class DelimitedOutputWriter extends PrintWriter {
+	public static final String GZIP_EXTENSION = ".gz";
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final char DEFAULT_DELIMITER      = ',';
+	private static final char DEFAULT_TEXT_DELIMITER = '"';
+
+	private final char delimiter;
+	private final char textDelimiter;
+	private boolean recordStarted = false;
+
+
+	public static DelimitedOutputWriter open(String fileName) throws IOException {
+		return open(fileName, DEFAULT_DELIMITER, DEFAULT_TEXT_DELIMITER);
+	}
+
+
+	public static DelimitedOutputWriter open(String fileName, char delimiter, char textDelimiter) throws IOException {
+		OutputStream outputStream = new FileOutputStream(new File(fileName));
+		if (fileName.endsWith(GZIP_EXTENSION)) {
+			outputStream = new GZIPOutputStream(outputStream, BUFFER_SIZE);
+		}
+		return new DelimitedOutputWriter(outputStream, delimiter, textDelimiter);
+	}
+
+
+	public DelimitedOutputWriter(OutputStream outputStream, char delimiter, char textDelimiter) {
+		super(new BufferedWriter(new OutputStreamWriter(outputStream), BUFFER_SIZE));
+		this.delimiter = delimiter;
+		this.textDelimiter = textDelimiter;
+	}
+
+
+	/**
+	 * Writes the value as the next field of the current record.
+	 * A null value is written as an empty field.
+	 */
+	public void writeField(String value) {
+		startField();
+		writeEscaped(value);
+	}
+
+
+	public void writeField(long value) {
+		startField();
+		print(value);
+	}
+
+
+	/**
+	 * Writes the value as the next field(s) of the current record without
+	 * escaping it, for values that are already delimited.
+	 */
+	public void writeRawField(String value) {
+		startField();
+		if (value != null) {
+			write(value);
+		}
+	}
+
+
+	/**
+	 * Writes the escaped value as the continuation of the current field.
+	 */
+	public void writeEscaped(String value) {
+		if (value == null) {
+			return;
+		}
+		if ((value.indexOf(delimiter) == -1) && (value.indexOf(textDelimiter) == -1)) {
+			write(value);
+		}
+		else {
+			write(textDelimiter);
+			int start = 0;
+			int end = value.indexOf(textDelimiter);
+			while (end != -1) {
+				write(value, start, end + 1 - start);
+				write(textDelimiter);
+				start = end + 1;
+				end = value.indexOf(textDelimiter, start);
+			}
+			write(value, start, value.length() - start);
+			write(textDelimiter);
+		}
+	}
+
+
+	public void writeRecord(List<String> record) {
+		for (String value : record) {
+			writeField(value);
+		}
+		endRecord();
+	}
+
+
+	public void endRecord() {
+		println();
+	}
+
+
+	@Override
+	public void println() {
+		super.println();
+		recordStarted = false;
+	}
+
+
+	private void startField() {
+		if (recordStarted) {
+			write(delimiter);
+		}
+		recordStarted = true;
+	}
+}
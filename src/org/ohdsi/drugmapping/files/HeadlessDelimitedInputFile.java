@@ -0,0 +1,210 @@
+package org.ohdsi.drugmapping.files;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
+
+/**
+ * A delimited input file that is defined by the lines of a file settings
+ * file, in the same format as saved from the user interface. It does not
+ * use any Swing components so it can be used when running without display.
+ */
+public class HeadlessDelimitedInputFile implements DelimitedInputFile {
+	private FileDefinition fileDefinition;
+	private String labelText;
+	private String fileName = null;
+	private boolean selected = true;
+	private String fieldDelimiter = "Comma";
+	private String textQualifier = "\"";
+	private Map<String, String> columnMapping = new HashMap<String, String>();
+
+	private Iterator<DelimitedFileRow> fileIterator;
+	private Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
+
+
+	public HeadlessDelimitedInputFile(FileDefinition fileDefinition) {
+		this.fileDefinition = fileDefinition;
+		this.labelText = fileDefinition.getFileName();
+
+		for (FileColumnDefinition column : fileDefinition.getColumns()) {
+			columnMapping.put(column.getColumnName(), null);
+		}
+
+		if (fileDefinition.getDefaultFieldDelimiter() != null) {
+			fieldDelimiter = fileDefinition.getDefaultFieldDelimiter();
+		}
+
+		if (fileDefinition.getDefaultTextQualifier() != null) {
+			textQualifier = fileDefinition.getDefaultTextQualifier();
+		}
+	}
+
+
+	public FileDefinition getFileDefinition() {
+		return fileDefinition;
+	}
+
+
+	public String getLabelText() {
+		return labelText;
+	}
+
+
+	public String getFileName() {
+		return fileName;
+	}
+
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+
+	public boolean isSelected() {
+		return selected;
+	}
+
+
+	public void setSelected(boolean selected) {
+		// Required files are always selected
+		this.selected = selected || fileDefinition.isRequired();
+	}
+
+
+	public String getFieldDelimiter() {
+		return fieldDelimiter;
+	}
+
+
+	public String getTextQualifier() {
+		return textQualifier;
+	}
+
+
+	public List<String> getColumns() {
+		List<String> columns = new ArrayList<String>();
+		for (FileColumnDefinition column : fileDefinition.getColumns()) {
+			columns.add(column.getColumnName());
+		}
+		return columns;
+	}
+
+
+	public Map<String, String> getColumnMapping() {
+		return columnMapping;
+	}
+
+
+	public boolean fileExists() {
+		return (fileName != null) && new File(fileName).exists();
+	}
+
+
+	public boolean openFileForReading() {
+		return openFileForReading(false);
+	}
+
+
+	public boolean openFileForReading(boolean suppressError) {
+		boolean result = false;
+
+		if (fileName != null) {
+			File inputFile = new File(fileName);
+			if (inputFile.exists() && inputFile.canRead()) {
+				DelimitedFileWithHeader readFile = new DelimitedFileWithHeader(fileName, DelimitedInputFile.fieldDelimiter(fieldDelimiter), DelimitedInputFile.textQualifier(textQualifier));
+				readFile.setMemoryMapped(inputFile.length() >= DelimitedFile.MEMORY_MAPPED_MINIMUM_SIZE);
+				if (readFile.openForReading()) {
+					result = true;
+					fileIterator = readFile.iterator();
+					columnIndexes = DelimitedInputFile.getColumnIndexes(columnMapping, readFile.getColumns());
+				}
+				else if (!suppressError) {
+					System.out.println("ERROR: Couldn't open file '" + fileName + "' for reading!");
+				}
+			}
+			else if (!suppressError) {
+				System.out.println("ERROR: Cannot read file '" + fileName + "'!");
+			}
+		}
+
+		return result;
+	}
+
+
+	public boolean hasNext() {
+		return fileIterator.hasNext();
+	}
+
+
+	public DelimitedFileRow next() {
+		return fileIterator.next();
+	}
+
+
+	public boolean hasField(String fieldName) {
+		return (columnMapping.get(fieldName) != null);
+	}
+
+
+	public String get(DelimitedFileRow row, String fieldName, boolean required) {
+		String value = null;
+		String mappedFieldName = columnMapping.get(fieldName);
+		if (required && (mappedFieldName == null)) {
+			throw new RuntimeException("Field \"" + fieldName + "\" not found");
+		}
+		else {
+			Integer columnIndex = columnIndexes.get(fieldName);
+			value = (columnIndex == null) ? null : row.get(columnIndex);
+		}
+		return DrugMappingStringUtilities.convertToANSI(value);
+	}
+
+
+	public void putSettings(List<String> settings) {
+		for (String setting : settings) {
+			if ((!setting.trim().equals("")) && (!setting.substring(0, 1).equals("#"))) {
+				int equalSignIndex = setting.indexOf("=");
+				String settingPath = setting.substring(0, equalSignIndex);
+				String value = setting.substring(equalSignIndex + 1).trim();
+				String[] settingPathSplit = settingPath.split("\\.");
+				if ((settingPathSplit.length > 0) && (settingPathSplit[0].equals(labelText))) {
+					if ((settingPathSplit.length == 3) && (settingPathSplit[1].equals("column"))) { // Column mapping
+						if (getColumns().contains(settingPathSplit[2])) {
+							columnMapping.put(settingPathSplit[2], value);
+						}
+					}
+					else if (settingPathSplit.length == 2) {
+						if (settingPathSplit[1].equals("filename")) setFileName(value);
+						else if (settingPathSplit[1].equals("fieldDelimiter")) fieldDelimiter = value;
+						else if (settingPathSplit[1].equals("selected")) setSelected(value.toUpperCase().equals("YES"));
+						else if (settingPathSplit[1].equals("textQualifier")) textQualifier = value;
+						else {
+							// Unknown setting
+						}
+					}
+				}
+			}
+		}
+	}
+
+
+	public void logFileSettings() {
+		if (fileName != null) {
+			System.out.println("Input File: " + fileDefinition.getFileName());
+			System.out.println("  Filename: " + fileName);
+			System.out.println("  File type: " + FileDefinition.getFileTypeName(fileDefinition.getFileType()));
+			System.out.println("  Field delimiter: '" + fieldDelimiter + "'");
+			System.out.println("  Text qualifier: '" + textQualifier + "'");
+			System.out.println("  Fields:");
+			for (String column : getColumns()) {
+				System.out.println("    " + column + " -> " + columnMapping.get(column));
+			}
+			System.out.println();
+		}
+	}
+}
@@ -0,0 +1,481 @@
+package org.ohdsi.drugmapping.files;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A delimited file that is read through a memory mapping of the file
+ * instead of a stream reader.
+ *
+ * The file is divided in chunks of which the record boundaries are found
+ * in parallel. A chunk is scanned from its first line end on, assuming that
+ * line end is not inside a quoted field. When the records of the previous
+ * chunk turn out to end elsewhere the chunk is scanned again from there, so
+ * the records are always the same as when the file is read sequentially.
+ *
+ * A record is split in field slices when it is returned and a field is only
+ * decoded to a string when it is used. The parsing follows the rules of
+ * DelimitedFile. Only charsets in which the line ends, the delimiter and the
+ * text delimiter are single ASCII bytes can be mapped, see canMap.
+ */
+public class MappedDelimitedFile {
+	private static final int SEGMENT_SHIFT = 30; // 1 GB
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	private static final int CHUNK_SIZE = 32 * 1024 * 1024; // 32 MB
+
+	private static final int FIELD_START    = 0;
+	private static final int UNQUOTED       = 1;
+	private static final int QUOTED         = 2;
+	private static final int AFTER_QUOTE    = 3;
+	private static final int QUOTE_IN_VALUE = 4;
+
+	private final byte delimiter;
+	private final byte textDelimiter;
+	private final boolean hasTextDelimiter;
+	private final Charset charset;
+	private final long size;
+	private final MappedByteBuffer[] segments;
+
+
+	public static boolean canMap(Charset charset, char delimiter, char textDelimiter) {
+		boolean canMap = (delimiter > 0) && (delimiter < 128) && (textDelimiter < 128) && (delimiter != '\r') && (delimiter != '\n');
+		if (canMap && (!charset.equals(StandardCharsets.UTF_8))) {
+			// Single byte charsets that encode ASCII as ASCII
+			String asciiCharacters = "\r\n,;\t \"'abcXYZ019";
+			canMap = charset.canEncode() && (charset.newEncoder().maxBytesPerChar() == 1.0f) && Arrays.equals(asciiCharacters.getBytes(charset), asciiCharacters.getBytes(StandardCharsets.US_ASCII));
+		}
+		return canMap;
+	}
+
+
+	public MappedDelimitedFile(String fileName, char delimiter, char textDelimiter, Charset charset) throws IOException {
+		this.delimiter = (byte) delimiter;
+		this.textDelimiter = (byte) textDelimiter;
+		this.hasTextDelimiter = (textDelimiter != ((char) 0));
+		this.charset = charset;
+
+		// The mapping stays valid after the file is closed
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			size = channel.size();
+			segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+			for (int segmentNr = 0; segmentNr < segments.length; segmentNr++) {
+				long segmentStart = ((long) segmentNr) << SEGMENT_SHIFT;
+				segments[segmentNr] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.min(SEGMENT_SIZE, size - segmentStart));
+			}
+		}
+		finally {
+			file.close();
+		}
+	}
+
+
+	public RecordIterator iterator() {
+		return new RecordIterator();
+	}
+
+
+	private byte byteAt(long position) {
+		return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & (SEGMENT_SIZE - 1)));
+	}
+
+
+	private boolean isLineEnd(byte character) {
+		return (character == '\r') || (character == '\n');
+	}
+
+
+	/**
+	 * Finds the record starts in the chunk, from the record start scanStart
+	 * on, up to the first record start at or after the end of the chunk.
+	 */
+	private Chunk scanChunk(long chunkStart, long chunkEnd, long scanStart) {
+		Chunk chunk = new Chunk(chunkStart);
+		int state = FIELD_START;
+		long position = scanStart;
+		if (position < chunkEnd) {
+			chunk.addRecordStart(position);
+		}
+		while (position < size) {
+			byte character = byteAt(position++);
+			if (state == QUOTED) {
+				if (hasTextDelimiter && (character == textDelimiter)) {
+					state = AFTER_QUOTE;
+				}
+			}
+			else if (isLineEnd(character)) {
+				if ((character == '\r') && (position < size) && (byteAt(position) == '\n')) {
+					position++;
+				}
+				if (position >= chunkEnd) {
+					chunk.next = position;
+					return chunk;
+				}
+				chunk.addRecordStart(position);
+				state = FIELD_START;
+			}
+			else if (character == delimiter) {
+				state = FIELD_START;
+			}
+			else if (hasTextDelimiter && (character == textDelimiter)) {
+				state = (state == UNQUOTED) ? QUOTE_IN_VALUE : ((state == QUOTE_IN_VALUE) ? UNQUOTED : QUOTED);
+			}
+			else {
+				// Characters after a closing text delimiter are reported when the record is split
+				state = UNQUOTED;
+			}
+		}
+		// The last record ends at the end of the file
+		chunk.next = size + 1;
+		return chunk;
+	}
+
+
+	/**
+	 * Scans the chunk from the first line end in it on, assuming that line
+	 * end is not inside a quoted field.
+	 */
+	private Chunk scanChunkSpeculative(long chunkStart, long chunkEnd) {
+		long position = Math.max(chunkStart - 1, 0);
+		while ((position < size) && (!isLineEnd(byteAt(position)))) {
+			position++;
+		}
+		if ((position < size) && (byteAt(position) == '\r') && (position + 1 < size) && (byteAt(position + 1) == '\n')) {
+			position++;
+		}
+		return scanChunk(chunkStart, chunkEnd, position + 1);
+	}
+
+
+	private static class Chunk {
+		private final long start;
+		private int[] recordStarts = new int[1024];
+		private int recordCount = 0;
+		private long next;
+
+
+		public Chunk(long start) {
+			this.start = start;
+		}
+
+
+		public void addRecordStart(long recordStart) {
+			if (recordCount == recordStarts.length) {
+				recordStarts = Arrays.copyOf(recordStarts, recordCount * 2);
+			}
+			recordStarts[recordCount++] = (int) (recordStart - start);
+		}
+
+
+		public long getRecordStart(int recordNr) {
+			return start + recordStarts[recordNr];
+		}
+
+
+		public int indexOf(long recordStart) {
+			int index = Arrays.binarySearch(recordStarts, 0, recordCount, (int) (recordStart - start));
+			return index < 0 ? -1 : index;
+		}
+	}
+
+
+	public class RecordIterator implements Iterator<List<String>> {
+		private final List<Future<Chunk>> chunks = new ArrayList<Future<Chunk>>();
+		private int chunkNr = -1;
+		private Chunk chunk = null;
+		private int chunkRecordNr = 0;
+		private long expectedRecordStart = 0L;
+		private long nextRecordStart = -1L;
+		private long nextRecordEnd = -1L;
+		private long recordNr = 0L;
+
+
+		public RecordIterator() {
+			int chunkCount = (int) Math.max(1L, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+			ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(chunkCount, Runtime.getRuntime().availableProcessors())));
+			for (int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+				final long chunkStart = ((long) chunkIndex) * CHUNK_SIZE;
+				final long chunkEnd = Math.min(chunkStart + CHUNK_SIZE, size);
+				chunks.add(executor.submit(new Callable<Chunk>() {
+
+					@Override
+					public Chunk call() {
+						return chunkStart == 0L ? scanChunk(chunkStart, chunkEnd, 0L) : scanChunkSpeculative(chunkStart, chunkEnd);
+					}
+				}));
+			}
+			// The threads end when all chunks are scanned
+			executor.shutdown();
+		}
+
+
+		@Override
+		public boolean hasNext() {
+			if (nextRecordStart == -1L) {
+				findNextRecord();
+			}
+			return nextRecordStart < size;
+		}
+
+
+		@Override
+		public List<String> next() throws NoSuchElementException {
+			if (!hasNext()) {
+				throw new NoSuchElementException("End of file");
+			}
+			recordNr++;
+			List<String> record = splitRecord(nextRecordStart, nextRecordEnd);
+			nextRecordStart = -1L;
+			return record;
+		}
+
+
+		@Override
+		public void remove() {
+			System.err.println("Unimplemented method 'remove' called");
+		}
+
+
+		public void setRecordNr(long newValue) {
+			recordNr = newValue;
+		}
+
+
+		private void findNextRecord() {
+			nextRecordStart = size;
+			while (nextChunkRecord()) {
+				long recordStart = chunk.getRecordStart(chunkRecordNr);
+				long recordEnd = (chunkRecordNr + 1 < chunk.recordCount) ? chunk.getRecordStart(chunkRecordNr + 1) : chunk.next;
+				chunkRecordNr++;
+
+				// Strip the line end
+				if (recordEnd > size) {
+					recordEnd = size;
+				}
+				else {
+					if ((recordEnd > recordStart) && (byteAt(recordEnd - 1) == '\n')) {
+						recordEnd--;
+					}
+					if ((recordEnd > recordStart) && (byteAt(recordEnd - 1) == '\r')) {
+						recordEnd--;
+					}
+				}
+
+				// Skip empty lines
+				boolean emptyRecord = (recordEnd == recordStart) || (hasTextDelimiter && (recordEnd == recordStart + 2) && (byteAt(recordStart) == textDelimiter) && (byteAt(recordStart + 1) == textDelimiter));
+				if (!emptyRecord) {
+					nextRecordStart = recordStart;
+					nextRecordEnd = recordEnd;
+					break;
+				}
+			}
+		}
+
+
+		private boolean nextChunkRecord() {
+			while ((chunk == null) || (chunkRecordNr >= chunk.recordCount)) {
+				if (chunk != null) {
+					expectedRecordStart = chunk.next;
+				}
+				chunkNr++;
+				if (chunkNr >= chunks.size()) {
+					chunk = null;
+					return false;
+				}
+
+				long chunkStart = ((long) chunkNr) * CHUNK_SIZE;
+				long chunkEnd = Math.min(chunkStart + CHUNK_SIZE, size);
+				Chunk scannedChunk = getChunk(chunkNr);
+				if (expectedRecordStart >= chunkEnd) {
+					// The chunk is part of a record of a previous chunk
+					chunk = new Chunk(chunkStart);
+					chunk.next = expectedRecordStart;
+				}
+				else {
+					int expectedRecordNr = scannedChunk.indexOf(expectedRecordStart);
+					if (expectedRecordNr != -1) {
+						chunk = scannedChunk;
+						chunkRecordNr = expectedRecordNr;
+					}
+					else {
+						// The chunk was scanned from a line end inside a quoted field
+						chunk = scanChunk(chunkStart, chunkEnd, expectedRecordStart);
+						chunkRecordNr = 0;
+					}
+				}
+			}
+			return true;
+		}
+
+
+		private Chunk getChunk(int chunkIndex) {
+			try {
+				Chunk scannedChunk = chunks.get(chunkIndex).get();
+				chunks.set(chunkIndex, null);
+				return scannedChunk;
+			}
+			catch (ExecutionException e) {
+				throw new NoSuchElementException(e.getCause().getMessage());
+			}
+			catch (InterruptedException e) {
+				throw new NoSuchElementException("Reading interrupted");
+			}
+		}
+
+
+		private List<String> splitRecord(long recordStart, long recordEnd) throws NoSuchElementException {
+			MappedRecord record = new MappedRecord(recordStart);
+			int state = FIELD_START;
+			long fieldStart = recordStart;
+			boolean escaped = false;
+			for (long position = recordStart; position < recordEnd; position++) {
+				byte character = byteAt(position);
+				if (state == QUOTED) {
+					if (character == textDelimiter) {
+						state = AFTER_QUOTE;
+					}
+				}
+				else if (character == delimiter) {
+					record.addField(fieldStart, position, escaped);
+					fieldStart = position + 1;
+					escaped = false;
+					state = FIELD_START;
+				}
+				else if (hasTextDelimiter && (character == textDelimiter)) {
+					escaped = true;
+					state = (state == UNQUOTED) ? QUOTE_IN_VALUE : ((state == QUOTE_IN_VALUE) ? UNQUOTED : QUOTED);
+				}
+				else if (state == QUOTE_IN_VALUE) {
+					throw new NoSuchElementException("Not-doubled text delimiter (" + (char) textDelimiter + ") in record " + Long.toString(recordNr) + " at byte " + Long.toString(position - 1));
+				}
+				else if (state == AFTER_QUOTE) {
+					throw new NoSuchElementException("Characters following field closing text delimiter (" + (char) textDelimiter + ") in record " + Long.toString(recordNr) + " at byte " + Long.toString(position));
+				}
+				else {
+					state = UNQUOTED;
+				}
+			}
+			if (state == QUOTED) {
+				throw new NoSuchElementException("Unclosed delimited field  (text delimiter = " + (char) textDelimiter + ") at end of file");
+			}
+			record.addField(fieldStart, recordEnd, escaped);
+			return record;
+		}
+	}
+
+
+	/**
+	 * A record of which the fields are decoded when they are used.
+	 * A field is escaped when it contains a text delimiter.
+	 */
+	private class MappedRecord extends AbstractList<String> {
+		private final long start;
+		private int[] fieldBounds = new int[32];
+		private boolean[] escaped = new boolean[16];
+		private String[] values = new String[16];
+		private boolean[] decoded = new boolean[16];
+		private int fieldCount = 0;
+
+
+		public MappedRecord(long start) {
+			this.start = start;
+		}
+
+
+		public void addField(long fieldStart, long fieldEnd, boolean fieldEscaped) {
+			if (fieldCount == escaped.length) {
+				fieldBounds = Arrays.copyOf(fieldBounds, fieldCount * 4);
+				escaped = Arrays.copyOf(escaped, fieldCount * 2);
+				values = Arrays.copyOf(values, fieldCount * 2);
+				decoded = Arrays.copyOf(decoded, fieldCount * 2);
+			}
+			fieldBounds[2 * fieldCount] = (int) (fieldStart - start);
+			fieldBounds[(2 * fieldCount) + 1] = (int) (fieldEnd - start);
+			escaped[fieldCount] = fieldEscaped;
+			fieldCount++;
+		}
+
+
+		@Override
+		public String get(int fieldNr) {
+			if ((fieldNr < 0) || (fieldNr >= fieldCount)) {
+				throw new IndexOutOfBoundsException("Field " + fieldNr + " of " + fieldCount);
+			}
+			if (!decoded[fieldNr]) {
+				values[fieldNr] = decodeField(start + fieldBounds[2 * fieldNr], start + fieldBounds[(2 * fieldNr) + 1], escaped[fieldNr]);
+				decoded[fieldNr] = true;
+			}
+			return values[fieldNr];
+		}
+
+
+		@Override
+		public String set(int fieldNr, String value) {
+			String oldValue = get(fieldNr);
+			values[fieldNr] = value;
+			return oldValue;
+		}
+
+
+		@Override
+		public int size() {
+			return fieldCount;
+		}
+
+
+		private String decodeField(long fieldStart, long fieldEnd, boolean fieldEscaped) {
+			byte[] bytes = new byte[(int) (fieldEnd - fieldStart)];
+			int length = 0;
+			if (!fieldEscaped) {
+				for (long position = fieldStart; position < fieldEnd; position++) {
+					bytes[length++] = byteAt(position);
+				}
+			}
+			else {
+				// Remove the enclosing text delimiters and undouble the text delimiters in the value
+				int state = FIELD_START;
+				for (long position = fieldStart; position < fieldEnd; position++) {
+					byte character = byteAt(position);
+					if (character == textDelimiter) {
+						if (state == FIELD_START) {
+							state = QUOTED;
+						}
+						else if (state == QUOTED) {
+							state = AFTER_QUOTE;
+						}
+						else if (state == UNQUOTED) {
+							state = QUOTE_IN_VALUE;
+						}
+						else {
+							bytes[length++] = character;
+							state = (state == AFTER_QUOTE) ? QUOTED : UNQUOTED;
+						}
+					}
+					else {
+						bytes[length++] = character;
+						if (state == FIELD_START) {
+							state = UNQUOTED;
+						}
+					}
+				}
+			}
+			return new String(bytes, 0, length, charset);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.ohdsi.drugmapping.genericmapping;
 
+import java.io.File;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -11,21 +12,35 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.ohdsi.drugmapping.DrugMapping;
+import org.ohdsi.drugmapping.DrugMappingMetrics;
 import org.ohdsi.drugmapping.FormConversion;
 import org.ohdsi.drugmapping.IngredientNameTranslation;
 import org.ohdsi.drugmapping.Mapping;
+import org.ohdsi.drugmapping.MappingConfiguration;
 import org.ohdsi.drugmapping.UnitConversion;
+import org.ohdsi.drugmapping.Version;
 import org.ohdsi.drugmapping.cdm.CDM;
 import org.ohdsi.drugmapping.cdm.CDMConcept;
 import org.ohdsi.drugmapping.cdm.CDMDrug;
 import org.ohdsi.drugmapping.cdm.CDMIngredient;
+import org.ohdsi.drugmapping.cdm.CDMIngredientMatch;
 import org.ohdsi.drugmapping.cdm.CDMIngredientStrength;
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
+import org.ohdsi.drugmapping.files.DelimitedInputFile;
+import org.ohdsi.drugmapping.files.DelimitedOutputWriter;
+import org.ohdsi.drugmapping.genericmapping.MappingState.SourceDrugState;
 import org.ohdsi.drugmapping.gui.CDMDatabase;
 import org.ohdsi.drugmapping.gui.MainFrame;
-import org.ohdsi.drugmapping.gui.files.DelimitedInputFileGUI;
 import org.ohdsi.drugmapping.source.Source;
 import org.ohdsi.drugmapping.source.SourceDrug;
 import org.ohdsi.drugmapping.source.SourceDrugComponent;
@@ -39,7 +54,7 @@ public class GenericMapping extends Mapping {
 	
 	public static String LOGFILE_NAME = "DrugMapping Log.txt";
 	
-	private static double DEVIATION_MARGIN = 0.000001;
+	private static double DEVIATION_MARGIN = StrengthMatching.DEVIATION_MARGIN;
 
 	// Mapping types
 	// The mapping type values should start at 0 and incremented by 1.
@@ -144,9 +159,13 @@ public class GenericMapping extends Mapping {
 		warningTypeDescriptions.put(FALLBACK_MAPPING_WARNING                       , "Fallback ingredient mapping warnings");
 	}
 	
-	private static Map<Integer, List<String>> warnings;
+	private Map<Integer, List<String>> warnings;
 	
-	public static void addWarning(int warningType, String warning) {
+	/**
+	 * Adds a warning of this mapping run. The warnings are written at the
+	 * end of the run, unless they are suppressed.
+	 */
+	public synchronized void addWarning(int warningType, String warning) {
 		List<String> warningList = warnings.get(warningType);
 		if (warningList == null) {
 			warningList = new ArrayList<String>();
@@ -234,8 +253,24 @@ public class GenericMapping extends Mapping {
 		ingredientMatchingTypeDescriptions.put(INGREDIENT_MATCH_FALLBACK     , "fallback");
 	}
 	
+	// Filters of the CDM drugs of which the examined and rejected drugs are counted in the metrics.
+	private static int MATCHING_FORM_FILTER             = 0;
+	private static int MATCHING_STRENGTH_FILTER         = 1;
+	private static int MATCHING_ATC_FILTER              = 2;
+	private static int MATCHING_FORM_BY_PRIORITY_FILTER = 3;
+
+	private static Map<Integer, String> filterDescriptions;
+	static {
+		filterDescriptions = new HashMap<Integer  , String>();
+		filterDescriptions.put(MATCHING_FORM_FILTER            , "selectCDMDrugsWithMatchingForm");
+		filterDescriptions.put(MATCHING_STRENGTH_FILTER        , "selectCDMDrugsWithMatchingStrength");
+		filterDescriptions.put(MATCHING_ATC_FILTER             , "selectCDMDrugsOnMatchingATC");
+		filterDescriptions.put(MATCHING_FORM_BY_PRIORITY_FILTER, "selectCDMDrugsWithMatchingFormByPriority");
+	}
+	
 	
 	private MainFrame mainFrame = null;
+	private boolean mappingOk = false;
 
 	private Map<String, CDMIngredient> manualCASMappings = null;
 	private Map<SourceIngredient, CDMIngredient> manualIngredientCodeOverruleMappings = null;
@@ -246,10 +281,14 @@ public class GenericMapping extends Mapping {
 	private Map<String, CDMIngredient> manualIngredientNameFallbackMappings = null;
 	private Map<SourceDrug, CDMDrug> manualDrugMappings = null;
 	
+	private MappingConfiguration configuration = null;
+	private CDMDatabase database = null;
+	
 	private Source source = null;
 	private CDM cdm = null;
 	
 	private UnitConversion unitConversionsMap = null;
+	private Map<String, double[]> strengthUnitConversionFactors = new ConcurrentHashMap<String, double[]>(); // Source unit to factors for the CDM strength units
 	private FormConversion formConversionsMap = null;
 	private IngredientNameTranslation ingredientNameTranslationMap = null;
 	
@@ -260,41 +299,64 @@ public class GenericMapping extends Mapping {
 	
 	private Set<SourceDrug> mappedSourceDrugs = null;
 	private Set<SourceDrug> partiallyMappedSourceDrugs = null;
-	private Double usedStrengthDeviationPercentage = null;
 	private Map<String, Double> usedStrengthDeviationPercentageMap = null;
 	
-	private Map<SourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>>> sourceDrugMappingResults = null;
+	private MappingResultLog sourceDrugMappingResults = null;
+	private final ThreadLocal<MappingResultLog.Buffer> sourceDrugMappingResultsBuffer = new ThreadLocal<MappingResultLog.Buffer>();   // The buffer of a worker thread of a matching stage
 	private Map<Integer, Set<SourceDrug>> notUniqueMapping = null;
 	
 	private List<String> report = null;
 	
-	private String preferencesUsed = "";
+	private int mappingThreadCount = 1;
+	
+	private boolean incrementalMapping = false;
+	private String inputsFingerprint = null;
+	private List<SourceDrug> sourceDrugsToMatch = null;                       // The source drugs that are not carried over from the previous run
+	private Set<SourceDrug> carriedOverSourceDrugs = null;
 
 	private Map<Integer, Long> ingredientMatchingStatistics;
-	private Map<Integer, Boolean> ingredientMatchingFlags;
+	
+	private DrugMappingMetrics metrics = null;
+	
+	// The metrics counters are looked up once, as they are counted for every source drug.
+	private AtomicLong[] drugsWithMatchingIngredientsCounters = null;         // Mapping type
+	private DrugMappingMetrics.FilterCounter[][] filterCounters = null;       // Mapping type, filter
 	
 	
 		
 	
 	public GenericMapping(
 					MainFrame mainFrame,
+					MappingConfiguration configuration,
 					CDMDatabase database, 
-					DelimitedInputFileGUI sourceDrugsFile, 
-					DelimitedInputFileGUI ingredientNameTranslationFile, 
-					DelimitedInputFileGUI unitMappingFile, 
-					DelimitedInputFileGUI formMappingFile, 
-					DelimitedInputFileGUI manualCASMappingFile, 
-					DelimitedInputFileGUI manualIngredientOverruleMappingFile,
-					DelimitedInputFileGUI manualIngredientFallbackMappingFile, 
-					DelimitedInputFileGUI manualDrugMappingFile
+					DelimitedInputFile sourceDrugsFile, 
+					DelimitedInputFile ingredientNameTranslationFile, 
+					DelimitedInputFile unitMappingFile, 
+					DelimitedInputFile formMappingFile, 
+					DelimitedInputFile manualCASMappingFile, 
+					DelimitedInputFile manualIngredientOverruleMappingFile,
+					DelimitedInputFile manualIngredientFallbackMappingFile, 
+					DelimitedInputFile manualDrugMappingFile
 					) {
 		boolean ok = true;
 		isMapping = true;
 		
+		// Without main frame the mapping runs headless
 		this.mainFrame = mainFrame;
-		this.mainFrame.setGenericMapping(this);
+		if (mainFrame != null) {
+			mainFrame.setGenericMapping(this);
+		}
+		
+		// The settings do not change while mapping
+		this.configuration = configuration;
+		this.database = database;
+		
+		setMappingTypes(configuration.isCompBeforeForm());
+		
+		mappingThreadCount = configuration.getMappingThreads();
 		
-		setMappingTypes(DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_MATCH_COMP_FORM).equals("Comp before Form"));
+		incrementalMapping = configuration.isIncrementalMapping();
+		carriedOverSourceDrugs = new HashSet<SourceDrug>();
 		
 		// Initialize ingredient matching statistics
 		ingredientMatchingStatistics = new HashMap<Integer, Long>();
@@ -314,11 +376,12 @@ public class GenericMapping extends Mapping {
 		sourceDrugsAllIngredientsMapped = new ArrayList<SourceDrug>();
 		sourceDrugsCDMIngredients = new HashMap<SourceDrug, List<CDMIngredient>>();
 		
-		mappedSourceDrugs = new HashSet<SourceDrug>();
-		partiallyMappedSourceDrugs = new HashSet<SourceDrug>();
-		usedStrengthDeviationPercentageMap = new HashMap<String, Double>();
+		// The source drug matching stages can run in parallel so these have to be thread safe.
+		mappedSourceDrugs = Collections.newSetFromMap(new ConcurrentHashMap<SourceDrug, Boolean>());
+		partiallyMappedSourceDrugs = Collections.newSetFromMap(new ConcurrentHashMap<SourceDrug, Boolean>());
+		usedStrengthDeviationPercentageMap = Collections.synchronizedMap(new HashMap<String, Double>());
 		
-		sourceDrugMappingResults = new HashMap<SourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>>>(); // SourceDrug, Mapping, List of Mapping result, List of options
+		sourceDrugMappingResults = new MappingResultLog(); // SourceDrug, Mapping, Component, Mapping result, List of options
 		notUniqueMapping = new HashMap<Integer, Set<SourceDrug>>();
 		
 		report = new ArrayList<String>();
@@ -326,20 +389,37 @@ public class GenericMapping extends Mapping {
 		
 		int mapping = 0;
 		while (mappingTypeDescriptions.containsKey(mapping)) {
-			notUniqueMapping.put(mapping, new HashSet<SourceDrug>());
+			notUniqueMapping.put(mapping, Collections.newSetFromMap(new ConcurrentHashMap<SourceDrug, Boolean>()));
 			mapping++;
 		}
 
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + " Generic Drug Mapping");
+		
+		metrics = new DrugMappingMetrics();
+		metrics.start();
+		DrugMappingMetrics.Stage runStage = metrics.startStage("Generic Drug Mapping");
+		drugsWithMatchingIngredientsCounters = new AtomicLong[mappingTypeDescriptions.size()];
+		filterCounters = new DrugMappingMetrics.FilterCounter[mappingTypeDescriptions.size()][filterDescriptions.size()];
+		for (int mappingType : mappingTypeDescriptions.keySet()) {
+			drugsWithMatchingIngredientsCounters[mappingType] = metrics.getCounter(mappingTypeDescriptions.get(mappingType) + " drugs with matching ingredients");
+			for (int filter : filterDescriptions.keySet()) {
+				filterCounters[mappingType][filter] = metrics.getFilterCounter(mappingTypeDescriptions.get(mappingType) + " " + filterDescriptions.get(filter));
+			}
+		}
 
 		// Load source drugs with ingredients
+		DrugMappingMetrics.Stage stage = metrics.startStage("Load source drugs");
 		source = new Source();
-		ok = ok && source.loadSourceDrugs(sourceDrugsFile, report);
+		ok = ok && source.loadSourceDrugs(sourceDrugsFile, configuration.getMinimumUseCount(), configuration.isSourceDrugsMemoryMapped(), report);
+		stage.end();
 		
 		// Get CDM Ingredients
-		cdm = new CDM();
+		stage = metrics.startStage("Load CDM");
+		cdm = new CDM(configuration, metrics);
 		ok = ok && cdm.LoadCDMFromDatabase(database, report);	
+		stage.end();
 
+		stage = metrics.startStage("Load translations and conversions");
 		if (ok) {
 			// Get the ingredient name translation map
 			boolean translationOk = getIngredientNameTranslationMap(ingredientNameTranslationFile);
@@ -352,6 +432,9 @@ public class GenericMapping extends Mapping {
 
 			ok = ok && translationOk && unitsOk && formsOk;
 		}
+		stage.end();
+		
+		stage = metrics.startStage("Load manual mappings");
 		
 		// Load manual CAS mappings
 		ok = ok && getManualCASMappings(manualCASMappingFile);		
@@ -365,59 +448,106 @@ public class GenericMapping extends Mapping {
 		// Load manual drug mappings
 		ok = ok && getManualDrugMappings(manualDrugMappingFile);
 		
+		stage.end();
+		
 		// Match ingredients by ATC and full name
+		stage = metrics.startStage("Match ingredients");
 		ok = ok && matchIngredients();
+		stage.end();
 		
 		// Get source drugs with all ingredients mapped
 		ok = ok && getSourceDrugsWithAllIngredientsMapped();
 		
+		// Carry over the results of the source drugs that did not change since the previous run
+		if (ok && incrementalMapping && (cdm.getVersionDescription() == null)) {
+			System.out.println("WARNING: Vocabulary version of the CDM is unknown. Incremental mapping is switched off.");
+			incrementalMapping = false;
+		}
+		if (ok && incrementalMapping) {
+			stage = metrics.startStage("Carry over previous mapping results");
+			carryOverPreviousMappingResults();
+			stage.end();
+		}
+		
 		// Match source drugs to Clinical Drugs
+		stage = metrics.startStage("Match Clinical Drugs");
 		ok = ok && matchClinicalDrugs();
+		stage.end();
 		
-		if (DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_MATCH_COMP_FORM).equals("Comp before Form")) {
+		if (configuration.isCompBeforeForm()) {
 			// Match source drugs to Clinical Drug Comps
+			stage = metrics.startStage("Match Clinical Drug Comps");
 			ok = ok && matchClinicalDrugComps();
+			stage.end();
 			
 			// Match source drugs to Clinical Drug Forms
+			stage = metrics.startStage("Match Clinical Drug Forms");
 			ok = ok && matchClinicalDrugForms();
+			stage.end();
 		}
 		else {
 			// Match source drugs to Clinical Drug Forms
+			stage = metrics.startStage("Match Clinical Drug Forms");
 			ok = ok && matchClinicalDrugForms();
+			stage.end();
 			
 			// Match source drugs to Clinical Drug Comps
+			stage = metrics.startStage("Match Clinical Drug Comps");
 			ok = ok && matchClinicalDrugComps();
+			stage.end();
 		}
 		
 		// Match single ingredient source drugs to Ingredient
+		stage = metrics.startStage("Match Ingredients");
 		ok = ok && matchSingleIngredient();
+		stage.end();
 		
 		// Match source drug ingredients to Clinical Drug Comps or Ingredients
+		stage = metrics.startStage("Match Splitted");
 		ok = ok && matchClinicalDrugSplitted();
+		stage.end();
+		
+		// Save the mapping results for the next incremental run
+		if (ok && incrementalMapping) {
+			stage = metrics.startStage("Save mapping state");
+			saveMappingState();
+			stage.end();
+		}
 		
 		isMapping = false;
 
 		// Showing Drugs List
 		if (ok) showDrugsList();
 
-		// Save mapping
-		if (ok) saveMapping();
-		
-		// Create the final report
-		if (ok && (report != null)) finalReport();
+		// Save mapping and create the final report
+		if (ok) {
+			stage = metrics.startStage("Save mapping");
+			ok = saveMapping();
+			stage.end();
+		}
 		
 		writeWarnings();
+		
+		mappingOk = ok;
+		
+		runStage.end();
+		metrics.write(configuration.isCompressOutputFiles());
 
 		System.out.println();
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + " Finished");
 	}
 	
 	
-	private boolean getIngredientNameTranslationMap(DelimitedInputFileGUI ingredientNameTranslationFile) {
+	public boolean isMappingOk() {
+		return mappingOk;
+	}
+	
+	
+	private boolean getIngredientNameTranslationMap(DelimitedInputFile ingredientNameTranslationFile) {
 		boolean ok = true;
 		
 		// Create Translation Map
-		ingredientNameTranslationMap = new IngredientNameTranslation(ingredientNameTranslationFile);
+		ingredientNameTranslationMap = new IngredientNameTranslation(this, ingredientNameTranslationFile);
 		if (ingredientNameTranslationMap.getStatus() != FormConversion.STATE_OK) {
 			// If no unit conversion is specified then stop.
 			System.out.println("");
@@ -440,11 +570,11 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private boolean getUnitConversion(DelimitedInputFileGUI unitMappingFile) {
+	private boolean getUnitConversion(DelimitedInputFile unitMappingFile) {
 		boolean ok = true;
 		
 		// Create Units Map
-		unitConversionsMap = new UnitConversion(unitMappingFile);
+		unitConversionsMap = new UnitConversion(this, unitMappingFile);
 		if (unitConversionsMap.getStatus() != UnitConversion.STATE_OK) {
 			// If no unit conversion is specified then stop.
 			System.out.println("");
@@ -459,11 +589,11 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private boolean getFormConversion(DelimitedInputFileGUI formMappingFile) {
+	private boolean getFormConversion(DelimitedInputFile formMappingFile) {
 		boolean ok = true;
 		
 		// Create Units Map
-		formConversionsMap = new FormConversion(formMappingFile, cdm);
+		formConversionsMap = new FormConversion(this, formMappingFile, cdm);
 		if (formConversionsMap.getStatus() != FormConversion.STATE_OK) {
 			// If no unit conversion is specified then stop.
 			System.out.println("");
@@ -478,7 +608,7 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private boolean getManualCASMappings(DelimitedInputFileGUI manualMappingFile) {
+	private boolean getManualCASMappings(DelimitedInputFile manualMappingFile) {
 		boolean ok = true;
 
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Loading manual CAS mappings ...");
@@ -504,15 +634,15 @@ public class GenericMapping extends Mapping {
 									manualCASMappings.put(casNumber, cdmIngredient);
 								}
 								else {
-									GenericMapping.addWarning(GenericMapping.MANUAL_CAS_MAPPING_WARNING, "No CDM Ingredient found for concept_id " + cdmConceptId + " for CAS number " + casNumber + " in line " + lineNr + ".");
+									addWarning(MANUAL_CAS_MAPPING_WARNING, "No CDM Ingredient found for concept_id " + cdmConceptId + " for CAS number " + casNumber + " in line " + lineNr + ".");
 								}
 							}
 							else {
-								GenericMapping.addWarning(GenericMapping.MANUAL_CAS_MAPPING_WARNING, "No concept_id found in line " + lineNr + ".");
+								addWarning(MANUAL_CAS_MAPPING_WARNING, "No concept_id found in line " + lineNr + ".");
 							}
 						}
 						else {
-							GenericMapping.addWarning(GenericMapping.MANUAL_CAS_MAPPING_WARNING, "No CAS number found in line " + lineNr + ".");
+							addWarning(MANUAL_CAS_MAPPING_WARNING, "No CAS number found in line " + lineNr + ".");
 						}
 					}
 				}
@@ -535,7 +665,7 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private boolean getManualIngredientMappings(DelimitedInputFileGUI manualMappingFile, String type) {
+	private boolean getManualIngredientMappings(DelimitedInputFile manualMappingFile, String type) {
 		boolean ok = true;
 
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Loading manual ingredient " + type + " mappings ...");
@@ -579,7 +709,7 @@ public class GenericMapping extends Mapping {
 										codeMappingRemarks.put(sourceIngredient, remark);
 									}
 									else {
-										GenericMapping.addWarning(GenericMapping.MANUAL_INGREDIENT_MAPPING_WARNING, "No source ingredient found for sourceCode " + sourceCode + " in line " + lineNr + ".");
+										addWarning(MANUAL_INGREDIENT_MAPPING_WARNING, "No source ingredient found for sourceCode " + sourceCode + " in line " + lineNr + ".");
 									}
 								}
 								if (!sourceName.equals("")) {
@@ -587,15 +717,15 @@ public class GenericMapping extends Mapping {
 									nameMappings.put(sourceName, cdmIngredient);
 								}
 								if ((!sourceCodeFound) && (!sourceNameFound)) {
-									GenericMapping.addWarning(GenericMapping.MANUAL_INGREDIENT_MAPPING_WARNING, "No sourceCode and no sourceName found in line " + lineNr + ".");
+									addWarning(MANUAL_INGREDIENT_MAPPING_WARNING, "No sourceCode and no sourceName found in line " + lineNr + ".");
 								}
 							}
 							else {
-								GenericMapping.addWarning(GenericMapping.MANUAL_INGREDIENT_MAPPING_WARNING, "No CDM Ingredient found for concept_id " + cdmConceptId + " in line " + lineNr + ".");
+								addWarning(MANUAL_INGREDIENT_MAPPING_WARNING, "No CDM Ingredient found for concept_id " + cdmConceptId + " in line " + lineNr + ".");
 							}
 						}
 						else {
-							GenericMapping.addWarning(GenericMapping.MANUAL_INGREDIENT_MAPPING_WARNING, "No concept_id found in line " + lineNr + ".");
+							addWarning(MANUAL_INGREDIENT_MAPPING_WARNING, "No concept_id found in line " + lineNr + ".");
 						}
 					}
 				}
@@ -618,7 +748,7 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private boolean getManualDrugMappings(DelimitedInputFileGUI manualMappingFile) {
+	private boolean getManualDrugMappings(DelimitedInputFile manualMappingFile) {
 		boolean ok = true;
 
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Loading manual drug mappings ...");
@@ -687,104 +817,153 @@ public class GenericMapping extends Mapping {
 	
 	private boolean matchIngredients() {
 		boolean ok = true;
-		Integer mappedIngredients = 0;
 		
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Match Ingredients");
 		
-		// Initialize ingredient matching counters
+		List<SourceIngredient> sourceIngredients = new ArrayList<SourceIngredient>(Source.getAllIngredients());
+		IngredientMatchingCounters counters = new IngredientMatchingCounters();
+		
+		if ((mappingThreadCount > 1) && (sourceIngredients.size() > 1)) {
+			// Each source ingredient is matched independently so the source ingredients are divided over the worker threads.
+			// Each worker thread counts in its own counters, which are added up when all source ingredients are matched.
+			AtomicInteger nextSourceIngredientNr = new AtomicInteger(0);
+			ExecutorService executor = Executors.newFixedThreadPool(mappingThreadCount);
+			List<Future<IngredientMatchingCounters>> workers = new ArrayList<Future<IngredientMatchingCounters>>();
+			for (int threadNr = 0; threadNr < mappingThreadCount; threadNr++) {
+				workers.add(executor.submit(new Callable<IngredientMatchingCounters>() {
+					
+					@Override
+					public IngredientMatchingCounters call() {
+						IngredientMatchingCounters workerCounters = new IngredientMatchingCounters();
+						int sourceIngredientNr;
+						while ((sourceIngredientNr = nextSourceIngredientNr.getAndIncrement()) < sourceIngredients.size()) {
+							matchIngredient(sourceIngredients.get(sourceIngredientNr), workerCounters);
+						}
+						return workerCounters;
+					}
+				}));
+			}
+			for (Future<IngredientMatchingCounters> worker : workers) {
+				try {
+					counters.add(worker.get());
+				}
+				catch (ExecutionException e) {
+					System.out.println("      ERROR: " + e.getCause());
+					e.getCause().printStackTrace();
+					ok = false;
+				}
+				catch (InterruptedException e) {
+					System.out.println("      ERROR: Matching interrupted");
+					ok = false;
+				}
+			}
+			executor.shutdown();
+		}
+		else {
+			for (SourceIngredient sourceIngredient : sourceIngredients) {
+				matchIngredient(sourceIngredient, counters);
+			}
+		}
+		
 		ingredientMatchingStatistics = new HashMap<Integer, Long>();
 		for (int statistic = 0; ingredientMatchingTypeDescriptions.get(statistic) != null; statistic++) {
-			ingredientMatchingStatistics.put(statistic, 0L);
+			ingredientMatchingStatistics.put(statistic, counters.statistics[statistic]);
 		}
 
-		for (SourceIngredient sourceIngredient : Source.getAllIngredients()) {
-			
-			// Initialize ingredient matching flags
-			ingredientMatchingFlags = new HashMap<Integer, Boolean>();
+		if (report != null) {
 			for (int statistic = 0; ingredientMatchingTypeDescriptions.get(statistic) != null; statistic++) {
-				ingredientMatchingFlags.put(statistic, false);
-			}
-			
-			CDMIngredient cdmIngredient = matchIngredientByCASNumber(sourceIngredient);
-			
-			if (cdmIngredient == null) {
-				cdmIngredient = matchIngredientByExternalCASNumber(sourceIngredient);
-			}
-			
-			if (cdmIngredient == null) {
-				cdmIngredient = matchIngredientByName(sourceIngredient);
-			}
-			
-			if (cdmIngredient == null) {
-				cdmIngredient = matchIngredientByATC(sourceIngredient);
+				report.add("Source ingredients mapped " + ingredientMatchingTypeDescriptions.get(statistic) + ": " + DrugMappingNumberUtilities.percentage((long) ingredientMatchingStatistics.get(statistic), (long) Source.getAllIngredients().size()));
 			}
+			report.add("Source ingredients mapped total: " + DrugMappingNumberUtilities.percentage(counters.mappedIngredients, (long) Source.getAllIngredients().size()));
+		}
+		
+		metrics.count("Name resolution cache hits", cdm.getNameResolutionCache().getHits());
+		metrics.count("Name resolution cache misses", cdm.getNameResolutionCache().getMisses());
+		metrics.count("Normalized name cache hits", cdm.getNormalizedNameCache().getHits());
+		metrics.count("Normalized name cache misses", cdm.getNormalizedNameCache().getMisses());
+		
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+		
+		return ok;
+	}
+	
+	
+	/**
+	 * Matches one source ingredient and counts the way it is matched. The
+	 * matching only changes the source ingredient and the counters so
+	 * different source ingredients can be matched at the same time.
+	 */
+	private void matchIngredient(SourceIngredient sourceIngredient, IngredientMatchingCounters counters) {
+		boolean[] matchingFlags = new boolean[ingredientMatchingTypeDescriptions.size()];
+		
+		CDMIngredient cdmIngredient = matchIngredientByCASNumber(sourceIngredient, matchingFlags);
+		
+		if (cdmIngredient == null) {
+			cdmIngredient = matchIngredientByExternalCASNumber(sourceIngredient, matchingFlags);
+		}
+		
+		if (cdmIngredient == null) {
+			cdmIngredient = matchIngredientByName(sourceIngredient, matchingFlags);
+		}
+		
+		if (cdmIngredient == null) {
+			cdmIngredient = matchIngredientByATC(sourceIngredient, matchingFlags);
+		}
 
-			CDMIngredient cdmIngredientOverrule = getOverruleMapping(sourceIngredient);
-			if (cdmIngredientOverrule != null) {
-				if ((cdmIngredient != null) && (cdmIngredient == cdmIngredientOverrule)) {
-					addWarning(OVERRULE_MAPPING_WARNING, sourceIngredient + " OVERRULE OBSOLETE");
+		CDMIngredient cdmIngredientOverrule = getOverruleMapping(sourceIngredient, matchingFlags);
+		if (cdmIngredientOverrule != null) {
+			if ((cdmIngredient != null) && (cdmIngredient == cdmIngredientOverrule)) {
+				addWarning(OVERRULE_MAPPING_WARNING, sourceIngredient + " OVERRULE OBSOLETE");
+			}
+			else {
+				cdmIngredient = cdmIngredientOverrule;
+				if (!cdmIngredient.getConceptId().equals("0")) {
+					sourceIngredient.setMatchingIngredient(cdmIngredient);
+					sourceIngredient.setMatchString("Manual Overrule Mapping" + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "") + " (\"" + sourceIngredient.getIngredientName() + "\")");
 				}
 				else {
-					cdmIngredient = cdmIngredientOverrule;
-					if (!cdmIngredient.getConceptId().equals("0")) {
-						sourceIngredient.setMatchingIngredient(cdmIngredient);
-						sourceIngredient.setMatchString("Manual Overrule Mapping" + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "") + " (\"" + sourceIngredient.getIngredientName() + "\")");
-					}
-					else {
-						sourceIngredient.setMatchingIngredient(null);
-						sourceIngredient.setMatchString("Manual Overrule to No Mapping" + " (\"" + sourceIngredient.getIngredientName() + "\")");
-					}
+					sourceIngredient.setMatchingIngredient(null);
+					sourceIngredient.setMatchString("Manual Overrule to No Mapping" + " (\"" + sourceIngredient.getIngredientName() + "\")");
 				}
 			}
-			
+		}
+		
 
-			CDMIngredient cdmIngredientFallback = getFallbackMapping(sourceIngredient);
-			if (cdmIngredientFallback != null) {
-				if (cdmIngredient == null) {
-					cdmIngredient = cdmIngredientFallback;
-					if (!cdmIngredient.getConceptId().equals("0")) {
-						sourceIngredient.setMatchingIngredient(cdmIngredient);
-						sourceIngredient.setMatchString("Manual Fallback Mapping" + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "") + " (\"" + sourceIngredient.getIngredientName() + "\")");
-					}
-					else {
-						sourceIngredient.setMatchString("Manual Fallback to No Mapping" + " (\"" + sourceIngredient.getIngredientName() + "\")");
-					}
+		CDMIngredient cdmIngredientFallback = getFallbackMapping(sourceIngredient, matchingFlags);
+		if (cdmIngredientFallback != null) {
+			if (cdmIngredient == null) {
+				cdmIngredient = cdmIngredientFallback;
+				if (!cdmIngredient.getConceptId().equals("0")) {
+					sourceIngredient.setMatchingIngredient(cdmIngredient);
+					sourceIngredient.setMatchString("Manual Fallback Mapping" + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "") + " (\"" + sourceIngredient.getIngredientName() + "\")");
 				}
 				else {
-					if (cdmIngredient == cdmIngredientFallback) {
-						addWarning(FALLBACK_MAPPING_WARNING, sourceIngredient + " FALLBACK OBSOLETE");
-					}
-					else {
-						addWarning(FALLBACK_MAPPING_WARNING, sourceIngredient + " FALLBACK DIFFERENT");
-					}
+					sourceIngredient.setMatchString("Manual Fallback to No Mapping" + " (\"" + sourceIngredient.getIngredientName() + "\")");
 				}
 			}
-
-			for (int statistic = 0; ingredientMatchingTypeDescriptions.get(statistic) != null; statistic++) {
-				if ((ingredientMatchingFlags.get(INGREDIENT_MATCH_OVERRULED) && (statistic == INGREDIENT_MATCH_OVERRULED)) || (!ingredientMatchingFlags.get(INGREDIENT_MATCH_OVERRULED))) {
-					ingredientMatchingStatistics.put(statistic, ingredientMatchingStatistics.get(statistic) + (ingredientMatchingFlags.get(statistic) ? 1 : 0));
+			else {
+				if (cdmIngredient == cdmIngredientFallback) {
+					addWarning(FALLBACK_MAPPING_WARNING, sourceIngredient + " FALLBACK OBSOLETE");
+				}
+				else {
+					addWarning(FALLBACK_MAPPING_WARNING, sourceIngredient + " FALLBACK DIFFERENT");
 				}
-			}
-			
-			if (cdmIngredient != null) {
-				mappedIngredients++;
 			}
 		}
 
-		if (report != null) {
-			for (int statistic = 0; ingredientMatchingTypeDescriptions.get(statistic) != null; statistic++) {
-				report.add("Source ingredients mapped " + ingredientMatchingTypeDescriptions.get(statistic) + ": " + DrugMappingNumberUtilities.percentage((long) ingredientMatchingStatistics.get(statistic), (long) Source.getAllIngredients().size()));
+		for (int statistic = 0; statistic < matchingFlags.length; statistic++) {
+			if (matchingFlags[statistic] && ((!matchingFlags[INGREDIENT_MATCH_OVERRULED]) || (statistic == INGREDIENT_MATCH_OVERRULED))) {
+				counters.statistics[statistic]++;
 			}
-			report.add("Source ingredients mapped total: " + DrugMappingNumberUtilities.percentage((long) mappedIngredients, (long) Source.getAllIngredients().size()));
 		}
 		
-		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
-		
-		return ok;
+		if (cdmIngredient != null) {
+			counters.mappedIngredients++;
+		}
 	}
 	
 	
-	private CDMIngredient matchIngredientByCASNumber(SourceIngredient sourceIngredient) {
+	private CDMIngredient matchIngredientByCASNumber(SourceIngredient sourceIngredient, boolean[] matchingFlags) {
 		CDMIngredient cdmIngredient = null;
 		
 		String casNr = sourceIngredient.getCASNumber();
@@ -797,26 +976,26 @@ public class GenericMapping extends Mapping {
 					if (cdmIngredientCDM != cdmIngredientManual) {
 						cdmIngredient = cdmIngredientManual;
 						matchString = "Manual Mapping CAS Code" + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "") + " (\"" + DrugMappingStringUtilities.removeLeadingZeros(casNr) + "\")";
-						ingredientMatchingFlags.put(INGREDIENT_MATCH_MANUAL_CAS, true);
+						matchingFlags[INGREDIENT_MATCH_MANUAL_CAS] = true;
 					}
 					else {
 						cdmIngredient = cdmIngredientManual;
-						GenericMapping.addWarning(GenericMapping.MANUAL_CAS_MAPPING_WARNING, sourceIngredient + " CAS MAPPING OBSOLETE");
+						addWarning(MANUAL_CAS_MAPPING_WARNING, sourceIngredient + " CAS MAPPING OBSOLETE");
 						matchString = "CASCode from Vocab" + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "") + " (\"" + DrugMappingStringUtilities.removeLeadingZeros(casNr) + "\")";
-						ingredientMatchingFlags.put(INGREDIENT_MATCH_CDM_CAS, true);
+						matchingFlags[INGREDIENT_MATCH_CDM_CAS] = true;
 					}
 				}
 				else {
 					cdmIngredient = cdmIngredientCDM;
 					matchString = "CASCode from Vocab" + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "") + " (\"" + DrugMappingStringUtilities.removeLeadingZeros(casNr) + "\")";
-					ingredientMatchingFlags.put(INGREDIENT_MATCH_CDM_CAS, true);
+					matchingFlags[INGREDIENT_MATCH_CDM_CAS] = true;
 				}
 			}
 			else {
 				if (cdmIngredientManual != null) {
 					cdmIngredient = cdmIngredientManual;
 					matchString = "Manual Mapping CAS Code" + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "") + " (\"" + DrugMappingStringUtilities.removeLeadingZeros(casNr) + "\")";
-					ingredientMatchingFlags.put(INGREDIENT_MATCH_MANUAL_CAS, true);
+					matchingFlags[INGREDIENT_MATCH_MANUAL_CAS] = true;
 				}
 			}
 			if (cdmIngredient != null) {
@@ -829,7 +1008,7 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private CDMIngredient matchIngredientByExternalCASNumber(SourceIngredient sourceIngredient) {
+	private CDMIngredient matchIngredientByExternalCASNumber(SourceIngredient sourceIngredient, boolean[] matchingFlags) {
 		CDMIngredient cdmIngredient = null;
 
 		if (externalCASSynonymsMap != null) {
@@ -840,16 +1019,17 @@ public class GenericMapping extends Mapping {
 				if (casNames != null) {
 					
 					for (String casName : casNames) {
-						List<String> matchNameList = DrugMappingStringUtilities.generateMatchingNames(casName, null);
+						Iterable<String> matchNameList = DrugMappingStringUtilities.getMatchingNames(casName, null);
 						for (String matchName : matchNameList) {
 							String matchType = matchName.substring(0, matchName.indexOf(": "));
 							matchName = matchName.substring(matchName.indexOf(": ") + 2);
 							
-							cdmIngredient = cdm.findIngredientByName(matchName, matchType);
+							CDMIngredientMatch ingredientMatch = cdm.matchIngredientByName(matchName, matchType);
+							cdmIngredient = ingredientMatch.getIngredient();
 							if (cdmIngredient != null) {
 								sourceIngredient.setMatchingIngredient(cdmIngredient);
-								sourceIngredient.setMatchString(cdm.getMatchString());
-								ingredientMatchingFlags.put(INGREDIENT_MATCH_EXTERNAL_CAS, true);
+								sourceIngredient.setMatchString(ingredientMatch.getMatchString());
+								matchingFlags[INGREDIENT_MATCH_EXTERNAL_CAS] = true;
 								break;
 							}
 						}
@@ -866,22 +1046,22 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private CDMIngredient matchIngredientByName(SourceIngredient sourceIngredient) {
+	private CDMIngredient matchIngredientByName(SourceIngredient sourceIngredient, boolean[] matchingFlags) {
 		CDMIngredient cdmIngredient = null;
 		
 		if (cdmIngredient == null) { // No manual mapping on ingredient name found
-			preferencesUsed = "";
-
-			List<String> matchNameList = sourceIngredient.getIngredientMatchingNames();
+			Iterable<String> matchNameList = sourceIngredient.getIngredientMatchingNames();
+			Map<String, Integer> reducedNameTiers = cdm.getReducedNameTiers(sourceIngredient.getIngredientName(), sourceIngredient.getIngredientNameEnglish());
 			for (String matchName : matchNameList) {
 				String matchType = matchName.substring(0, matchName.indexOf(": "));
 				matchName = matchName.substring(matchName.indexOf(": ") + 2);
 				
-				cdmIngredient = cdm.findIngredientByName(matchName, matchType);
+				CDMIngredientMatch ingredientMatch = cdm.matchIngredientByName(matchName, matchType, reducedNameTiers.get(matchName));
+				cdmIngredient = ingredientMatch.getIngredient();
 				if (cdmIngredient != null) {
 					sourceIngredient.setMatchingIngredient(cdmIngredient);
-					sourceIngredient.setMatchString(cdm.getMatchString());
-					ingredientMatchingFlags.put(INGREDIENT_MATCH_NAME, true);
+					sourceIngredient.setMatchString(ingredientMatch.getMatchString());
+					matchingFlags[INGREDIENT_MATCH_NAME] = true;
 					break;
 				}
 			}
@@ -891,7 +1071,7 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private CDMIngredient matchIngredientByATC(SourceIngredient sourceIngredient) {
+	private CDMIngredient matchIngredientByATC(SourceIngredient sourceIngredient, boolean[] matchingFlags) {
 		CDMIngredient cdmIngredient = null;
 		Set<CDMIngredient> cdmATCIngredients = new HashSet<CDMIngredient>();
 		Set<SourceDrug> ingredientDrugs = sourceIngredient.getSourceDrugs();
@@ -926,26 +1106,26 @@ public class GenericMapping extends Mapping {
 			String matchingATCCodes = "ATC - RxNorm" + (cdmIngredient.isOrphan() ? " (Orphan ingredient)" : "") + " (\"" + atcCodesString + "\")";
 			sourceIngredient.setMatchingIngredient(cdmIngredient);
 			sourceIngredient.setMatchString(matchingATCCodes);
-			ingredientMatchingFlags.put(INGREDIENT_MATCH_ATC, true);
+			matchingFlags[INGREDIENT_MATCH_ATC] = true;
 		}
 		
 		return cdmIngredient;
 	}
 	
 	
-	private CDMIngredient getOverruleMapping(SourceIngredient sourceIngredient) {
+	private CDMIngredient getOverruleMapping(SourceIngredient sourceIngredient, boolean[] matchingFlags) {
 		
 		CDMIngredient cdmIngredient = manualIngredientCodeOverruleMappings.get(sourceIngredient);
 		
 		if (cdmIngredient != null) { // Manual mapping on ingredient code found
-			ingredientMatchingFlags.put(INGREDIENT_MATCH_OVERRULED, true);
+			matchingFlags[INGREDIENT_MATCH_OVERRULED] = true;
 		}
 		
 		if (cdmIngredient == null) { // No manual mapping on ingredient code found
 			if (!sourceIngredient.getIngredientName().equals("")) {
 				cdmIngredient = manualIngredientNameOverruleMappings.get(sourceIngredient.getIngredientName());
 				if (cdmIngredient != null) {
-					ingredientMatchingFlags.put(INGREDIENT_MATCH_OVERRULED, true);
+					matchingFlags[INGREDIENT_MATCH_OVERRULED] = true;
 				}
 			}
 		}
@@ -954,19 +1134,19 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private CDMIngredient getFallbackMapping(SourceIngredient sourceIngredient) {
+	private CDMIngredient getFallbackMapping(SourceIngredient sourceIngredient, boolean[] matchingFlags) {
 
 		CDMIngredient cdmIngredient = manualIngredientCodeFallbackMappings.get(sourceIngredient);
 		
 		if (cdmIngredient != null) { // Manual mapping on ingredient code found
-			ingredientMatchingFlags.put(INGREDIENT_MATCH_FALLBACK, true);
+			matchingFlags[INGREDIENT_MATCH_FALLBACK] = true;
 		}
 		
 		if (cdmIngredient == null) { // No manual mapping on ingredient code found
 			if (!sourceIngredient.getIngredientName().equals("")) {
 				cdmIngredient = manualIngredientNameFallbackMappings.get(sourceIngredient.getIngredientName());
 				if (cdmIngredient != null) {
-					ingredientMatchingFlags.put(INGREDIENT_MATCH_FALLBACK, true);
+					matchingFlags[INGREDIENT_MATCH_FALLBACK] = true;
 				}
 			}
 		}
@@ -997,30 +1177,11 @@ public class GenericMapping extends Mapping {
 					else {
 						int mapping = 0;
 						while ((mapping != INGREDIENT_MAPPING) && (mapping != SPLITTED_MAPPING) && mappingTypeDescriptions.containsKey(mapping)) {
-							Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappingResult = sourceDrugMappingResults.get(sourceDrug);
-							if (sourceDrugMappingResult == null) {
-								sourceDrugMappingResult = new HashMap<Integer, List<Map<Integer, List<CDMConcept>>>>();
-								sourceDrugMappingResults.put(sourceDrug, sourceDrugMappingResult);
-							}
-							
-							List<Map<Integer, List<CDMConcept>>> mappingTypeResultsList = sourceDrugMappingResult.get(mapping);
-							if (mappingTypeResultsList == null) {
-								mappingTypeResultsList = new ArrayList<Map<Integer, List<CDMConcept>>>();
-								Map<Integer, List<CDMConcept>> mappingTypeResults = new HashMap<Integer, List<CDMConcept>>();
-								mappingTypeResultsList.add(mappingTypeResults);
-								sourceDrugMappingResult.put(mapping, mappingTypeResultsList);
-							}
-							
-							Map<Integer, List<CDMConcept>> mappingTypeResults = mappingTypeResultsList.get(0);
-							
-							List<CDMConcept> mappingSourceIngredients = mappingTypeResults.get(DOUBLE_INGREDIENT_MAPPING);
-							if (mappingSourceIngredients == null) {
-								mappingSourceIngredients = new ArrayList<CDMConcept>();
-								mappingTypeResults.put(DOUBLE_INGREDIENT_MAPPING, mappingSourceIngredients);
-							}
+							List<CDMConcept> mappingSourceIngredients = new ArrayList<CDMConcept>();
 							for (SourceIngredient sourceDrugIngredient : sourceDrugIngredients) {
 								mappingSourceIngredients.add(sourceDrugIngredient.getMatchingIngredient());
 							}
+							sourceDrugMappingResults.add(sourceDrug, mapping, 0, DOUBLE_INGREDIENT_MAPPING, mappingSourceIngredients);
 							
 							mapping++;
 						}
@@ -1029,30 +1190,11 @@ public class GenericMapping extends Mapping {
 				else {
 					int mapping = 0;
 					while ((mapping != INGREDIENT_MAPPING) && (mapping != SPLITTED_MAPPING) && mappingTypeDescriptions.containsKey(mapping)) {
-						Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappingResult = sourceDrugMappingResults.get(sourceDrug);
-						if (sourceDrugMappingResult == null) {
-							sourceDrugMappingResult = new HashMap<Integer, List<Map<Integer, List<CDMConcept>>>>();
-							sourceDrugMappingResults.put(sourceDrug, sourceDrugMappingResult);
-						}
-						
-						List<Map<Integer, List<CDMConcept>>> mappingTypeResultsList = sourceDrugMappingResult.get(mapping);
-						if (mappingTypeResultsList == null) {
-							mappingTypeResultsList = new ArrayList<Map<Integer, List<CDMConcept>>>();
-							Map<Integer, List<CDMConcept>> mappingTypeResults = new HashMap<Integer, List<CDMConcept>>();
-							mappingTypeResultsList.add(mappingTypeResults);
-							sourceDrugMappingResult.put(mapping, mappingTypeResultsList);
-						}
-						
-						Map<Integer, List<CDMConcept>> mappingTypeResults = mappingTypeResultsList.get(0);
-						
-						List<CDMConcept> mappingSourceIngredients = mappingTypeResults.get(UNMAPPED_SOURCE_INGREDIENTS);
-						if (mappingSourceIngredients == null) {
-							mappingSourceIngredients = new ArrayList<CDMConcept>();
-							mappingTypeResults.put(UNMAPPED_SOURCE_INGREDIENTS, mappingSourceIngredients);
-						}
+						List<CDMConcept> mappingSourceIngredients = new ArrayList<CDMConcept>();
 						for (SourceIngredient sourceDrugIngredient : sourceDrugIngredients) {
 							mappingSourceIngredients.add(sourceDrugIngredient.getMatchingIngredient());
 						}
+						sourceDrugMappingResults.add(sourceDrug, mapping, 0, UNMAPPED_SOURCE_INGREDIENTS, mappingSourceIngredients);
 						
 						mapping++;
 					}
@@ -1061,28 +1203,9 @@ public class GenericMapping extends Mapping {
 			else {
 				int mapping = 0;
 				while ((mapping != INGREDIENT_MAPPING) && (mapping != SPLITTED_MAPPING) && mappingTypeDescriptions.containsKey(mapping)) {
-					Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappingResult = sourceDrugMappingResults.get(sourceDrug);
-					if (sourceDrugMappingResult == null) {
-						sourceDrugMappingResult = new HashMap<Integer, List<Map<Integer, List<CDMConcept>>>>();
-						sourceDrugMappingResults.put(sourceDrug, sourceDrugMappingResult);
-					}
-					
-					List<Map<Integer, List<CDMConcept>>> mappingTypeResultsList = sourceDrugMappingResult.get(mapping);
-					if (mappingTypeResultsList == null) {
-						mappingTypeResultsList = new ArrayList<Map<Integer, List<CDMConcept>>>();
-						Map<Integer, List<CDMConcept>> mappingTypeResults = new HashMap<Integer, List<CDMConcept>>();
-						mappingTypeResultsList.add(mappingTypeResults);
-						sourceDrugMappingResult.put(mapping, mappingTypeResultsList);
-					}
-					
-					Map<Integer, List<CDMConcept>> mappingTypeResults = mappingTypeResultsList.get(0);
-					
-					List<CDMConcept> mappingSourceIngredients = mappingTypeResults.get(NO_SOURCE_INGREDIENTS);
-					if (mappingSourceIngredients == null) {
-						mappingSourceIngredients = new ArrayList<CDMConcept>();
-						mappingSourceIngredients.add(null);
-						mappingTypeResults.put(NO_SOURCE_INGREDIENTS, mappingSourceIngredients);
-					}
+					List<CDMConcept> mappingSourceIngredients = new ArrayList<CDMConcept>();
+					mappingSourceIngredients.add(null);
+					sourceDrugMappingResults.add(sourceDrug, mapping, 0, NO_SOURCE_INGREDIENTS, mappingSourceIngredients);
 					
 					mapping++;
 				}
@@ -1106,125 +1229,135 @@ public class GenericMapping extends Mapping {
 		
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Match source drugs to Clinical Drugs ...");
 		
-		for (SourceDrug sourceDrug : source.getSourceDrugs()) {
-			CDMDrug automaticMapping = null;
-			usedStrengthDeviationPercentage = null;
-			preferencesUsed = "";
+		ok = matchSourceDrugs(new SourceDrugMatcher() {
+
+			@Override
+			public void match(SourceDrug sourceDrug) {
+				matchClinicalDrug(sourceDrug);
+			}
+		});
+
+		if (report != null) {
+			report.add("Source drugs mapped to multiple CDM Clinical Drugs: " + DrugMappingNumberUtilities.percentage((long) notUniqueMapping.get(mapping).size(), (long) source.getSourceDrugs().size()));
+		}
+		
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+		
+		return ok;
+	}
+
+
+	private void matchClinicalDrug(SourceDrug sourceDrug) {
+		int mapping = CLINICAL_DRUG_MAPPING;
+		
+		CDMDrug automaticMapping = null;
+		SelectionDetails selectionDetails = new SelectionDetails();
+		
+		if (sourceDrugsAllIngredientsMapped.contains(sourceDrug)) {
+			List<CDMIngredient> sourceDrugCDMIngredients = sourceDrugsCDMIngredients.get(sourceDrug);
 			
-			if (sourceDrugsAllIngredientsMapped.contains(sourceDrug)) {
-				List<CDMIngredient> sourceDrugCDMIngredients = sourceDrugsCDMIngredients.get(sourceDrug);
-				
-				if (sourceDrug.getFormulations().size() > 0) {
-					if (sourceDrugCDMIngredients.size() > 0) {
-						
-						// Find CDM Clinical Drugs with corresponding ingredients
-						List<CDMDrug> selectedCDMDrugs = selectCDMDrugsWithMatchingIngredients(sourceDrug, mapping);
+			if (sourceDrug.getFormulations().size() > 0) {
+				if (sourceDrugCDMIngredients.size() > 0) {
+					
+					// Find CDM Clinical Drugs with corresponding ingredients
+					List<CDMDrug> selectedCDMDrugs = selectCDMDrugsWithMatchingIngredients(sourceDrug, mapping);
+					
+					if (selectedCDMDrugs.size() > 0) {
+						// Log available dose forms
+						logAvailableForms(sourceDrug, selectedCDMDrugs, mapping);
 						
-						if (selectedCDMDrugs.size() > 0) {
-							// Log available dose forms
-							logAvailableForms(sourceDrug, selectedCDMDrugs, mapping);
-							
-							// Get matching CDM forms
-							List<String> matchingCDMForms = getMatchingCDMForms(sourceDrug);
+						// Get matching CDM forms
+						List<String> matchingCDMForms = getMatchingCDMForms(sourceDrug);
 
-							// Remove all drugs with the wrong form
-							selectedCDMDrugs = selectCDMDrugsWithMatchingForm(sourceDrug, selectedCDMDrugs, matchingCDMForms, mapping);
+						// Remove all drugs with the wrong form
+						selectedCDMDrugs = selectCDMDrugsWithMatchingForm(sourceDrug, selectedCDMDrugs, matchingCDMForms, mapping);
 
-							if (selectedCDMDrugs.size() > 0) {
-								// Select drugs with corresponding closest ingredient strengths within margin
-								selectedCDMDrugs = selectCDMDrugsWithMatchingStrength(sourceDrug, selectedCDMDrugs, mapping);
+						if (selectedCDMDrugs.size() > 0) {
+							// Select drugs with corresponding closest ingredient strengths within margin
+							selectedCDMDrugs = selectCDMDrugsWithMatchingStrength(sourceDrug, selectedCDMDrugs, mapping, selectionDetails);
 
-								if (selectedCDMDrugs.size() > 0) {
-									// Select drug by matching ATC
-									selectedCDMDrugs = selectCDMDrugsOnMatchingATC(sourceDrug, selectedCDMDrugs, mapping);
+							if (selectedCDMDrugs.size() > 0) {
+								// Select drug by matching ATC
+								selectedCDMDrugs = selectCDMDrugsOnMatchingATC(sourceDrug, selectedCDMDrugs, mapping);
 
 
-									if (selectedCDMDrugs.size() > 0) {
-										// Select drug by matching form with priority
-										selectedCDMDrugs = selectCDMDrugsWithMatchingFormByPriority(sourceDrug, selectedCDMDrugs, matchingCDMForms, mapping);
+								if (selectedCDMDrugs.size() > 0) {
+									// Select drug by matching form with priority
+									selectedCDMDrugs = selectCDMDrugsWithMatchingFormByPriority(sourceDrug, selectedCDMDrugs, matchingCDMForms, mapping);
 
-										if (selectedCDMDrugs.size() == 1) {
-											automaticMapping = selectedCDMDrugs.get(0);
-											sourceDrug.setMatchString("Strength margin: " + usedStrengthDeviationPercentage);
-										}
-										else if (selectedCDMDrugs.size() > 1) {
-											selectedCDMDrugs = selectConcept(sourceDrug, selectedCDMDrugs, mapping);
-											if (selectedCDMDrugs.size() > 1) {
-												logMappingResult(sourceDrug, mapping, selectedCDMDrugs, NO_UNIQUE_MAPPING);
-												notUniqueMapping.get(mapping).add(sourceDrug);
-											}
-											else {
-												automaticMapping = selectedCDMDrugs.get(0);
-												sourceDrug.setMatchString("Strength margin: " + usedStrengthDeviationPercentage + " " + preferencesUsed);
-											}
+									if (selectedCDMDrugs.size() == 1) {
+										automaticMapping = selectedCDMDrugs.get(0);
+										sourceDrug.setMatchString("Strength margin: " + selectionDetails.strengthDeviationPercentage);
+									}
+									else if (selectedCDMDrugs.size() > 1) {
+										selectedCDMDrugs = selectConcept(sourceDrug, selectedCDMDrugs, mapping, selectionDetails);
+										if (selectedCDMDrugs.size() > 1) {
+											logMappingResult(sourceDrug, mapping, selectedCDMDrugs, NO_UNIQUE_MAPPING);
+											notUniqueMapping.get(mapping).add(sourceDrug);
 										}
 										else {
-											logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_FORM_AND_STRENGTH);
+											automaticMapping = selectedCDMDrugs.get(0);
+											sourceDrug.setMatchString("Strength margin: " + selectionDetails.strengthDeviationPercentage + " " + selectionDetails.preferencesUsed);
 										}
 									}
 									else {
-										logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_ATC);
+										logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_FORM_AND_STRENGTH);
 									}
 								}
 								else {
-									logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_FORM_AND_STRENGTH);
+									logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_ATC);
 								}
 							}
 							else {
-								logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_AND_FORM);
+								logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_FORM_AND_STRENGTH);
 							}
 						}
 						else {
-							logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS);
+							logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_AND_FORM);
 						}
 					}
+					else {
+						logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS);
+					}
 				}
-				else {
-					logMappingResult(sourceDrug, mapping, NO_SOURCE_FORMULATION);
-				}
 			}
+			else {
+				logMappingResult(sourceDrug, mapping, NO_SOURCE_FORMULATION);
+			}
+		}
 
-			// Check for manual mapping and set final mapping.
-			CDMDrug overruledMapping = null;
-			CDMDrug finalMapping = automaticMapping;
-			CDMDrug manualMapping = manualDrugMappings.get(sourceDrug);
-			if ((manualMapping != null) && manualMapping.getConceptClassId().equals("Clinical Drug")) {
-				// There is a manual mapping.
-				overruledMapping = finalMapping;
-				finalMapping = manualMapping;
-				logMappingResult(sourceDrug, mapping, MANUAL_MAPPING, finalMapping);
+		// Check for manual mapping and set final mapping.
+		CDMDrug overruledMapping = null;
+		CDMDrug finalMapping = automaticMapping;
+		CDMDrug manualMapping = manualDrugMappings.get(sourceDrug);
+		if ((manualMapping != null) && manualMapping.getConceptClassId().equals("Clinical Drug")) {
+			// There is a manual mapping.
+			overruledMapping = finalMapping;
+			finalMapping = manualMapping;
+			logMappingResult(sourceDrug, mapping, MANUAL_MAPPING, finalMapping);
+			removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_MAPPING);
+			mappedSourceDrugs.add(sourceDrug);
+		}
+		
+		if (finalMapping != null) {
+			// Set mapping if it has the current mapping type.
+			// The mapping type can be different in case of a manual mapping.
+			if ((manualMapping == null) && finalMapping.getConceptClassId().equals("Clinical Drug")) {
+				logMappingResult(sourceDrug, mapping, MAPPED, finalMapping);
 				removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_MAPPING);
 				mappedSourceDrugs.add(sourceDrug);
+				usedStrengthDeviationPercentageMap.put("Drug " + sourceDrug.getCode(), selectionDetails.strengthDeviationPercentage);
 			}
 			
-			if (finalMapping != null) {
-				// Set mapping if it has the current mapping type.
-				// The mapping type can be different in case of a manual mapping.
-				if ((manualMapping == null) && finalMapping.getConceptClassId().equals("Clinical Drug")) {
-					logMappingResult(sourceDrug, mapping, MAPPED, finalMapping);
-					removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_MAPPING);
-					mappedSourceDrugs.add(sourceDrug);
-					usedStrengthDeviationPercentageMap.put("Drug " + sourceDrug.getCode(), usedStrengthDeviationPercentage);
-				}
-				
-				if (overruledMapping != null) {
-					logMappingResult(sourceDrug, mapping, OVERRULED_MAPPING, overruledMapping);
-					removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_MAPPING);
-					mappedSourceDrugs.add(sourceDrug);
-				}
-			}
-			else {
-				logMappingResult(sourceDrug, mapping, NO_MAPPING);
+			if (overruledMapping != null) {
+				logMappingResult(sourceDrug, mapping, OVERRULED_MAPPING, overruledMapping);
+				removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_MAPPING);
+				mappedSourceDrugs.add(sourceDrug);
 			}
 		}
-
-		if (report != null) {
-			report.add("Source drugs mapped to multiple CDM Clinical Drugs: " + DrugMappingNumberUtilities.percentage((long) notUniqueMapping.get(mapping).size(), (long) source.getSourceDrugs().size()));
+		else {
+			logMappingResult(sourceDrug, mapping, NO_MAPPING);
 		}
-		
-		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
-		
-		return ok;
 	}
 	
 	
@@ -1234,248 +1367,268 @@ public class GenericMapping extends Mapping {
 		
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Match source drugs to Clinical Drug Comps ...");
 		
-		for (SourceDrug sourceDrug : source.getSourceDrugs()) {
-			CDMDrug automaticMapping = null;
-			usedStrengthDeviationPercentage = null;
+		ok = matchSourceDrugs(new SourceDrugMatcher() {
 
-			boolean earlierNotUniqueMapping = false;
-			for (int mappingType : notUniqueMapping.keySet()) {
-				if (notUniqueMapping.get(mappingType).contains(sourceDrug)) {
-					earlierNotUniqueMapping = true;
-					break;
-				}
+			@Override
+			public void match(SourceDrug sourceDrug) {
+				matchClinicalDrugComp(sourceDrug);
 			}
-			if ((!mappedSourceDrugs.contains(sourceDrug)) && (!earlierNotUniqueMapping)) {
-				if (sourceDrugsAllIngredientsMapped.contains(sourceDrug)) {
-					preferencesUsed = "";
-					if (sourceDrug.getIngredients().size() == 1) { // Clinical Drug Comp is always single ingredient
-						
-						// Find CDM Clinical Drug Comps with corresponding ingredient
-						List<CDMDrug> selectedCDMDrugs = selectCDMDrugsWithMatchingIngredients(sourceDrug, mapping);
+		});
+
+		if (report != null) {
+			report.add("Source drugs mapped to multiple CDM Clinical Drug Comps: " + DrugMappingNumberUtilities.percentage((long) notUniqueMapping.get(mapping).size(), (long) source.getSourceDrugs().size()));
+		}
+		
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+		
+		return ok;
+	}
+
+
+	private void matchClinicalDrugComp(SourceDrug sourceDrug) {
+		int mapping = CLINICAL_DRUG_COMP_MAPPING;
+		
+		CDMDrug automaticMapping = null;
+		SelectionDetails selectionDetails = new SelectionDetails();
+
+		boolean earlierNotUniqueMapping = false;
+		for (int mappingType : notUniqueMapping.keySet()) {
+			if (notUniqueMapping.get(mappingType).contains(sourceDrug)) {
+				earlierNotUniqueMapping = true;
+				break;
+			}
+		}
+		if ((!mappedSourceDrugs.contains(sourceDrug)) && (!earlierNotUniqueMapping)) {
+			if (sourceDrugsAllIngredientsMapped.contains(sourceDrug)) {
+				if (sourceDrug.getIngredients().size() == 1) { // Clinical Drug Comp is always single ingredient
+					
+					// Find CDM Clinical Drug Comps with corresponding ingredient
+					List<CDMDrug> selectedCDMDrugs = selectCDMDrugsWithMatchingIngredients(sourceDrug, mapping);
+					
+					if (selectedCDMDrugs.size() > 0) {
+						// Select drugs with corresponding closest ingredient strengths within margin
+						selectedCDMDrugs = selectCDMDrugsWithMatchingStrength(sourceDrug, selectedCDMDrugs, mapping, selectionDetails);
 						
 						if (selectedCDMDrugs.size() > 0) {
-							// Select drugs with corresponding closest ingredient strengths within margin
-							selectedCDMDrugs = selectCDMDrugsWithMatchingStrength(sourceDrug, selectedCDMDrugs, mapping);
-							
-							if (selectedCDMDrugs.size() > 0) {
-								// Select drug by matching ATC
-								selectedCDMDrugs = selectCDMDrugsOnMatchingATC(sourceDrug, selectedCDMDrugs, mapping);
+							// Select drug by matching ATC
+							selectedCDMDrugs = selectCDMDrugsOnMatchingATC(sourceDrug, selectedCDMDrugs, mapping);
 
-								if (selectedCDMDrugs.size() > 0) {
-									if (selectedCDMDrugs.size() == 1) {
-										automaticMapping = selectedCDMDrugs.get(0);
-										sourceDrug.setMatchString("Strength margin: " + usedStrengthDeviationPercentage);
+							if (selectedCDMDrugs.size() > 0) {
+								if (selectedCDMDrugs.size() == 1) {
+									automaticMapping = selectedCDMDrugs.get(0);
+									sourceDrug.setMatchString("Strength margin: " + selectionDetails.strengthDeviationPercentage);
+								}
+								else if (selectedCDMDrugs.size() > 1) {
+									List<CDMDrug> selectedCDMDrugsWithIngredientsAndStrength = selectConcept(sourceDrug, selectedCDMDrugs, mapping, selectionDetails);
+									if (selectedCDMDrugsWithIngredientsAndStrength.size() > 1) {
+										logMappingResult(sourceDrug, mapping, selectedCDMDrugsWithIngredientsAndStrength, NO_UNIQUE_MAPPING);
+										notUniqueMapping.get(mapping).add(sourceDrug);
 									}
-									else if (selectedCDMDrugs.size() > 1) {
-										List<CDMDrug> selectedCDMDrugsWithIngredientsAndStrength = selectConcept(sourceDrug, selectedCDMDrugs, mapping);
-										if (selectedCDMDrugsWithIngredientsAndStrength.size() > 1) {
-											logMappingResult(sourceDrug, mapping, selectedCDMDrugsWithIngredientsAndStrength, NO_UNIQUE_MAPPING);
-											notUniqueMapping.get(mapping).add(sourceDrug);
-										}
-										else if (selectedCDMDrugsWithIngredientsAndStrength.size() == 1) {
-											automaticMapping = selectedCDMDrugsWithIngredientsAndStrength.get(0);
-											sourceDrug.setMatchString("Strength margin: " + usedStrengthDeviationPercentage + " " + preferencesUsed);
-										}
-										else {
-											logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_AND_STRENGTH);
-										}
+									else if (selectedCDMDrugsWithIngredientsAndStrength.size() == 1) {
+										automaticMapping = selectedCDMDrugsWithIngredientsAndStrength.get(0);
+										sourceDrug.setMatchString("Strength margin: " + selectionDetails.strengthDeviationPercentage + " " + selectionDetails.preferencesUsed);
+									}
+									else {
+										logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_AND_STRENGTH);
 									}
-								}
-								else {
-									logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_ATC);
 								}
 							}
 							else {
-								logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_AND_STRENGTH);
+								logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_ATC);
 							}
 						}
 						else {
-							logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS);
+							logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_AND_STRENGTH);
 						}
 					}
 					else {
-						logMappingResult(sourceDrug, mapping, NO_SINGLE_INGREDIENT_DRUG);
+						logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS);
 					}
-
-					// Check for manual mapping and set final mapping.
-					CDMDrug overruledMapping = null;
-					CDMDrug finalMapping = automaticMapping;
-					CDMDrug manualMapping = manualDrugMappings.get(sourceDrug);
-					if ((manualMapping != null) && manualMapping.getConceptClassId().equals("Clinical Drug Comp")) {
-						// There is a manual mapping.
-						overruledMapping = finalMapping;
-						finalMapping = manualMapping;
-						logMappingResult(sourceDrug, mapping, MANUAL_MAPPING, finalMapping);
+				}
+				else {
+					logMappingResult(sourceDrug, mapping, NO_SINGLE_INGREDIENT_DRUG);
+				}
+
+				// Check for manual mapping and set final mapping.
+				CDMDrug overruledMapping = null;
+				CDMDrug finalMapping = automaticMapping;
+				CDMDrug manualMapping = manualDrugMappings.get(sourceDrug);
+				if ((manualMapping != null) && manualMapping.getConceptClassId().equals("Clinical Drug Comp")) {
+					// There is a manual mapping.
+					overruledMapping = finalMapping;
+					finalMapping = manualMapping;
+					logMappingResult(sourceDrug, mapping, MANUAL_MAPPING, finalMapping);
+					removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_COMP_MAPPING);
+					mappedSourceDrugs.add(sourceDrug);
+				}
+				
+				if (finalMapping != null) {
+					// Set mapping if it has the current mapping type.
+					// The mapping type can be different in case of a manual mapping.
+					if ((manualMapping == null) && finalMapping.getConceptClassId().equals("Clinical Drug Comp")) {
+						logMappingResult(sourceDrug, mapping, MAPPED, finalMapping);
 						removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_COMP_MAPPING);
 						mappedSourceDrugs.add(sourceDrug);
+						usedStrengthDeviationPercentageMap.put("Drug " + sourceDrug.getCode(), selectionDetails.strengthDeviationPercentage);
 					}
 					
-					if (finalMapping != null) {
-						// Set mapping if it has the current mapping type.
-						// The mapping type can be different in case of a manual mapping.
-						if ((manualMapping == null) && finalMapping.getConceptClassId().equals("Clinical Drug Comp")) {
-							logMappingResult(sourceDrug, mapping, MAPPED, finalMapping);
-							removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_COMP_MAPPING);
-							mappedSourceDrugs.add(sourceDrug);
-							usedStrengthDeviationPercentageMap.put("Drug " + sourceDrug.getCode(), usedStrengthDeviationPercentage);
-						}
-						
-						if (overruledMapping != null) {
-							logMappingResult(sourceDrug, mapping, MAPPED, overruledMapping);
-							removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_COMP_MAPPING);
-							mappedSourceDrugs.add(sourceDrug);
-						}
-					}
-					else {
-						logMappingResult(sourceDrug, mapping, NO_MAPPING);
+					if (overruledMapping != null) {
+						logMappingResult(sourceDrug, mapping, MAPPED, overruledMapping);
+						removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_COMP_MAPPING);
+						mappedSourceDrugs.add(sourceDrug);
 					}
 				}
 				else {
 					logMappingResult(sourceDrug, mapping, NO_MAPPING);
 				}
 			}
+			else {
+				logMappingResult(sourceDrug, mapping, NO_MAPPING);
+			}
 		}
+	}
+	
+	
+	private boolean matchClinicalDrugForms() {
+		boolean ok = true;
+		int mapping = CLINICAL_DRUG_FORM_MAPPING;
+		
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Match source drugs to Clinical Drug Forms ...");
+		
+		ok = matchSourceDrugs(new SourceDrugMatcher() {
+
+			@Override
+			public void match(SourceDrug sourceDrug) {
+				matchClinicalDrugForm(sourceDrug);
+			}
+		});
 
 		if (report != null) {
-			report.add("Source drugs mapped to multiple CDM Clinical Drug Comps: " + DrugMappingNumberUtilities.percentage((long) notUniqueMapping.get(mapping).size(), (long) source.getSourceDrugs().size()));
+			report.add("Source drugs mapped to multiple CDM Clinical Drug Forms: " + DrugMappingNumberUtilities.percentage((long) notUniqueMapping.get(mapping).size(), (long) source.getSourceDrugs().size()));
 		}
 		
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
 		
 		return ok;
 	}
-	
-	
-	private boolean matchClinicalDrugForms() {
-		boolean ok = true;
+
+
+	private void matchClinicalDrugForm(SourceDrug sourceDrug) {
 		int mapping = CLINICAL_DRUG_FORM_MAPPING;
 		
-		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Match source drugs to Clinical Drug Forms ...");
-		
-		for (SourceDrug sourceDrug : source.getSourceDrugs()) {
-			CDMDrug automaticMapping = null;
+		CDMDrug automaticMapping = null;
 
-			boolean earlierNotUniqueMapping = false;
-			for (int mappingType : notUniqueMapping.keySet()) {
-				if (notUniqueMapping.get(mappingType).contains(sourceDrug)) {
-					earlierNotUniqueMapping = true;
-					break;
-				}
+		boolean earlierNotUniqueMapping = false;
+		for (int mappingType : notUniqueMapping.keySet()) {
+			if (notUniqueMapping.get(mappingType).contains(sourceDrug)) {
+				earlierNotUniqueMapping = true;
+				break;
 			}
-			if ((!mappedSourceDrugs.contains(sourceDrug)) && (!earlierNotUniqueMapping)) {
-				if (sourceDrugsAllIngredientsMapped.contains(sourceDrug)) {
-					if (sourceDrug.getFormulations().size() > 0) {
-						preferencesUsed = "";
+		}
+		if ((!mappedSourceDrugs.contains(sourceDrug)) && (!earlierNotUniqueMapping)) {
+			if (sourceDrugsAllIngredientsMapped.contains(sourceDrug)) {
+				if (sourceDrug.getFormulations().size() > 0) {
+					SelectionDetails selectionDetails = new SelectionDetails();
 
-						// Find CDM Clinical Drug Forms with corresponding ingredients
-						List<CDMDrug> selectedCDMDrugs = selectCDMDrugsWithMatchingIngredients(sourceDrug, mapping);
+					// Find CDM Clinical Drug Forms with corresponding ingredients
+					List<CDMDrug> selectedCDMDrugs = selectCDMDrugsWithMatchingIngredients(sourceDrug, mapping);
+					
+					if (selectedCDMDrugs.size() > 0) {
+						// Log available dose forms
+						logAvailableForms(sourceDrug, selectedCDMDrugs, mapping);
 						
-						if (selectedCDMDrugs.size() > 0) {
-							// Log available dose forms
-							logAvailableForms(sourceDrug, selectedCDMDrugs, mapping);
-							
-							// Get matching CDM forms
-							List<String> matchingCDMForms = getMatchingCDMForms(sourceDrug);
+						// Get matching CDM forms
+						List<String> matchingCDMForms = getMatchingCDMForms(sourceDrug);
 
-							// Remove all drugs with the wrong form
-							selectedCDMDrugs = selectCDMDrugsWithMatchingForm(sourceDrug, selectedCDMDrugs, matchingCDMForms, mapping);
+						// Remove all drugs with the wrong form
+						selectedCDMDrugs = selectCDMDrugsWithMatchingForm(sourceDrug, selectedCDMDrugs, matchingCDMForms, mapping);
 
-							if (selectedCDMDrugs.size() > 0) {
-								// Select drug by matching ATC
-								selectedCDMDrugs = selectCDMDrugsOnMatchingATC(sourceDrug, selectedCDMDrugs, mapping);
+						if (selectedCDMDrugs.size() > 0) {
+							// Select drug by matching ATC
+							selectedCDMDrugs = selectCDMDrugsOnMatchingATC(sourceDrug, selectedCDMDrugs, mapping);
 
-								if (selectedCDMDrugs.size() > 0) {
-									// Select drug by matching form with priority
-									selectedCDMDrugs = selectCDMDrugsWithMatchingFormByPriority(sourceDrug, selectedCDMDrugs, matchingCDMForms, mapping);
+							if (selectedCDMDrugs.size() > 0) {
+								// Select drug by matching form with priority
+								selectedCDMDrugs = selectCDMDrugsWithMatchingFormByPriority(sourceDrug, selectedCDMDrugs, matchingCDMForms, mapping);
 
-									if (selectedCDMDrugs.size() > 1) {
-										preferencesUsed = "";
-										selectedCDMDrugs = selectConcept(sourceDrug, selectedCDMDrugs, mapping);
-									}
+								if (selectedCDMDrugs.size() > 1) {
+									selectedCDMDrugs = selectConcept(sourceDrug, selectedCDMDrugs, mapping, selectionDetails);
+								}
 
-									if (selectedCDMDrugs.size() > 0) {
-										List<CDMDrug> matchingCDMDrugs = new ArrayList<CDMDrug>();
-										Map<CDMDrug, List<CDMIngredientStrength>> matchingIngredientsMap = new HashMap<CDMDrug, List<CDMIngredientStrength>>();
-										
-										for (CDMDrug cdmDrug : selectedCDMDrugs) {
-											List<CDMIngredientStrength> matchingIngredients = matchingIngredients(sourceDrug.getComponents(), cdmDrug.getIngredientsMap());
-											if ((matchingIngredients != null) && (!matchingCDMDrugs.contains(cdmDrug))) {
-												matchingCDMDrugs.add(cdmDrug);
-												matchingIngredientsMap.put(cdmDrug, matchingIngredients);
-											}
-										}
-										if (matchingCDMDrugs.size() == 1) {
-											automaticMapping = matchingCDMDrugs.get(0);
-											sourceDrug.setMatchString(preferencesUsed);
-										}
-										else if (matchingCDMDrugs.size() > 1) {
-											logMappingResult(sourceDrug, mapping, matchingCDMDrugs, NO_UNIQUE_MAPPING);
-											notUniqueMapping.get(mapping).add(sourceDrug);
+								if (selectedCDMDrugs.size() > 0) {
+									List<CDMDrug> matchingCDMDrugs = new ArrayList<CDMDrug>();
+									Map<CDMDrug, List<CDMIngredientStrength>> matchingIngredientsMap = new HashMap<CDMDrug, List<CDMIngredientStrength>>();
+									
+									for (CDMDrug cdmDrug : selectedCDMDrugs) {
+										List<CDMIngredientStrength> matchingIngredients = matchingIngredients(sourceDrug.getComponents(), cdmDrug.getIngredientsMap());
+										if ((matchingIngredients != null) && (!matchingCDMDrugs.contains(cdmDrug))) {
+											matchingCDMDrugs.add(cdmDrug);
+											matchingIngredientsMap.put(cdmDrug, matchingIngredients);
 										}
 									}
-								}
-								else {
-									logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_ATC);
+									if (matchingCDMDrugs.size() == 1) {
+										automaticMapping = matchingCDMDrugs.get(0);
+										sourceDrug.setMatchString(selectionDetails.preferencesUsed);
+									}
+									else if (matchingCDMDrugs.size() > 1) {
+										logMappingResult(sourceDrug, mapping, matchingCDMDrugs, NO_UNIQUE_MAPPING);
+										notUniqueMapping.get(mapping).add(sourceDrug);
+									}
 								}
 							}
 							else {
-								logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_AND_FORM);
+								logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_ATC);
 							}
 						}
 						else {
-							logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS);
+							logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS_AND_FORM);
 						}
+					}
+					else {
+						logMappingResult(sourceDrug, mapping, NO_DRUGS_WITH_MATCHING_INGREDIENTS);
+					}
 
-						// Check for manual mapping and set final mapping.
-						CDMDrug overruledMapping = null;
-						CDMDrug finalMapping = automaticMapping;
-						CDMDrug manualMapping = manualDrugMappings.get(sourceDrug);
-						if ((manualMapping != null) && manualMapping.getConceptClassId().equals("Clinical Drug Form")) {
-							// There is a manual mapping.
-							overruledMapping = finalMapping;
-							finalMapping = manualMapping;
-							logMappingResult(sourceDrug, mapping, MANUAL_MAPPING, finalMapping);
+					// Check for manual mapping and set final mapping.
+					CDMDrug overruledMapping = null;
+					CDMDrug finalMapping = automaticMapping;
+					CDMDrug manualMapping = manualDrugMappings.get(sourceDrug);
+					if ((manualMapping != null) && manualMapping.getConceptClassId().equals("Clinical Drug Form")) {
+						// There is a manual mapping.
+						overruledMapping = finalMapping;
+						finalMapping = manualMapping;
+						logMappingResult(sourceDrug, mapping, MANUAL_MAPPING, finalMapping);
+						removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_FORM_MAPPING);
+						mappedSourceDrugs.add(sourceDrug);
+					}
+					
+					if (finalMapping != null) {
+						// Set mapping if it has the current mapping type.
+						// The mapping type can be different in case of a manual mapping.
+						if ((manualMapping == null) && finalMapping.getConceptClassId().equals("Clinical Drug Form")) {
+							logMappingResult(sourceDrug, mapping, MAPPED, finalMapping);
 							removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_FORM_MAPPING);
 							mappedSourceDrugs.add(sourceDrug);
 						}
 						
-						if (finalMapping != null) {
-							// Set mapping if it has the current mapping type.
-							// The mapping type can be different in case of a manual mapping.
-							if ((manualMapping == null) && finalMapping.getConceptClassId().equals("Clinical Drug Form")) {
-								logMappingResult(sourceDrug, mapping, MAPPED, finalMapping);
-								removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_FORM_MAPPING);
-								mappedSourceDrugs.add(sourceDrug);
-							}
-							
-							if (overruledMapping != null) {
-								logMappingResult(sourceDrug, mapping, OVERRULED_MAPPING, overruledMapping);
-								removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_FORM_MAPPING);
-								mappedSourceDrugs.add(sourceDrug);
-							}
-						}
-						else {
-							logMappingResult(sourceDrug, mapping, NO_MAPPING);
+						if (overruledMapping != null) {
+							logMappingResult(sourceDrug, mapping, OVERRULED_MAPPING, overruledMapping);
+							removeFollowingMappingResults(sourceDrug, CLINICAL_DRUG_FORM_MAPPING);
+							mappedSourceDrugs.add(sourceDrug);
 						}
 					}
 					else {
-						logMappingResult(sourceDrug, mapping, NO_SOURCE_FORMULATION);
 						logMappingResult(sourceDrug, mapping, NO_MAPPING);
 					}
 				}
 				else {
+					logMappingResult(sourceDrug, mapping, NO_SOURCE_FORMULATION);
 					logMappingResult(sourceDrug, mapping, NO_MAPPING);
 				}
 			}
+			else {
+				logMappingResult(sourceDrug, mapping, NO_MAPPING);
+			}
 		}
-
-		if (report != null) {
-			report.add("Source drugs mapped to multiple CDM Clinical Drug Forms: " + DrugMappingNumberUtilities.percentage((long) notUniqueMapping.get(mapping).size(), (long) source.getSourceDrugs().size()));
-		}
-		
-		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
-		
-		return ok;
 	}
 	
 	
@@ -1485,27 +1638,13 @@ public class GenericMapping extends Mapping {
 		
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Match single ingredient source drugs to Ingredients ...");
 		
-		for (SourceDrug sourceDrug : source.getSourceDrugs()) {
-			boolean earlierNotUniqueMapping = false;
-			for (int mappingType : notUniqueMapping.keySet()) {
-				if (notUniqueMapping.get(mappingType).contains(sourceDrug)) {
-					earlierNotUniqueMapping = true;
-					break;
-				}
-			}
-			if ((!mappedSourceDrugs.contains(sourceDrug)) && (!earlierNotUniqueMapping)) {
-				if (sourceDrug.getComponents().size() == 1) {
-					CDMIngredient cdmIngredient = sourceDrug.getComponents().get(0).getIngredient().getMatchingIngredient();
-					if (cdmIngredient != null) {
-						mappedSourceDrugs.add(sourceDrug);
-						logMappingResult(sourceDrug, mapping, MAPPED, cdmIngredient, 0);
-					}
-					else {
-						logMappingResult(sourceDrug, mapping, NO_MAPPING, 0);
-					}
-				}
+		ok = matchSourceDrugs(new SourceDrugMatcher() {
+
+			@Override
+			public void match(SourceDrug sourceDrug) {
+				matchSingleIngredient(sourceDrug);
 			}
-		}
+		});
 
 		if (report != null) {
 			report.add("Source drugs mapped to CDM Ingredient: " + DrugMappingNumberUtilities.percentage((long) notUniqueMapping.get(mapping).size(), (long) source.getSourceDrugs().size()));
@@ -1515,158 +1654,527 @@ public class GenericMapping extends Mapping {
 		
 		return ok;
 	}
+
+
+	private void matchSingleIngredient(SourceDrug sourceDrug) {
+		int mapping = INGREDIENT_MAPPING;
+		
+		boolean earlierNotUniqueMapping = false;
+		for (int mappingType : notUniqueMapping.keySet()) {
+			if (notUniqueMapping.get(mappingType).contains(sourceDrug)) {
+				earlierNotUniqueMapping = true;
+				break;
+			}
+		}
+		if ((!mappedSourceDrugs.contains(sourceDrug)) && (!earlierNotUniqueMapping)) {
+			if (sourceDrug.getComponents().size() == 1) {
+				CDMIngredient cdmIngredient = sourceDrug.getComponents().get(0).getIngredient().getMatchingIngredient();
+				if (cdmIngredient != null) {
+					mappedSourceDrugs.add(sourceDrug);
+					logMappingResult(sourceDrug, mapping, MAPPED, cdmIngredient, 0);
+				}
+				else {
+					logMappingResult(sourceDrug, mapping, NO_MAPPING, 0);
+				}
+			}
+		}
+	}
 	
 	
 	private boolean matchClinicalDrugSplitted() {
 		boolean ok = true;
 		int mapping = SPLITTED_MAPPING;
-		long completeMappingCount = 0L;
-		long incompleteMappingCount = 0L;
+		final AtomicLong completeMappingCount = new AtomicLong(0L);
+		final AtomicLong incompleteMappingCount = new AtomicLong(0L);
 		
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Match source drug ingredients to Clinical Drug Comps and Ingredients ...");
 		
-		for (SourceDrug sourceDrug : source.getSourceDrugs()) {
-			List<CDMConcept> automaticMappings = new ArrayList<CDMConcept>();
-			for (int automaticMappingNr = 0; automaticMappingNr < sourceDrug.getComponents().size(); automaticMappingNr++) {
-				automaticMappings.add(null);
+		for (SourceDrug sourceDrug : carriedOverSourceDrugs) {
+			if (sourceDrugMappingResults.hasMappingType(sourceDrug, mapping)) {
+				if (sourceDrugMappingResults.hasResult(sourceDrug, mapping, 0, MAPPED)) {
+					completeMappingCount.incrementAndGet();
+				}
+				else if (sourceDrugMappingResults.hasResult(sourceDrug, mapping, 0, INCOMPLETE)) {
+					incompleteMappingCount.incrementAndGet();
+				}
 			}
+		}
+		
+		ok = matchSourceDrugs(new SourceDrugMatcher() {
 
-			boolean earlierNotUniqueMapping = false;
-			for (int mappingType : notUniqueMapping.keySet()) {
-				if (notUniqueMapping.get(mappingType).contains(sourceDrug)) {
-					earlierNotUniqueMapping = true;
-					break;
+			@Override
+			public void match(SourceDrug sourceDrug) {
+				int mappingResultType = matchClinicalDrugSplitted(sourceDrug);
+				if (mappingResultType == MAPPED) {
+					completeMappingCount.incrementAndGet();
+				}
+				else if (mappingResultType == INCOMPLETE) {
+					incompleteMappingCount.incrementAndGet();
 				}
 			}
-			
-			List<Double> usedStrengthDeviationPercentage = new ArrayList<Double>();
-			if ((!mappedSourceDrugs.contains(sourceDrug)) && (!earlierNotUniqueMapping)) {
-				List<SourceDrugComponent> sourceDrugComponents = sourceDrug.getComponents();
-				if (sourceDrugComponents.size() > 0) {
-					// Find CDM Clinical Drug Comps with corresponding ingredients
-					for (int componentNr = 0; componentNr < sourceDrugComponents.size(); componentNr++) {
-						preferencesUsed = "";
-						usedStrengthDeviationPercentage.add(null);
-						SourceDrugComponent sourceDrugComponent = sourceDrugComponents.get(componentNr);
-						SourceIngredient sourceDrugIngredient = sourceDrugComponent.getIngredient();
-						String cdmIngredientConceptId = sourceDrugIngredient.getMatchingIngredient() == null ? null : sourceDrugIngredient.getMatchingIngredient().getConceptId();
-
-						if (DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_MATCH_INGREDIENTS_TO_COMP).equals("Ingredient or Comp")) {
-							// Try matching to CDM Clinical Drug Comp
-	 						if (cdmIngredientConceptId != null) {
-								CDMIngredient cdmIngredient = cdm.getCDMIngredients().get(cdmIngredientConceptId);
-								List<CDMDrug> cdmDrugCompsWithIngredient = cdm.getCDMDrugCompsContainingIngredient(cdmIngredient);
-								logMappingResult(sourceDrug, mapping, cdmDrugCompsWithIngredient, DRUGS_WITH_MATCHING_INGREDIENTS, componentNr);
-
-								// Find CDM Clinical Drug Comps with corresponding ingredient strengths
-								if ((cdmDrugCompsWithIngredient != null) && (cdmDrugCompsWithIngredient.size() > 0)) {
-									Set<CDMConcept> rejectedDrugComps = new HashSet<CDMConcept>();
-									Map<Double, List<CDMDrug>> strengthMatchingCDMDrugs = new HashMap<Double, List<CDMDrug>>();
-									for (CDMDrug cdmDrugCompWithIngredient : cdmDrugCompsWithIngredient) {
-										Double deviationPercentage = matchingStrength(sourceDrugComponent, cdmDrugCompWithIngredient.getIngredientStrengths().get(0));
-										if (deviationPercentage != null) {
-											List<CDMDrug> deviationPercentageList = strengthMatchingCDMDrugs.get(deviationPercentage);
-											if (deviationPercentageList == null) {
-												deviationPercentageList = new ArrayList<CDMDrug>();
-												strengthMatchingCDMDrugs.put(deviationPercentage, deviationPercentageList);
-											}
-											deviationPercentageList.add(cdmDrugCompWithIngredient);
-											usedStrengthDeviationPercentage.set(componentNr, Math.min(usedStrengthDeviationPercentage.get(componentNr) == null ? DrugMapping.settings.getDoubleSetting(MainFrame.MAXIMUM_STRENGTH_DEVIATION) : usedStrengthDeviationPercentage.get(componentNr), deviationPercentage));
-										}
-										else {
-											rejectedDrugComps.add(cdmDrugCompWithIngredient);
+		});
+
+		if (report != null) {
+			report.add("Source drugs completely mapped to multiple CDM Clinical Drug Comp or CDM Ingredient combinations: " + DrugMappingNumberUtilities.percentage(completeMappingCount.get(), (long) source.getSourceDrugs().size()));
+			report.add("Source drugs partially mapped to multiple CDM Clinical Drug Comp or CDM Ingredient combinations: " + DrugMappingNumberUtilities.percentage(incompleteMappingCount.get(), (long) source.getSourceDrugs().size()));
+		}
+		
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+		
+		return ok;
+	}
+
+
+	private int matchClinicalDrugSplitted(SourceDrug sourceDrug) {
+		int mapping = SPLITTED_MAPPING;
+		int mappingResultType = -1;
+		
+		List<CDMConcept> automaticMappings = new ArrayList<CDMConcept>();
+		for (int automaticMappingNr = 0; automaticMappingNr < sourceDrug.getComponents().size(); automaticMappingNr++) {
+			automaticMappings.add(null);
+		}
+
+		boolean earlierNotUniqueMapping = false;
+		for (int mappingType : notUniqueMapping.keySet()) {
+			if (notUniqueMapping.get(mappingType).contains(sourceDrug)) {
+				earlierNotUniqueMapping = true;
+				break;
+			}
+		}
+		
+		List<Double> usedStrengthDeviationPercentage = new ArrayList<Double>();
+		if ((!mappedSourceDrugs.contains(sourceDrug)) && (!earlierNotUniqueMapping)) {
+			List<SourceDrugComponent> sourceDrugComponents = sourceDrug.getComponents();
+			if (sourceDrugComponents.size() > 0) {
+				// Find CDM Clinical Drug Comps with corresponding ingredients
+				for (int componentNr = 0; componentNr < sourceDrugComponents.size(); componentNr++) {
+					SelectionDetails selectionDetails = new SelectionDetails();
+					usedStrengthDeviationPercentage.add(null);
+					SourceDrugComponent sourceDrugComponent = sourceDrugComponents.get(componentNr);
+					SourceIngredient sourceDrugIngredient = sourceDrugComponent.getIngredient();
+					String cdmIngredientConceptId = sourceDrugIngredient.getMatchingIngredient() == null ? null : sourceDrugIngredient.getMatchingIngredient().getConceptId();
+
+					if (configuration.isMatchIngredientsToComp()) {
+						// Try matching to CDM Clinical Drug Comp
+ 						if (cdmIngredientConceptId != null) {
+							CDMIngredient cdmIngredient = cdm.getCDMIngredients().get(cdmIngredientConceptId);
+							List<CDMDrug> cdmDrugCompsWithIngredient = cdm.getCDMDrugCompsContainingIngredient(cdmIngredient);
+							logMappingResult(sourceDrug, mapping, cdmDrugCompsWithIngredient, DRUGS_WITH_MATCHING_INGREDIENTS, componentNr);
+
+							// Find CDM Clinical Drug Comps with corresponding ingredient strengths
+							if ((cdmDrugCompsWithIngredient != null) && (cdmDrugCompsWithIngredient.size() > 0)) {
+								Set<CDMConcept> rejectedDrugComps = new HashSet<CDMConcept>();
+								Map<Double, List<CDMDrug>> strengthMatchingCDMDrugs = new HashMap<Double, List<CDMDrug>>();
+								for (CDMDrug cdmDrugCompWithIngredient : cdmDrugCompsWithIngredient) {
+									Double deviationPercentage = matchingStrength(sourceDrugComponent, cdmDrugCompWithIngredient.getIngredientStrengths().get(0));
+									if (deviationPercentage != null) {
+										List<CDMDrug> deviationPercentageList = strengthMatchingCDMDrugs.get(deviationPercentage);
+										if (deviationPercentageList == null) {
+											deviationPercentageList = new ArrayList<CDMDrug>();
+											strengthMatchingCDMDrugs.put(deviationPercentage, deviationPercentageList);
 										}
+										deviationPercentageList.add(cdmDrugCompWithIngredient);
+										usedStrengthDeviationPercentage.set(componentNr, Math.min(usedStrengthDeviationPercentage.get(componentNr) == null ? configuration.getMaximumStrengthDeviation() : usedStrengthDeviationPercentage.get(componentNr), deviationPercentage));
 									}
+									else {
+										rejectedDrugComps.add(cdmDrugCompWithIngredient);
+									}
+								}
 
-									List<CDMDrug> matchingCDMDrugComps = null;
-									if (usedStrengthDeviationPercentage.get(componentNr) != null) {
-										matchingCDMDrugComps = strengthMatchingCDMDrugs.get(usedStrengthDeviationPercentage.get(componentNr));
-										for (double deviationPercentage : strengthMatchingCDMDrugs.keySet()) {
-											if (deviationPercentage != (double) usedStrengthDeviationPercentage.get(componentNr)) {
-												rejectedDrugComps.addAll(strengthMatchingCDMDrugs.get(deviationPercentage));
-											}
+								List<CDMDrug> matchingCDMDrugComps = null;
+								if (usedStrengthDeviationPercentage.get(componentNr) != null) {
+									matchingCDMDrugComps = strengthMatchingCDMDrugs.get(usedStrengthDeviationPercentage.get(componentNr));
+									for (double deviationPercentage : strengthMatchingCDMDrugs.keySet()) {
+										if (deviationPercentage != (double) usedStrengthDeviationPercentage.get(componentNr)) {
+											rejectedDrugComps.addAll(strengthMatchingCDMDrugs.get(deviationPercentage));
 										}
 									}
-									
-									// Save the rejected drugs
-									logMappingResult(sourceDrug, mapping, matchingCDMDrugComps, DRUGS_WITH_SMALLEST_STRENGTH_WITHIN_MARGIN, componentNr);
+								}
+								
+								// Save the rejected drugs
+								logMappingResult(sourceDrug, mapping, matchingCDMDrugComps, DRUGS_WITH_SMALLEST_STRENGTH_WITHIN_MARGIN, componentNr);
 
-									if (matchingCDMDrugComps != null) {
-										if (matchingCDMDrugComps.size() > 1) {
-											matchingCDMDrugComps = selectConcept(sourceDrug, matchingCDMDrugComps, mapping, componentNr);
-										}
-										if (matchingCDMDrugComps.size() == 1) {
-											automaticMappings.set(componentNr, matchingCDMDrugComps.get(0));
-											usedStrengthDeviationPercentageMap.put("Ingredient " + sourceDrug.getCode() + "," + sourceDrugIngredient.getIngredientCode(), usedStrengthDeviationPercentage.get(componentNr));
-											sourceDrugComponent.setMatchString("Strength margin: " + usedStrengthDeviationPercentage.get(componentNr) + " " + preferencesUsed);
-										}
-										if (matchingCDMDrugComps.size() > 1) {
-											logMappingResult(sourceDrug, mapping, matchingCDMDrugComps, NO_UNIQUE_MAPPING, componentNr);
-											notUniqueMapping.get(mapping).add(sourceDrug);
-										}
+								if (matchingCDMDrugComps != null) {
+									if (matchingCDMDrugComps.size() > 1) {
+										matchingCDMDrugComps = selectConcept(sourceDrug, matchingCDMDrugComps, mapping, componentNr, selectionDetails);
+									}
+									if (matchingCDMDrugComps.size() == 1) {
+										automaticMappings.set(componentNr, matchingCDMDrugComps.get(0));
+										usedStrengthDeviationPercentageMap.put("Ingredient " + sourceDrug.getCode() + "," + sourceDrugIngredient.getIngredientCode(), usedStrengthDeviationPercentage.get(componentNr));
+										sourceDrugComponent.setMatchString("Strength margin: " + usedStrengthDeviationPercentage.get(componentNr) + " " + selectionDetails.preferencesUsed);
+									}
+									if (matchingCDMDrugComps.size() > 1) {
+										logMappingResult(sourceDrug, mapping, matchingCDMDrugComps, NO_UNIQUE_MAPPING, componentNr);
+										notUniqueMapping.get(mapping).add(sourceDrug);
 									}
 								}
 							}
 						}
-						
-						// Try mapping to CDM Ingredient
-						if (automaticMappings.get(componentNr) == null) {
-							if (sourceDrugIngredient.getMatchingIngredient() != null) {
-								CDMIngredient cdmIngredient = sourceDrugIngredient.getMatchingIngredient();
-								automaticMappings.set(componentNr, cdmIngredient);
-							}
+					}
+					
+					// Try mapping to CDM Ingredient
+					if (automaticMappings.get(componentNr) == null) {
+						if (sourceDrugIngredient.getMatchingIngredient() != null) {
+							CDMIngredient cdmIngredient = sourceDrugIngredient.getMatchingIngredient();
+							automaticMappings.set(componentNr, cdmIngredient);
 						}
 					}
 				}
+			}
 
-				int nrIngredientsMapped = 0;
-				for (int componentNr = 0; componentNr < sourceDrugComponents.size(); componentNr++) {
-					if (automaticMappings.get(componentNr) != null) {
-						nrIngredientsMapped++;
+			int nrIngredientsMapped = 0;
+			for (int componentNr = 0; componentNr < sourceDrugComponents.size(); componentNr++) {
+				if (automaticMappings.get(componentNr) != null) {
+					nrIngredientsMapped++;
+				}
+			}
+			
+			mappingResultType = INCOMPLETE;
+			if (nrIngredientsMapped == 0) {
+				mappingResultType = NO_MAPPING;
+			}
+			else if (nrIngredientsMapped == sourceDrugComponents.size()) {
+				mappingResultType = MAPPED;
+				mappedSourceDrugs.add(sourceDrug);
+			}
+			else {
+				partiallyMappedSourceDrugs.add(sourceDrug);
+			}
+			
+			for (int componentNr = 0; componentNr < sourceDrugComponents.size(); componentNr++) {
+				if (automaticMappings.get(componentNr) != null) {
+					logMappingResult(sourceDrug, mapping, mappingResultType, automaticMappings.get(componentNr), componentNr);
+				}
+				else {
+					logMappingResult(sourceDrug, mapping, mappingResultType, componentNr);
+				}
+			}
+		}
+		
+		return mappingResultType;
+	}
+	
+	
+	private static class IngredientMatchingCounters {
+		private long[] statistics = new long[ingredientMatchingTypeDescriptions.size()];
+		private long mappedIngredients = 0;
+		
+		
+		public void add(IngredientMatchingCounters counters) {
+			for (int statistic = 0; statistic < statistics.length; statistic++) {
+				statistics[statistic] += counters.statistics[statistic];
+			}
+			mappedIngredients += counters.mappedIngredients;
+		}
+	}
+	
+	
+	/**
+	 * The strength deviation and the preferences used to select the CDM drug
+	 * of a source drug or component. It is created for each source drug, as
+	 * the source drugs are matched in parallel.
+	 */
+	private static class SelectionDetails {
+		private Double strengthDeviationPercentage = null;
+		private String preferencesUsed = "";
+		
+		
+		public void addPreference(String preference) {
+			preferencesUsed += (preferencesUsed.equals("") ? "Preferences: " : ",") + preference;
+		}
+	}
+	
+	
+	private interface SourceDrugMatcher {
+		void match(SourceDrug sourceDrug);
+	}
+	
+	
+	private boolean matchSourceDrugs(SourceDrugMatcher matcher) {
+		boolean ok = true;
+		List<SourceDrug> sourceDrugs = sourceDrugsToMatch == null ? source.getSourceDrugs() : sourceDrugsToMatch;
+		
+		if ((mappingThreadCount > 1) && (sourceDrugs.size() > 1)) {
+			// Each source drug is matched independently so the source drugs are divided over the worker threads.
+			// All results are stored per source drug, so the outcome does not depend on the number of threads.
+			// Each worker thread logs the mapping results in its own buffer, which are merged in source drug order
+			// when all source drugs are matched.
+			AtomicInteger nextSourceDrugNr = new AtomicInteger(0);
+			ExecutorService executor = Executors.newFixedThreadPool(mappingThreadCount);
+			List<Future<MappingResultLog.Buffer>> workers = new ArrayList<Future<MappingResultLog.Buffer>>();
+			for (int threadNr = 0; threadNr < mappingThreadCount; threadNr++) {
+				workers.add(executor.submit(new Callable<MappingResultLog.Buffer>() {
+					
+					@Override
+					public MappingResultLog.Buffer call() {
+						MappingResultLog.Buffer workerBuffer = new MappingResultLog.Buffer();
+						sourceDrugMappingResultsBuffer.set(workerBuffer);
+						try {
+							int sourceDrugNr;
+							while ((sourceDrugNr = nextSourceDrugNr.getAndIncrement()) < sourceDrugs.size()) {
+								matcher.match(sourceDrugs.get(sourceDrugNr));
+							}
+						}
+						finally {
+							sourceDrugMappingResultsBuffer.remove();
+						}
+						return workerBuffer;
 					}
+				}));
+			}
+			List<MappingResultLog.Buffer> workerBuffers = new ArrayList<MappingResultLog.Buffer>();
+			for (Future<MappingResultLog.Buffer> worker : workers) {
+				try {
+					workerBuffers.add(worker.get());
 				}
-				
-				int mappingResultType = INCOMPLETE;
-				if (nrIngredientsMapped == 0) {
-					mappingResultType = NO_MAPPING;
+				catch (ExecutionException e) {
+					System.out.println("      ERROR: " + e.getCause());
+					e.getCause().printStackTrace();
+					ok = false;
+				}
+				catch (InterruptedException e) {
+					System.out.println("      ERROR: Matching interrupted");
+					ok = false;
+				}
+			}
+			executor.shutdown();
+			sourceDrugMappingResults.merge(sourceDrugs, workerBuffers);
+		}
+		else {
+			for (SourceDrug sourceDrug : sourceDrugs) {
+				matcher.match(sourceDrug);
+			}
+		}
+		
+		return ok;
+	}
+	
+	
+	private void carryOverPreviousMappingResults() {
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Carry over unchanged mapping results from the previous run ...");
+		
+		inputsFingerprint = getInputsFingerprint();
+		sourceDrugsToMatch = new ArrayList<SourceDrug>();
+		
+		MappingState previousMappingState = MappingState.load(getMappingStateFileName());
+		if ((previousMappingState != null) && (!previousMappingState.getInputsFingerprint().equals(inputsFingerprint))) {
+			System.out.println("        Settings, CDM, translation, unit or dose form mappings changed. All source drugs are mapped again.");
+			previousMappingState = null;
+		}
+		
+		for (SourceDrug sourceDrug : source.getSourceDrugs()) {
+			String sourceDrugCode = sourceDrug.getCode();
+			SourceDrugState sourceDrugState = null;
+			Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappingResult = null;
+			if ((previousMappingState != null) && (sourceDrugCode != null)) {
+				sourceDrugState = previousMappingState.getSourceDrugState(sourceDrugCode);
+				if (
+						(sourceDrugState != null) &&
+						sourceDrugState.getFingerprint().equals(getSourceDrugFingerprint(sourceDrug)) &&
+						(sourceDrugState.getComponentMatchStrings().size() == sourceDrug.getComponents().size())
+				) {
+					sourceDrugMappingResult = getConcepts(sourceDrugState.getMappingResults());
 				}
-				else if (nrIngredientsMapped == sourceDrugComponents.size()) {
-					mappingResultType = MAPPED;
+			}
+			
+			if (sourceDrugMappingResult != null) {
+				// The saved results include the results logged before the carry over
+				sourceDrugMappingResults.replaceMappingResults(sourceDrug, sourceDrugMappingResult);
+				if (sourceDrugState.isMapped()) {
 					mappedSourceDrugs.add(sourceDrug);
-					completeMappingCount++;
 				}
-				else {
+				if (sourceDrugState.isPartiallyMapped()) {
 					partiallyMappedSourceDrugs.add(sourceDrug);
-					incompleteMappingCount++;
 				}
-				
-				for (int componentNr = 0; componentNr < sourceDrugComponents.size(); componentNr++) {
-					if (automaticMappings.get(componentNr) != null) {
-						logMappingResult(sourceDrug, mapping, mappingResultType, automaticMappings.get(componentNr), componentNr);
+				for (int mapping : sourceDrugState.getNotUniqueMappings()) {
+					notUniqueMapping.get(mapping).add(sourceDrug);
+				}
+				sourceDrug.setMatchString(sourceDrugState.getMatchString());
+				for (int componentNr = 0; componentNr < sourceDrug.getComponents().size(); componentNr++) {
+					sourceDrug.getComponents().get(componentNr).setMatchString(sourceDrugState.getComponentMatchStrings().get(componentNr));
+				}
+				usedStrengthDeviationPercentageMap.putAll(sourceDrugState.getStrengthDeviationPercentages());
+				carriedOverSourceDrugs.add(sourceDrug);
+			}
+			else {
+				sourceDrugsToMatch.add(sourceDrug);
+			}
+		}
+		
+		report.add("Source drugs with mapping results carried over from the previous run: " + DrugMappingNumberUtilities.percentage((long) carriedOverSourceDrugs.size(), (long) source.getSourceDrugs().size()));
+		
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+	}
+	
+	
+	private void saveMappingState() {
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Save mapping state for the next incremental run ...");
+		
+		MappingState mappingState = new MappingState(inputsFingerprint);
+		for (SourceDrug sourceDrug : source.getSourceDrugs()) {
+			String sourceDrugCode = sourceDrug.getCode();
+			if (sourceDrugCode != null) {
+				List<Integer> sourceDrugNotUniqueMappings = new ArrayList<Integer>();
+				for (int mapping : notUniqueMapping.keySet()) {
+					if (notUniqueMapping.get(mapping).contains(sourceDrug)) {
+						sourceDrugNotUniqueMappings.add(mapping);
 					}
-					else {
-						logMappingResult(sourceDrug, mapping, mappingResultType, componentNr);
+				}
+				
+				List<String> componentMatchStrings = new ArrayList<String>();
+				Map<String, Double> strengthDeviationPercentages = new HashMap<String, Double>();
+				String key = "Drug " + sourceDrugCode;
+				if (usedStrengthDeviationPercentageMap.containsKey(key)) {
+					strengthDeviationPercentages.put(key, usedStrengthDeviationPercentageMap.get(key));
+				}
+				for (SourceDrugComponent sourceDrugComponent : sourceDrug.getComponents()) {
+					componentMatchStrings.add(sourceDrugComponent.getMatchString());
+					key = "Ingredient " + sourceDrugCode + "," + sourceDrugComponent.getIngredient().getIngredientCode();
+					if (usedStrengthDeviationPercentageMap.containsKey(key)) {
+						strengthDeviationPercentages.put(key, usedStrengthDeviationPercentageMap.get(key));
 					}
 				}
+				
+				mappingState.addSourceDrugState(sourceDrugCode, new SourceDrugState(
+						getSourceDrugFingerprint(sourceDrug),
+						getConceptReferences(sourceDrugMappingResults.getMappingResults(sourceDrug)),
+						mappedSourceDrugs.contains(sourceDrug),
+						partiallyMappedSourceDrugs.contains(sourceDrug),
+						sourceDrugNotUniqueMappings,
+						sourceDrug.getMatchString(),
+						componentMatchStrings,
+						strengthDeviationPercentages
+				));
 			}
 		}
-
-		if (report != null) {
-			report.add("Source drugs completely mapped to multiple CDM Clinical Drug Comp or CDM Ingredient combinations: " + DrugMappingNumberUtilities.percentage(completeMappingCount, (long) source.getSourceDrugs().size()));
-			report.add("Source drugs partially mapped to multiple CDM Clinical Drug Comp or CDM Ingredient combinations: " + DrugMappingNumberUtilities.percentage(incompleteMappingCount, (long) source.getSourceDrugs().size()));
-		}
+		mappingState.save(getMappingStateFileName());
 		
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
-		
-		return ok;
+	}
+	
+	
+	private String getMappingStateFileName() {
+		return DrugMapping.getBasePath() + File.separator + MappingState.STATE_FILE_NAME;
+	}
+	
+	
+	private String getInputsFingerprint() {
+		// Everything that influences the mapping of all source drugs
+		String fingerprint = "Version=" + Version.version;
+		fingerprint += "\nCDM=" + cdm.getVersionDescription();
+		for (int settingNr = 0; settingNr < configuration.getSettingCount(); settingNr++) {
+			if ((settingNr != MainFrame.MAPPING_THREADS) && (settingNr != MainFrame.INCREMENTAL_MAPPING) && (settingNr != MainFrame.CDM_FETCH_SIZE) && (settingNr != MainFrame.CDM_CONNECTIONS) && (settingNr != MainFrame.CDM_EXTRACTION) && (settingNr != MainFrame.SOURCE_DRUG_STORAGE) && (settingNr != MainFrame.COMPRESS_OUTPUT_FILES) && (settingNr != MainFrame.DATABASE_OUTPUT) && (settingNr != MainFrame.DATABASE_OUTPUT_TABLE) && (settingNr != MainFrame.SAVE_DRUGMAPPING_LOG) && (settingNr != MainFrame.SUPPRESS_WARNINGS)) {
+				fingerprint += "\n" + configuration.getSettingName(settingNr) + "=" + configuration.getValue(settingNr);
+			}
+		}
+		fingerprint += "\nTranslation=" + MappingState.getFileDigest(ingredientNameTranslationMap.getFileName());
+		fingerprint += "\nUnits=" + MappingState.getFileDigest(unitConversionsMap.getFileName());
+		fingerprint += "\nForms=" + MappingState.getFileDigest(formConversionsMap.getFileName());
+		return MappingState.getDigest(fingerprint);
+	}
+	
+	
+	private String getSourceDrugFingerprint(SourceDrug sourceDrug) {
+		// Everything that influences the mapping of this source drug, including the outcome of the ingredient matching
+		String fingerprint = sourceDrug.toString();
+		for (SourceDrugComponent sourceDrugComponent : sourceDrug.getComponents()) {
+			CDMIngredient cdmIngredient = sourceDrugComponent.getIngredient().getMatchingIngredient();
+			fingerprint += "\n" + sourceDrugComponent.toString() + "," + (cdmIngredient == null ? "" : cdmIngredient.getConceptId());
+		}
+		CDMDrug manualDrugMapping = manualDrugMappings.get(sourceDrug);
+		fingerprint += "\nManual=" + (manualDrugMapping == null ? "" : manualDrugMapping.getConceptId());
+		return MappingState.getDigest(fingerprint);
+	}
+	
+	
+	private Map<Integer, List<Map<Integer, List<String>>>> getConceptReferences(Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappingResult) {
+		Map<Integer, List<Map<Integer, List<String>>>> conceptReferences = null;
+		if (sourceDrugMappingResult != null) {
+			conceptReferences = new HashMap<Integer, List<Map<Integer, List<String>>>>();
+			for (Integer mapping : sourceDrugMappingResult.keySet()) {
+				List<Map<Integer, List<String>>> mappingReferencesList = new ArrayList<Map<Integer, List<String>>>();
+				for (Map<Integer, List<CDMConcept>> mappingResult : sourceDrugMappingResult.get(mapping)) {
+					Map<Integer, List<String>> mappingReferences = new HashMap<Integer, List<String>>();
+					for (Integer resultType : mappingResult.keySet()) {
+						List<String> references = new ArrayList<String>();
+						for (CDMConcept cdmConcept : mappingResult.get(resultType)) {
+							String reference = null;
+							if (cdmConcept != null) {
+								reference = ((cdmConcept instanceof CDMDrug) ? "D" : ((cdmConcept instanceof CDMIngredient) ? "I" : "F")) + cdmConcept.getConceptId();
+							}
+							references.add(reference);
+						}
+						mappingReferences.put(resultType, references);
+					}
+					mappingReferencesList.add(mappingReferences);
+				}
+				conceptReferences.put(mapping, mappingReferencesList);
+			}
+		}
+		return conceptReferences;
+	}
+	
+	
+	private Map<Integer, List<Map<Integer, List<CDMConcept>>>> getConcepts(Map<Integer, List<Map<Integer, List<String>>>> conceptReferences) {
+		// Returns null when a concept no longer exists in the CDM
+		Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappingResult = null;
+		if (conceptReferences != null) {
+			sourceDrugMappingResult = new HashMap<Integer, List<Map<Integer, List<CDMConcept>>>>();
+			for (Integer mapping : conceptReferences.keySet()) {
+				List<Map<Integer, List<CDMConcept>>> mappingResultList = new ArrayList<Map<Integer, List<CDMConcept>>>();
+				for (Map<Integer, List<String>> mappingReferences : conceptReferences.get(mapping)) {
+					Map<Integer, List<CDMConcept>> mappingResult = new HashMap<Integer, List<CDMConcept>>();
+					for (Integer resultType : mappingReferences.keySet()) {
+						List<CDMConcept> concepts = new ArrayList<CDMConcept>();
+						for (String reference : mappingReferences.get(resultType)) {
+							CDMConcept cdmConcept = null;
+							if (reference != null) {
+								String conceptId = reference.substring(1);
+								if (reference.startsWith("D")) {
+									cdmConcept = cdm.getCDMDrugs().get(conceptId);
+									if (cdmConcept == null) {
+										cdmConcept = cdm.getCDMDrugComps().get(conceptId);
+									}
+									if (cdmConcept == null) {
+										cdmConcept = cdm.getCDMDrugForms().get(conceptId);
+									}
+									if (cdmConcept == null) {
+										cdmConcept = cdm.getCDMCVXVaccines().get(conceptId);
+									}
+								}
+								else if (reference.startsWith("I")) {
+									cdmConcept = cdm.getCDMIngredients().get(conceptId);
+								}
+								else {
+									cdmConcept = cdm.getCDMFormConcept(conceptId);
+								}
+								if (cdmConcept == null) {
+									return null;
+								}
+							}
+							concepts.add(cdmConcept);
+						}
+						mappingResult.put(resultType, concepts);
+					}
+					mappingResultList.add(mappingResult);
+				}
+				sourceDrugMappingResult.put(mapping, mappingResultList);
+			}
+		}
+		return sourceDrugMappingResult;
 	}
 	
 	
 	private void removeFollowingMappingResults(SourceDrug sourceDrug, int currentMappingType) {
-		Map<Integer, List<Map<Integer, List<CDMConcept>>>> mappingResults = sourceDrugMappingResults.get(sourceDrug);
-		Integer mappingType = currentMappingType + 1;
+		int mappingType = currentMappingType + 1;
 		while (mappingType < mappingTypeDescriptions.keySet().size()) {
-			mappingResults.remove(mappingType);
+			MappingResultLog.Buffer buffer = sourceDrugMappingResultsBuffer.get();
+			if (buffer != null) {
+				buffer.removeMappingType(sourceDrug, mappingType);
+			}
+			else {
+				sourceDrugMappingResults.removeMappingType(sourceDrug, mappingType);
+			}
 			mappingType++;
 		}
 	}
@@ -1675,62 +2183,24 @@ public class GenericMapping extends Mapping {
 	private List<CDMDrug> selectCDMDrugsWithMatchingIngredients(SourceDrug sourceDrug, int mapping) {
 		// Find CDM Clinical Drugs with corresponding ingredients
 		List<CDMDrug> cdmDrugsWithIngredients = null;
-		List<CDMIngredient> foundIngredients = new ArrayList<CDMIngredient>();
 		
 		if ((mapping != CLINICAL_DRUG_COMP_MAPPING) || (sourceDrug.getIngredients().size() == 1)) {
 			List<CDMIngredient> sourceDrugCDMIngredients = sourceDrugsCDMIngredients.get(sourceDrug);
-			for (CDMIngredient cdmIngredient : sourceDrugCDMIngredients) {
-				List<CDMDrug> cdmDrugsWithIngredient = null;
-				if (mapping == CLINICAL_DRUG_MAPPING) {
-					cdmDrugsWithIngredient = cdm.getCDMDrugsContainingIngredient(sourceDrugCDMIngredients.size(), cdmIngredient);
-				}
-				else if (mapping == CLINICAL_DRUG_COMP_MAPPING) {
-					cdmDrugsWithIngredient = cdm.getCDMDrugCompsContainingIngredient(cdmIngredient);
-				}
-				else if (mapping == CLINICAL_DRUG_FORM_MAPPING) {
-					cdmDrugsWithIngredient = cdm.getCDMDrugFormsContainingIngredient(sourceDrug.getIngredients().size(), cdmIngredient);
-				}
-				if (cdmDrugsWithIngredient != null) {
-					if (cdmDrugsWithIngredients == null) {
-						// Initially add all drugs with the first ingredient
-						cdmDrugsWithIngredients = new ArrayList<CDMDrug>();
-						cdmDrugsWithIngredients.addAll(cdmDrugsWithIngredient);
-					}
-					else {
-						// Remove all drugs that do not have the current ingredient.
-						Set<CDMDrug> cdmDrugsMissingIngredient = new HashSet<CDMDrug>();
-						for (CDMDrug cdmDrug : cdmDrugsWithIngredients) {
-							if (!cdmDrugsWithIngredient.contains(cdmDrug)) {
-								cdmDrugsMissingIngredient.add(cdmDrug);
-							}
-							else {
-								List<CDMIngredient> cdmDrugIngredientsList = new ArrayList<CDMIngredient>();
-								cdmDrugIngredientsList.addAll(cdmDrug.getIngredients());
-								for (CDMIngredient foundIngredient : foundIngredients) {
-									cdmDrugIngredientsList.remove(foundIngredient);
-								}
-								if (!cdmDrugIngredientsList.contains(cdmIngredient)) {
-									cdmDrugsMissingIngredient.add(cdmDrug);
-								}
-							}
-						}
-						cdmDrugsWithIngredients.removeAll(cdmDrugsMissingIngredient);
-						if (cdmDrugsWithIngredients.size() == 0) {
-							break;
-						}
-					}
-				}
-				else {
-					cdmDrugsWithIngredients = new ArrayList<CDMDrug>();
-					break;
-				}
-				foundIngredients.add(cdmIngredient);
+			if (mapping == CLINICAL_DRUG_MAPPING) {
+				cdmDrugsWithIngredients = cdm.getCDMDrugsContainingIngredients(sourceDrugCDMIngredients.size(), sourceDrugCDMIngredients);
+			}
+			else if (mapping == CLINICAL_DRUG_COMP_MAPPING) {
+				cdmDrugsWithIngredients = cdm.getCDMDrugCompsContainingIngredients(sourceDrugCDMIngredients);
+			}
+			else if (mapping == CLINICAL_DRUG_FORM_MAPPING) {
+				cdmDrugsWithIngredients = cdm.getCDMDrugFormsContainingIngredients(sourceDrug.getIngredients().size(), sourceDrugCDMIngredients);
 			}
 		}
 		if (cdmDrugsWithIngredients == null) {
 			cdmDrugsWithIngredients = new ArrayList<CDMDrug>();
 		}
 		logMappingResult(sourceDrug, mapping, cdmDrugsWithIngredients, DRUGS_WITH_MATCHING_INGREDIENTS);
+		drugsWithMatchingIngredientsCounters[mapping].addAndGet(cdmDrugsWithIngredients.size());
 		
 		return cdmDrugsWithIngredients;
 	}
@@ -1776,6 +2246,7 @@ public class GenericMapping extends Mapping {
 	
 	private List<CDMDrug> selectCDMDrugsWithMatchingForm(SourceDrug sourceDrug, List<CDMDrug> cdmDrugs, List<String> matchingCDMForms, int mapping) {
 		// Remove all drugs with the wrong form				
+		int examined = cdmDrugs.size();
 		if (cdmDrugs.size() > 0) {
 			Set<CDMConcept> rejectedByForm = new HashSet<CDMConcept>();
 			
@@ -1802,12 +2273,13 @@ public class GenericMapping extends Mapping {
 			cdmDrugs.removeAll(rejectedByForm);
 			logMappingResult(sourceDrug, mapping, cdmDrugs, DRUGS_WITH_MATCHING_FORM);
 		}
+		filterCounters[mapping][MATCHING_FORM_FILTER].count(examined, cdmDrugs.size());
 		
 		return cdmDrugs;
 	}
 	
 	
-	private void saveMapping() {
+	private boolean saveMapping() {
 		isSavingDrugMapping = true;
 		
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Saving Mappings ...");
@@ -1837,15 +2309,89 @@ public class GenericMapping extends Mapping {
 			}
 		});
 		
-		saveIngredientMapping(sourceIngredients);
-		saveDrugMapping();
-		isSavingDrugMapping = false;
+		// The output files and the final report only read the final mapping results, so they are created concurrently
+		List<Runnable> outputTasks = new ArrayList<Runnable>();
+		outputTasks.add(new Runnable() {
+			
+			@Override
+			public void run() {
+				saveSourceToConceptMap();
+			}
+		});
+		outputTasks.add(new Runnable() {
+			
+			@Override
+			public void run() {
+				saveDrugMapping();
+			}
+		});
+		outputTasks.add(new Runnable() {
+			
+			@Override
+			public void run() {
+				saveIngredientMapping(sourceIngredients);
+			}
+		});
+		if (configuration.isSaveDrugMappingLog()) {
+			outputTasks.add(new Runnable() {
+				
+				@Override
+				public void run() {
+					saveDrugMappingMappingLog(source, sourceDrugMappingResults, usedStrengthDeviationPercentageMap, cdm);
+				}
+			});
+		}
+		if (report != null) {
+			outputTasks.add(new Runnable() {
+				
+				@Override
+				public void run() {
+					finalReport();
+				}
+			});
+		}
+		boolean ok = runOutputTasks(outputTasks);
+		isSavingDrugMapping = false;
+			
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+		
+		return ok;
+	}
+	
+	
+	private boolean runOutputTasks(List<Runnable> outputTasks) {
+		boolean ok = true;
 		
-		if (DrugMapping.settings.getStringSetting(MainFrame.SAVE_DRUGMAPPING_LOG).equals("Yes")) {
-			saveDrugMappingMappingLog(source, sourceDrugMappingResults, usedStrengthDeviationPercentageMap, cdm);
+		int threadCount = Math.min(mappingThreadCount, outputTasks.size());
+		if (threadCount > 1) {
+			ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+			List<Future<?>> workers = new ArrayList<Future<?>>();
+			for (Runnable outputTask : outputTasks) {
+				workers.add(executor.submit(outputTask));
+			}
+			for (Future<?> worker : workers) {
+				try {
+					worker.get();
+				}
+				catch (ExecutionException e) {
+					System.out.println("      ERROR: " + e.getCause());
+					e.getCause().printStackTrace();
+					ok = false;
+				}
+				catch (InterruptedException e) {
+					System.out.println("      ERROR: Saving interrupted");
+					ok = false;
+				}
+			}
+			executor.shutdown();
 		}
-			
-		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
+		else {
+			for (Runnable outputTask : outputTasks) {
+				outputTask.run();
+			}
+		}
+		
+		return ok;
 	}
 	
 	
@@ -1857,7 +2403,7 @@ public class GenericMapping extends Mapping {
 		String header = SourceIngredient.getMatchHeader();
 		header += "," + "SourceCount";
 		header += "," + CDMIngredient.getHeader();
-		PrintWriter ingredientMappingFile = DrugMappingFileUtilities.openOutputFile("IngredientMapping Mapping Log.csv", header);
+		PrintWriter ingredientMappingFile = DrugMappingFileUtilities.openOutputFile("IngredientMapping Mapping Log.csv", header, configuration.isCompressOutputFiles());
 		
 		if (ingredientMappingFile != null) {
 			
@@ -1887,7 +2433,7 @@ public class GenericMapping extends Mapping {
 			header += "," + "concept_class_id";
 			header += "," + "vocabulary_id";
 			header += "," + "MatchLog";
-			PrintWriter ingredientMappingReviewFile = DrugMappingFileUtilities.openOutputFile("IngredientMapping Review.csv", header);
+			PrintWriter ingredientMappingReviewFile = DrugMappingFileUtilities.openOutputFile("IngredientMapping Review.csv", header, configuration.isCompressOutputFiles());
 			
 			if (ingredientMappingReviewFile != null) {
 				
@@ -1949,19 +2495,7 @@ public class GenericMapping extends Mapping {
 		header += "," + "valid_end_date";
 		header += "," + "invalid_reason";
 		
-		PrintWriter drugMappingFile = DrugMappingFileUtilities.openOutputFile("DrugMapping.csv", header);
-		
-		header = "source_code";
-		header += "," + "source_concept_id";
-		header += "," + "source_vocabulary_id";
-		header += "," + "source_code_description";
-		header += "," + "target_concept_id";
-		header += "," + "target_vocabulary_id";
-		header += "," + "valid_start_date";
-		header += "," + "valid_end_date";
-		header += "," + "invalid_reason";
-		
-		PrintWriter sourceToConceptMapFile = DrugMappingFileUtilities.openOutputFile("SourceToConceptMap.csv", header);
+		PrintWriter drugMappingFile = DrugMappingFileUtilities.openOutputFile("DrugMapping.csv", header, configuration.isCompressOutputFiles());
 		
 		PrintWriter drugMappingReviewFile = null;
 		if (DrugMapping.debug) {
@@ -1979,38 +2513,20 @@ public class GenericMapping extends Mapping {
 			header += "," + "vocabulary_id";
 			header += "," + "MappingLog";
 			
-			drugMappingReviewFile = DrugMappingFileUtilities.openOutputFile("DrugMapping Review.csv", header);
+			drugMappingReviewFile = DrugMappingFileUtilities.openOutputFile("DrugMapping Review.csv", header, configuration.isCompressOutputFiles());
 		}
 
 		for (SourceDrug sourceDrug : source.getSourceDrugs()) {
 			String mappingStatus = getMappingStatus(sourceDrug);
-			Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappings = sourceDrugMappingResults.get(sourceDrug);
+			Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappings = sourceDrugMappingResults.getMappingResults(sourceDrug);
 			
-			// Get the mapping type
-			int mappingType = -1;
-			if (sourceDrugMappings != null) {
-				int mapping = 0;
-				while (mappingTypeDescriptions.get(mapping) != null) {
-					if ((mapping == SPLITTED_MAPPING) && (mappingStatus.equals("Mapped") || mappingStatus.equals("Incomplete"))) {
-						mappingType = SPLITTED_MAPPING;
-						break;
-					}
-					else {
-						if ((sourceDrugMappings.get(mapping) != null) && (sourceDrugMappings.get(mapping).get(0).get(MAPPED) != null)) {
-							mappingType = mapping;
-							break;
-						}
-					}
-					mapping++;
-				}
-			}
+			int mappingType = getSavedMappingType(mappingStatus, sourceDrugMappings);
 			
 			String drugMappingRecord = mappingStatus;
 			drugMappingRecord += "," + sourceDrug; 
 			
-			String sourceToConceptRecord = "";
-			
-			String drugMappingReviewRecord = DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getCode());
+			String sourceDrugCode = sourceDrug.getCode();
+			String drugMappingReviewRecord = DrugMappingStringUtilities.escapeFieldValue(sourceDrugCode);
 			drugMappingReviewRecord += "," + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getName());
 			drugMappingReviewRecord += "," + (sourceDrug.getCount() < 0 ? "?" : sourceDrug.getCount());
 			drugMappingReviewRecord += "," + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getFormulationsString());
@@ -2022,29 +2538,12 @@ public class GenericMapping extends Mapping {
 				if ((mappingType == INGREDIENT_MAPPING) || (mappingType == SPLITTED_MAPPING)) {
 					List<SourceDrugComponent> sourceDrugComponents = new ArrayList<SourceDrugComponent>();
 					sourceDrugComponents.addAll(sourceDrug.getComponents());
-					List<SourceDrugComponent> sortedSourceDrugComponents = new ArrayList<SourceDrugComponent>();
-					sortedSourceDrugComponents.addAll(sourceDrug.getComponents());
-					Collections.sort(sortedSourceDrugComponents, new Comparator<SourceDrugComponent>() {
-
-						@Override
-						public int compare(SourceDrugComponent sourceDrugComponent1, SourceDrugComponent sourceDrugComponent2) {
-							int compare = sourceDrugComponent1.getIngredient().getIngredientCode().compareTo(sourceDrugComponent2.getIngredient().getIngredientCode());
-							if (compare == 0) {
-								Double amount1 = sourceDrugComponent1.getDosage();
-								Double amount2 = sourceDrugComponent2.getDosage();
-								compare = (amount1 == null ? (amount2 == null ? 0 : -1) : (amount2 == null ? 1 : amount1.compareTo(amount2)));
-							}
-							return compare;
-						}
-						
-					});
+					List<SourceDrugComponent> sortedSourceDrugComponents = getSortedSourceDrugComponents(sourceDrug);
 					
 					for (int ingredientNr = 0; ingredientNr < mappingResultList.size(); ingredientNr++) {
-						sourceToConceptRecord = "";
-						
 						SourceDrugComponent sourceDrugComponent = sortedSourceDrugComponents.get(ingredientNr);
 						SourceIngredient sourceIngredient = sourceDrugComponent.getIngredient();
-						String key = "Ingredient " + sourceDrug.getCode() + "," + sourceDrug.getIngredients().get(ingredientNr).getIngredientCode();
+						String key = "Ingredient " + sourceDrugCode + "," + sourceDrug.getIngredients().get(ingredientNr).getIngredientCode();
 						String strengthDeviationPercentage = "";
 						if (usedStrengthDeviationPercentageMap.get(key) != null) {
 							strengthDeviationPercentage = usedStrengthDeviationPercentageMap.get(key).toString();
@@ -2073,33 +2572,6 @@ public class GenericMapping extends Mapping {
 						
 						drugMappingFile.println(drugMappingIngredientRecord);
 						
-						if (target != null) {
-							sourceToConceptRecord +=       "Drug " + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getCode());
-							sourceToConceptRecord += "," + "0";
-							sourceToConceptRecord += "," + DrugMapping.settings.getStringSetting(MainFrame.VOCABULARY_ID);
-							sourceToConceptRecord += "," + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getName());
-							sourceToConceptRecord += "," + target.getConceptId();
-							sourceToConceptRecord += "," + target.getVocabularyId();
-							sourceToConceptRecord += "," + DrugMappingDateUtilities.getCurrentDate();
-							sourceToConceptRecord += ",";
-							sourceToConceptRecord += ",";
-							
-							sourceToConceptMapFile.println(sourceToConceptRecord);
-						}
-						else {
-							sourceToConceptRecord +=       "Drug " + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getCode());
-							sourceToConceptRecord += "," + "0";
-							sourceToConceptRecord += "," + DrugMapping.settings.getStringSetting(MainFrame.VOCABULARY_ID);
-							sourceToConceptRecord += "," + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getName());
-							sourceToConceptRecord += "," + "0";
-							sourceToConceptRecord += ",";
-							sourceToConceptRecord += ",";
-							sourceToConceptRecord += ",";
-							sourceToConceptRecord += ",";
-							
-							sourceToConceptMapFile.println(sourceToConceptRecord);
-						}
-						
 
 						String drugMappingReviewIngredientRecord = drugMappingReviewRecord;
 						drugMappingReviewIngredientRecord += "," + DrugMappingStringUtilities.escapeFieldValue(sourceIngredient.getIngredientCode());
@@ -2127,7 +2599,7 @@ public class GenericMapping extends Mapping {
 					}
 				}
 				else {
-					String key = "Drug " + sourceDrug.getCode();
+					String key = "Drug " + sourceDrugCode;
 					String strengthDeviationPercentage = "";
 					if (usedStrengthDeviationPercentageMap.get(key) != null) {
 						strengthDeviationPercentage = usedStrengthDeviationPercentageMap.get(key).toString();
@@ -2143,34 +2615,6 @@ public class GenericMapping extends Mapping {
 					
 					drugMappingFile.println(drugMappingRecord);
 					
-					
-					if (target != null) {
-						sourceToConceptRecord +=       "Drug " + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getCode());
-						sourceToConceptRecord += "," + "0";
-						sourceToConceptRecord += "," + DrugMapping.settings.getStringSetting(MainFrame.VOCABULARY_ID);
-						sourceToConceptRecord += "," + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getName());
-						sourceToConceptRecord += "," + target.getConceptId();
-						sourceToConceptRecord += "," + target.getVocabularyId();
-						sourceToConceptRecord += "," + DrugMappingDateUtilities.getCurrentDate();
-						sourceToConceptRecord += ",";
-						sourceToConceptRecord += ",";
-						
-						sourceToConceptMapFile.println(sourceToConceptRecord);
-					}
-					else {
-						sourceToConceptRecord +=       "Drug " + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getCode());
-						sourceToConceptRecord += "," + "0";
-						sourceToConceptRecord += "," + DrugMapping.settings.getStringSetting(MainFrame.VOCABULARY_ID);
-						sourceToConceptRecord += "," + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getName());
-						sourceToConceptRecord += "," + "0";
-						sourceToConceptRecord += ",";
-						sourceToConceptRecord += ",";
-						sourceToConceptRecord += ",";
-						sourceToConceptRecord += ",";
-						
-						sourceToConceptMapFile.println(sourceToConceptRecord);
-					}
-					
 
 					drugMappingReviewRecord += "," + "*";
 					drugMappingReviewRecord += "," + "*";
@@ -2206,35 +2650,7 @@ public class GenericMapping extends Mapping {
 				drugMappingFile.println(drugMappingRecord);
 
 				
-				sourceToConceptRecord +=       "Drug " + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getCode());
-				sourceToConceptRecord += "," + "0";
-				sourceToConceptRecord += "," + DrugMapping.settings.getStringSetting(MainFrame.VOCABULARY_ID);
-				sourceToConceptRecord += "," + DrugMappingStringUtilities.escapeFieldValue(sourceDrug.getName());
-				sourceToConceptRecord += "," + "0";
-				sourceToConceptRecord += ",";
-				sourceToConceptRecord += ",";
-				sourceToConceptRecord += ",";
-				sourceToConceptRecord += ",";
-				
-				sourceToConceptMapFile.println(sourceToConceptRecord);
-
-				
-				List<SourceDrugComponent> sortedSourceDrugComponents = new ArrayList<SourceDrugComponent>();
-				sortedSourceDrugComponents.addAll(sourceDrug.getComponents());
-				Collections.sort(sortedSourceDrugComponents, new Comparator<SourceDrugComponent>() {
-
-					@Override
-					public int compare(SourceDrugComponent sourceDrugComponent1, SourceDrugComponent sourceDrugComponent2) {
-						int compare = sourceDrugComponent1.getIngredient().getIngredientCode().compareTo(sourceDrugComponent2.getIngredient().getIngredientCode());
-						if (compare == 0) {
-							Double amount1 = sourceDrugComponent1.getDosage();
-							Double amount2 = sourceDrugComponent2.getDosage();
-							compare = (amount1 == null ? (amount2 == null ? 0 : -1) : (amount2 == null ? 1 : amount1.compareTo(amount2)));
-						}
-						return compare;
-					}
-					
-				});
+				List<SourceDrugComponent> sortedSourceDrugComponents = getSortedSourceDrugComponents(sourceDrug);
 				
 				List< Map<Integer, List<CDMConcept>>> mappingResultList = sourceDrugMappings.get(INGREDIENT_MAPPING);
 				if (mappingResultList == null) {
@@ -2285,43 +2701,7 @@ public class GenericMapping extends Mapping {
 			}
 		}
 		
-		List<SourceIngredient> sourceIngredientList = new ArrayList<SourceIngredient>();
-		sourceIngredientList.addAll(Source.getAllIngredients());
-		Collections.sort(sourceIngredientList);
-		for (SourceIngredient sourceIngredient : sourceIngredientList) {
-			String sourceToConceptRecord = "";
-			CDMIngredient target = sourceIngredient.getMatchingIngredient();
-
-			if (target != null) {
-				sourceToConceptRecord +=       "Ingredient " + DrugMappingStringUtilities.escapeFieldValue(sourceIngredient.getIngredientCode());
-				sourceToConceptRecord += "," + "0";
-				sourceToConceptRecord += "," + DrugMapping.settings.getStringSetting(MainFrame.VOCABULARY_ID);
-				sourceToConceptRecord += "," + DrugMappingStringUtilities.escapeFieldValue(sourceIngredient.getIngredientName());
-				sourceToConceptRecord += "," + target.getConceptId();
-				sourceToConceptRecord += "," + target.getVocabularyId();
-				sourceToConceptRecord += "," + DrugMappingDateUtilities.getCurrentDate();
-				sourceToConceptRecord += ",";
-				sourceToConceptRecord += ",";
-				
-				sourceToConceptMapFile.println(sourceToConceptRecord);
-			}
-			else {
-				sourceToConceptRecord +=       "Ingredient " + DrugMappingStringUtilities.escapeFieldValue(sourceIngredient.getIngredientCode());
-				sourceToConceptRecord += "," + "0";
-				sourceToConceptRecord += "," + DrugMapping.settings.getStringSetting(MainFrame.VOCABULARY_ID);
-				sourceToConceptRecord += "," + DrugMappingStringUtilities.escapeFieldValue(sourceIngredient.getIngredientName());
-				sourceToConceptRecord += "," + "0";
-				sourceToConceptRecord += ",";
-				sourceToConceptRecord += ",";
-				sourceToConceptRecord += ",";
-				sourceToConceptRecord += ",";
-				
-				sourceToConceptMapFile.println(sourceToConceptRecord);
-			}
-		}
-
 		DrugMappingFileUtilities.closeOutputFile(drugMappingFile);
-		DrugMappingFileUtilities.closeOutputFile(sourceToConceptMapFile);
 		if (DrugMapping.debug && (drugMappingReviewFile != null)) {
 			DrugMappingFileUtilities.closeOutputFile(drugMappingReviewFile);
 		}
@@ -2330,16 +2710,164 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
+	private void saveSourceToConceptMap() {
+		
+		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "       Saving Source To Concept Map ...");
+		
+		String header = "source_code";
+		header += "," + "source_concept_id";
+		header += "," + "source_vocabulary_id";
+		header += "," + "source_code_description";
+		header += "," + "target_concept_id";
+		header += "," + "target_vocabulary_id";
+		header += "," + "valid_start_date";
+		header += "," + "valid_end_date";
+		header += "," + "invalid_reason";
+		
+		DelimitedOutputWriter sourceToConceptMapFile = DrugMappingFileUtilities.openOutputFile("SourceToConceptMap.csv", header, configuration.isCompressOutputFiles());
+		
+		if (sourceToConceptMapFile != null) {
+			SourceToConceptMapTable sourceToConceptMapTable = null;
+			if (configuration.isDatabaseOutput()) {
+				sourceToConceptMapTable = SourceToConceptMapTable.open(database, configuration.getDatabaseOutputTable(), configuration.getVocabularyId());
+			}
+			
+			for (SourceDrug sourceDrug : source.getSourceDrugs()) {
+				Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappings = sourceDrugMappingResults.getMappingResults(sourceDrug);
+				int mappingType = getSavedMappingType(getMappingStatus(sourceDrug), sourceDrugMappings);
+				String sourceDrugCode = sourceDrug.getCode();
+				String sourceDrugName = sourceDrug.getName();
+				
+				if (mappingType != -1) {
+					List< Map<Integer, List<CDMConcept>>> mappingResultList = sourceDrugMappings.get(mappingType);
+					
+					if ((mappingType == INGREDIENT_MAPPING) || (mappingType == SPLITTED_MAPPING)) {
+						List<SourceDrugComponent> sourceDrugComponents = sourceDrug.getComponents();
+						List<SourceDrugComponent> sortedSourceDrugComponents = getSortedSourceDrugComponents(sourceDrug);
+						for (int ingredientNr = 0; ingredientNr < mappingResultList.size(); ingredientNr++) {
+							Map<Integer, List<CDMConcept>> mappingResult = mappingResultList.get(sourceDrugComponents.indexOf(sortedSourceDrugComponents.get(ingredientNr)));
+							CDMConcept target = null;
+							if (mappingResult.get(MAPPED) != null) {
+								target = mappingResult.get(MAPPED).get(0);
+							}
+							else if (mappingResult.get(INCOMPLETE) != null) {
+								target = mappingResult.get(INCOMPLETE).get(0);
+							}
+							writeSourceToConceptMapRecord(sourceToConceptMapFile, sourceToConceptMapTable, "Drug ", sourceDrugCode, sourceDrugName, target);
+						}
+					}
+					else {
+						CDMConcept target = mappingResultList.get(0).get(MAPPED) == null ? null : mappingResultList.get(0).get(MAPPED).get(0);
+						writeSourceToConceptMapRecord(sourceToConceptMapFile, sourceToConceptMapTable, "Drug ", sourceDrugCode, sourceDrugName, target);
+					}
+				}
+				else {
+					writeSourceToConceptMapRecord(sourceToConceptMapFile, sourceToConceptMapTable, "Drug ", sourceDrugCode, sourceDrugName, null);
+				}
+			}
+			
+			List<SourceIngredient> sourceIngredientList = new ArrayList<SourceIngredient>();
+			sourceIngredientList.addAll(Source.getAllIngredients());
+			Collections.sort(sourceIngredientList);
+			for (SourceIngredient sourceIngredient : sourceIngredientList) {
+				writeSourceToConceptMapRecord(sourceToConceptMapFile, sourceToConceptMapTable, "Ingredient ", sourceIngredient.getIngredientCode(), sourceIngredient.getIngredientName(), sourceIngredient.getMatchingIngredient());
+			}
+			
+			DrugMappingFileUtilities.closeOutputFile(sourceToConceptMapFile);
+			if (sourceToConceptMapTable != null) {
+				sourceToConceptMapTable.close();
+			}
+			
+			// The source to concept map is complete and can be used while the other files are still being written
+			System.out.println(DrugMappingDateUtilities.getCurrentTime() + "       Source To Concept Map ready: " + DrugMappingFileUtilities.getOutputFileName("SourceToConceptMap.csv", configuration.isCompressOutputFiles()));
+		}
+	}
+	
+	
+	private int getSavedMappingType(String mappingStatus, Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappings) {
+		int mappingType = -1;
+		if (sourceDrugMappings != null) {
+			int mapping = 0;
+			while (mappingTypeDescriptions.get(mapping) != null) {
+				if ((mapping == SPLITTED_MAPPING) && (mappingStatus.equals("Mapped") || mappingStatus.equals("Incomplete"))) {
+					mappingType = SPLITTED_MAPPING;
+					break;
+				}
+				else {
+					if ((sourceDrugMappings.get(mapping) != null) && (sourceDrugMappings.get(mapping).get(0).get(MAPPED) != null)) {
+						mappingType = mapping;
+						break;
+					}
+				}
+				mapping++;
+			}
+		}
+		return mappingType;
+	}
+	
+	
+	private static List<SourceDrugComponent> getSortedSourceDrugComponents(SourceDrug sourceDrug) {
+		List<SourceDrugComponent> sortedSourceDrugComponents = new ArrayList<SourceDrugComponent>();
+		sortedSourceDrugComponents.addAll(sourceDrug.getComponents());
+		Collections.sort(sortedSourceDrugComponents, new Comparator<SourceDrugComponent>() {
+
+			@Override
+			public int compare(SourceDrugComponent sourceDrugComponent1, SourceDrugComponent sourceDrugComponent2) {
+				int compare = sourceDrugComponent1.getIngredient().getIngredientCode().compareTo(sourceDrugComponent2.getIngredient().getIngredientCode());
+				if (compare == 0) {
+					Double amount1 = sourceDrugComponent1.getDosage();
+					Double amount2 = sourceDrugComponent2.getDosage();
+					compare = (amount1 == null ? (amount2 == null ? 0 : -1) : (amount2 == null ? 1 : amount1.compareTo(amount2)));
+				}
+				return compare;
+			}
+			
+		});
+		return sortedSourceDrugComponents;
+	}
+	
+	
+	private void writeSourceToConceptMapRecord(DelimitedOutputWriter sourceToConceptMapFile, SourceToConceptMapTable sourceToConceptMapTable, String sourceCodePrefix, String sourceCode, String sourceName, CDMConcept target) {
+		sourceToConceptMapFile.writeRawField(sourceCodePrefix);
+		sourceToConceptMapFile.writeEscaped(sourceCode);
+		sourceToConceptMapFile.writeField("0");
+		sourceToConceptMapFile.writeField(configuration.getVocabularyId());
+		sourceToConceptMapFile.writeField(sourceName);
+		// The same values as in the table, so that the file can be loaded in the CDM as well
+		String targetConceptId = (target == null) ? "0" : target.getConceptId();
+		String targetVocabularyId = (target == null) ? SourceToConceptMapTable.NO_VOCABULARY_ID : target.getVocabularyId();
+		sourceToConceptMapFile.writeField(targetConceptId);
+		sourceToConceptMapFile.writeField(targetVocabularyId);
+		sourceToConceptMapFile.writeField(DrugMappingDateUtilities.getCurrentDate());
+		sourceToConceptMapFile.writeField(SourceToConceptMapTable.VALID_END_DATE);
+		sourceToConceptMapFile.writeField("");
+		sourceToConceptMapFile.endRecord();
+		
+		if (sourceToConceptMapTable != null) {
+			sourceToConceptMapTable.add(
+					sourceCodePrefix + (sourceCode == null ? "" : sourceCode),
+					"0",
+					configuration.getVocabularyId(),
+					sourceName,
+					targetConceptId,
+					targetVocabularyId,
+					DrugMappingDateUtilities.getCurrentDate(),
+					SourceToConceptMapTable.VALID_END_DATE,
+					""
+			);
+		}
+	}
+	
+	
 	private String getMappingStatus(SourceDrug sourceDrug) {
 		String mappingStatus = "Unmapped";
 		if (manualDrugMappings.containsKey(sourceDrug)) {
 			mappingStatus = "ManualMapping";
 		}
 		else if (mappedSourceDrugs.contains(sourceDrug)) {
-			Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappings = sourceDrugMappingResults.get(sourceDrug);
 			int mapping = 0;
 			while (mappingTypeDescriptions.get(mapping) != null) {
-				if ((sourceDrugMappings.get(mapping) != null) && (sourceDrugMappings.get(mapping).get(0).get(MAPPED) != null)) {
+				if (sourceDrugMappingResults.hasResult(sourceDrug, mapping, 0, MAPPED)) {
 					mappingStatus = mappingTypeDescriptions.get(mapping);
 					break;
 				}
@@ -2353,27 +2881,13 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	public void saveDrugMappingMappingLog(Source source, Map<SourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>>> sourceDrugMappingLog, Map<String, Double> strengthDeviationPercentageMap, CDM cdmData) {
+	public void saveDrugMappingMappingLog(Source source, MappingResultLog sourceDrugMappingLog, Map<String, Double> strengthDeviationPercentageMap, CDM cdmData) {
 		isSavingDrugMappingLog = true;
 		
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "       Saving Drug Mapping Mapping Log ...");
 		
 		// Count the maximum number of concepts in the results
-		int maxResultConcepts = 0;
-		for (SourceDrug sourceDrug : sourceDrugMappingLog.keySet()) {
-			Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugLog = sourceDrugMappingLog.get(sourceDrug); 
-			for (Integer mappingType : sourceDrugLog.keySet()) {
-				List<Map<Integer, List<CDMConcept>>> mappingTypeLog = sourceDrugLog.get(mappingType);
-				for (Map<Integer, List<CDMConcept>> componentLog : mappingTypeLog) {
-					for (Integer mappingResult : componentLog.keySet()) {
-						List<CDMConcept> result = componentLog.get(mappingResult);
-						if (result != null) {
-							maxResultConcepts = Math.max(maxResultConcepts, result.size());
-						}
-					}
-				}
-			}
-		}
+		int maxResultConcepts = sourceDrugMappingLog.getMaximumResultSize();
 
 		// Add the concept column headers
 		String[] columns = getHeader(maxResultConcepts);
@@ -2381,12 +2895,13 @@ public class GenericMapping extends Mapping {
 		for (String column : columns) {
 			header += (header.equals("") ? "" : ",") + column;
 		}
-		PrintWriter drugMappingResultsFile = DrugMappingFileUtilities.openOutputFile("DrugMapping Mapping Log.csv", header);
+		DelimitedOutputWriter drugMappingResultsFile = DrugMappingFileUtilities.openOutputFile("DrugMapping Mapping Log.csv", header, configuration.isCompressOutputFiles());
 		
 		if (drugMappingResultsFile != null) {
 
-			// Sort source drugs on use count descending
-			Collections.sort(source.getSourceDrugs(), new Comparator<SourceDrug>() {
+			// Sort source drugs on use count descending, on a copy as the other output files may be written concurrently
+			List<SourceDrug> sortedSourceDrugs = new ArrayList<SourceDrug>(source.getSourceDrugs());
+			Collections.sort(sortedSourceDrugs, new Comparator<SourceDrug>() {
 				@Override
 				public int compare(SourceDrug sourceDrug1, SourceDrug sourceDrug2) {
 					int countCompare = Long.compare(sourceDrug1.getCount() == null ? -1L : sourceDrug1.getCount(), sourceDrug2.getCount() == null ? -1L : sourceDrug2.getCount()); 
@@ -2396,32 +2911,27 @@ public class GenericMapping extends Mapping {
 				}
 			});
 			
-			for (SourceDrug sourceDrug : source.getSourceDrugs()) {
+			for (SourceDrug sourceDrug : sortedSourceDrugs) {
 				String mappingStatus = null;
-				Map<Integer, List<Map<Integer, List<CDMConcept>>>> drugMappingLog = sourceDrugMappingLog.get(sourceDrug);
-				if (drugMappingLog != null) { 
-					List<Integer> sortedMappingTypes = new ArrayList<Integer>();
-					sortedMappingTypes.addAll(drugMappingLog.keySet());
-					for (Integer mappingType : sortedMappingTypes) {
-						List<Map<Integer, List<CDMConcept>>> sourceDrugMappingTypeLog = drugMappingLog.get(mappingType);
-						if (sourceDrugMappingTypeLog != null) {
-							for (Map<Integer, List<CDMConcept>> sourceDrugComponentMappingLog : sourceDrugMappingTypeLog) {
-								if (sourceDrugComponentMappingLog.keySet().contains(GenericMapping.getMappingResultValue("Overruled mapping"))) {
-									mappingStatus = "Overruled Mapping";
-									break;
-								}
-								else if (sourceDrugComponentMappingLog.keySet().contains(GenericMapping.getMappingResultValue("Incomplete mapping"))) {
-									mappingStatus = "Incomplete Mapping";
-									break;
-								}
-								else if (sourceDrugComponentMappingLog.keySet().contains(GenericMapping.getMappingResultValue("Manual mapping"))) {
-									mappingStatus = getMappingStatus(sourceDrug);
-									break;
-								}
-								else if (sourceDrugComponentMappingLog.keySet().contains(GenericMapping.getMappingResultValue("Mapped"))) {
-									mappingStatus = getMappingStatus(sourceDrug);
-									break;
-								}
+				if (sourceDrugMappingLog.contains(sourceDrug)) { 
+					for (Integer mappingType : sourceDrugMappingLog.getMappingTypes(sourceDrug)) {
+						int componentCount = sourceDrugMappingLog.getComponentCount(sourceDrug, mappingType);
+						for (int componentNr = 0; componentNr < componentCount; componentNr++) {
+							if (sourceDrugMappingLog.hasResult(sourceDrug, mappingType, componentNr, OVERRULED_MAPPING)) {
+								mappingStatus = "Overruled Mapping";
+								break;
+							}
+							else if (sourceDrugMappingLog.hasResult(sourceDrug, mappingType, componentNr, INCOMPLETE)) {
+								mappingStatus = "Incomplete Mapping";
+								break;
+							}
+							else if (sourceDrugMappingLog.hasResult(sourceDrug, mappingType, componentNr, MANUAL_MAPPING)) {
+								mappingStatus = getMappingStatus(sourceDrug);
+								break;
+							}
+							else if (sourceDrugMappingLog.hasResult(sourceDrug, mappingType, componentNr, MAPPED)) {
+								mappingStatus = getMappingStatus(sourceDrug);
+								break;
 							}
 						}
 						if (mappingStatus != null) {
@@ -2435,11 +2945,11 @@ public class GenericMapping extends Mapping {
 				
 				List<List<String>> sourceDrugResultRecords = getSourceDrugMappingResults(sourceDrug, sourceDrugMappingLog, strengthDeviationPercentageMap, cdmData);
 				for (List<String> sourceDrugResultRecord : sourceDrugResultRecords) {
-					String resultRecord = mappingStatus; //manualDrugMappings.containsKey(sourceDrug) ? "ManualMapping" : (mappedSourceDrugs.contains(sourceDrug) ? "Mapped" : "Unmapped");
+					drugMappingResultsFile.writeRawField(mappingStatus); //manualDrugMappings.containsKey(sourceDrug) ? "ManualMapping" : (mappedSourceDrugs.contains(sourceDrug) ? "Mapped" : "Unmapped");
 					for (int column = 0; column < columns.length; column++) {
-						resultRecord += "," + (column < sourceDrugResultRecord.size() ? DrugMappingStringUtilities.escapeFieldValue(sourceDrugResultRecord.get(column)) : "");
+						drugMappingResultsFile.writeField(column < sourceDrugResultRecord.size() ? sourceDrugResultRecord.get(column) : "");
 					}
-					drugMappingResultsFile.println(resultRecord);
+					drugMappingResultsFile.endRecord();
 				}
 			}
 
@@ -2452,14 +2962,16 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	public static List<List<String>> getSourceDrugMappingResults(SourceDrug sourceDrug, Map<SourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>>> sourceDrugMappingLog, Map<String, Double> strengthDeviationPercentageMap, CDM cdmData) {
+	public static List<List<String>> getSourceDrugMappingResults(SourceDrug sourceDrug, MappingResultLog sourceDrugMappingLog, Map<String, Double> strengthDeviationPercentageMap, CDM cdmData) {
 		List<List<String>> resultRecords = new ArrayList<List<String>>();
 		
-		Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappings = sourceDrugMappingLog.get(sourceDrug);
+		Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappings = sourceDrugMappingLog.getMappingResults(sourceDrug);
 		
 		if (sourceDrugMappings == null) {
 			System.out.println("ERROR: " + sourceDrug);
 		}
+		String sourceDrugCode = sourceDrug.getCode();
+		String sourceDrugName = sourceDrug.getName();
 
 		Integer mappingType = 0;
 		while (mappingTypeDescriptions.containsKey(mappingType)) {
@@ -2467,22 +2979,7 @@ public class GenericMapping extends Mapping {
 			if ((mappingResultList != null) && (mappingResultList.size() > 0)) {
 				List<SourceDrugComponent> sourceDrugComponents = new ArrayList<SourceDrugComponent>();
 				sourceDrugComponents.addAll(sourceDrug.getComponents());
-				List<SourceDrugComponent> sortedSourceDrugComponents = new ArrayList<SourceDrugComponent>();
-				sortedSourceDrugComponents.addAll(sourceDrug.getComponents());
-				Collections.sort(sortedSourceDrugComponents, new Comparator<SourceDrugComponent>() {
-
-					@Override
-					public int compare(SourceDrugComponent sourceDrugComponent1, SourceDrugComponent sourceDrugComponent2) {
-						int compare = sourceDrugComponent1.getIngredient().getIngredientCode().compareTo(sourceDrugComponent2.getIngredient().getIngredientCode());
-						if (compare == 0) {
-							Double amount1 = sourceDrugComponent1.getDosage();
-							Double amount2 = sourceDrugComponent2.getDosage();
-							compare = (amount1 == null ? (amount2 == null ? 0 : -1) : (amount2 == null ? 1 : amount1.compareTo(amount2)));
-						}
-						return compare;
-					}
-					
-				});
+				List<SourceDrugComponent> sortedSourceDrugComponents = getSortedSourceDrugComponents(sourceDrug);
 
 				for (int ingredientNr = 0; ingredientNr < mappingResultList.size(); ingredientNr++) {
 					Map<Integer, List<CDMConcept>> mappingResult = mappingResultList.get(ingredientNr); 
@@ -2505,15 +3002,15 @@ public class GenericMapping extends Mapping {
 						while (mappingResultDescriptions.containsKey(mappingResultType)) {
 							String strengthDeviationPercentage = "";
 							if ((mappingResultType == MAPPED) || (mappingResultType == INCOMPLETE)) {
-								String key = ((mappingType == INGREDIENT_MAPPING) || (mappingType == SPLITTED_MAPPING)) ? ("Ingredient " + sourceDrug.getCode() + "," + sourceDrug.getIngredients().get(ingredientNr).getIngredientCode()) : ("Drug " + sourceDrug.getCode());
+								String key = ((mappingType == INGREDIENT_MAPPING) || (mappingType == SPLITTED_MAPPING)) ? ("Ingredient " + sourceDrugCode + "," + sourceDrug.getIngredients().get(ingredientNr).getIngredientCode()) : ("Drug " + sourceDrugCode);
 								if (strengthDeviationPercentageMap.get(key) != null) {
 									strengthDeviationPercentage = strengthDeviationPercentageMap.get(key).toString();
 								}
 							}
 							List<String> resultRecord = new ArrayList<String>();
 							
-							resultRecord.add(sourceDrug.getCode() == null ? "" : sourceDrug.getCode());
-							resultRecord.add(sourceDrug.getName() == null ? "" : sourceDrug.getName());
+							resultRecord.add(sourceDrugCode == null ? "" : sourceDrugCode);
+							resultRecord.add(sourceDrugName == null ? "" : sourceDrugName);
 							resultRecord.add(sourceDrug.getATCCodesString());
 							resultRecord.add(sourceDrug.getFormulationsString());
 							resultRecord.add(sourceDrug.getCount() == null ? "" : Long.toString(sourceDrug.getCount()));
@@ -2697,51 +3194,37 @@ public class GenericMapping extends Mapping {
 			Long sourceDrugCount = (sourceDrug.getCount() < 0 ? 0 : sourceDrug.getCount());
 			dataCountTotal += sourceDrugCount;
 		
-			if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_MAPPING) != null) {
-				if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_MAPPING).get(0).get(MAPPED) != null) {
-					mappingCounters.put(CLINICAL_DRUG_COUNTER, mappingCounters.get(CLINICAL_DRUG_COUNTER) + 1);
-					dataCoverageCounters.put(CLINICAL_DRUG_COUNTER, dataCoverageCounters.get(CLINICAL_DRUG_COUNTER) + sourceDrugCount);
-				}
+			if (sourceDrugMappingResults.hasResult(sourceDrug, CLINICAL_DRUG_MAPPING, 0, MAPPED)) {
+				mappingCounters.put(CLINICAL_DRUG_COUNTER, mappingCounters.get(CLINICAL_DRUG_COUNTER) + 1);
+				dataCoverageCounters.put(CLINICAL_DRUG_COUNTER, dataCoverageCounters.get(CLINICAL_DRUG_COUNTER) + sourceDrugCount);
 			}
-			if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_COMP_MAPPING) != null) {
-				if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_COMP_MAPPING).get(0).get(MAPPED) != null) {
-					mappingCounters.put(CLINICAL_DRUG_COMP_COUNTER, mappingCounters.get(CLINICAL_DRUG_COMP_COUNTER) + 1);
-					dataCoverageCounters.put(CLINICAL_DRUG_COMP_COUNTER, dataCoverageCounters.get(CLINICAL_DRUG_COMP_COUNTER) + sourceDrugCount);
-				}
+			if (sourceDrugMappingResults.hasResult(sourceDrug, CLINICAL_DRUG_COMP_MAPPING, 0, MAPPED)) {
+				mappingCounters.put(CLINICAL_DRUG_COMP_COUNTER, mappingCounters.get(CLINICAL_DRUG_COMP_COUNTER) + 1);
+				dataCoverageCounters.put(CLINICAL_DRUG_COMP_COUNTER, dataCoverageCounters.get(CLINICAL_DRUG_COMP_COUNTER) + sourceDrugCount);
 			}
-			if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_FORM_MAPPING) != null) {
-				if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_FORM_MAPPING).get(0).get(MAPPED) != null) {
-					mappingCounters.put(CLINICAL_DRUG_FORM_COUNTER, mappingCounters.get(CLINICAL_DRUG_FORM_COUNTER) + 1);
-					dataCoverageCounters.put(CLINICAL_DRUG_FORM_COUNTER, dataCoverageCounters.get(CLINICAL_DRUG_FORM_COUNTER) + sourceDrugCount);
-				}
+			if (sourceDrugMappingResults.hasResult(sourceDrug, CLINICAL_DRUG_FORM_MAPPING, 0, MAPPED)) {
+				mappingCounters.put(CLINICAL_DRUG_FORM_COUNTER, mappingCounters.get(CLINICAL_DRUG_FORM_COUNTER) + 1);
+				dataCoverageCounters.put(CLINICAL_DRUG_FORM_COUNTER, dataCoverageCounters.get(CLINICAL_DRUG_FORM_COUNTER) + sourceDrugCount);
 			}
-			if (sourceDrugMappingResults.get(sourceDrug).get(INGREDIENT_MAPPING) != null) {
-				List<Map<Integer, List<CDMConcept>>> mappingResultsList = sourceDrugMappingResults.get(sourceDrug).get(INGREDIENT_MAPPING);
-				if (mappingResultsList != null) {
-					for (Map<Integer, List<CDMConcept>> mappingResult : mappingResultsList) {
-						if (mappingResult.get(MAPPED) != null) {
-							mappingCounters.put(INGREDIENT_COUNTER, mappingCounters.get(INGREDIENT_COUNTER) + 1);
-							dataCoverageCounters.put(INGREDIENT_COUNTER, dataCoverageCounters.get(INGREDIENT_COUNTER) + sourceDrugCount);
-							break;
-						}
-					}
+			int ingredientComponentCount = sourceDrugMappingResults.getComponentCount(sourceDrug, INGREDIENT_MAPPING);
+			for (int componentNr = 0; componentNr < ingredientComponentCount; componentNr++) {
+				if (sourceDrugMappingResults.hasResult(sourceDrug, INGREDIENT_MAPPING, componentNr, MAPPED)) {
+					mappingCounters.put(INGREDIENT_COUNTER, mappingCounters.get(INGREDIENT_COUNTER) + 1);
+					dataCoverageCounters.put(INGREDIENT_COUNTER, dataCoverageCounters.get(INGREDIENT_COUNTER) + sourceDrugCount);
+					break;
 				}
 			}
-			if (sourceDrugMappingResults.get(sourceDrug).get(SPLITTED_MAPPING) != null) {
-				List<Map<Integer, List<CDMConcept>>> mappingResultsList = sourceDrugMappingResults.get(sourceDrug).get(SPLITTED_MAPPING);
-				if (mappingResultsList != null) {
-					for (Map<Integer, List<CDMConcept>> mappingResult : mappingResultsList) {
-						if (mappingResult.get(MAPPED) != null) {
-							mappingCounters.put(SPLITTED_COUNTER, mappingCounters.get(SPLITTED_COUNTER) + 1);
-							dataCoverageCounters.put(SPLITTED_COUNTER, dataCoverageCounters.get(SPLITTED_COUNTER) + sourceDrugCount);
-							break;
-						}
-						else if (mappingResult.get(INCOMPLETE) != null) {
-							mappingCounters.put(SPLITTED_INCOMPLETE_COUNTER, mappingCounters.get(SPLITTED_INCOMPLETE_COUNTER) + 1);
-							dataCoverageCounters.put(SPLITTED_INCOMPLETE_COUNTER, dataCoverageCounters.get(SPLITTED_INCOMPLETE_COUNTER) + sourceDrugCount);
-							break;
-						}
-					}
+			int splittedComponentCount = sourceDrugMappingResults.getComponentCount(sourceDrug, SPLITTED_MAPPING);
+			for (int componentNr = 0; componentNr < splittedComponentCount; componentNr++) {
+				if (sourceDrugMappingResults.hasResult(sourceDrug, SPLITTED_MAPPING, componentNr, MAPPED)) {
+					mappingCounters.put(SPLITTED_COUNTER, mappingCounters.get(SPLITTED_COUNTER) + 1);
+					dataCoverageCounters.put(SPLITTED_COUNTER, dataCoverageCounters.get(SPLITTED_COUNTER) + sourceDrugCount);
+					break;
+				}
+				else if (sourceDrugMappingResults.hasResult(sourceDrug, SPLITTED_MAPPING, componentNr, INCOMPLETE)) {
+					mappingCounters.put(SPLITTED_INCOMPLETE_COUNTER, mappingCounters.get(SPLITTED_INCOMPLETE_COUNTER) + 1);
+					dataCoverageCounters.put(SPLITTED_INCOMPLETE_COUNTER, dataCoverageCounters.get(SPLITTED_INCOMPLETE_COUNTER) + sourceDrugCount);
+					break;
 				}
 			}
 		}
@@ -2788,51 +3271,37 @@ public class GenericMapping extends Mapping {
 			Long sourceDrugCount = (sourceDrug.getCount() < 0 ? 0 : sourceDrug.getCount());
 			dataCountTotal += sourceDrugCount;
 						
-			if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_MAPPING) != null) {
-				if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_MAPPING).get(0).get(MAPPED) != null) {
-					mappingClinicalDrugs++;
-					dataCoverageClinicalDrugs += sourceDrugCount;
-				}
-			}
-			if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_COMP_MAPPING) != null) {
-				if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_COMP_MAPPING).get(0).get(MAPPED) != null) {
-					mappingClinicalDrugComps++;
-					dataCoverageClinicalDrugComps += sourceDrugCount;
-				}
-			}
-			if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_FORM_MAPPING) != null) {
-				if (sourceDrugMappingResults.get(sourceDrug).get(CLINICAL_DRUG_FORM_MAPPING).get(0).get(MAPPED) != null) {
-					mappingClinicalDrugForms++;
-					dataCoverageClinicalDrugForms += sourceDrugCount;
+			if (sourceDrugMappingResults.hasResult(sourceDrug, CLINICAL_DRUG_MAPPING, 0, MAPPED)) {
+				mappingClinicalDrugs++;
+				dataCoverageClinicalDrugs += sourceDrugCount;
+			}
+			if (sourceDrugMappingResults.hasResult(sourceDrug, CLINICAL_DRUG_COMP_MAPPING, 0, MAPPED)) {
+				mappingClinicalDrugComps++;
+				dataCoverageClinicalDrugComps += sourceDrugCount;
+			}
+			if (sourceDrugMappingResults.hasResult(sourceDrug, CLINICAL_DRUG_FORM_MAPPING, 0, MAPPED)) {
+				mappingClinicalDrugForms++;
+				dataCoverageClinicalDrugForms += sourceDrugCount;
+			}
+			int ingredientComponentCount = sourceDrugMappingResults.getComponentCount(sourceDrug, INGREDIENT_MAPPING);
+			for (int componentNr = 0; componentNr < ingredientComponentCount; componentNr++) {
+				if (sourceDrugMappingResults.hasResult(sourceDrug, INGREDIENT_MAPPING, componentNr, MAPPED)) {
+					mappingClinicalDrugToIngredient++;
+					dataCoverageClinicalDrugToIngredient += sourceDrugCount;
+					break;
 				}
 			}
-			if (sourceDrugMappingResults.get(sourceDrug).get(INGREDIENT_MAPPING) != null) {
-				List<Map<Integer, List<CDMConcept>>> mappingResultsList = sourceDrugMappingResults.get(sourceDrug).get(INGREDIENT_MAPPING);
-				if (mappingResultsList != null) {
-					for (Map<Integer, List<CDMConcept>> mappingResult : mappingResultsList) {
-						if (mappingResult.get(MAPPED) != null) {
-							mappingClinicalDrugToIngredient++;
-							dataCoverageClinicalDrugToIngredient += sourceDrugCount;
-							break;
-						}
-					}
+			int splittedComponentCount = sourceDrugMappingResults.getComponentCount(sourceDrug, SPLITTED_MAPPING);
+			for (int componentNr = 0; componentNr < splittedComponentCount; componentNr++) {
+				if (sourceDrugMappingResults.hasResult(sourceDrug, SPLITTED_MAPPING, componentNr, MAPPED)) {
+					mappingClinicalDrugSplitted++;
+					dataCoverageClinicalDrugSplitted += sourceDrugCount;
+					break;
 				}
-			}
-			if (sourceDrugMappingResults.get(sourceDrug).get(SPLITTED_MAPPING) != null) {
-				List<Map<Integer, List<CDMConcept>>> mappingResultsList = sourceDrugMappingResults.get(sourceDrug).get(SPLITTED_MAPPING);
-				if (mappingResultsList != null) {
-					for (Map<Integer, List<CDMConcept>> mappingResult : mappingResultsList) {
-						if (mappingResult.get(MAPPED) != null) {
-							mappingClinicalDrugSplitted++;
-							dataCoverageClinicalDrugSplitted += sourceDrugCount;
-							break;
-						}
-						else if (mappingResult.get(INCOMPLETE) != null) {
-							mappingClinicalDrugSplittedIncomplete++;
-							dataCoverageClinicalDrugSplittedIncomplete += sourceDrugCount;
-							break;
-						}
-					}
+				else if (sourceDrugMappingResults.hasResult(sourceDrug, SPLITTED_MAPPING, componentNr, INCOMPLETE)) {
+					mappingClinicalDrugSplittedIncomplete++;
+					dataCoverageClinicalDrugSplittedIncomplete += sourceDrugCount;
+					break;
 				}
 			}
 		}
@@ -2874,7 +3343,7 @@ public class GenericMapping extends Mapping {
 	
 	
 	private void writeWarnings() {
-		if (DrugMapping.settings.getStringSetting(MainFrame.SUPPRESS_WARNINGS).equals("No")) {
+		if (!configuration.isSuppressWarnings()) {
 			int warningType = 0;
 			while (warningTypeDescriptions.containsKey(warningType)) {
 				List<String> warningTypeWarnings = warnings.get(warningType);
@@ -2892,27 +3361,29 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private List<CDMDrug> selectCDMDrugsWithMatchingStrength(SourceDrug sourceDrug, List<CDMDrug> cdmDrugs, int mapping) {
+	private List<CDMDrug> selectCDMDrugsWithMatchingStrength(SourceDrug sourceDrug, List<CDMDrug> cdmDrugs, int mapping, SelectionDetails selectionDetails) {
 		// Find CDM Clinical Drugs with corresponding ingredient strengths within margin
+		int examined = cdmDrugs.size();
 		if (cdmDrugs.size() > 0) {
 			Set<CDMConcept> rejectedByStrength = new HashSet<CDMConcept>();
+			StrengthMatching.SourceStrengths sourceStrengths = getSourceStrengths(sourceDrug);
 			
-			usedStrengthDeviationPercentage = null;
+			Double minimumDeviationPercentage = null;
 			List<CDMDrug> minimumDeviationDrugs = new ArrayList<CDMDrug>();
 			for (CDMDrug cdmDrug : cdmDrugs) {
 				if (sourceDrug.getComponents().size() == cdmDrug.getIngredientStrengths().size()) {
-					Double deviationPercentage = matchingStrength(sourceDrug, cdmDrug);
-					if (deviationPercentage != null) {
-						if (usedStrengthDeviationPercentage == null) {
-							usedStrengthDeviationPercentage = deviationPercentage;
+					double deviationPercentage = StrengthMatching.matchingStrength(sourceStrengths, cdmDrug, configuration.getMaximumStrengthDeviation());
+					if (deviationPercentage != StrengthMatching.NO_MATCH) {
+						if (minimumDeviationPercentage == null) {
+							minimumDeviationPercentage = deviationPercentage;
 							minimumDeviationDrugs.add(cdmDrug);
 						}
-						else if (deviationPercentage < usedStrengthDeviationPercentage - DEVIATION_MARGIN) {
-							usedStrengthDeviationPercentage = deviationPercentage;
+						else if (deviationPercentage < minimumDeviationPercentage - DEVIATION_MARGIN) {
+							minimumDeviationPercentage = deviationPercentage;
 							rejectedByStrength.addAll(minimumDeviationDrugs);
 							minimumDeviationDrugs.add(cdmDrug);
 						}
-						else if ((deviationPercentage >= usedStrengthDeviationPercentage - DEVIATION_MARGIN) && (deviationPercentage <= usedStrengthDeviationPercentage + DEVIATION_MARGIN)) {
+						else if ((deviationPercentage >= minimumDeviationPercentage - DEVIATION_MARGIN) && (deviationPercentage <= minimumDeviationPercentage + DEVIATION_MARGIN)) {
 							minimumDeviationDrugs.add(cdmDrug);
 						}
 						else {
@@ -2927,73 +3398,28 @@ public class GenericMapping extends Mapping {
 					rejectedByStrength.add(cdmDrug);
 				}
 			}
+			selectionDetails.strengthDeviationPercentage = minimumDeviationPercentage;
 			cdmDrugs.removeAll(rejectedByStrength);
 			logMappingResult(sourceDrug, mapping, cdmDrugs, DRUGS_WITH_SMALLEST_STRENGTH_WITHIN_MARGIN);
 
 			if (cdmDrugs.size() > 1) {
 				// Select drugs on lowest average strength deviation
-				cdmDrugs = getLowestAverageStrengthDeviation(sourceDrug, cdmDrugs, mapping);
+				cdmDrugs = getLowestAverageStrengthDeviation(sourceDrug, sourceStrengths, cdmDrugs, mapping);
 			}
 		}
+		filterCounters[mapping][MATCHING_STRENGTH_FILTER].count(examined, cdmDrugs.size());
 		
 		return cdmDrugs;
 	}
 	
 	
-	private Double matchingStrength(SourceDrug sourceDrug, CDMDrug cdmDrug) {
-		Double matchDeviationPercentage = null;
-		
-		List<SourceDrugComponent> sourceDrugComponents = sourceDrug.getComponents();
-		Map<String, List<CDMIngredientStrength>> cdmDrugComponentsMap = new HashMap<String, List<CDMIngredientStrength>>();
-		for (String conceptId : cdmDrug.getIngredientsMap().keySet()) {
-			List<CDMIngredientStrength> strengthList = new ArrayList<CDMIngredientStrength>();
-			cdmDrugComponentsMap.put(conceptId, strengthList);
-			strengthList.addAll(cdmDrug.getIngredientsMap().get(conceptId));
-		}
-		
-		for (SourceDrugComponent sourceDrugComponent : sourceDrugComponents) {
-			List<CDMIngredientStrength> matchingCDMIngredients = cdmDrugComponentsMap.get(sourceDrugComponent.getIngredient().getMatchingIngredient().getConceptId());
-			Double bestMatchDeviationPercentage = null;
-			int bestMatchIngredientNr = -1;
-			for (int ingredientNr = 0; ingredientNr < matchingCDMIngredients.size(); ingredientNr++) {
-				CDMIngredientStrength matchingCDMIngredient = matchingCDMIngredients.get(ingredientNr);
-				Double ingredientDeviationPercentage = getStrengthDeviationPercentage(sourceDrugComponent, matchingCDMIngredient);
-				if (ingredientDeviationPercentage != null) {
-					if (ingredientDeviationPercentage.compareTo(DrugMapping.settings.getDoubleSetting(MainFrame.MAXIMUM_STRENGTH_DEVIATION)) <= 0) {
-						if ((bestMatchDeviationPercentage == null) || (ingredientDeviationPercentage.compareTo(bestMatchDeviationPercentage + DEVIATION_MARGIN) < 0)) {
-							bestMatchDeviationPercentage = ingredientDeviationPercentage;
-							bestMatchIngredientNr = ingredientNr;
-						}
-					}
-					else {
-						break;
-					}
-				}
-				else {
-					break;
-				}
-			}
-			if (bestMatchIngredientNr != -1) {
-				matchingCDMIngredients.remove(bestMatchIngredientNr);
-				matchDeviationPercentage = Math.max(matchDeviationPercentage == null ? 0.0 : matchDeviationPercentage, bestMatchDeviationPercentage);
-			}
-			else {
-				matchDeviationPercentage = null;
-				break;
-			}
-		}
-		
-		return matchDeviationPercentage;
-	}
-	
-	
-	private List<CDMDrug> getLowestAverageStrengthDeviation(SourceDrug sourceDrug, List<CDMDrug> cdmDrugs, Integer mapping) {
+	private List<CDMDrug> getLowestAverageStrengthDeviation(SourceDrug sourceDrug, StrengthMatching.SourceStrengths sourceStrengths, List<CDMDrug> cdmDrugs, Integer mapping) {
 		List<CDMDrug> lowestAverageStrengthDeviationDrugs = new ArrayList<CDMDrug>();
 		Double lowestAverageStrengthDeviation = null;
 		
 		for (CDMDrug cdmDrug : cdmDrugs) {
-			Double averageDeviationPercentage = averageMatchingStrength(sourceDrug, cdmDrug);
-			if (averageDeviationPercentage != null) {
+			double averageDeviationPercentage = StrengthMatching.averageMatchingStrength(sourceStrengths, cdmDrug, configuration.getMaximumStrengthDeviation());
+			if (averageDeviationPercentage != StrengthMatching.NO_MATCH) {
 				if ((lowestAverageStrengthDeviation == null) || lowestAverageStrengthDeviation > (averageDeviationPercentage + DEVIATION_MARGIN)) {
 					lowestAverageStrengthDeviation = averageDeviationPercentage;
 					lowestAverageStrengthDeviationDrugs = new ArrayList<CDMDrug>();
@@ -3010,47 +3436,30 @@ public class GenericMapping extends Mapping {
 	}
 	
 	
-	private Double averageMatchingStrength(SourceDrug sourceDrug, CDMDrug cdmDrug) {
-		Double totalDeviationPercentage = null;
-		Double averageCount = 0.0;
-		
+	private StrengthMatching.SourceStrengths getSourceStrengths(SourceDrug sourceDrug) {
 		List<SourceDrugComponent> sourceDrugComponents = sourceDrug.getComponents();
-		Map<String, List<CDMIngredientStrength>> cdmDrugComponentsMap = new HashMap<String, List<CDMIngredientStrength>>();
-		for (String conceptId : cdmDrug.getIngredientsMap().keySet()) {
-			List<CDMIngredientStrength> strengthList = new ArrayList<CDMIngredientStrength>();
-			cdmDrugComponentsMap.put(conceptId, strengthList);
-			strengthList.addAll(cdmDrug.getIngredientsMap().get(conceptId));
+		long[] ingredientIds = new long[sourceDrugComponents.size()];
+		double[] dosages = new double[sourceDrugComponents.size()];
+		double[][] unitFactors = new double[sourceDrugComponents.size()][];
+		for (int componentNr = 0; componentNr < sourceDrugComponents.size(); componentNr++) {
+			SourceDrugComponent sourceDrugComponent = sourceDrugComponents.get(componentNr);
+			ingredientIds[componentNr] = sourceDrugComponent.getIngredient().getMatchingIngredient().getConceptIdValue();
+			dosages[componentNr] = sourceDrugComponent.getDosage() == null ? Double.NaN : sourceDrugComponent.getDosage();
+			unitFactors[componentNr] = getStrengthUnitConversionFactors(sourceDrugComponent.getDosageUnit());
 		}
-		
-		for (SourceDrugComponent sourceDrugComponent : sourceDrugComponents) {
-			List<CDMIngredientStrength> matchingCDMIngredients = cdmDrugComponentsMap.get(sourceDrugComponent.getIngredient().getMatchingIngredient().getConceptId());
-			Double bestMatchDeviationPercentage = null;
-			int bestMatchIngredientNr = -1;
-			for (int ingredientNr = 0; ingredientNr < matchingCDMIngredients.size(); ingredientNr++) {
-				CDMIngredientStrength matchingCDMIngredient = matchingCDMIngredients.get(ingredientNr);
-				Double ingredientDeviationPercentage = getStrengthDeviationPercentage(sourceDrugComponent, matchingCDMIngredient);
-				if (ingredientDeviationPercentage != null) {
-					if ((bestMatchDeviationPercentage == null) || (ingredientDeviationPercentage < bestMatchDeviationPercentage)) {
-						bestMatchDeviationPercentage = ingredientDeviationPercentage;
-						bestMatchIngredientNr = ingredientNr;
-					}
-				}
-				else {
-					break;
-				}
-			}
-			if (bestMatchIngredientNr != -1) {
-				matchingCDMIngredients.remove(bestMatchIngredientNr);
-				totalDeviationPercentage = (totalDeviationPercentage == null ? 0.0 : totalDeviationPercentage) + bestMatchDeviationPercentage;
-				averageCount++;
-			}
-			else {
-				totalDeviationPercentage = null;
-				break;
-			}
+		return new StrengthMatching.SourceStrengths(ingredientIds, dosages, unitFactors);
+	}
+	
+	
+	private double[] getStrengthUnitConversionFactors(String sourceUnit) {
+		// The source units are converted to all CDM strength units once
+		String key = sourceUnit == null ? "" : sourceUnit;
+		double[] factors = strengthUnitConversionFactors.get(key);
+		if (factors == null) {
+			factors = unitConversionsMap.getConversionFactors(key, cdm.getCDMStrengthUnits());
+			strengthUnitConversionFactors.put(key, factors);
 		}
-		
-		return totalDeviationPercentage == null ? null : totalDeviationPercentage / averageCount;
+		return factors;
 	}
 	
 	
@@ -3058,7 +3467,7 @@ public class GenericMapping extends Mapping {
 		Double matchDeviationPercentage = null;
 		
 		Double ingredientDeviationPercentage = getStrengthDeviationPercentage(sourceDrugComponent, cdmIngredientStrength);
-		if ((ingredientDeviationPercentage != null) && (ingredientDeviationPercentage.compareTo(DrugMapping.settings.getDoubleSetting(MainFrame.MAXIMUM_STRENGTH_DEVIATION)) <= 0)) {
+		if ((ingredientDeviationPercentage != null) && (ingredientDeviationPercentage.compareTo(configuration.getMaximumStrengthDeviation()) <= 0)) {
 			matchDeviationPercentage = ingredientDeviationPercentage;
 		}
 		
@@ -3068,6 +3477,7 @@ public class GenericMapping extends Mapping {
 	
 	private List<CDMDrug> selectCDMDrugsOnMatchingATC(SourceDrug sourceDrug, List<CDMDrug> cdmDrugs, int mapping) {
 		// Select drugs with matching ATC
+		int examined = cdmDrugs.size();
 		if (cdmDrugs.size() > 1) {
 			List<String> sourceATCCodes = sourceDrug.getATCCodes();
 			if ((sourceATCCodes != null) && (sourceATCCodes.size() > 0)) {
@@ -3090,6 +3500,7 @@ public class GenericMapping extends Mapping {
 				}
 			}
 		}
+		filterCounters[mapping][MATCHING_ATC_FILTER].count(examined, cdmDrugs.size());
 		return cdmDrugs;
 	}
 	
@@ -3116,6 +3527,7 @@ public class GenericMapping extends Mapping {
 		else {
 			cdmDrugsWithMatchingFormByPriority = cdmDrugs;
 		}
+		filterCounters[mapping][MATCHING_FORM_BY_PRIORITY_FILTER].count(cdmDrugs.size(), cdmDrugsWithMatchingFormByPriority.size());
 		
 		return cdmDrugsWithMatchingFormByPriority;
 	}
@@ -3172,19 +3584,19 @@ public class GenericMapping extends Mapping {
 		Double cdmStrength = cdmIngredientStrength.getDosage();
 		if ((sourceStrength != null) && (cdmStrength != null)) {
 			percentage = (Math.abs(cdmStrength - sourceStrength) / sourceStrength) * 100;
-			if (percentage.compareTo(DrugMapping.settings.getDoubleSetting(MainFrame.MAXIMUM_STRENGTH_DEVIATION) + DEVIATION_MARGIN) <= 0) {
-				percentage = Math.min(DrugMapping.settings.getDoubleSetting(MainFrame.MAXIMUM_STRENGTH_DEVIATION), percentage);
+			if (percentage.compareTo(configuration.getMaximumStrengthDeviation() + DEVIATION_MARGIN) <= 0) {
+				percentage = Math.min(configuration.getMaximumStrengthDeviation(), percentage);
 			}
 		}
 		return percentage;
 	}
 	
-
-	private List<CDMDrug> selectConcept(SourceDrug sourceDrug, List<CDMDrug> cdmDrugList, int mapping) {
-		return selectConcept(sourceDrug, cdmDrugList, mapping, 0);
+	
+	private List<CDMDrug> selectConcept(SourceDrug sourceDrug, List<CDMDrug> cdmDrugList, int mapping, SelectionDetails selectionDetails) {
+		return selectConcept(sourceDrug, cdmDrugList, mapping, 0, selectionDetails);
 	}
 	
-	private List<CDMDrug> selectConcept(SourceDrug sourceDrug, List<CDMDrug> cdmDrugList, int mapping, int componentNr) {
+	private List<CDMDrug> selectConcept(SourceDrug sourceDrug, List<CDMDrug> cdmDrugList, int mapping, int componentNr, SelectionDetails selectionDetails) {
 		List<CDMConcept> conceptList = new ArrayList<CDMConcept>();
 		conceptList.addAll(cdmDrugList);
 		Collections.sort(conceptList, new Comparator<CDMConcept>() {
@@ -3194,7 +3606,7 @@ public class GenericMapping extends Mapping {
 				return (concept1 == null ? "" : concept1.getConceptId()).compareTo(concept2 == null ? "" : concept2.getConceptId());
 			}
 		});
-		conceptList = selectConcept(sourceDrug, mapping, conceptList);
+		conceptList = selectConcept(sourceDrug, mapping, conceptList, selectionDetails);
 		cdmDrugList = new ArrayList<CDMDrug>();
 		for (CDMConcept concept : conceptList) {
 			cdmDrugList.add((CDMDrug) concept);
@@ -3204,20 +3616,20 @@ public class GenericMapping extends Mapping {
 	}
 	
 
-	private List<CDMConcept> selectConcept(SourceDrug sourceDrug, int mapping, List<CDMConcept> conceptList) {
-		return selectConcept(sourceDrug, mapping, conceptList, 0);
+	private List<CDMConcept> selectConcept(SourceDrug sourceDrug, int mapping, List<CDMConcept> conceptList, SelectionDetails selectionDetails) {
+		return selectConcept(sourceDrug, mapping, conceptList, 0, selectionDetails);
 	}
 	
 	
-	private List<CDMConcept> selectConcept(SourceDrug sourceDrug, int mapping, List<CDMConcept> conceptList, int componentNr) {
+	private List<CDMConcept> selectConcept(SourceDrug sourceDrug, int mapping, List<CDMConcept> conceptList, int componentNr, SelectionDetails selectionDetails) {
 		int resultType = -1;
 		List<CDMConcept> remove;
 
-		preferencesUsed = "";
+		selectionDetails.preferencesUsed = "";
 		
 		// Remove orphan ingredients when there are non-orphan ingredients
 		if (conceptList.size() > 1) {
-			if ((sourceDrug == null) && DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_NON_ORPHAN_INGREDIENTS).equals("Yes")) {
+			if ((sourceDrug == null) && configuration.isPreferNonOrphanIngredients()) {
 				Set<CDMIngredient> orphanIngredients = new HashSet<CDMIngredient>();
 				for (CDMConcept cdmConcept : conceptList) {
 					CDMIngredient cdmIngredient = (CDMIngredient) cdmConcept;
@@ -3232,7 +3644,7 @@ public class GenericMapping extends Mapping {
 		}
 		
 		if (conceptList.size() > 1) {
-			if ((sourceDrug != null) && DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_ATC).equals("Yes")) {
+			if ((sourceDrug != null) && configuration.isPreferMatchingATC()) {
 				resultType = REJECTED_BY_ATC_PREFERENCE;
 				remove = new ArrayList<CDMConcept>();
 				List<String> sourceATCCodes = sourceDrug.getATCCodes();
@@ -3255,18 +3667,16 @@ public class GenericMapping extends Mapping {
 						logMappingResult(sourceDrug, mapping, resultType, remove, componentNr);
 					}
 					conceptList.removeAll(remove);
-					preferencesUsed += (preferencesUsed.equals("") ? "Preferences: " : ",") + "ATC";
+					selectionDetails.addPreference("ATC");
 				}
 			}
 		}
 		if (conceptList.size() > 1) {
-			String vocabulary_id = null;
-			if (DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_RXNORM).equals("RxNorm")) {
-				vocabulary_id = "RxNorm";
+			String vocabulary_id = configuration.getPreferredRxNormVocabularyId();
+			if (configuration.getRxNormPreference() == MappingConfiguration.RXNORM_PREFERENCE_RXNORM) {
 				resultType = SELECTED_BY_RXNORM_PREFERENCE;
 			}
-			else if (DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_RXNORM).equals("RxNorm Extension")) {
-				vocabulary_id = "RxNorm Extension";
+			else if (configuration.getRxNormPreference() == MappingConfiguration.RXNORM_PREFERENCE_RXNORM_EXTENSION) {
 				resultType = SELECTED_BY_RXNORM_EXTENSION_PREFERENCE;
 			}
 			remove = new ArrayList<CDMConcept>();
@@ -3280,43 +3690,41 @@ public class GenericMapping extends Mapping {
 				if (sourceDrug != null) {
 					logMappingResult(sourceDrug, mapping, resultType, conceptList, componentNr);
 				}
-				preferencesUsed += (preferencesUsed.equals("") ? "Preferences: " : ",") + vocabulary_id;
+				selectionDetails.addPreference(vocabulary_id);
 			}
 		}
 		if (conceptList.size() > 1) {
-			if (!DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_PRIORITIZE_BY_DATE).equals("No")) {
-				boolean latest = DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_PRIORITIZE_BY_DATE).equals("Latest");
+			if (configuration.getDatePreference() != MappingConfiguration.DATE_PREFERENCE_NONE) {
+				boolean latest = (configuration.getDatePreference() == MappingConfiguration.DATE_PREFERENCE_LATEST);
 				resultType = latest ? SELECTED_BY_LATEST_DATE_PREFERENCE : SELECTED_BY_EARLIEST_DATE_PREFERENCE;
-				preferencesUsed += (preferencesUsed.equals("") ? "Preferences: " : ",") + (latest ? "Latest Date" : "Earliest Date");
+				selectionDetails.addPreference(latest ? "Latest Date" : "Earliest Date");
 				
 				remove = new ArrayList<CDMConcept>();
 				List<CDMConcept> lastConcepts = new ArrayList<CDMConcept>();
 				int lastDate = -1;
 				for (CDMConcept cdmConcept : conceptList) {
-					try {
-						Integer date = Integer.parseInt(cdmConcept.getValidStartDate().replaceAll("-",""));
-						if (lastDate == -1) {
+					int date = cdmConcept.getValidStartDateValue();
+					if (date == -1) {
+						remove.add(cdmConcept);
+					}
+					else if (lastDate == -1) {
+						lastConcepts.add(cdmConcept);
+						lastDate = date;
+					}
+					else {
+						if (latest ? (date > lastDate) : (date < lastDate)) {
+							remove.addAll(lastConcepts);
+							lastConcepts.clear();
 							lastConcepts.add(cdmConcept);
 							lastDate = date;
 						}
+						else if (date == lastDate) {
+							lastConcepts.add(cdmConcept);
+						}
 						else {
-							if (latest ? (date > lastDate) : (date < lastDate)) {
-								remove.addAll(lastConcepts);
-								lastConcepts.clear();
-								lastConcepts.add(cdmConcept);
-								lastDate = date;
-							}
-							else if (date == lastDate) {
-								lastConcepts.add(cdmConcept);
-							}
-							else {
-								remove.add(cdmConcept);
-							}
+							remove.add(cdmConcept);
 						}
 					}
-					catch (NumberFormatException e) {
-						remove.add(cdmConcept);
-					}
 				}
 				conceptList.removeAll(remove);
 				if (sourceDrug != null) {
@@ -3325,21 +3733,21 @@ public class GenericMapping extends Mapping {
 			}
 		}
 		if (conceptList.size() > 1) {
-			if (!DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_PRIORITIZE_BY_CONCEPT_ID).equals("No")) {
-				boolean smallest = DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_PRIORITIZE_BY_CONCEPT_ID).equals("Smallest (= oldest)");
+			if (configuration.getConceptIdPreference() != MappingConfiguration.CONCEPT_ID_PREFERENCE_NONE) {
+				boolean smallest = (configuration.getConceptIdPreference() == MappingConfiguration.CONCEPT_ID_PREFERENCE_SMALLEST);
 				resultType = smallest ? SELECTED_BY_SMALLEST_CONCEPTID_PREFERENCE : SELECTED_BY_GREATEST_CONCEPTID_PREFERENCE;
-				preferencesUsed += (preferencesUsed.equals("") ? "Preferences: " : ",") + (smallest ? "Smallest concept_id" : "Greatest concept_id");
+				selectionDetails.addPreference(smallest ? "Smallest concept_id" : "Greatest concept_id");
 				
 				remove = new ArrayList<CDMConcept>();
 				CDMConcept lastConcept = null;
-				int lastConceptId = Integer.MAX_VALUE; 
+				long lastConceptId = Long.MAX_VALUE; 
 				for (CDMConcept cdmConcept : conceptList) {
 					if (lastConcept == null) {
 						lastConcept = cdmConcept;
-						lastConceptId = Integer.parseInt(cdmConcept.getConceptId()); 
+						lastConceptId = cdmConcept.getConceptIdValue(); 
 					}
 					else {
-						int conceptId = Integer.parseInt(cdmConcept.getConceptId());
+						long conceptId = cdmConcept.getConceptIdValue();
 						if ((smallest && (conceptId < lastConceptId)) || ((!smallest) && (conceptId > lastConceptId))) {
 							lastConceptId = conceptId;
 							remove.add(lastConcept);
@@ -3357,10 +3765,10 @@ public class GenericMapping extends Mapping {
 			}
 		}
 		if (conceptList.size() > 1) {
-			if (!DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_TAKE_FIRST_OR_LAST).equals("None")) {
-				boolean first = DrugMapping.settings.getStringSetting(MainFrame.PREFERENCE_TAKE_FIRST_OR_LAST).equals("First");
+			if (configuration.getFirstOrLastPreference() != MappingConfiguration.FIRST_OR_LAST_PREFERENCE_NONE) {
+				boolean first = (configuration.getFirstOrLastPreference() == MappingConfiguration.FIRST_OR_LAST_PREFERENCE_FIRST);
 				resultType = first ? SELECTED_BY_FIRST_PREFERENCE : SELECTED_BY_LAST_PREFERENCE;
-				preferencesUsed += (preferencesUsed.equals("") ? "Preferences: " : ",") + (first ? "First" : "Last");
+				selectionDetails.addPreference(first ? "First" : "Last");
 				remove = new ArrayList<CDMConcept>();
 				if (first) {
 					for (int nr = 1; nr < conceptList.size(); nr++) {
@@ -3386,7 +3794,9 @@ public class GenericMapping extends Mapping {
 	private void showDrugsList() {
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Showing Mappings ...");
 
-		mainFrame.showDrugMappingLog(source, cdm, sourceDrugMappingResults, usedStrengthDeviationPercentageMap, DrugMapping.baseName, DrugMapping.settings.getStringSetting(MainFrame.SAVE_DRUGMAPPING_LOG).equals("Yes"));
+		if (mainFrame != null) {
+			mainFrame.showDrugMappingLog(source, cdm, sourceDrugMappingResults, usedStrengthDeviationPercentageMap, DrugMapping.baseName, configuration.isSaveDrugMappingLog());
+		}
 			
 		System.out.println(DrugMappingDateUtilities.getCurrentTime() + "     Done");
 	}
@@ -3456,36 +3866,13 @@ public class GenericMapping extends Mapping {
 	
 	
 	private void logMappingResult(SourceDrug sourceDrug, int mapping, int resultType, List<CDMConcept> conceptList, int componentNr) {
-
-		Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappingResult = sourceDrugMappingResults.get(sourceDrug);
-		if (sourceDrugMappingResult == null) {
-			sourceDrugMappingResult = new HashMap<Integer, List<Map<Integer, List<CDMConcept>>>>();
-			sourceDrugMappingResults.put(sourceDrug, sourceDrugMappingResult);
+		MappingResultLog.Buffer buffer = sourceDrugMappingResultsBuffer.get();
+		if (buffer != null) {
+			buffer.add(sourceDrug, mapping, componentNr, resultType, conceptList);
 		}
-		
-		List<Map<Integer, List<CDMConcept>>> mappingTypeResultsList = sourceDrugMappingResult.get(mapping);
-		if (mappingTypeResultsList == null) {
-			mappingTypeResultsList = new ArrayList<Map<Integer, List<CDMConcept>>>();
-			Map<Integer, List<CDMConcept>> mappingTypeResults = new HashMap<Integer, List<CDMConcept>>();
-			mappingTypeResultsList.add(mappingTypeResults);
-			sourceDrugMappingResult.put(mapping, mappingTypeResultsList);
-		}
-		
-		if (componentNr >= mappingTypeResultsList.size()) {
-			for (int nr = mappingTypeResultsList.size(); nr <= componentNr; nr++) {
-				if (nr >= mappingTypeResultsList.size()) {
-					mappingTypeResultsList.add(new HashMap<Integer, List<CDMConcept>>());
-				}
-			}
-		}
-		Map<Integer, List<CDMConcept>> resultMapping = mappingTypeResultsList.get(componentNr);
-		
-		List<CDMConcept> orgConceptList = resultMapping.get(resultType);
-		if (orgConceptList == null) {
-			orgConceptList = new ArrayList<CDMConcept>();
-			resultMapping.put(resultType, orgConceptList);
+		else {
+			sourceDrugMappingResults.add(sourceDrug, mapping, componentNr, resultType, conceptList);
 		}
-		orgConceptList.addAll(conceptList);
 	}
 	
 	
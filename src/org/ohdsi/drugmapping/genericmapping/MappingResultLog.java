@@ -0,0 +1,445 @@
+package org.ohdsi.drugmapping.genericmapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ohdsi.drugmapping.cdm.CDMConcept;
+import org.ohdsi.drugmapping.source.SourceDrug;
+
+/**
+ * The log of the mapping results of the source drugs.
+ *
+ * Every concept logged for a source drug is an event of
+ * (mapping type, component number, result type, concept) packed in int
+ * arrays. The events of a source drug are chained in the order they were
+ * logged, so the results of a source drug can be read without any
+ * collections per source drug, mapping type or component.
+ *
+ * Removed events stay in the arrays but are unlinked from the chain of
+ * their source drug.
+ *
+ * The log is written by one thread at a time and can be read by several
+ * threads when it is not written. The worker threads of a matching stage
+ * log into their own Buffer, so they do not wait for each other, and the
+ * buffers are merged into the log in source drug order after the stage.
+ */
+public class MappingResultLog {
+	private static final int NULL_CONCEPT = -1;
+	private static final int NO_CONCEPT   = -2;   // A result without concepts
+
+	private static final int MAXIMUM_MAPPING_TYPE = 0x7F;
+	private static final int MAXIMUM_RESULT_TYPE  = 0xFF;
+	private static final int MAXIMUM_COMPONENT_NR = 0xFFFF;
+
+	private Map<SourceDrug, Integer> sourceDrugIndexes = new HashMap<SourceDrug, Integer>();
+	private List<SourceDrug> sourceDrugs = new ArrayList<SourceDrug>();
+	private int[] firstEvents = new int[16];
+	private int[] lastEvents = new int[16];
+
+	private Map<CDMConcept, Integer> conceptIndexes = new IdentityHashMap<CDMConcept, Integer>();
+	private List<CDMConcept> concepts = new ArrayList<CDMConcept>();
+
+	private int[] eventKeys = new int[256];
+	private int[] eventConcepts = new int[256];
+	private int[] eventNext = new int[256];
+	private int eventCount = 0;
+
+
+	public MappingResultLog() {
+	}
+
+
+	public MappingResultLog(int expectedSourceDrugs) {
+		int capacity = Math.max(16, expectedSourceDrugs);
+		firstEvents = new int[capacity];
+		lastEvents = new int[capacity];
+		eventKeys = new int[capacity * 4];
+		eventConcepts = new int[capacity * 4];
+		eventNext = new int[capacity * 4];
+	}
+
+
+	/**
+	 * Adds the concepts as the result of the type for the component of the
+	 * source drug. An empty list of concepts is logged as a result without
+	 * concepts, a null concept is kept as null.
+	 */
+	public void add(SourceDrug sourceDrug, int mappingType, int componentNr, int resultType, List<CDMConcept> conceptList) {
+		add(sourceDrug, getKey(mappingType, componentNr, resultType), conceptList);
+	}
+
+
+	/**
+	 * Adds all results of a source drug in the nested form
+	 * mapping type -> component -> result type -> concepts.
+	 */
+	public void addMappingResults(SourceDrug sourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>> mappingResults) {
+		getSourceDrugIndex(sourceDrug, true);
+		for (Integer mappingType : mappingResults.keySet()) {
+			List<Map<Integer, List<CDMConcept>>> mappingTypeResults = mappingResults.get(mappingType);
+			for (int componentNr = 0; componentNr < mappingTypeResults.size(); componentNr++) {
+				Map<Integer, List<CDMConcept>> componentResults = mappingTypeResults.get(componentNr);
+				for (Integer resultType : componentResults.keySet()) {
+					add(sourceDrug, mappingType, componentNr, resultType, componentResults.get(resultType));
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Replaces all results of a source drug by the results in the nested
+	 * form mapping type -> component -> result type -> concepts.
+	 */
+	public void replaceMappingResults(SourceDrug sourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>> mappingResults) {
+		int sourceDrugIndex = getSourceDrugIndex(sourceDrug, true);
+		firstEvents[sourceDrugIndex] = -1;
+		lastEvents[sourceDrugIndex] = -1;
+		addMappingResults(sourceDrug, mappingResults);
+	}
+
+
+	public boolean contains(SourceDrug sourceDrug) {
+		return sourceDrugIndexes.containsKey(sourceDrug);
+	}
+
+
+	public boolean hasMappingType(SourceDrug sourceDrug, int mappingType) {
+		for (int event = getFirstEvent(sourceDrug); event != -1; event = eventNext[event]) {
+			if (getMappingType(eventKeys[event]) == mappingType) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Returns the mapping types with results of the source drug in
+	 * ascending order.
+	 */
+	public List<Integer> getMappingTypes(SourceDrug sourceDrug) {
+		List<Integer> mappingTypes = new ArrayList<Integer>();
+		for (int event = getFirstEvent(sourceDrug); event != -1; event = eventNext[event]) {
+			Integer mappingType = getMappingType(eventKeys[event]);
+			if (!mappingTypes.contains(mappingType)) {
+				mappingTypes.add(mappingType);
+			}
+		}
+		Collections.sort(mappingTypes);
+		return mappingTypes;
+	}
+
+
+	/**
+	 * Returns the number of components with results of the mapping type,
+	 * or 0 when the source drug has no results of the mapping type.
+	 */
+	public int getComponentCount(SourceDrug sourceDrug, int mappingType) {
+		int componentCount = 0;
+		for (int event = getFirstEvent(sourceDrug); event != -1; event = eventNext[event]) {
+			if (getMappingType(eventKeys[event]) == mappingType) {
+				componentCount = Math.max(componentCount, getComponentNr(eventKeys[event]) + 1);
+			}
+		}
+		return componentCount;
+	}
+
+
+	public boolean hasResult(SourceDrug sourceDrug, int mappingType, int componentNr, int resultType) {
+		int key = getKey(mappingType, componentNr, resultType);
+		for (int event = getFirstEvent(sourceDrug); event != -1; event = eventNext[event]) {
+			if (eventKeys[event] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Returns the concepts of the result, or null when there is no such
+	 * result.
+	 */
+	public List<CDMConcept> getResult(SourceDrug sourceDrug, int mappingType, int componentNr, int resultType) {
+		int key = getKey(mappingType, componentNr, resultType);
+		List<CDMConcept> result = null;
+		for (int event = getFirstEvent(sourceDrug); event != -1; event = eventNext[event]) {
+			if (eventKeys[event] == key) {
+				if (result == null) {
+					result = new ArrayList<CDMConcept>();
+				}
+				if (eventConcepts[event] != NO_CONCEPT) {
+					result.add(getConcept(eventConcepts[event]));
+				}
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Returns the results of the source drug in the nested form
+	 * mapping type -> component -> result type -> concepts, or null when
+	 * nothing is logged for the source drug. The returned collections are
+	 * a copy.
+	 */
+	public Map<Integer, List<Map<Integer, List<CDMConcept>>>> getMappingResults(SourceDrug sourceDrug) {
+		Integer sourceDrugIndex = sourceDrugIndexes.get(sourceDrug);
+		if (sourceDrugIndex == null) {
+			return null;
+		}
+		Map<Integer, List<Map<Integer, List<CDMConcept>>>> mappingResults = new HashMap<Integer, List<Map<Integer, List<CDMConcept>>>>();
+		for (int event = firstEvents[sourceDrugIndex]; event != -1; event = eventNext[event]) {
+			int key = eventKeys[event];
+			List<Map<Integer, List<CDMConcept>>> mappingTypeResults = mappingResults.get(getMappingType(key));
+			if (mappingTypeResults == null) {
+				mappingTypeResults = new ArrayList<Map<Integer, List<CDMConcept>>>();
+				mappingResults.put(getMappingType(key), mappingTypeResults);
+			}
+			while (mappingTypeResults.size() <= getComponentNr(key)) {
+				mappingTypeResults.add(new HashMap<Integer, List<CDMConcept>>());
+			}
+			Map<Integer, List<CDMConcept>> componentResults = mappingTypeResults.get(getComponentNr(key));
+			List<CDMConcept> result = componentResults.get(getResultType(key));
+			if (result == null) {
+				result = new ArrayList<CDMConcept>();
+				componentResults.put(getResultType(key), result);
+			}
+			if (eventConcepts[event] != NO_CONCEPT) {
+				result.add(getConcept(eventConcepts[event]));
+			}
+		}
+		return mappingResults;
+	}
+
+
+	/**
+	 * Returns the maximum number of concepts in one result.
+	 */
+	public int getMaximumResultSize() {
+		int maximumResultSize = 0;
+		Map<Integer, Integer> resultSizes = new HashMap<Integer, Integer>();
+		for (int sourceDrugIndex = 0; sourceDrugIndex < sourceDrugs.size(); sourceDrugIndex++) {
+			resultSizes.clear();
+			for (int event = firstEvents[sourceDrugIndex]; event != -1; event = eventNext[event]) {
+				Integer resultSize = resultSizes.get(eventKeys[event]);
+				resultSize = (resultSize == null ? 0 : resultSize) + (eventConcepts[event] == NO_CONCEPT ? 0 : 1);
+				resultSizes.put(eventKeys[event], resultSize);
+				maximumResultSize = Math.max(maximumResultSize, resultSize);
+			}
+		}
+		return maximumResultSize;
+	}
+
+
+	/**
+	 * Removes all results of the mapping type of the source drug.
+	 */
+	public void removeMappingType(SourceDrug sourceDrug, int mappingType) {
+		Integer sourceDrugIndex = sourceDrugIndexes.get(sourceDrug);
+		if (sourceDrugIndex != null) {
+			int previousEvent = -1;
+			for (int event = firstEvents[sourceDrugIndex]; event != -1; event = eventNext[event]) {
+				if (getMappingType(eventKeys[event]) == mappingType) {
+					if (previousEvent == -1) {
+						firstEvents[sourceDrugIndex] = eventNext[event];
+					}
+					else {
+						eventNext[previousEvent] = eventNext[event];
+					}
+				}
+				else {
+					previousEvent = event;
+				}
+			}
+			lastEvents[sourceDrugIndex] = previousEvent;
+		}
+	}
+
+
+	/**
+	 * Adds the results and removals of the buffers in the order of the
+	 * source drugs, so the log is the same as when the source drugs were
+	 * matched one by one. The buffers are empty afterwards.
+	 */
+	public void merge(List<SourceDrug> sourceDrugs, List<Buffer> buffers) {
+		for (SourceDrug sourceDrug : sourceDrugs) {
+			for (Buffer buffer : buffers) {
+				List<BufferedEvent> events = buffer.sourceDrugEvents.remove(sourceDrug);
+				if (events != null) {
+					for (BufferedEvent event : events) {
+						if (event.conceptList == null) {
+							removeMappingType(sourceDrug, event.key);
+						}
+						else {
+							add(sourceDrug, event.key, event.conceptList);
+						}
+					}
+					break;
+				}
+			}
+		}
+		for (Buffer buffer : buffers) {
+			buffer.lastSourceDrug = null;
+			buffer.lastSourceDrugEvents = null;
+		}
+	}
+
+
+	public int getEventCount() {
+		return eventCount;
+	}
+
+
+	private void add(SourceDrug sourceDrug, int key, List<CDMConcept> conceptList) {
+		int sourceDrugIndex = getSourceDrugIndex(sourceDrug, true);
+		if (conceptList.size() == 0) {
+			addEvent(sourceDrugIndex, key, NO_CONCEPT);
+		}
+		else {
+			for (CDMConcept concept : conceptList) {
+				addEvent(sourceDrugIndex, key, getConceptIndex(concept));
+			}
+		}
+	}
+
+
+	private int getSourceDrugIndex(SourceDrug sourceDrug, boolean createWhenNotFound) {
+		Integer sourceDrugIndex = sourceDrugIndexes.get(sourceDrug);
+		if ((sourceDrugIndex == null) && createWhenNotFound) {
+			sourceDrugIndex = sourceDrugs.size();
+			sourceDrugs.add(sourceDrug);
+			sourceDrugIndexes.put(sourceDrug, sourceDrugIndex);
+			if (sourceDrugIndex == firstEvents.length) {
+				firstEvents = Arrays.copyOf(firstEvents, sourceDrugIndex * 2);
+				lastEvents = Arrays.copyOf(lastEvents, sourceDrugIndex * 2);
+			}
+			firstEvents[sourceDrugIndex] = -1;
+			lastEvents[sourceDrugIndex] = -1;
+		}
+		return sourceDrugIndex;
+	}
+
+
+	private int getFirstEvent(SourceDrug sourceDrug) {
+		Integer sourceDrugIndex = sourceDrugIndexes.get(sourceDrug);
+		return sourceDrugIndex == null ? -1 : firstEvents[sourceDrugIndex];
+	}
+
+
+	private int getConceptIndex(CDMConcept concept) {
+		if (concept == null) {
+			return NULL_CONCEPT;
+		}
+		Integer conceptIndex = conceptIndexes.get(concept);
+		if (conceptIndex == null) {
+			conceptIndex = concepts.size();
+			concepts.add(concept);
+			conceptIndexes.put(concept, conceptIndex);
+		}
+		return conceptIndex;
+	}
+
+
+	private CDMConcept getConcept(int conceptIndex) {
+		return conceptIndex == NULL_CONCEPT ? null : concepts.get(conceptIndex);
+	}
+
+
+	private void addEvent(int sourceDrugIndex, int key, int conceptIndex) {
+		if (eventCount == eventKeys.length) {
+			int capacity = eventCount + (eventCount >> 1);
+			eventKeys = Arrays.copyOf(eventKeys, capacity);
+			eventConcepts = Arrays.copyOf(eventConcepts, capacity);
+			eventNext = Arrays.copyOf(eventNext, capacity);
+		}
+		eventKeys[eventCount] = key;
+		eventConcepts[eventCount] = conceptIndex;
+		eventNext[eventCount] = -1;
+		if (lastEvents[sourceDrugIndex] == -1) {
+			firstEvents[sourceDrugIndex] = eventCount;
+		}
+		else {
+			eventNext[lastEvents[sourceDrugIndex]] = eventCount;
+		}
+		lastEvents[sourceDrugIndex] = eventCount;
+		eventCount++;
+	}
+
+
+	private static int getKey(int mappingType, int componentNr, int resultType) {
+		if ((mappingType < 0) || (mappingType > MAXIMUM_MAPPING_TYPE) || (componentNr < 0) || (componentNr > MAXIMUM_COMPONENT_NR) || (resultType < 0) || (resultType > MAXIMUM_RESULT_TYPE)) {
+			throw new IllegalArgumentException("Mapping result out of range: " + mappingType + "," + componentNr + "," + resultType);
+		}
+		return (mappingType << 24) | (resultType << 16) | componentNr;
+	}
+
+
+	private static int getMappingType(int key) {
+		return key >>> 24;
+	}
+
+
+	private static int getResultType(int key) {
+		return (key >>> 16) & 0xFF;
+	}
+
+
+	private static int getComponentNr(int key) {
+		return key & 0xFFFF;
+	}
+
+
+	/**
+	 * The results logged by one worker thread of a matching stage, kept per
+	 * source drug in the order they were logged. The results of a source
+	 * drug are logged by one worker only.
+	 */
+	public static class Buffer {
+		private Map<SourceDrug, List<BufferedEvent>> sourceDrugEvents = new HashMap<SourceDrug, List<BufferedEvent>>();
+		private SourceDrug lastSourceDrug = null;
+		private List<BufferedEvent> lastSourceDrugEvents = null;
+
+
+		public void add(SourceDrug sourceDrug, int mappingType, int componentNr, int resultType, List<CDMConcept> conceptList) {
+			// The concepts are copied as the caller may reuse the list
+			getEvents(sourceDrug).add(new BufferedEvent(getKey(mappingType, componentNr, resultType), new ArrayList<CDMConcept>(conceptList)));
+		}
+
+
+		public void removeMappingType(SourceDrug sourceDrug, int mappingType) {
+			getEvents(sourceDrug).add(new BufferedEvent(mappingType, null));
+		}
+
+
+		private List<BufferedEvent> getEvents(SourceDrug sourceDrug) {
+			if (sourceDrug != lastSourceDrug) {
+				lastSourceDrugEvents = sourceDrugEvents.get(sourceDrug);
+				if (lastSourceDrugEvents == null) {
+					lastSourceDrugEvents = new ArrayList<BufferedEvent>();
+					sourceDrugEvents.put(sourceDrug, lastSourceDrugEvents);
+				}
+				lastSourceDrug = sourceDrug;
+			}
+			return lastSourceDrugEvents;
+		}
+	}
+
+
+	private static class BufferedEvent {
+		private final int key;                        // The mapping type when the concept list is null
+		private final List<CDMConcept> conceptList;   // Null when the results of the mapping type are removed
+
+
+		private BufferedEvent(int key, List<CDMConcept> conceptList) {
+			this.key = key;
+			this.conceptList = conceptList;
+		}
+	}
+}
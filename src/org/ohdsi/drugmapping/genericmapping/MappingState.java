@@ -0,0 +1,337 @@
+package org.ohdsi.drugmapping.genericmapping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The per source drug results of a mapping run together with a fingerprint
+ * of the inputs, so that a next run can carry over the results of source
+ * drugs whose inputs did not change.
+ */
+public class MappingState {
+	public static String STATE_FILE_NAME = "DrugMapping State.bin";
+
+	private static final int STATE_VERSION = 1;
+
+	private String inputsFingerprint = null;
+	private Map<String, SourceDrugState> sourceDrugStates = new HashMap<String, SourceDrugState>();
+
+
+	public static String getDigest(String text) {
+		MessageDigest digest = getMessageDigest();
+		digest.update(text.getBytes(StandardCharsets.UTF_8));
+		return toHex(digest.digest());
+	}
+
+
+	public static String getFileDigest(String fileName) {
+		String fileDigest = "";
+		if ((fileName != null) && new File(fileName).canRead()) {
+			MessageDigest digest = getMessageDigest();
+			try (InputStream input = new BufferedInputStream(new FileInputStream(fileName))) {
+				byte[] buffer = new byte[65536];
+				int length;
+				while ((length = input.read(buffer)) != -1) {
+					digest.update(buffer, 0, length);
+				}
+				fileDigest = toHex(digest.digest());
+			}
+			catch (IOException e) {
+				fileDigest = "";
+			}
+		}
+		return fileDigest;
+	}
+
+
+	private static MessageDigest getMessageDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is available in every Java runtime
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte value : bytes) {
+			hex.append(Character.forDigit((value >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(value & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+
+	public MappingState(String inputsFingerprint) {
+		this.inputsFingerprint = inputsFingerprint;
+	}
+
+
+	public String getInputsFingerprint() {
+		return inputsFingerprint;
+	}
+
+
+	public SourceDrugState getSourceDrugState(String sourceDrugCode) {
+		return sourceDrugStates.get(sourceDrugCode);
+	}
+
+
+	public void addSourceDrugState(String sourceDrugCode, SourceDrugState sourceDrugState) {
+		sourceDrugStates.put(sourceDrugCode, sourceDrugState);
+	}
+
+
+	public int size() {
+		return sourceDrugStates.size();
+	}
+
+
+	public static MappingState load(String fileName) {
+		MappingState mappingState = null;
+		if (new File(fileName).canRead()) {
+			try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1024 * 1024))) {
+				if (input.readInt() == STATE_VERSION) {
+					mappingState = new MappingState(input.readUTF());
+					int sourceDrugCount = input.readInt();
+					for (int sourceDrugNr = 0; sourceDrugNr < sourceDrugCount; sourceDrugNr++) {
+						String sourceDrugCode = input.readUTF();
+						mappingState.addSourceDrugState(sourceDrugCode, SourceDrugState.read(input));
+					}
+				}
+			}
+			catch (IOException e) {
+				System.out.println("WARNING: Could not read mapping state file '" + fileName + "': " + e.getMessage());
+				mappingState = null;
+			}
+		}
+		return mappingState;
+	}
+
+
+	public boolean save(String fileName) {
+		boolean ok = true;
+		File stateFile = new File(fileName);
+		File temporaryFile = new File(fileName + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 1024 * 1024))) {
+			output.writeInt(STATE_VERSION);
+			output.writeUTF(inputsFingerprint);
+			output.writeInt(sourceDrugStates.size());
+			for (String sourceDrugCode : sourceDrugStates.keySet()) {
+				output.writeUTF(sourceDrugCode);
+				sourceDrugStates.get(sourceDrugCode).write(output);
+			}
+		}
+		catch (IOException e) {
+			System.out.println("WARNING: Could not write mapping state file '" + fileName + "': " + e.getMessage());
+			ok = false;
+		}
+		if (ok) {
+			stateFile.delete();
+			ok = temporaryFile.renameTo(stateFile);
+		}
+		else {
+			temporaryFile.delete();
+		}
+		return ok;
+	}
+
+
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null) {
+			output.writeUTF(value);
+		}
+	}
+
+
+	private static String readString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+
+
+
+
+	/**
+	 * The mapping results of a single source drug. CDM concepts are stored as
+	 * references: a type character (D = drug, I = ingredient, F = dose form)
+	 * followed by the concept_id.
+	 */
+	public static class SourceDrugState {
+		private String fingerprint;
+		private Map<Integer, List<Map<Integer, List<String>>>> mappingResults;
+		private boolean mapped;
+		private boolean partiallyMapped;
+		private List<Integer> notUniqueMappings;
+		private String matchString;
+		private List<String> componentMatchStrings;
+		private Map<String, Double> strengthDeviationPercentages;
+
+
+		public SourceDrugState(String fingerprint, Map<Integer, List<Map<Integer, List<String>>>> mappingResults, boolean mapped, boolean partiallyMapped, List<Integer> notUniqueMappings, String matchString, List<String> componentMatchStrings, Map<String, Double> strengthDeviationPercentages) {
+			this.fingerprint = fingerprint;
+			this.mappingResults = mappingResults;
+			this.mapped = mapped;
+			this.partiallyMapped = partiallyMapped;
+			this.notUniqueMappings = notUniqueMappings;
+			this.matchString = matchString;
+			this.componentMatchStrings = componentMatchStrings;
+			this.strengthDeviationPercentages = strengthDeviationPercentages;
+		}
+
+
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+
+		public Map<Integer, List<Map<Integer, List<String>>>> getMappingResults() {
+			return mappingResults;
+		}
+
+
+		public boolean isMapped() {
+			return mapped;
+		}
+
+
+		public boolean isPartiallyMapped() {
+			return partiallyMapped;
+		}
+
+
+		public List<Integer> getNotUniqueMappings() {
+			return notUniqueMappings;
+		}
+
+
+		public String getMatchString() {
+			return matchString;
+		}
+
+
+		public List<String> getComponentMatchStrings() {
+			return componentMatchStrings;
+		}
+
+
+		public Map<String, Double> getStrengthDeviationPercentages() {
+			return strengthDeviationPercentages;
+		}
+
+
+		private void write(DataOutputStream output) throws IOException {
+			output.writeUTF(fingerprint);
+
+			output.writeInt(mappingResults == null ? -1 : mappingResults.size());
+			if (mappingResults != null) {
+				for (Integer mapping : mappingResults.keySet()) {
+					output.writeInt(mapping);
+					List<Map<Integer, List<String>>> mappingResultList = mappingResults.get(mapping);
+					output.writeInt(mappingResultList.size());
+					for (Map<Integer, List<String>> mappingResult : mappingResultList) {
+						output.writeInt(mappingResult.size());
+						for (Integer resultType : mappingResult.keySet()) {
+							output.writeInt(resultType);
+							List<String> conceptReferences = mappingResult.get(resultType);
+							output.writeInt(conceptReferences.size());
+							for (String conceptReference : conceptReferences) {
+								writeString(output, conceptReference);
+							}
+						}
+					}
+				}
+			}
+
+			output.writeBoolean(mapped);
+			output.writeBoolean(partiallyMapped);
+			output.writeInt(notUniqueMappings.size());
+			for (Integer mapping : notUniqueMappings) {
+				output.writeInt(mapping);
+			}
+			writeString(output, matchString);
+			output.writeInt(componentMatchStrings.size());
+			for (String componentMatchString : componentMatchStrings) {
+				writeString(output, componentMatchString);
+			}
+			output.writeInt(strengthDeviationPercentages.size());
+			for (String key : strengthDeviationPercentages.keySet()) {
+				output.writeUTF(key);
+				Double strengthDeviationPercentage = strengthDeviationPercentages.get(key);
+				output.writeBoolean(strengthDeviationPercentage != null);
+				if (strengthDeviationPercentage != null) {
+					output.writeDouble(strengthDeviationPercentage);
+				}
+			}
+		}
+
+
+		private static SourceDrugState read(DataInputStream input) throws IOException {
+			String fingerprint = input.readUTF();
+
+			Map<Integer, List<Map<Integer, List<String>>>> mappingResults = null;
+			int mappingCount = input.readInt();
+			if (mappingCount != -1) {
+				mappingResults = new HashMap<Integer, List<Map<Integer, List<String>>>>();
+				for (int mappingNr = 0; mappingNr < mappingCount; mappingNr++) {
+					int mapping = input.readInt();
+					List<Map<Integer, List<String>>> mappingResultList = new ArrayList<Map<Integer, List<String>>>();
+					int mappingResultCount = input.readInt();
+					for (int mappingResultNr = 0; mappingResultNr < mappingResultCount; mappingResultNr++) {
+						Map<Integer, List<String>> mappingResult = new HashMap<Integer, List<String>>();
+						int resultTypeCount = input.readInt();
+						for (int resultTypeNr = 0; resultTypeNr < resultTypeCount; resultTypeNr++) {
+							int resultType = input.readInt();
+							List<String> conceptReferences = new ArrayList<String>();
+							int conceptCount = input.readInt();
+							for (int conceptNr = 0; conceptNr < conceptCount; conceptNr++) {
+								conceptReferences.add(readString(input));
+							}
+							mappingResult.put(resultType, conceptReferences);
+						}
+						mappingResultList.add(mappingResult);
+					}
+					mappingResults.put(mapping, mappingResultList);
+				}
+			}
+
+			boolean mapped = input.readBoolean();
+			boolean partiallyMapped = input.readBoolean();
+			List<Integer> notUniqueMappings = new ArrayList<Integer>();
+			int notUniqueMappingCount = input.readInt();
+			for (int notUniqueMappingNr = 0; notUniqueMappingNr < notUniqueMappingCount; notUniqueMappingNr++) {
+				notUniqueMappings.add(input.readInt());
+			}
+			String matchString = readString(input);
+			List<String> componentMatchStrings = new ArrayList<String>();
+			int componentCount = input.readInt();
+			for (int componentNr = 0; componentNr < componentCount; componentNr++) {
+				componentMatchStrings.add(readString(input));
+			}
+			Map<String, Double> strengthDeviationPercentages = new HashMap<String, Double>();
+			int strengthDeviationCount = input.readInt();
+			for (int strengthDeviationNr = 0; strengthDeviationNr < strengthDeviationCount; strengthDeviationNr++) {
+				String key = input.readUTF();
+				strengthDeviationPercentages.put(key, input.readBoolean() ? input.readDouble() : null);
+			}
+
+			return new SourceDrugState(fingerprint, mappingResults, mapped, partiallyMapped, notUniqueMappings, matchString, componentMatchStrings, strengthDeviationPercentages);
+		}
+	}
+}
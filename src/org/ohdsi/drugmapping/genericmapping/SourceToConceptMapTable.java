@@ -0,0 +1,131 @@
+package org.ohdsi.drugmapping.genericmapping;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ohdsi.databases.RichConnection;
+import org.ohdsi.drugmapping.gui.CDMDatabase;
+import org.ohdsi.drugmapping.utilities.DrugMappingDateUtilities;
+
+/**
+ * Saves the Source To Concept Map rows directly in a table of the CDM
+ * database, in one transaction, next to the SourceToConceptMap.csv file.
+ * The rows saved before for the same source vocabulary are replaced. When
+ * saving fails the transaction is rolled back and the remaining rows are
+ * ignored, so the file is still written completely.
+ * The rows are valid from the date of the mapping until VALID_END_DATE and
+ * unmapped source drugs get target concept 0 of the vocabulary "None", as
+ * the columns are not nullable in the CDM.
+ */
+public class SourceToConceptMapTable {
+	public static final List<String> COLUMNS = Arrays.asList(new String[] {
+			"source_code",
+			"source_concept_id",
+			"source_vocabulary_id",
+			"source_code_description",
+			"target_concept_id",
+			"target_vocabulary_id",
+			"valid_start_date",
+			"valid_end_date",
+			"invalid_reason"
+	});
+	public static final String VALID_END_DATE = "2099-12-31";
+	public static final String NO_VOCABULARY_ID = "None";
+
+	private String tableName;
+	private RichConnection connection;
+	private RichConnection.BulkInsert bulkInsert = null;
+
+
+	/**
+	 * Opens the table for the source vocabulary. The table name may be
+	 * preceded by a schema, otherwise the vocabulary schema of the database
+	 * is used. Returns null when the table cannot be used.
+	 */
+	public static SourceToConceptMapTable open(CDMDatabase database, String tableName, String vocabularyId) {
+		SourceToConceptMapTable table = null;
+
+		String schema = database.getVocabSchema();
+		int schemaEnd = tableName.lastIndexOf('.');
+		if (schemaEnd != -1) {
+			schema = tableName.substring(0, schemaEnd);
+			tableName = tableName.substring(schemaEnd + 1);
+		}
+
+		RichConnection connection = null;
+		try {
+			connection = database.getRichConnection(SourceToConceptMapTable.class);
+			table = new SourceToConceptMapTable(connection, schema, tableName, vocabularyId);
+		}
+		catch (RuntimeException e) {
+			System.out.println("ERROR: Cannot save the Source To Concept Map in table " + schema + "." + tableName + ": " + e.getMessage());
+			if (connection != null) {
+				connection.close();
+			}
+		}
+
+		return table;
+	}
+
+
+	private SourceToConceptMapTable(RichConnection connection, String schema, String tableName, String vocabularyId) {
+		this.connection = connection;
+		this.tableName = schema + "." + tableName;
+
+		bulkInsert = connection.startBulkInsert(schema, tableName, COLUMNS, "");
+		// Part of the same transaction as the inserted rows. When it fails the transaction is rolled back.
+		bulkInsert.delete("source_vocabulary_id", vocabularyId);
+	}
+
+
+	public String getTableName() {
+		return tableName;
+	}
+
+
+	/**
+	 * Adds a row with the values in the order of the columns.
+	 * Empty values are saved as NULL.
+	 */
+	public void add(String... values) {
+		if (bulkInsert != null) {
+			try {
+				bulkInsert.add(values);
+			}
+			catch (RuntimeException e) {
+				failed(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Commits the rows and closes the connection.
+	 * Returns false when the rows could not be saved.
+	 */
+	public boolean close() {
+		boolean ok = false;
+
+		if (bulkInsert != null) {
+			try {
+				long rowCount = bulkInsert.commit();
+				bulkInsert = null;
+				System.out.println(DrugMappingDateUtilities.getCurrentTime() + "       Source To Concept Map saved in table " + tableName + ": " + rowCount + " rows");
+				ok = true;
+			}
+			catch (RuntimeException e) {
+				failed(e);
+			}
+		}
+		connection.close();
+
+		return ok;
+	}
+
+
+	private void failed(RuntimeException e) {
+		// The bulk insert has rolled back the transaction
+		bulkInsert = null;
+		System.out.println("ERROR: Saving the Source To Concept Map in table " + tableName + " failed: " + e.getMessage());
+	}
+}
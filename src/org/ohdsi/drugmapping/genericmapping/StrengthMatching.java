@@ -0,0 +1,168 @@
+package org.ohdsi.drugmapping.genericmapping;
+
+import org.ohdsi.drugmapping.cdm.CDMDrug;
+
+/**
+ * Scores the ingredient strengths of a CDM drug against the components of a
+ * source drug on the strength tables of the CDM drug. The deviation of a
+ * strength is the percentage the CDM strength differs from the source
+ * strength. Each CDM strength is matched to at most one component.
+ */
+public final class StrengthMatching {
+	public static final double DEVIATION_MARGIN = 0.000001;
+
+	public static final double NO_MATCH = -1.0;
+
+
+	private StrengthMatching() {
+	}
+
+
+	/**
+	 * Returns the largest deviation of the best matching strengths of the
+	 * components, or NO_MATCH when a component has no strength within the
+	 * maximum deviation.
+	 */
+	public static double matchingStrength(SourceStrengths source, CDMDrug cdmDrug, double maximumStrengthDeviation) {
+		double matchDeviationPercentage = NO_MATCH;
+
+		long[] cdmIngredientIds = cdmDrug.getStrengthIngredientIds();
+		double[] cdmDosages = cdmDrug.getStrengthDosages();
+		int[] cdmUnits = cdmDrug.getStrengthUnits();
+
+		// The CDM strengths matched to a previous component are not used again
+		long used = 0L;
+		boolean[] usedOverflow = cdmIngredientIds.length > 64 ? new boolean[cdmIngredientIds.length] : null;
+
+		for (int componentNr = 0; componentNr < source.ingredientIds.length; componentNr++) {
+			long ingredientId = source.ingredientIds[componentNr];
+			double sourceDosage = source.dosages[componentNr];
+			double[] factors = source.unitFactors[componentNr];
+
+			double bestMatchDeviationPercentage = NO_MATCH;
+			int bestMatchStrengthNr = -1;
+			for (int strengthNr = 0; strengthNr < cdmIngredientIds.length; strengthNr++) {
+				if ((cdmIngredientIds[strengthNr] == ingredientId) && (!isStrengthUsed(used, usedOverflow, strengthNr))) {
+					double sourceStrength = cdmUnits[strengthNr] == -1 ? Double.NaN : sourceDosage * factors[cdmUnits[strengthNr]];
+					double ingredientDeviationPercentage = getStrengthDeviationPercentage(sourceStrength, cdmDosages[strengthNr], maximumStrengthDeviation);
+					if ((!Double.isNaN(ingredientDeviationPercentage)) && (ingredientDeviationPercentage <= maximumStrengthDeviation)) {
+						if ((bestMatchStrengthNr == -1) || (ingredientDeviationPercentage < bestMatchDeviationPercentage + DEVIATION_MARGIN)) {
+							bestMatchDeviationPercentage = ingredientDeviationPercentage;
+							bestMatchStrengthNr = strengthNr;
+						}
+					}
+					else {
+						break;
+					}
+				}
+			}
+			if (bestMatchStrengthNr != -1) {
+				used = setStrengthUsed(used, usedOverflow, bestMatchStrengthNr);
+				matchDeviationPercentage = Math.max(Math.max(matchDeviationPercentage, 0.0), bestMatchDeviationPercentage);
+			}
+			else {
+				matchDeviationPercentage = NO_MATCH;
+				break;
+			}
+		}
+
+		return matchDeviationPercentage < 0.0 ? NO_MATCH : matchDeviationPercentage;
+	}
+
+
+	/**
+	 * Returns the average deviation of the best matching strengths of the
+	 * components, or NO_MATCH when a component has no strength.
+	 */
+	public static double averageMatchingStrength(SourceStrengths source, CDMDrug cdmDrug, double maximumStrengthDeviation) {
+		double totalDeviationPercentage = 0.0;
+		int averageCount = 0;
+
+		long[] cdmIngredientIds = cdmDrug.getStrengthIngredientIds();
+		double[] cdmDosages = cdmDrug.getStrengthDosages();
+		int[] cdmUnits = cdmDrug.getStrengthUnits();
+
+		// The CDM strengths matched to a previous component are not used again
+		long used = 0L;
+		boolean[] usedOverflow = cdmIngredientIds.length > 64 ? new boolean[cdmIngredientIds.length] : null;
+
+		for (int componentNr = 0; componentNr < source.ingredientIds.length; componentNr++) {
+			long ingredientId = source.ingredientIds[componentNr];
+			double sourceDosage = source.dosages[componentNr];
+			double[] factors = source.unitFactors[componentNr];
+
+			double bestMatchDeviationPercentage = NO_MATCH;
+			int bestMatchStrengthNr = -1;
+			for (int strengthNr = 0; strengthNr < cdmIngredientIds.length; strengthNr++) {
+				if ((cdmIngredientIds[strengthNr] == ingredientId) && (!isStrengthUsed(used, usedOverflow, strengthNr))) {
+					double sourceStrength = cdmUnits[strengthNr] == -1 ? Double.NaN : sourceDosage * factors[cdmUnits[strengthNr]];
+					double ingredientDeviationPercentage = getStrengthDeviationPercentage(sourceStrength, cdmDosages[strengthNr], maximumStrengthDeviation);
+					if (!Double.isNaN(ingredientDeviationPercentage)) {
+						if ((bestMatchStrengthNr == -1) || (ingredientDeviationPercentage < bestMatchDeviationPercentage)) {
+							bestMatchDeviationPercentage = ingredientDeviationPercentage;
+							bestMatchStrengthNr = strengthNr;
+						}
+					}
+					else {
+						break;
+					}
+				}
+			}
+			if (bestMatchStrengthNr != -1) {
+				used = setStrengthUsed(used, usedOverflow, bestMatchStrengthNr);
+				totalDeviationPercentage += bestMatchDeviationPercentage;
+				averageCount++;
+			}
+			else {
+				averageCount = 0;
+				break;
+			}
+		}
+
+		return averageCount == 0 ? NO_MATCH : totalDeviationPercentage / averageCount;
+	}
+
+
+	private static double getStrengthDeviationPercentage(double sourceStrength, double cdmStrength, double maximumStrengthDeviation) {
+		// NaN when a strength is missing
+		double percentage = (Math.abs(cdmStrength - sourceStrength) / sourceStrength) * 100;
+		if (percentage <= maximumStrengthDeviation + DEVIATION_MARGIN) {
+			percentage = Math.min(maximumStrengthDeviation, percentage);
+		}
+		return percentage;
+	}
+
+
+	private static boolean isStrengthUsed(long used, boolean[] usedOverflow, int strengthNr) {
+		return usedOverflow == null ? ((used & (1L << strengthNr)) != 0L) : usedOverflow[strengthNr];
+	}
+
+
+	private static long setStrengthUsed(long used, boolean[] usedOverflow, int strengthNr) {
+		if (usedOverflow != null) {
+			usedOverflow[strengthNr] = true;
+			return used;
+		}
+		return used | (1L << strengthNr);
+	}
+
+
+	/**
+	 * The components of a source drug, prepared once per source drug: the
+	 * concept_id of the matching CDM ingredient, the dosage (NaN when it is
+	 * missing) and the factors that convert the dosage unit to each of the
+	 * CDM strength units (NaN when there is no conversion).
+	 */
+	public static class SourceStrengths {
+		private final long[] ingredientIds;
+		private final double[] dosages;
+		private final double[][] unitFactors;
+
+
+		public SourceStrengths(long[] ingredientIds, double[] dosages, double[][] unitFactors) {
+			this.ingredientIds = ingredientIds;
+			this.dosages = dosages;
+			this.unitFactors = unitFactors;
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
+import java.awt.GraphicsEnvironment;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -34,6 +35,7 @@ import org.ohdsi.databases.RichConnection;
 import org.ohdsi.databases.RichConnection.QueryResult;
 import org.ohdsi.drugmapping.DBSettings;
 import org.ohdsi.drugmapping.DrugMapping;
+import org.ohdsi.drugmapping.DrugMappingMetrics;
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
 import org.ohdsi.drugmapping.files.DelimitedFileWithHeader;
 import org.ohdsi.utilities.StringUtilities;
@@ -56,13 +58,18 @@ public class CDMDatabase extends JPanel {
 	private String cdmCache = null;
 	private String cdmCacheFileName = null;
 	private boolean readFromCache = false;
+	private boolean refreshCache = false;
 	private DelimitedFileWithHeader cache = null;
 	private Iterator<DelimitedFileRow> cacheIterator = null;
-	private boolean headerWritten = false;
 	
 	private QueryParameters queryParameters = null;
-	private QueryResult queryResult = null;
-	private Iterator<Row> queryResultIterator = null;
+	private CDMQueryStream queryStream = null;
+	private CDMQueryPrefetcher queryPrefetcher = null;
+	private long fetchSize = -1;
+	private Class<?> context = null;
+	private DrugMappingMetrics metrics = null;                 // The metrics of the mapping run that is connected
+	private DrugMappingMetrics.Stage queryMetrics = null;
+	private long queryRowCount = 0;
 
 	private JPanel serverLabelPanel;
 	private JCheckBox serverRefreshCacheCheckBox;
@@ -191,24 +198,47 @@ public class CDMDatabase extends JPanel {
 			}
 		}
 		if (dbSettings.password == null) {
-			defineDatabase(this);
+			if (GraphicsEnvironment.isHeadless()) {
+				System.out.println("ERROR: No password specified for database " + dbSettings.name + ".");
+			}
+			else {
+				defineDatabase(this);
+			}
 		}
 		serverField.setText(dbSettings.name);
 	}
 	
 	
-	public boolean connect(Class<?> context) {
+	public void setCacheLocation(String cacheLocation) {
+		File cdmCacheFolder = new File(cacheLocation);
+		if (cdmCacheFolder.mkdirs() || cdmCacheFolder.isDirectory()) {
+			cdmCacheLocation = cdmCacheFolder.getAbsolutePath();
+		}
+		else {
+			System.out.println("WARNING: Cannot use CDM Cache location " + cacheLocation + "!");
+		}
+	}
+	
+	
+	public void setRefreshCache(boolean refreshCache) {
+		this.refreshCache = refreshCache;
+	}
+	
+	
+	public boolean connect(Class<?> context, DrugMappingMetrics metrics) {
 		boolean connectionOK = false;
 
 		queryParameters = new QueryParameters();
 		queryParameters.set("@vocab", getVocabSchema());
 		
 		disconnect();
+		this.context = context;
+		this.metrics = metrics;
 		
 		if (cdmCacheLocation != null) {
 			cdmCache = cdmCacheLocation + File.separator + serverField.getText();
 			File cdmCacheFolder = new File(cdmCache);
-			if ((!serverRefreshCacheCheckBox.isSelected()) && cdmCacheFolder.canRead()) {
+			if ((!refreshCache) && (!serverRefreshCacheCheckBox.isSelected()) && cdmCacheFolder.canRead()) {
 				readFromCache = true;
 				connectionOK = true;
 			}
@@ -219,10 +249,16 @@ public class CDMDatabase extends JPanel {
 					connection = new RichConnection(dbSettings.server, dbSettings.domain, dbSettings.user, dbSettings.password, dbSettings.dbType);
 					if (connection != null) {
 						connection.setContext(context);
+						setFetchSize(connection);
 						connectionOK = true;
 					}
 				} catch (RuntimeException e) {
-					JOptionPane.showMessageDialog(null, StringUtilities.wordWrap(e.getMessage(), 80), "Error connecting to server", JOptionPane.ERROR_MESSAGE);
+					if (GraphicsEnvironment.isHeadless()) {
+						System.out.println("ERROR: Error connecting to server: " + e.getMessage());
+					}
+					else {
+						JOptionPane.showMessageDialog(null, StringUtilities.wordWrap(e.getMessage(), 80), "Error connecting to server", JOptionPane.ERROR_MESSAGE);
+					}
 				}
 			}
 		}
@@ -231,8 +267,44 @@ public class CDMDatabase extends JPanel {
 	}
 	
 	
+	public boolean isReadFromCache() {
+		return readFromCache;
+	}
+	
+	
+	public String getCacheFileName(String fileName) {
+		return cdmCache == null ? null : cdmCache + File.separator + fileName;
+	}
+	
+	
+	/**
+	 * Returns true when the result of the query can be read, that is when
+	 * it is queried from the database or when its cache file exists.
+	 */
+	public boolean hasQueryResource(String resourceName) {
+		return (!isReadFromCache()) || new File(getCacheFileName(resourceName + ".csv")).canRead();
+	}
+	
+	
+	/**
+	 * Starts the queries concurrently over the given number of connections.
+	 * The queries should be executed afterwards in the same order. Does
+	 * nothing when reading from the cache.
+	 */
+	public void prefetchQueryResources(List<String> resourceNames, int connectionCount) {
+		if ((!readFromCache) && (connection != null) && (connectionCount > 1)) {
+			closeQueryPrefetcher();
+			queryPrefetcher = new CDMQueryPrefetcher(this, context, queryParameters, resourceNames, metrics);
+			queryPrefetcher.start(Math.min(connectionCount, resourceNames.size()));
+		}
+	}
+	
+	
 	public boolean excuteQueryResource(String resourceName) {
 		boolean result = true;
+		closeQueryStream();
+		endQueryMetrics();
+		queryMetrics = metrics.startStage(readFromCache ? DrugMappingMetrics.TYPE_CACHE_READ : DrugMappingMetrics.TYPE_QUERY, resourceName);
 		cdmCacheFileName = cdmCache + File.separator + resourceName + ".csv";
 		if (readFromCache) {
 			if (new File(cdmCacheFileName).canRead()) {
@@ -247,17 +319,34 @@ public class CDMDatabase extends JPanel {
 			}
 		}
 		else {
-			try {
-				queryResult = connection.queryResource(resourceName, queryParameters);
-				queryResultIterator = queryResult.iterator();
-			} catch (RuntimeException e) {
-				queryResult = null;
-				result = false;
+			if (queryPrefetcher != null) {
+				// A prefetched query stream also writes the cache file
+				queryStream = queryPrefetcher.getQueryStream(resourceName);
+				if (queryStream != null) {
+					// The query itself is measured by the prefetcher
+					queryMetrics.setType(DrugMappingMetrics.TYPE_PREFETCH_READ);
+				}
 			}
-			cache = new DelimitedFileWithHeader(cdmCacheFileName);
-			headerWritten = false;
-			if (!cache.openForWriting()) {
-				cache = null;
+			if (queryStream == null) {
+				Iterator<Row> queryResultIterator = null;
+				try {
+					// Executes the query on this thread so a failing query is reported here
+					QueryResult queryResult = connection.queryResource(resourceName, queryParameters);
+					queryResultIterator = queryResult.iterator();
+				} catch (RuntimeException e) {
+					result = false;
+				}
+				if (result) {
+					cache = new DelimitedFileWithHeader(cdmCacheFileName);
+					if (!cache.openForWriting()) {
+						cache = null;
+					}
+					queryStream = new CDMQueryStream(resourceName, queryResultIterator, cache, cdmCacheFileName);
+					queryStream.start();
+					
+					// The cache file is written by the query stream
+					cache = null;
+				}
 			}
 		}
 		return result;
@@ -270,19 +359,17 @@ public class CDMDatabase extends JPanel {
 			hasNext = cacheIterator.hasNext();
 		}
 		else {
-			if (queryResult != null) {
-				hasNext = queryResultIterator.hasNext();
+			if (queryStream != null) {
+				hasNext = queryStream.hasNext();
 				if (!hasNext) {
-					queryResultIterator = null;
-					if (cache != null) {
-						cache.closeForWriting();
-						cache = null;
-						cdmCacheFileName = null;
-						cacheIterator = null;
-					}
+					closeQueryStream();
+					cdmCacheFileName = null;
 				}
 			}
 		}
+		if (!hasNext) {
+			endQueryMetrics();
+		}
 		return hasNext;
 	}
 	
@@ -293,29 +380,23 @@ public class CDMDatabase extends JPanel {
 			delimitedFileRow = cacheIterator.next();
 		}
 		else {
-			if (queryResultIterator != null) {
-				Row row = queryResultIterator.next();
-				if (row != null) {
-					delimitedFileRow = new DelimitedFileRow(row.getCells(), row.getfieldName2ColumnIndex());
-					if (cache != null) {
-						if (!headerWritten) {
-							List<String> header = delimitedFileRow.getFieldNames();
-							for (int columnNr = 0; columnNr < header.size(); columnNr++) {
-								header.set(columnNr, header.get(columnNr).toLowerCase());
-							}
-							cache.setHeader(header);
-							headerWritten = true;
-						}
-						cache.writeRow(delimitedFileRow);
-					}
-				}
+			if (queryStream != null) {
+				delimitedFileRow = queryStream.next();
 			}
 		}
+		if (delimitedFileRow != null) {
+			queryRowCount++;
+		}
 		return delimitedFileRow;
 	}
 	
 	
 	public void disconnect() {
+		// Stop reading before the connection is closed
+		closeQueryStream();
+		closeQueryPrefetcher();
+		endQueryMetrics();
+		
 		// Close current connection
 		if (connection != null) {
 			connection.close();
@@ -324,13 +405,55 @@ public class CDMDatabase extends JPanel {
 		cache = null;
 		cdmCacheFileName = null;
 		cacheIterator = null;
-		headerWritten = false;
+	}
+	
+	
+	private void closeQueryStream() {
+		if (queryStream != null) {
+			queryStream.close();
+			queryStream = null;
+		}
+	}
+	
+	
+	private void endQueryMetrics() {
+		if (queryMetrics != null) {
+			queryMetrics.addRows(queryRowCount);
+			queryMetrics.end();
+			queryMetrics = null;
+		}
+		queryRowCount = 0;
+	}
+	
+	
+	private void closeQueryPrefetcher() {
+		if (queryPrefetcher != null) {
+			queryPrefetcher.close();
+			queryPrefetcher = null;
+		}
+	}
+	
+	
+	/**
+	 * Sets the fetch size of the connections opened from now on. A negative
+	 * fetch size keeps the default of the database type.
+	 */
+	public void setFetchSize(long fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+	
+	
+	private void setFetchSize(RichConnection connection) {
+		if (fetchSize >= 0) {
+			connection.setFetchSize((int) fetchSize);
+		}
 	}
 	
 	
 	public RichConnection getRichConnection(Class<?> context) {
 		RichConnection connection = new RichConnection(dbSettings.server, dbSettings.domain, dbSettings.user, dbSettings.password, dbSettings.dbType);
 		connection.setContext(context);
+		setFetchSize(connection);
 		return connection;
 	}
 	
@@ -0,0 +1,201 @@
+package org.ohdsi.drugmapping.gui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.ohdsi.databases.QueryParameters;
+import org.ohdsi.databases.RichConnection;
+import org.ohdsi.drugmapping.DrugMappingMetrics;
+import org.ohdsi.drugmapping.files.DelimitedFileWithHeader;
+import org.ohdsi.utilities.files.Row;
+
+/**
+ * Executes a list of CDM queries concurrently over a small pool of connections.
+ * The queries are started in the order of the list and their rows are buffered
+ * until they are read, so the CDM can still be built in dependency order.
+ * The time from executing a query until all its rows are received is
+ * measured here, separate from the time the rows are read.
+ */
+class CDMQueryPrefetcher {
+	private static final int QUEUE_SIZE = 256;     // Batches of rows buffered per query
+
+	private CDMDatabase database;
+	private Class<?> context;
+	private QueryParameters queryParameters;
+	private List<String> resourceNames;
+	private DrugMappingMetrics metrics;
+	private Map<String, Integer> resourceNrs = new HashMap<String, Integer>();
+
+	private CDMQueryStream[] queryStreams;
+	private CountDownLatch[] queryStarted;
+	private boolean[] querySkipped;
+	private int nextResourceNr = 0;                // Next query to start
+	private int nextRequestedResourceNr = 0;       // Next query expected to be read
+	private boolean closed = false;
+
+	private List<Thread> workers = new ArrayList<Thread>();
+
+
+	public CDMQueryPrefetcher(CDMDatabase database, Class<?> context, QueryParameters queryParameters, List<String> resourceNames, DrugMappingMetrics metrics) {
+		this.database = database;
+		this.context = context;
+		this.queryParameters = queryParameters;
+		this.resourceNames = resourceNames;
+		this.metrics = metrics;
+
+		queryStreams = new CDMQueryStream[resourceNames.size()];
+		queryStarted = new CountDownLatch[resourceNames.size()];
+		querySkipped = new boolean[resourceNames.size()];
+		for (int resourceNr = 0; resourceNr < resourceNames.size(); resourceNr++) {
+			resourceNrs.put(resourceNames.get(resourceNr), resourceNr);
+			queryStarted[resourceNr] = new CountDownLatch(1);
+		}
+	}
+
+
+	public void start(int connectionCount) {
+		for (int workerNr = 0; workerNr < connectionCount; workerNr++) {
+			Thread worker = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					executeQueries();
+				}
+			}, "CDM query connection " + (workerNr + 1));
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+
+	/**
+	 * Returns the stream with the rows of the query. Queries earlier in the
+	 * list that are not read are stopped. Returns null when the query is not
+	 * prefetched or could not be executed on a pool connection, in which case
+	 * it should be executed on the main connection.
+	 */
+	public CDMQueryStream getQueryStream(String resourceName) {
+		Integer resourceNr = resourceNrs.get(resourceName);
+		if ((resourceNr == null) || (resourceNr < nextRequestedResourceNr)) {
+			return null;
+		}
+
+		List<CDMQueryStream> skippedQueryStreams = new ArrayList<CDMQueryStream>();
+		synchronized (this) {
+			for (int skippedResourceNr = nextRequestedResourceNr; skippedResourceNr < resourceNr; skippedResourceNr++) {
+				querySkipped[skippedResourceNr] = true;
+				if (queryStreams[skippedResourceNr] != null) {
+					skippedQueryStreams.add(queryStreams[skippedResourceNr]);
+				}
+			}
+			nextRequestedResourceNr = resourceNr + 1;
+		}
+		for (CDMQueryStream skippedQueryStream : skippedQueryStreams) {
+			skippedQueryStream.close();
+		}
+
+		try {
+			queryStarted[resourceNr].await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		return queryStreams[resourceNr];
+	}
+
+
+	public void close() {
+		List<CDMQueryStream> unreadQueryStreams = new ArrayList<CDMQueryStream>();
+		synchronized (this) {
+			closed = true;
+			for (int resourceNr = nextRequestedResourceNr; resourceNr < resourceNames.size(); resourceNr++) {
+				querySkipped[resourceNr] = true;
+				if (queryStreams[resourceNr] != null) {
+					unreadQueryStreams.add(queryStreams[resourceNr]);
+				}
+			}
+		}
+		for (CDMQueryStream unreadQueryStream : unreadQueryStreams) {
+			unreadQueryStream.close();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	private void executeQueries() {
+		RichConnection connection = null;
+		try {
+			connection = database.getRichConnection(context);
+		} catch (RuntimeException e) {
+			System.out.println("WARNING: Could not open an extra connection to the CDM database: " + e.getMessage());
+		}
+
+		int resourceNr = getNextResourceNr();
+		while (resourceNr != -1) {
+			String resourceName = resourceNames.get(resourceNr);
+			CDMQueryStream queryStream = null;
+			DrugMappingMetrics.Stage queryMetrics = null;
+			if ((connection != null) && (!isSkipped(resourceNr))) {
+				queryMetrics = metrics.startStage(DrugMappingMetrics.TYPE_PREFETCH, resourceName);
+				try {
+					Iterator<Row> queryResultIterator = connection.queryResource(resourceName, queryParameters).iterator();
+					String cacheFileName = database.getCacheFileName(resourceName + ".csv");
+					DelimitedFileWithHeader cache = new DelimitedFileWithHeader(cacheFileName);
+					if (!cache.openForWriting()) {
+						cache = null;
+					}
+					queryStream = new CDMQueryStream(resourceName, queryResultIterator, cache, cacheFileName, QUEUE_SIZE);
+					queryStream.start();
+				} catch (RuntimeException e) {
+					// Executed again on the main connection
+					queryStream = null;
+				}
+			}
+			if (publish(resourceNr, queryStream)) {
+				queryStream.close();
+			}
+			if (queryStream != null) {
+				// The connection is free again when all rows are read
+				queryStream.waitUntilRead();
+				queryMetrics.addRows(queryStream.getRowCount());
+			}
+			if (queryMetrics != null) {
+				queryMetrics.end();
+			}
+			resourceNr = getNextResourceNr();
+		}
+
+		if (connection != null) {
+			connection.close();
+		}
+	}
+
+
+	private synchronized int getNextResourceNr() {
+		return ((!closed) && (nextResourceNr < resourceNames.size())) ? nextResourceNr++ : -1;
+	}
+
+
+	private synchronized boolean isSkipped(int resourceNr) {
+		return querySkipped[resourceNr];
+	}
+
+
+	private synchronized boolean publish(int resourceNr, CDMQueryStream queryStream) {
+		// Returns true when the query is no longer needed
+		queryStreams[resourceNr] = queryStream;
+		queryStarted[resourceNr].countDown();
+		return (queryStream != null) && querySkipped[resourceNr];
+	}
+}
@@ -0,0 +1,244 @@
+package org.ohdsi.drugmapping.gui;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.ohdsi.drugmapping.files.DelimitedFileRow;
+import org.ohdsi.drugmapping.files.DelimitedFileWithHeader;
+import org.ohdsi.utilities.files.Row;
+
+/**
+ * Reads the rows of a CDM query on a separate thread and hands them in batches
+ * to the thread building the CDM. The rows are written to the CDM cache on a
+ * third thread, so the network, the parsing and the disk are used at the same time.
+ */
+class CDMQueryStream {
+	private static final int BATCH_SIZE = 1000;
+	private static final int DEFAULT_QUEUE_SIZE = 16;
+	private static final List<DelimitedFileRow> END_OF_STREAM = new ArrayList<DelimitedFileRow>();
+
+	private String queryName;
+	private Iterator<Row> queryResultIterator;
+	private DelimitedFileWithHeader cache;
+	private String cacheFileName;
+
+	private BlockingQueue<List<DelimitedFileRow>> rowBatches;
+	private BlockingQueue<List<DelimitedFileRow>> cacheBatches = null;
+	private Thread readerThread = null;
+	private Thread cacheWriterThread = null;
+	private volatile boolean stopped = false;
+	private volatile RuntimeException readError = null;
+	private volatile boolean cacheError = false;
+	private volatile long rowCount = 0;
+
+	private List<DelimitedFileRow> currentBatch = null;
+	private int currentRowNr = 0;
+	private boolean endOfStream = false;
+
+
+	public CDMQueryStream(String queryName, Iterator<Row> queryResultIterator, DelimitedFileWithHeader cache, String cacheFileName) {
+		this(queryName, queryResultIterator, cache, cacheFileName, DEFAULT_QUEUE_SIZE);
+	}
+
+
+	public CDMQueryStream(String queryName, Iterator<Row> queryResultIterator, DelimitedFileWithHeader cache, String cacheFileName, int queueSize) {
+		this.queryName = queryName;
+		this.queryResultIterator = queryResultIterator;
+		this.cache = cache;
+		this.cacheFileName = cacheFileName;
+		rowBatches = new ArrayBlockingQueue<List<DelimitedFileRow>>(queueSize);
+	}
+
+
+	public void start() {
+		if (cache != null) {
+			cacheBatches = new ArrayBlockingQueue<List<DelimitedFileRow>>(DEFAULT_QUEUE_SIZE);
+			cacheWriterThread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					writeCache();
+				}
+			}, "CDM cache writer " + queryName);
+			cacheWriterThread.setDaemon(true);
+			cacheWriterThread.start();
+		}
+
+		readerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				readRows();
+			}
+		}, "CDM reader " + queryName);
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+
+	public boolean hasNext() {
+		while ((!endOfStream) && ((currentBatch == null) || (currentRowNr >= currentBatch.size()))) {
+			try {
+				currentBatch = rowBatches.take();
+				currentRowNr = 0;
+				if (currentBatch == END_OF_STREAM) {
+					currentBatch = null;
+					endOfStream = true;
+					if (readError != null) {
+						// Fail like reading the query on this thread would
+						throw readError;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				stopped = true;
+				endOfStream = true;
+			}
+		}
+		return !endOfStream;
+	}
+
+
+	public DelimitedFileRow next() {
+		return hasNext() ? currentBatch.get(currentRowNr++) : null;
+	}
+
+
+	/**
+	 * Stops reading and waits until the cache is written. An incomplete
+	 * cache file is removed. Returns false when the query could not be
+	 * read completely.
+	 */
+	public boolean close() {
+		stopped = !endOfStream;
+		join(readerThread);
+		join(cacheWriterThread);
+		return (readError == null) && (!stopped);
+	}
+
+
+	/**
+	 * Returns the number of rows read from the query result.
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+
+	/**
+	 * Waits until all rows are read from the query result, so the
+	 * connection can be used for another query.
+	 */
+	public void waitUntilRead() {
+		join(readerThread);
+	}
+
+
+	private void readRows() {
+		try {
+			Map<String, Integer> fieldName2ColumnIndex = null;
+			List<DelimitedFileRow> batch = new ArrayList<DelimitedFileRow>(BATCH_SIZE);
+			while ((!stopped) && queryResultIterator.hasNext()) {
+				Row row = queryResultIterator.next();
+				if (row != null) {
+					if (fieldName2ColumnIndex == null) {
+						// All rows of the query share the same column index
+						fieldName2ColumnIndex = new HashMap<String, Integer>(row.getfieldName2ColumnIndex());
+					}
+					batch.add(new DelimitedFileRow(row.getCells(), fieldName2ColumnIndex));
+					rowCount++;
+					if (batch.size() == BATCH_SIZE) {
+						putBatch(batch);
+						batch = new ArrayList<DelimitedFileRow>(BATCH_SIZE);
+					}
+				}
+			}
+			if ((!stopped) && (batch.size() > 0)) {
+				putBatch(batch);
+			}
+		} catch (RuntimeException e) {
+			readError = e;
+		}
+		finally {
+			putBatch(END_OF_STREAM);
+		}
+	}
+
+
+	private void putBatch(List<DelimitedFileRow> batch) {
+		if (cacheBatches != null) {
+			// The cache writer always gets all batches so it knows when to stop
+			try {
+				cacheBatches.put(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			// Stop waiting when the rows are no longer read
+			while ((!stopped) && (!rowBatches.offer(batch, 100, TimeUnit.MILLISECONDS)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private void writeCache() {
+		boolean headerWritten = false;
+		try {
+			List<DelimitedFileRow> batch = cacheBatches.take();
+			while (batch != END_OF_STREAM) {
+				if (!cacheError) {
+					try {
+						for (DelimitedFileRow row : batch) {
+							if (!headerWritten) {
+								List<String> header = row.getFieldNames();
+								for (int columnNr = 0; columnNr < header.size(); columnNr++) {
+									header.set(columnNr, header.get(columnNr).toLowerCase());
+								}
+								cache.setHeader(header);
+								headerWritten = true;
+							}
+							cache.writeRow(row);
+						}
+					} catch (RuntimeException e) {
+						System.out.println("WARNING: Writing CDM cache file " + cacheFileName + " failed: " + e.getMessage());
+						cacheError = true;
+					}
+				}
+				batch = cacheBatches.take();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cacheError = true;
+		}
+		finally {
+			try {
+				cache.closeForWriting();
+			} catch (RuntimeException e) {
+				cacheError = true;
+			}
+			if (cacheError || (readError != null) || stopped) {
+				new File(cacheFileName).delete();
+			}
+		}
+	}
+
+
+	private void join(Thread thread) {
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
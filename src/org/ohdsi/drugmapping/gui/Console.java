@@ -15,52 +15,117 @@
  ******************************************************************************/
 package org.ohdsi.drugmapping.gui;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.JTextArea;
+import javax.swing.Timer;
 import javax.swing.text.BadLocationException;
 
 import org.ohdsi.utilities.files.WriteTextFile;
 
+/**
+ * The output stream System.out and System.err are redirected to.
+ * 
+ * The writing threads only assemble their lines and add them to a ring
+ * buffer, so they never wait for Swing or for the disk. A background
+ * thread takes the lines from the ring buffer, writes them to the log file
+ * and collects them for the text area. A Swing timer adds the collected
+ * text to the text area on the event dispatch thread a few times per
+ * second. The text area only keeps the last MAXIMUM_TEXT_LENGTH characters.
+ */
 public class Console extends OutputStream {
+	private static final int RING_BUFFER_SIZE       = 64 * 1024;
+	private static final int MAXIMUM_TEXT_LENGTH    = 1000000;
+	private static final int UPDATE_INTERVAL        = 200;     // Milliseconds between text area updates
+	private static final long WRITER_IDLE_TIME      = 10000000; // Nanoseconds the writer waits when there are no lines
+	
+	private ConsoleRingBuffer	lines		= new ConsoleRingBuffer(RING_BUFFER_SIZE);
+	private ThreadLocal<ByteArrayOutputStream> lineBuffer = new ThreadLocal<ByteArrayOutputStream>() {
+		@Override
+		protected ByteArrayOutputStream initialValue() {
+			return new ByteArrayOutputStream();
+		}
+	};
+	private Charset				charset		= Charset.defaultCharset();
+	
+	private Thread				writer;
+	private volatile long		writtenCount = 0;
+	private Object				debugLock	= new Object();
+	private WriteTextFile		debug		= null;
+	
+	private StringBuilder		pendingText	= new StringBuilder();
+	private boolean				pendingTextTruncated = false;
+	private JTextArea			textArea;
+	private Timer				updateTimer	= null;
+	
 	
-	private StringBuffer	buffer	= new StringBuffer();
-	private WriteTextFile	debug	= null;
-	private JTextArea		textArea;
+	public Console() {
+		writer = new Thread("Console writer") {
+			
+			@Override
+			public void run() {
+				writeLines();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
 	
 	public void println(String string) {
-		textArea.append(string + "\n");
-		textArea.repaint();
+		addText(string + "\n");
 		System.out.println(string);
 	}
 	
 	public void print(String string) {
-		textArea.append(string);
-		textArea.repaint();
+		addText(string);
 		System.out.print(string);
 	}
 	
 	public void setTextArea(JTextArea textArea) {
 		this.textArea = textArea;
+		if (updateTimer == null) {
+			updateTimer = new Timer(UPDATE_INTERVAL, new ActionListener() {
+				
+				@Override
+				public void actionPerformed(ActionEvent event) {
+					updateTextArea();
+				}
+			});
+			updateTimer.start();
+		}
 	}
 	
 	public void setDebugFile(String filename) {
 		closeDebugFile();
-		textArea.setText("");
-		debug = new WriteTextFile(filename);
+		clearTextArea();
+		synchronized (debugLock) {
+			debug = new WriteTextFile(filename);
+		}
 	}
 	
+	/**
+	 * Waits until all complete lines written so far are in the log file and
+	 * closes it.
+	 */
 	public void closeDebugFile() {
-		if (debug != null) {
-			debug.close();
-			debug = null;
+		waitForWriter();
+		synchronized (debugLock) {
+			if (debug != null) {
+				debug.close();
+				debug = null;
+			}
 		}
 	}
 	
 	public void clear() {
 		closeDebugFile();
-		textArea.setText("");
+		clearTextArea();
 	}
 	
 	public String getText() {
@@ -74,22 +139,119 @@ public class Console extends OutputStream {
 	
 	@Override
 	public void write(int b) throws IOException {
-		buffer.append((char) b);
 		if ((char) b == '\n') {
-			if (textArea != null) {
-				textArea.append(buffer.toString());
-				textArea.setCaretPosition(textArea.getDocument().getLength());
+			addLine(lineBuffer.get());
+		}
+		else {
+			lineBuffer.get().write(b);
+		}
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ByteArrayOutputStream buffer = lineBuffer.get();
+		int lineStart = off;
+		for (int byteNr = off; byteNr < off + len; byteNr++) {
+			if (b[byteNr] == '\n') {
+				buffer.write(b, lineStart, byteNr - lineStart);
+				addLine(buffer);
+				lineStart = byteNr + 1;
 			}
-			if (debug != null) {
-				String line = buffer.toString();
-				while ((line.length() > 0) && ((line.substring(line.length() - 1).equals("\r")) || (line.substring(line.length() - 1).equals("\n")))) {
-					line = line.substring(0, line.length() - 2);
+		}
+		buffer.write(b, lineStart, off + len - lineStart);
+	}
+	
+	private void addLine(ByteArrayOutputStream buffer) {
+		String line = new String(buffer.toByteArray(), charset);
+		buffer.reset();
+		if (line.endsWith("\r")) {
+			line = line.substring(0, line.length() - 1);
+		}
+		// Only when the writer is behind by a full ring buffer the writing thread has to wait for it
+		while ((!lines.add(line)) && (Thread.currentThread() != writer)) {
+			LockSupport.unpark(writer);
+			Thread.yield();
+		}
+	}
+	
+	private void writeLines() {
+		while (true) {
+			String line = lines.take();
+			if (line != null) {
+				synchronized (debugLock) {
+					if (debug != null) {
+						debug.writeln(line);
+					}
+				}
+				if (textArea != null) {
+					addText(line + "\n");
+				}
+				writtenCount++;
+			}
+			else {
+				synchronized (debugLock) {
+					if (debug != null) {
+						debug.flush();
+					}
+				}
+				LockSupport.parkNanos(WRITER_IDLE_TIME);
+			}
+		}
+	}
+	
+	private void waitForWriter() {
+		long addedCount = lines.getAddedCount();
+		while (writtenCount < addedCount) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(WRITER_IDLE_TIME / 10);
+		}
+	}
+	
+	private void addText(String text) {
+		synchronized (pendingText) {
+			pendingText.append(text);
+			// Only trimmed when twice too long, so the text is not copied for every line
+			if (pendingText.length() > 2 * MAXIMUM_TEXT_LENGTH) {
+				pendingText.delete(0, pendingText.length() - MAXIMUM_TEXT_LENGTH);
+				pendingTextTruncated = true;
+			}
+		}
+	}
+	
+	private void clearTextArea() {
+		synchronized (pendingText) {
+			pendingText.setLength(0);
+			pendingTextTruncated = true;
+		}
+	}
+	
+	private void updateTextArea() {
+		String text;
+		boolean replace;
+		synchronized (pendingText) {
+			if ((pendingText.length() == 0) && (!pendingTextTruncated)) {
+				return;
+			}
+			text = pendingText.toString();
+			replace = pendingTextTruncated;
+			pendingText.setLength(0);
+			pendingTextTruncated = false;
+		}
+		if (replace) {
+			textArea.setText(text.length() > MAXIMUM_TEXT_LENGTH ? text.substring(text.length() - MAXIMUM_TEXT_LENGTH) : text);
+		}
+		else {
+			textArea.append(text);
+			int excessLength = textArea.getDocument().getLength() - MAXIMUM_TEXT_LENGTH;
+			if (excessLength > 0) {
+				try {
+					textArea.replaceRange("", 0, textArea.getLineEndOffset(textArea.getLineOfOffset(excessLength)));
+				} catch (BadLocationException e) {
+					textArea.replaceRange("", 0, excessLength);
 				}
-				debug.writeln(line);
-				debug.flush();
 			}
-			buffer = new StringBuffer();
 		}
+		textArea.setCaretPosition(textArea.getDocument().getLength());
 	}
 	
 }
@@ -0,0 +1,82 @@
+package org.ohdsi.drugmapping.gui;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded ring buffer of console lines that any number of threads can
+ * add to and one thread takes from, without locks.
+ *
+ * Every slot has a sequence number that tells whether it is free for the
+ * line with a position or holds it. A thread adding a line claims the next
+ * position with a compare and set, stores the line and then publishes it
+ * by setting the sequence number of the slot.
+ */
+public class ConsoleRingBuffer {
+	private final int mask;
+	private final String[] lines;
+	private final AtomicLongArray sequences;
+	private final AtomicLong addPosition = new AtomicLong(0);
+	private long takePosition = 0; // Only used by the taking thread
+
+
+	/**
+	 * The capacity is rounded up to a power of two.
+	 */
+	public ConsoleRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		mask = size - 1;
+		lines = new String[size];
+		sequences = new AtomicLongArray(size);
+		for (int slotNr = 0; slotNr < size; slotNr++) {
+			sequences.set(slotNr, slotNr);
+		}
+	}
+
+
+	/**
+	 * Adds the line and returns true, or returns false when the buffer is full.
+	 */
+	public boolean add(String line) {
+		while (true) {
+			long position = addPosition.get();
+			int slotNr = (int) (position & mask);
+			long difference = sequences.get(slotNr) - position;
+			if (difference == 0) {
+				if (addPosition.compareAndSet(position, position + 1)) {
+					lines[slotNr] = line;
+					sequences.set(slotNr, position + 1);
+					return true;
+				}
+			}
+			else if (difference < 0) {
+				return false;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the oldest line, or null when there is no line to take.
+	 * May only be called by one thread.
+	 */
+	public String take() {
+		int slotNr = (int) (takePosition & mask);
+		if (sequences.get(slotNr) != takePosition + 1) {
+			return null;
+		}
+		String line = lines[slotNr];
+		lines[slotNr] = null;
+		sequences.set(slotNr, takePosition + mask + 1);
+		takePosition++;
+		return line;
+	}
+
+
+	/**
+	 * Returns the number of lines that were added so far.
+	 */
+	public long getAddedCount() {
+		return addPosition.get();
+	}
+}
@@ -33,8 +33,8 @@ import javax.swing.table.TableRowSorter;
 
 import org.ohdsi.drugmapping.DrugMapping;
 import org.ohdsi.drugmapping.cdm.CDM;
-import org.ohdsi.drugmapping.cdm.CDMConcept;
 import org.ohdsi.drugmapping.genericmapping.GenericMapping;
+import org.ohdsi.drugmapping.genericmapping.MappingResultLog;
 import org.ohdsi.drugmapping.source.Source;
 import org.ohdsi.drugmapping.source.SourceDrug;
 import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
@@ -54,7 +54,7 @@ public class DrugMappingLogTab extends MainFrameTab {
 	private JPanel drugMappingResultPanel;
 	
 	private List<Object[]> drugsList = null;
-	private Map<SourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>>> drugMappingLog = null;
+	private MappingResultLog drugMappingLog = null;
 	private Map<String, Double> usedStrengthDeviationPercentageMap = null;
 	private List<List<String>> sourceDrugMappingResultLog = null;
 	private List<List<String>> sourceDrugMappingResultConcepts = null;
@@ -184,7 +184,7 @@ public class DrugMappingLogTab extends MainFrameTab {
 	}
 	
 	
-	public void showDrugMappingLog(Source source, CDM cdm, Map<SourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>>> drugMappingLog, Map<String, Double> usedStrengthDeviationPercentageMap, boolean isSaved) {
+	public void showDrugMappingLog(Source source, CDM cdm, MappingResultLog drugMappingLog, Map<String, Double> usedStrengthDeviationPercentageMap, boolean isSaved) {
 		this.source = source;
 		this.cdm = cdm;
 		this.isSaved = isSaved;
@@ -199,30 +199,25 @@ public class DrugMappingLogTab extends MainFrameTab {
 		drugsList = new ArrayList<Object[]>();
 		for (SourceDrug sourceDrug : source.getSourceDrugs()) {
 			String mappingStatus = null;
-			Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappingLog = drugMappingLog.get(sourceDrug);
-			if (sourceDrugMappingLog != null) { 
-				List<Integer> sortedMappingTypes = new ArrayList<Integer>();
-				sortedMappingTypes.addAll(sourceDrugMappingLog.keySet());
-				for (Integer mappingType : sortedMappingTypes) {
-					List<Map<Integer, List<CDMConcept>>> sourceDrugMappingTypeLog = sourceDrugMappingLog.get(mappingType);
-					if (sourceDrugMappingTypeLog != null) {
-						for (Map<Integer, List<CDMConcept>> sourceDrugComponentMappingLog : sourceDrugMappingTypeLog) {
-							if (sourceDrugComponentMappingLog.keySet().contains(GenericMapping.getMappingResultValue("Overruled mapping"))) {
-								mappingStatus = "Overruled Mapping";
-								break;
-							}
-							else if (sourceDrugComponentMappingLog.keySet().contains(GenericMapping.getMappingResultValue("Incomplete mapping"))) {
-								mappingStatus = "Incomplete Mapping";
-								break;
-							}
-							else if (sourceDrugComponentMappingLog.keySet().contains(GenericMapping.getMappingResultValue("Manual mapping"))) {
-								mappingStatus = GenericMapping.mappingTypeDescriptions.get(mappingType);
-								break;
-							}
-							else if (sourceDrugComponentMappingLog.keySet().contains(GenericMapping.getMappingResultValue("Mapped"))) {
-								mappingStatus = GenericMapping.mappingTypeDescriptions.get(mappingType);
-								break;
-							}
+			if (drugMappingLog.contains(sourceDrug)) { 
+				for (Integer mappingType : drugMappingLog.getMappingTypes(sourceDrug)) {
+					int componentCount = drugMappingLog.getComponentCount(sourceDrug, mappingType);
+					for (int componentNr = 0; componentNr < componentCount; componentNr++) {
+						if (drugMappingLog.hasResult(sourceDrug, mappingType, componentNr, GenericMapping.OVERRULED_MAPPING)) {
+							mappingStatus = "Overruled Mapping";
+							break;
+						}
+						else if (drugMappingLog.hasResult(sourceDrug, mappingType, componentNr, GenericMapping.INCOMPLETE)) {
+							mappingStatus = "Incomplete Mapping";
+							break;
+						}
+						else if (drugMappingLog.hasResult(sourceDrug, mappingType, componentNr, GenericMapping.MANUAL_MAPPING)) {
+							mappingStatus = GenericMapping.mappingTypeDescriptions.get(mappingType);
+							break;
+						}
+						else if (drugMappingLog.hasResult(sourceDrug, mappingType, componentNr, GenericMapping.MAPPED)) {
+							mappingStatus = GenericMapping.mappingTypeDescriptions.get(mappingType);
+							break;
 						}
 					}
 					if (mappingStatus != null) {
@@ -233,8 +228,10 @@ public class DrugMappingLogTab extends MainFrameTab {
 			if (mappingStatus == null) {
 				mappingStatus = "Unmapped";
 			}
-			String drugCode = sourceDrug.getCode() == null ? "" : sourceDrug.getCode();
-			String drugName = sourceDrug.getName() == null ? "" : sourceDrug.getName();
+			String drugCode = sourceDrug.getCode();
+			String drugName = sourceDrug.getName();
+			drugCode = drugCode == null ? "" : drugCode;
+			drugName = drugName == null ? "" : drugName;
 			String atcCodes = sourceDrug.getATCCodesString();
 			String formulations = sourceDrug.getFormulationsString();
 			Long useCount = sourceDrug.getCount() == null ? 0L : sourceDrug.getCount();
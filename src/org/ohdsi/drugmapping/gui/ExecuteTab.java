@@ -85,21 +85,7 @@ public class ExecuteTab extends MainFrameTab {
 		level3Panel.setBorder(BorderFactory.createEmptyBorder());
 
 		// General Settings
-		DrugMapping.settings = new GeneralSettings();
-
-		MainFrame.VOCABULARY_ID                        = DrugMapping.settings.addSetting(new StringValueSetting(this, "VocabularyID", "Vocabulary ID:", "", false));
-		MainFrame.MINIMUM_USE_COUNT                    = DrugMapping.settings.addSetting(new LongValueSetting(this, "minimumUseCount", "Minimum use count:", -1L, true));
-		MainFrame.MAXIMUM_STRENGTH_DEVIATION           = DrugMapping.settings.addSetting(new DoubleValueSetting(this, "maximumStrengthDeviationPercentage", "Maximum strength deviation percentage:", 20.0, true));
-		MainFrame.PREFERENCE_MATCH_COMP_FORM           = DrugMapping.settings.addSetting(new ChoiceValueSetting(this, "preferenceCompForm", "Comp Form matching preference:", new String[] { "Comp before Form", "Form before Comp" }, "Form before Comp", true));
-		MainFrame.PREFERENCE_MATCH_INGREDIENTS_TO_COMP = DrugMapping.settings.addSetting(new ChoiceValueSetting(this, "preferenceMatchIngredientsToComp", "Ingredient Matching preference:", new String[] { "Ingredient Only", "Ingredient or Comp" }, "Ingredient Only", true));
-		MainFrame.PREFERENCE_NON_ORPHAN_INGREDIENTS    = DrugMapping.settings.addSetting(new ChoiceValueSetting(this, "preferenceNonOrphans", "Prefer not-orphan ingredients:", new String[] { "Yes", "No" }, "Yes", true));
-		MainFrame.PREFERENCE_RXNORM                    = DrugMapping.settings.addSetting(new ChoiceValueSetting(this, "preferenceRxNorm", "RxNorm preference:", new String[] { "RxNorm", "RxNorm Extension", "None" }, "RxNorm", true));
-		MainFrame.PREFERENCE_ATC                       = DrugMapping.settings.addSetting(new ChoiceValueSetting(this, "preferenceATC", "Prefer matching ATC:", new String[] { "Yes", "No" }, "Yes", true));
-		MainFrame.PREFERENCE_PRIORITIZE_BY_DATE        = DrugMapping.settings.addSetting(new ChoiceValueSetting(this, "prioritizeByDate", "Valid start date preference:", new String[] { "Latest", "Oldest", "No" }, "No", true));
-		MainFrame.PREFERENCE_PRIORITIZE_BY_CONCEPT_ID  = DrugMapping.settings.addSetting(new ChoiceValueSetting(this, "prioritizeByConceptId", "Concept_id preference:", new String[] { "Smallest (= oldest)", "Largest (= newest)", "No" }, "Smallest (= oldest)", true));
-		MainFrame.PREFERENCE_TAKE_FIRST_OR_LAST        = DrugMapping.settings.addSetting(new ChoiceValueSetting(this, "takeFirstOrLast", "First or last preferece:", new String[] { "First", "Last", "None" }, "None", true));
-		MainFrame.SAVE_DRUGMAPPING_LOG                 = DrugMapping.settings.addSetting(new ChoiceValueSetting(this, "saveDrugMappingsLog", "Save Drugmapping Log file:", new String[] { "Yes", "No" }, "Yes", true));
-		MainFrame.SUPPRESS_WARNINGS                    = DrugMapping.settings.addSetting(new ChoiceValueSetting(this, "suppressWarnings", "Suppress warnings:", new String[] { "Yes", "No" }, "No", false));
+		createGeneralSettings(this);
 		
 		// Buttons Panel
 		JPanel buttonSectionPanel = new JPanel(new BorderLayout());
@@ -137,6 +123,34 @@ public class ExecuteTab extends MainFrameTab {
 	}
 	
 	
+	public static void createGeneralSettings(MainFrameTab mainFrameTab) {
+		DrugMapping.settings = new GeneralSettings();
+
+		MainFrame.VOCABULARY_ID                        = DrugMapping.settings.addSetting(new StringValueSetting(mainFrameTab, "VocabularyID", "Vocabulary ID:", "", false));
+		MainFrame.MINIMUM_USE_COUNT                    = DrugMapping.settings.addSetting(new LongValueSetting(mainFrameTab, "minimumUseCount", "Minimum use count:", -1L, true));
+		MainFrame.MAXIMUM_STRENGTH_DEVIATION           = DrugMapping.settings.addSetting(new DoubleValueSetting(mainFrameTab, "maximumStrengthDeviationPercentage", "Maximum strength deviation percentage:", 20.0, true));
+		MainFrame.PREFERENCE_MATCH_COMP_FORM           = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "preferenceCompForm", "Comp Form matching preference:", new String[] { "Comp before Form", "Form before Comp" }, "Form before Comp", true));
+		MainFrame.PREFERENCE_MATCH_INGREDIENTS_TO_COMP = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "preferenceMatchIngredientsToComp", "Ingredient Matching preference:", new String[] { "Ingredient Only", "Ingredient or Comp" }, "Ingredient Only", true));
+		MainFrame.PREFERENCE_NON_ORPHAN_INGREDIENTS    = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "preferenceNonOrphans", "Prefer not-orphan ingredients:", new String[] { "Yes", "No" }, "Yes", true));
+		MainFrame.PREFERENCE_RXNORM                    = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "preferenceRxNorm", "RxNorm preference:", new String[] { "RxNorm", "RxNorm Extension", "None" }, "RxNorm", true));
+		MainFrame.PREFERENCE_ATC                       = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "preferenceATC", "Prefer matching ATC:", new String[] { "Yes", "No" }, "Yes", true));
+		MainFrame.PREFERENCE_PRIORITIZE_BY_DATE        = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "prioritizeByDate", "Valid start date preference:", new String[] { "Latest", "Oldest", "No" }, "No", true));
+		MainFrame.PREFERENCE_PRIORITIZE_BY_CONCEPT_ID  = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "prioritizeByConceptId", "Concept_id preference:", new String[] { "Smallest (= oldest)", "Largest (= newest)", "No" }, "Smallest (= oldest)", true));
+		MainFrame.PREFERENCE_TAKE_FIRST_OR_LAST        = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "takeFirstOrLast", "First or last preferece:", new String[] { "First", "Last", "None" }, "None", true));
+		MainFrame.MAPPING_THREADS                      = DrugMapping.settings.addSetting(new LongValueSetting(mainFrameTab, "mappingThreads", "Number of mapping threads:", -1L, true));
+		MainFrame.INCREMENTAL_MAPPING                  = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "incrementalMapping", "Incremental mapping:", new String[] { "Yes", "No" }, "No", true));
+		MainFrame.CDM_FETCH_SIZE                       = DrugMapping.settings.addSetting(new LongValueSetting(mainFrameTab, "cdmFetchSize", "CDM query fetch size:", -1L, true));
+		MainFrame.CDM_CONNECTIONS                      = DrugMapping.settings.addSetting(new LongValueSetting(mainFrameTab, "cdmConnections", "Number of CDM connections:", 1L, true));
+		MainFrame.CDM_EXTRACTION                       = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "cdmExtraction", "CDM extraction:", new String[] { "Full", "Normalized" }, "Full", true));
+		MainFrame.SOURCE_DRUG_STORAGE                  = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "sourceDrugStorage", "Source drug storage:", new String[] { "Memory", "Memory mapped file" }, "Memory", true));
+		MainFrame.COMPRESS_OUTPUT_FILES                = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "compressOutputFiles", "Compress output files:", new String[] { "Yes", "No" }, "No", true));
+		MainFrame.DATABASE_OUTPUT                      = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "databaseOutput", "Save Source To Concept Map in database:", new String[] { "Yes", "No" }, "No", true));
+		MainFrame.DATABASE_OUTPUT_TABLE                = DrugMapping.settings.addSetting(new StringValueSetting(mainFrameTab, "databaseOutputTable", "Source To Concept Map table:", "source_to_concept_map", true));
+		MainFrame.SAVE_DRUGMAPPING_LOG                 = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "saveDrugMappingsLog", "Save Drugmapping Log file:", new String[] { "Yes", "No" }, "Yes", true));
+		MainFrame.SUPPRESS_WARNINGS                    = DrugMapping.settings.addSetting(new ChoiceValueSetting(mainFrameTab, "suppressWarnings", "Suppress warnings:", new String[] { "Yes", "No" }, "No", false));
+	}
+	
+	
 	private JScrollPane createConsolePanel() {
 		JTextArea consoleArea = new JTextArea();
 		consoleArea.setToolTipText("General progress information");
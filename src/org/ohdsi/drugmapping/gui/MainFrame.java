@@ -26,6 +26,7 @@ import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JTabbedPane;
 import org.ohdsi.drugmapping.DrugMapping;
+import org.ohdsi.drugmapping.MappingConfiguration;
 import org.ohdsi.drugmapping.Version;
 import org.ohdsi.drugmapping.cdm.CDM;
 import org.ohdsi.drugmapping.cdm.CDMConcept;
@@ -35,6 +36,7 @@ import org.ohdsi.drugmapping.files.FileColumnDefinition;
 import org.ohdsi.drugmapping.files.FileDefinition;
 import org.ohdsi.drugmapping.genericmapping.GenericMapping;
 import org.ohdsi.drugmapping.genericmapping.GenericMappingInputFiles;
+import org.ohdsi.drugmapping.genericmapping.MappingResultLog;
 import org.ohdsi.drugmapping.gui.files.DelimitedInputFileGUI;
 import org.ohdsi.drugmapping.gui.files.FolderGUI;
 import org.ohdsi.drugmapping.gui.files.InputFileGUI;
@@ -49,22 +51,33 @@ public class MainFrame {
 	
 	private static final String ICON = "/org/ohdsi/drugmapping/gui/OHDSI Icon Picture 048x048.gif"; 
 	
-	public static int VOCABULARY_ID;
+	// The indexes of the general settings, assigned again when the setting components are created
+	public static int VOCABULARY_ID = MappingConfiguration.getSettingIndex("VocabularyID");
 	
-	public static int MINIMUM_USE_COUNT;
-	public static int MAXIMUM_STRENGTH_DEVIATION;
+	public static int MINIMUM_USE_COUNT = MappingConfiguration.getSettingIndex("minimumUseCount");
+	public static int MAXIMUM_STRENGTH_DEVIATION = MappingConfiguration.getSettingIndex("maximumStrengthDeviationPercentage");
 
-	public static int PREFERENCE_MATCH_COMP_FORM;
-	public static int PREFERENCE_MATCH_INGREDIENTS_TO_COMP;	
-	public static int PREFERENCE_NON_ORPHAN_INGREDIENTS;
-	public static int PREFERENCE_RXNORM;
-	public static int PREFERENCE_ATC;
-	public static int PREFERENCE_PRIORITIZE_BY_DATE;
-	public static int PREFERENCE_PRIORITIZE_BY_CONCEPT_ID;
-	public static int PREFERENCE_TAKE_FIRST_OR_LAST;
-	
-	public static int SAVE_DRUGMAPPING_LOG;
-	public static int SUPPRESS_WARNINGS;
+	public static int PREFERENCE_MATCH_COMP_FORM = MappingConfiguration.getSettingIndex("preferenceCompForm");
+	public static int PREFERENCE_MATCH_INGREDIENTS_TO_COMP = MappingConfiguration.getSettingIndex("preferenceMatchIngredientsToComp");	
+	public static int PREFERENCE_NON_ORPHAN_INGREDIENTS = MappingConfiguration.getSettingIndex("preferenceNonOrphans");
+	public static int PREFERENCE_RXNORM = MappingConfiguration.getSettingIndex("preferenceRxNorm");
+	public static int PREFERENCE_ATC = MappingConfiguration.getSettingIndex("preferenceATC");
+	public static int PREFERENCE_PRIORITIZE_BY_DATE = MappingConfiguration.getSettingIndex("prioritizeByDate");
+	public static int PREFERENCE_PRIORITIZE_BY_CONCEPT_ID = MappingConfiguration.getSettingIndex("prioritizeByConceptId");
+	public static int PREFERENCE_TAKE_FIRST_OR_LAST = MappingConfiguration.getSettingIndex("takeFirstOrLast");
+	
+	public static int MAPPING_THREADS = MappingConfiguration.getSettingIndex("mappingThreads");
+	public static int INCREMENTAL_MAPPING = MappingConfiguration.getSettingIndex("incrementalMapping");
+	public static int CDM_FETCH_SIZE = MappingConfiguration.getSettingIndex("cdmFetchSize");
+	public static int CDM_CONNECTIONS = MappingConfiguration.getSettingIndex("cdmConnections");
+	public static int CDM_EXTRACTION = MappingConfiguration.getSettingIndex("cdmExtraction");
+	public static int SOURCE_DRUG_STORAGE = MappingConfiguration.getSettingIndex("sourceDrugStorage");
+	public static int COMPRESS_OUTPUT_FILES = MappingConfiguration.getSettingIndex("compressOutputFiles");
+	public static int DATABASE_OUTPUT = MappingConfiguration.getSettingIndex("databaseOutput");
+	public static int DATABASE_OUTPUT_TABLE = MappingConfiguration.getSettingIndex("databaseOutputTable");
+	
+	public static int SAVE_DRUGMAPPING_LOG = MappingConfiguration.getSettingIndex("saveDrugMappingsLog");
+	public static int SUPPRESS_WARNINGS = MappingConfiguration.getSettingIndex("suppressWarnings");
 	
 	private DrugMapping drugMapping;
 	private GenericMapping genericMapping;
@@ -80,7 +93,7 @@ public class MainFrame {
 	private Long minimumUseCount;
 	private boolean compBeforeForm;
 	private String baseName;
-	private Map<SourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>>> drugMappingLog = null;
+	private MappingResultLog drugMappingLog = null;
 	private Map<String, Double> usedStrengthDeviationPercentageMap = null;
 	
 
@@ -565,7 +578,7 @@ public class MainFrame {
 		
 		usedStrengthDeviationPercentageMap = new HashMap<String, Double>();
 		if (drugMappingLogFile.openFileForReading()) {
-			drugMappingLog = new HashMap<SourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>>>();
+			drugMappingLog = new MappingResultLog(source.getSourceDrugs().size());
 			
 			String lastSourceCode               = "";
 			Integer lastMappingType             = null;
@@ -632,37 +645,20 @@ public class MainFrame {
 					usedStrengthDeviationPercentageMap.put(key, Double.parseDouble(strengthMarginPercentage));
 				}
 				
-				Map<Integer, List<Map<Integer, List<CDMConcept>>>> sourceDrugMappingLog = drugMappingLog.get(sourceDrug);
-				if (sourceDrugMappingLog == null) {
-					sourceDrugMappingLog = new HashMap<Integer, List<Map<Integer, List<CDMConcept>>>>();
-					drugMappingLog.put(sourceDrug, sourceDrugMappingLog);
-				}
-				
-				List<Map<Integer, List<CDMConcept>>> sourceDrugMappingTypeLog = sourceDrugMappingLog.get(mappingType);
-				if (sourceDrugMappingTypeLog == null) {
-					sourceDrugMappingTypeLog = new ArrayList<Map<Integer, List<CDMConcept>>>();
-					sourceDrugMappingLog.put(mappingType, sourceDrugMappingTypeLog);
-				}
-
-				Map<Integer, List<CDMConcept>> sourceDrugMappingResult;
-				if (
-						(!sourceCode.equals(lastSourceCode)) ||
-						(mappingType != lastMappingType) ||
-						(!ingredientCode.equals(lastIngredientCode)) || 
-						(!sourceIngredientAmount.equals(lastSourceIngredientAmount)) || 
-						(!sourceIngredientUnit.equals(lastSourceIngredientUnit))
-					) {
-					sourceDrugMappingResult = new HashMap<Integer, List<CDMConcept>>();
-					sourceDrugMappingTypeLog.add(sourceDrugMappingResult);
-				}
-				else {
-					if (sourceDrugMappingTypeLog.size() == 0) {
-						sourceDrugMappingResult = new HashMap<Integer, List<CDMConcept>>();
-						sourceDrugMappingTypeLog.add(sourceDrugMappingResult);
+				if ((sourceDrug != null) && (mappingType != null) && (mappingResult != null)) {
+					// Each new ingredient in the log starts a new component of the mapping type
+					int componentNr = drugMappingLog.getComponentCount(sourceDrug, mappingType);
+					if ((componentNr > 0) && 
+							sourceCode.equals(lastSourceCode) &&
+							(mappingType == lastMappingType) &&
+							ingredientCode.equals(lastIngredientCode) && 
+							sourceIngredientAmount.equals(lastSourceIngredientAmount) && 
+							sourceIngredientUnit.equals(lastSourceIngredientUnit)
+						) {
+						componentNr--;
 					}
+					drugMappingLog.add(sourceDrug, mappingType, componentNr, mappingResult, conceptList);
 				}
-				sourceDrugMappingResult = sourceDrugMappingTypeLog.get(sourceDrugMappingTypeLog.size() - 1);
-				sourceDrugMappingResult.put(mappingResult, conceptList);
 				
 				lastSourceCode               = sourceCode;
 				lastMappingType              = mappingType;
@@ -676,7 +672,7 @@ public class MainFrame {
 	}
 	
 	
-	public void showDrugMappingLog(Source source, CDM cdm, Map<SourceDrug, Map<Integer, List<Map<Integer, List<CDMConcept>>>>> drugMappingLog, Map<String, Double> usedStrengthDeviationPercentageMap, String baseName, boolean isSaved) {
+	public void showDrugMappingLog(Source source, CDM cdm, MappingResultLog drugMappingLog, Map<String, Double> usedStrengthDeviationPercentageMap, String baseName, boolean isSaved) {
 		ingredientMappingLogTab.showIngredientMappingLog();
 		drugMappingLogTab.showDrugMappingLog(source, cdm, drugMappingLog, usedStrengthDeviationPercentageMap, isSaved);
 		for (JComponent component : DrugMapping.componentsToDisableWhenRunning) {
@@ -40,7 +40,9 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileFilter;
 
+import org.ohdsi.drugmapping.files.DelimitedFile;
 import org.ohdsi.drugmapping.files.DelimitedFileWithHeader;
+import org.ohdsi.drugmapping.files.DelimitedInputFile;
 import org.ohdsi.drugmapping.files.FileColumnDefinition;
 import org.ohdsi.drugmapping.files.FileDefinition;
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
@@ -48,7 +50,7 @@ import org.ohdsi.drugmapping.gui.JTextFieldLimit;
 import org.ohdsi.drugmapping.gui.MainFrame;
 import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
 
-public class DelimitedInputFileGUI extends InputFileGUI {
+public class DelimitedInputFileGUI extends InputFileGUI implements DelimitedInputFile {
 	private static final long serialVersionUID = -8908651240263793215L;
 	
 	private final String[] FIELD_DELIMITERS = new String[]{ "Tab", "Semicolon", "Comma", "Space", "Other" };
@@ -61,20 +63,16 @@ public class DelimitedInputFileGUI extends InputFileGUI {
 	private Map<String, String> columnMapping = new HashMap<String, String>();
 	
 	private Iterator<DelimitedFileRow> fileIterator;
+	private Map<String, Integer> columnIndexes = new HashMap<String, Integer>();
 	
 	
 	public static char fieldDelimiter(String delimiterName) {
-		if (delimiterName.equals("Tab")) return '\t';
-		if (delimiterName.equals("Semicolon")) return ';';
-		if (delimiterName.equals("Comma")) return ',';
-		if (delimiterName.equals("Space")) return ' ';
-		return delimiterName.charAt(0);
+		return DelimitedInputFile.fieldDelimiter(delimiterName);
 	}
 	
 	
 	public static char textQualifier(String textQualifierName) {
-		if (textQualifierName.equals("None")) return (char) 0;
-		return textQualifierName.charAt(0);
+		return DelimitedInputFile.textQualifier(textQualifierName);
 	}
 	
 	
@@ -173,7 +171,8 @@ public class DelimitedInputFileGUI extends InputFileGUI {
 			throw new RuntimeException("Field \"" + fieldName + "\" not found");
 		}
 		else {
-			value = row.get(mappedFieldName, required);
+			Integer columnIndex = columnIndexes.get(fieldName);
+			value = (columnIndex == null) ? null : row.get(columnIndex);
 		}
 		return DrugMappingStringUtilities.convertToANSI(value);
 	}
@@ -620,9 +619,11 @@ public class DelimitedInputFileGUI extends InputFileGUI {
 				char textDelimiter = textQualifier(textQualifier);
 				
 				DelimitedFileWithHeader readFile = new DelimitedFileWithHeader(getFileName(), delimiter, textDelimiter);
+				readFile.setMemoryMapped(inputFile.length() >= DelimitedFile.MEMORY_MAPPED_MINIMUM_SIZE);
 				if (readFile.openForReading()) {
 					result = true;
 					fileIterator = readFile.iterator();
+					columnIndexes = DelimitedInputFile.getColumnIndexes(columnMapping, readFile.getColumns());
 				}
 				else {
 					if (!suppressError) {
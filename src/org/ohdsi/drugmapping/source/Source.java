@@ -2,6 +2,7 @@ package org.ohdsi.drugmapping.source;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -11,10 +12,8 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
-import org.ohdsi.drugmapping.DrugMapping;
 import org.ohdsi.drugmapping.files.DelimitedFileRow;
-import org.ohdsi.drugmapping.gui.MainFrame;
-import org.ohdsi.drugmapping.gui.files.DelimitedInputFileGUI;
+import org.ohdsi.drugmapping.files.DelimitedInputFile;
 import org.ohdsi.drugmapping.utilities.DrugMappingDateUtilities;
 import org.ohdsi.drugmapping.utilities.DrugMappingNumberUtilities;
 import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
@@ -138,20 +137,40 @@ public class Source {
 	private List<SourceDrug> sourceDrugs;
 	private Map<String, SourceDrug> sourceDrugMap;
 	private List<SourceDrug> missingATC = new ArrayList<SourceDrug>();
+	private SourceDrugStore sourceDrugStore = null;
 	
 	
-	public boolean loadSourceDrugs(DelimitedInputFileGUI sourceDrugsFile, List<String> report) {
+	public boolean loadSourceDrugs(DelimitedInputFile sourceDrugsFile, long minimumUseCount, List<String> report) {
+		return loadSourceDrugs(sourceDrugsFile, minimumUseCount, false, report);
+	}
+	
+	
+	public boolean loadSourceDrugs(DelimitedInputFile sourceDrugsFile, long minimumUseCount, boolean memoryMapped, List<String> report) {
 		allComponents = new HashSet<SourceDrugComponent>();
 		allIngredients = new HashSet<SourceIngredient>();
 		ingredientSourceCodeIndex = new HashMap<String, SourceIngredient>();
 		
 		casNumbersSet = 0;
 		
-		return load(sourceDrugsFile, DrugMapping.settings.getLongSetting(MainFrame.MINIMUM_USE_COUNT), report);
+		if (sourceDrugStore != null) {
+			sourceDrugStore.close();
+			sourceDrugStore = null;
+		}
+		if (memoryMapped) {
+			try {
+				sourceDrugStore = new SourceDrugStore();
+			}
+			catch (IOException e) {
+				System.out.println("  ERROR: Cannot create source drug store: " + e.getMessage());
+				return false;
+			}
+		}
+		
+		return load(sourceDrugsFile, minimumUseCount, report);
 	}
 	
 	
-	public boolean loadSourceDrugs(DelimitedInputFileGUI sourceDrugsFile, long minimumUseCount) {
+	public boolean loadSourceDrugs(DelimitedInputFile sourceDrugsFile, long minimumUseCount) {
 		allComponents = new HashSet<SourceDrugComponent>();
 		allIngredients = new HashSet<SourceIngredient>();
 		ingredientSourceCodeIndex = new HashMap<String, SourceIngredient>();
@@ -162,7 +181,7 @@ public class Source {
 	}
 	
 	
-	private boolean load(DelimitedInputFileGUI sourceDrugsFile, long minimumUseCount, List<String> report) {
+	private boolean load(DelimitedInputFile sourceDrugsFile, long minimumUseCount, List<String> report) {
 		boolean sourceDrugError = false;
 		
 		forms = new HashSet<String>();
@@ -215,6 +234,10 @@ public class Source {
 								if ((sourceDrug.getATCCodes() == null) || (sourceDrug.getATCCodes().size() == 0)) {
 									missingATC.add(sourceDrug);
 								}
+								
+								if (sourceDrugStore != null) {
+									sourceDrug.moveToStore(sourceDrugStore);
+								}
 							}
 							else {
 								sourceDrug = null;
@@ -302,6 +325,10 @@ public class Source {
 			System.out.println("  ERROR: " + fileException.getMessage());
 			sourceDrugError = true;
 		}
+		catch (IOException storeException) {
+			System.out.println("  ERROR: Cannot write source drug store: " + storeException.getMessage());
+			sourceDrugError = true;
+		}
 
 		if (report != null) {
 			report.add("");
@@ -1,5 +1,6 @@
 package org.ohdsi.drugmapping.source;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -9,6 +10,7 @@ import org.ohdsi.drugmapping.utilities.DrugMappingStringUtilities;
 
 public class SourceDrug {
 	private static boolean error = false;
+	private static String emptyRecord = null;
 	
 	
 	private String code = null;
@@ -18,6 +20,8 @@ public class SourceDrug {
 	private Long count = null;
 	private List<SourceDrugComponent> components = new ArrayList<SourceDrugComponent>();
 	private String matchString = "";
+	private SourceDrugStore store = null;
+	private long storeOffset = -1L;
 	
 	
 	public static SourceIngredient getIngredient(String ingredientCode, String ingredientName, String ingredientNameEnglish, String casNumber) {
@@ -58,10 +62,13 @@ public class SourceDrug {
 	
 	
 	public static String emptyRecord() {
-		String[] headerSplit = getHeader().split(",");
-		String emptyRecord = "";
-		for (int commaNr = 0; commaNr < (headerSplit.length - 1); commaNr++) {
-			emptyRecord += ",";
+		if (emptyRecord == null) {
+			String[] headerSplit = getHeader().split(",");
+			StringBuilder emptyRecordBuilder = new StringBuilder();
+			for (int commaNr = 0; commaNr < (headerSplit.length - 1); commaNr++) {
+				emptyRecordBuilder.append(',');
+			}
+			emptyRecord = emptyRecordBuilder.toString();
 		}
 		return emptyRecord;
 	}
@@ -101,46 +108,53 @@ public class SourceDrug {
 	}
 	
 	
+	/**
+	 * Moves the code, name, ATC codes, formulations and count to the store.
+	 * The components and the match string stay on the heap.
+	 */
+	public void moveToStore(SourceDrugStore store) throws IOException {
+		storeOffset = store.addSourceDrug(code, name, atcCodeList, formulationsList, count);
+		this.store = store;
+		code = null;
+		name = null;
+		atcCodeList = null;
+		formulationsList = null;
+		count = null;
+	}
+	
+	
 	public String getCode() {
-		return code;
+		return store == null ? code : store.getCode(storeOffset);
 	}
 	
 	
 	public String getName() {
-		return name;
+		return store == null ? name : store.getName(storeOffset);
 	}
 	
 	
 	public List<String> getATCCodes() {
-		return atcCodeList;
+		return store == null ? atcCodeList : store.getATCCodes(storeOffset);
 	}
 	
 	
 	public String getATCCodesString() {
-		String atcCodes = "";
-		for (String atcCode : atcCodeList) {
-			atcCodes += (atcCodes.equals("") ? "" : "|") + atcCode;
-		}
-		return atcCodes;
+		return String.join("|", getATCCodes());
 	}
 	
 	
 	public List<String> getFormulations() {
-		return formulationsList;
+		return store == null ? formulationsList : store.getFormulations(storeOffset);
 	}
 	
 	
 	public String getFormulationsString() {
-		String formulations = "";
-		for (String formulation : formulationsList) {
-			formulations += (formulations.equals("") ? "" : "|") + formulation;
-		}
-		return formulations;
+		return String.join("|", getFormulations());
 	}
 	
 	
 	public Long getCount() {
-		return count;
+		return store == null ? count : store.getCount(storeOffset);
 	}
 	
 	
@@ -239,6 +253,9 @@ public class SourceDrug {
 	
 	
 	public String toString() {
+		String code = getCode();
+		String name = getName();
+		Long count = getCount();
 		String description = (code == null ? "" : DrugMappingStringUtilities.escapeFieldValue(code));
 		description += "," + (name == null ? "" : DrugMappingStringUtilities.escapeFieldValue(name));
 		description += "," + DrugMappingStringUtilities.escapeFieldValue(getATCCodesString());
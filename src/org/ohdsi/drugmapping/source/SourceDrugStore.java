@@ -0,0 +1,206 @@
+package org.ohdsi.drugmapping.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the code, name, ATC codes, formulations and count of the source
+ * drugs in a memory mapped file instead of on the heap. A source drug that
+ * is moved to the store only keeps the offset of its record.
+ *
+ * A record is:
+ *   long   count
+ *   int    offset of the name from the start of the record
+ *   int    offset of the ATC codes from the start of the record
+ *   string code
+ *   string name
+ *   int    number of ATC codes, followed by their dictionary indexes
+ *   int    number of formulations, followed by their dictionary indexes
+ *
+ * A string is an int length (-1 for null) followed by the UTF-8 bytes.
+ * The ATC codes and formulations are few and are kept in a dictionary on
+ * the heap. The file is mapped in segments and a record never crosses the
+ * end of a segment. The strings are copied in bulk through a duplicate of
+ * the segment, so the position of the shared segment is never changed.
+ */
+public class SourceDrugStore {
+	private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private File file;
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private long size = 0;
+
+	private Map<String, Integer> dictionaryIndexes = new HashMap<String, Integer>();
+	private List<String> dictionary = new ArrayList<String>();
+
+
+	public SourceDrugStore() throws IOException {
+		file = File.createTempFile("DrugMapping Source Drugs ", ".bin");
+		file.deleteOnExit();
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+	}
+
+
+	public synchronized long addSourceDrug(String code, String name, List<String> atcCodes, List<String> formulations, Long count) throws IOException {
+		byte[] codeBytes = code == null ? null : code.getBytes(StandardCharsets.UTF_8);
+		byte[] nameBytes = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+		int nameOffset = 16 + 4 + (codeBytes == null ? 0 : codeBytes.length);
+		int listsOffset = nameOffset + 4 + (nameBytes == null ? 0 : nameBytes.length);
+		int recordSize = listsOffset + 4 + (4 * atcCodes.size()) + 4 + (4 * formulations.size());
+		if (recordSize > SEGMENT_SIZE) {
+			throw new IOException("Source drug " + code + " is too large to store");
+		}
+
+		int position = (int) (size % SEGMENT_SIZE);
+		if ((segments.size() == 0) || (position + recordSize > SEGMENT_SIZE)) {
+			size = (long) segments.size() * SEGMENT_SIZE;
+			segments.add(channel.map(FileChannel.MapMode.READ_WRITE, size, SEGMENT_SIZE));
+			position = 0;
+		}
+		long offset = size;
+		MappedByteBuffer segment = segments.get(segments.size() - 1);
+
+		segment.putLong(position, count == null ? Long.MIN_VALUE : count);
+		segment.putInt(position + 8, nameOffset);
+		segment.putInt(position + 12, listsOffset);
+		putBytes(segment, position + 16, codeBytes);
+		putBytes(segment, position + nameOffset, nameBytes);
+		int listPosition = putDictionaryIndexes(segment, position + listsOffset, atcCodes);
+		putDictionaryIndexes(segment, listPosition, formulations);
+
+		size = offset + recordSize;
+		return offset;
+	}
+
+
+	public Long getCount(long offset) {
+		long count = getSegment(offset).getLong(getPosition(offset));
+		return count == Long.MIN_VALUE ? null : count;
+	}
+
+
+	public String getCode(long offset) {
+		return getString(getSegment(offset), getPosition(offset) + 16);
+	}
+
+
+	public String getName(long offset) {
+		MappedByteBuffer segment = getSegment(offset);
+		int position = getPosition(offset);
+		return getString(segment, position + segment.getInt(position + 8));
+	}
+
+
+	public List<String> getATCCodes(long offset) {
+		MappedByteBuffer segment = getSegment(offset);
+		int position = getPosition(offset);
+		return getDictionaryValues(segment, position + segment.getInt(position + 12));
+	}
+
+
+	public List<String> getFormulations(long offset) {
+		MappedByteBuffer segment = getSegment(offset);
+		int position = getPosition(offset);
+		int listPosition = position + segment.getInt(position + 12);
+		return getDictionaryValues(segment, listPosition + 4 + (4 * segment.getInt(listPosition)));
+	}
+
+
+	public long getSize() {
+		return size;
+	}
+
+
+	public synchronized void close() {
+		// The mapped segments are released by the garbage collector
+		segments.clear();
+		try {
+			channel.close();
+			randomAccessFile.close();
+		} catch (IOException e) {
+			System.out.println("WARNING: Could not close source drug store '" + file.getAbsolutePath() + "'.");
+		}
+		file.delete();
+	}
+
+
+	private MappedByteBuffer getSegment(long offset) {
+		return segments.get((int) (offset / SEGMENT_SIZE));
+	}
+
+
+	private int getPosition(long offset) {
+		return (int) (offset % SEGMENT_SIZE);
+	}
+
+
+	private void putBytes(MappedByteBuffer segment, int position, byte[] bytes) {
+		if (bytes == null) {
+			segment.putInt(position, -1);
+		}
+		else {
+			segment.putInt(position, bytes.length);
+			ByteBuffer buffer = segment.duplicate();
+			buffer.position(position + 4);
+			buffer.put(bytes);
+		}
+	}
+
+
+	private String getString(MappedByteBuffer segment, int position) {
+		int length = segment.getInt(position);
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		ByteBuffer buffer = segment.duplicate();
+		buffer.position(position + 4);
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+	private int putDictionaryIndexes(MappedByteBuffer segment, int position, List<String> values) {
+		segment.putInt(position, values.size());
+		position += 4;
+		for (String value : values) {
+			Integer index = dictionaryIndexes.get(value);
+			if (index == null) {
+				index = dictionary.size();
+				dictionary.add(value);
+				dictionaryIndexes.put(value, index);
+			}
+			segment.putInt(position, index);
+			position += 4;
+		}
+		return position;
+	}
+
+
+	private List<String> getDictionaryValues(MappedByteBuffer segment, int position) {
+		int valueCount = segment.getInt(position);
+		if (valueCount == 0) {
+			return Collections.emptyList();
+		}
+		List<String> values = new ArrayList<String>(valueCount);
+		synchronized (this) {
+			for (int valueNr = 0; valueNr < valueCount; valueNr++) {
+				values.add(dictionary.get(segment.getInt(position + 4 + (4 * valueNr))));
+			}
+		}
+		return values;
+	}
+}
@@ -2,7 +2,6 @@ package org.ohdsi.drugmapping.source;
 
 import java.io.PrintWriter;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import org.ohdsi.drugmapping.cdm.CDMIngredient;
@@ -16,7 +15,6 @@ public class SourceIngredient implements Comparable<SourceIngredient> {
 	private String ingredientNameEnglish = "";
 	private String casNumber = null;
 	private Long count = -1L;
-	private List<String> ingredientMatchingNames = null;
 	
 	private String matchString = "";
 	private CDMIngredient matchingIngredient = null;
@@ -64,8 +62,6 @@ public class SourceIngredient implements Comparable<SourceIngredient> {
 		this.ingredientNameEnglish = ingredientNameEnglish;
 		this.casNumber = casNumber.equals("") ? null : casNumber;
 		this.ingredientNameNoSpaces = this.ingredientName.replaceAll(" ", "").replaceAll("-", "").replaceAll(",", "");
-
-		ingredientMatchingNames = DrugMappingStringUtilities.generateMatchingNames(ingredientName, ingredientNameEnglish);
 	}
 	
 	
@@ -119,14 +115,17 @@ public class SourceIngredient implements Comparable<SourceIngredient> {
 	}
 	
 	
-	public List<String> getIngredientMatchingNames() {
-		return ingredientMatchingNames;
+	/**
+	 * Returns the names to match the ingredient on, in order of preference.
+	 * The names are generated while they are iterated over.
+	 */
+	public Iterable<String> getIngredientMatchingNames() {
+		return DrugMappingStringUtilities.getMatchingNames(ingredientName, ingredientNameEnglish);
 	}
 	
 	
 	public void setIngredientNameEnglish(String ingredientNameEnglish) {
 		this.ingredientNameEnglish = ingredientNameEnglish == null ? "" : ingredientNameEnglish;
-		ingredientMatchingNames = DrugMappingStringUtilities.generateMatchingNames(ingredientName, ingredientNameEnglish);
 	}
 	
 	
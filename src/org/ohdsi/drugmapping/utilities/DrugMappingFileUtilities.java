@@ -2,16 +2,16 @@ package org.ohdsi.drugmapping.utilities;
 
 import java.awt.Component;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 
 import javax.swing.JFileChooser;
 import javax.swing.filechooser.FileFilter;
 import org.ohdsi.drugmapping.DrugMapping;
+import org.ohdsi.drugmapping.files.DelimitedOutputWriter;
 
 public class DrugMappingFileUtilities {
 	
-	
 	public static String selectCSVFile(Component parent) {
 		return selectCSVFile(parent, ".csv", "CSV Files");
 	}
@@ -45,16 +45,25 @@ public class DrugMappingFileUtilities {
 	}
 	
 	
-	public static PrintWriter openOutputFile(String fileName, String header) {
-		PrintWriter outputPrintWriter = null;
+	/**
+	 * Returns the full name of the output file. Compressed output files get
+	 * the GZIP extension. Whether to compress is a setting of the mapping run.
+	 */
+	public static String getOutputFileName(String fileName, boolean compressOutputFiles) {
+		return DrugMapping.baseName + fileName + (compressOutputFiles ? DelimitedOutputWriter.GZIP_EXTENSION : "");
+	}
+	
+	
+	public static DelimitedOutputWriter openOutputFile(String fileName, String header, boolean compressOutputFiles) {
+		DelimitedOutputWriter outputPrintWriter = null;
 		String fullFileName = "";
 		try {
 			// Create output file
-			fullFileName = DrugMapping.baseName + fileName;
-			outputPrintWriter = new PrintWriter(new File(fullFileName));
+			fullFileName = getOutputFileName(fileName, compressOutputFiles);
+			outputPrintWriter = DelimitedOutputWriter.open(fullFileName);
 			outputPrintWriter.println(header);
 		}
-		catch (FileNotFoundException e) {
+		catch (IOException e) {
 			System.out.println("      ERROR: Cannot create output file '" + fullFileName + "'");
 			outputPrintWriter = null;
 		}
@@ -1,11 +1,13 @@
 package org.ohdsi.drugmapping.utilities;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 public class DrugMappingStringUtilities {
@@ -134,103 +136,302 @@ public class DrugMappingStringUtilities {
 	}
 	
 	
-	public static String standardizedName(String name) {
-		
-		if (name != null) {
-			name = " " + safeToUpperCase(convertToStandardCharacters(name)) + " ";
-			
-			name = name.replaceAll("-", " ");
-			name = name.replaceAll(",", " ");
-			name = name.replaceAll("/", " ");
-			name = name.replaceAll("[(]", " ");
-			name = name.replaceAll("[)]", " ");
-			name = name.replaceAll("_", " ");
-			name = name.replaceAll("^", " ");
-			name = name.replaceAll("'", " ");
-			name = name.replaceAll("\\]", " ");
-			name = name.replaceAll("\\[", " ");
+	// The rewrites of standardizedName() in the order they are applied.
+	// Every rewrite replaces all non-overlapping occurrences from left to right.
+	private static final String[][] STANDARDIZED_NAME_REWRITES = new String[][] {
+		// Prevent these seperate letters to be patched
+		{ " A ", "_A_" },
+		{ " O ", "_O_" },
+		{ " E ", "_E_" },
+		{ " U ", "_U_" },
+		{ " P ", "_P_" },
+		{ " H ", "_H_" },
 
-			// Prevent these seperate letters to be patched
-			name = name.replaceAll(" A ", "_A_");
-			name = name.replaceAll(" O ", "_O_");
-			name = name.replaceAll(" E ", "_E_");
-			name = name.replaceAll(" U ", "_U_");
-			name = name.replaceAll(" P ", "_P_");
-			name = name.replaceAll(" H ", "_H_");
+		{ "AAT", "ATE" },
+		{ "OOT", "OTE" },
+		{ "ZUUR", "ACID" },
+		{ "AA", "A" },
+		{ "OO", "O" },
+		{ "EE", "E" },
+		{ "UU", "U" },
+		{ "TH", "T" },
+		{ "AE", "A" },
+		{ "EA", "A" },
+		{ "PH", "F" },
+		{ "Y", "I" },
+		{ "S ", " " },
+		{ "E ", " " },
+		{ "A ", " " },
+		{ "O ", " " },
+		{ " ", "" },
 
-			name = name.replaceAll("AAT", "ATE");
-			name = name.replaceAll("OOT", "OTE");
-			name = name.replaceAll("ZUUR", "ACID");
-			name = name.replaceAll("AA", "A");
-			name = name.replaceAll("OO", "O");
-			name = name.replaceAll("EE", "E");
-			name = name.replaceAll("UU", "U");
-			name = name.replaceAll("TH", "T");
-			name = name.replaceAll("AE", "A");
-			name = name.replaceAll("EA", "A");
-			name = name.replaceAll("PH", "F");
-			name = name.replaceAll("Y", "I");
-			name = name.replaceAll("S ", " ");
-			name = name.replaceAll("E ", " ");
-			name = name.replaceAll("A ", " ");
-			name = name.replaceAll("O ", " ");
-			name = name.replaceAll(" ", "");
+		{ "_", " " },
 
-			name = name.replaceAll("_", " ");
+		{ "AA", "A" },
+		{ "OO", "O" },
+		{ "EE", "E" },
+		{ "UU", "U" },
+		{ "TH", "T" },
+		{ "AE", "A" },
+		{ "EA", "A" },
+		{ "PH", "F" }
+	};
+	
+	private static final char[][] STANDARDIZED_NAME_PATTERNS = new char[STANDARDIZED_NAME_REWRITES.length][];
+	private static final char[][] STANDARDIZED_NAME_REPLACEMENTS = new char[STANDARDIZED_NAME_REWRITES.length][];
+	
+	// Characters that are replaced by a space before the rewrites
+	private static final String STANDARDIZED_NAME_SPACE_CHARACTERS = "-,/()_'][";
 
-			name = name.replaceAll("AA", "A");
-			name = name.replaceAll("OO", "O");
-			name = name.replaceAll("EE", "E");
-			name = name.replaceAll("UU", "U");
-			name = name.replaceAll("TH", "T");
-			name = name.replaceAll("AE", "A");
-			name = name.replaceAll("EA", "A");
-			name = name.replaceAll("PH", "F");
+	// The characters that separate the words of a name when it is reduced to its first words
+	public static final String WORD_DELIMITERS = " -[](),&+:;\"'/\\{}*%";
+	
+	// The replacement of a character by convertToStandardCharacters(), null if the character is kept
+	private static final String[] STANDARD_CHARACTERS = new String[256];
+	
+	static {
+		for (int rewriteNr = 0; rewriteNr < STANDARDIZED_NAME_REWRITES.length; rewriteNr++) {
+			// The rewrites are done in place so a replacement may not be longer than its pattern
+			STANDARDIZED_NAME_PATTERNS[rewriteNr] = STANDARDIZED_NAME_REWRITES[rewriteNr][0].toCharArray();
+			STANDARDIZED_NAME_REPLACEMENTS[rewriteNr] = STANDARDIZED_NAME_REWRITES[rewriteNr][1].toCharArray();
+		}
+		
+		setStandardCharacters('À', 'Å', "A");
+		setStandardCharacters('Æ', 'Æ', "AE");
+		setStandardCharacters('Ç', 'Ç', "C");
+		setStandardCharacters('È', 'Ë', "E");
+		setStandardCharacters('Ì', 'Ï', "I");
+		setStandardCharacters('Ð', 'Ð', "D");
+		setStandardCharacters('Ñ', 'Ñ', "N");
+		setStandardCharacters('Ò', 'Ö', "O");
+		setStandardCharacters('Ø', 'Ø', "O");
+		setStandardCharacters('Ù', 'Ü', "U");
+		setStandardCharacters('Ý', 'Ý', "Y");
+		setStandardCharacters('Þ', 'Þ', "SH");
+		setStandardCharacters('ß', 'ß', "SS");
+		setStandardCharacters('à', 'å', "a");
+		setStandardCharacters('æ', 'æ', "ae");
+		setStandardCharacters('ç', 'ç', "c");
+		setStandardCharacters('è', 'ë', "e");
+		setStandardCharacters('ì', 'ï', "i");
+		setStandardCharacters('ð', 'ð', "o");
+		setStandardCharacters('ñ', 'ñ', "n");
+		setStandardCharacters('ò', 'ö', "o");
+		setStandardCharacters('ø', 'ø', "o");
+		setStandardCharacters('ù', 'ü', "u");
+		setStandardCharacters('ý', 'ý', "y");
+		setStandardCharacters('ÿ', 'ÿ', "y");
+		setStandardCharacters('þ', 'þ', "sh");
+
+		// Other characters
+		setStandardCharacters('×', '×', "x");
+		setStandardCharacters('÷', '÷', "/");
+		setStandardCharacters('µ', 'µ', "u");
+		setStandardCharacters('¶', '¶', "n");
+		setStandardCharacters('¹', '¹', "1");
+		setStandardCharacters('²', '²', "2");
+		setStandardCharacters('³', '³', "3");
+		setStandardCharacters('¢', '¢', "c");
+		setStandardCharacters('¡', '¡', "!");
+		setStandardCharacters('¥', '¥', "Y");
+		setStandardCharacters('ª', 'ª', "a");
+		setStandardCharacters('º', 'º', "o");
+		setStandardCharacters('¿', '¿', "?");
+		setStandardCharacters('©', '©', "(C)");
+		setStandardCharacters('®', '®', "(R)");
+		setStandardCharacters('¼', '¼', "1/4");
+		setStandardCharacters('½', '½', "1/2");
+		setStandardCharacters('¾', '¾', "3/4");
+	}
+	
+	
+	private static void setStandardCharacters(char startRange, char endRange, String replacement) {
+		for (int character = startRange; character <= endRange; character++) {
+			STANDARD_CHARACTERS[character] = replacement;
+		}
+	}
+	
+	
+	private static String getStandardCharacters(char character) {
+		String replacement = null;
+		if (character < STANDARD_CHARACTERS.length) {
+			replacement = STANDARD_CHARACTERS[character];
+		}
+		else if (character == 'α') {
+			replacement = "a";
+		}
+		else if (character == '–') {
+			replacement = "-";
+		}
+		else if (character == '•') {
+			replacement = "*";
+		}
+		return replacement;
+	}
+	
+	
+	private static char safeToUpperCase(char character) {
+		if (character == 'α') {
+			character = 'A';
+		}
+		if (
+				((character >=  97) && (character <= 122)) ||
+				((character >= 224) && (character <= 246)) ||
+				((character >= 248) && (character <= 253))
+		) {
+			character = Character.toUpperCase(character);
+		}
+		return character;
+	}
+	
+	
+	public static String standardizedName(String name) {
+		
+		if (name != null) {
+			// Convert to standard upper case characters and replace separators by spaces in one pass.
+			// The two leading spaces are equal to the result of the former replaceAll("^", " ").
+			StringBuilder standardizedName = new StringBuilder(name.length() + 8);
+			standardizedName.append("  ");
+			for (int charNr = 0; charNr < name.length(); charNr++) {
+				char character = name.charAt(charNr);
+				String replacement = getStandardCharacters(character);
+				if (replacement == null) {
+					appendStandardizedNameCharacter(standardizedName, character);
+				}
+				else {
+					for (int replacementCharNr = 0; replacementCharNr < replacement.length(); replacementCharNr++) {
+						appendStandardizedNameCharacter(standardizedName, replacement.charAt(replacementCharNr));
+					}
+				}
+			}
+			standardizedName.append(' ');
+			
+			char[] buffer = new char[standardizedName.length()];
+			standardizedName.getChars(0, buffer.length, buffer, 0);
+			int length = buffer.length;
+			for (int rewriteNr = 0; rewriteNr < STANDARDIZED_NAME_PATTERNS.length; rewriteNr++) {
+				length = replaceAll(buffer, length, STANDARDIZED_NAME_PATTERNS[rewriteNr], STANDARDIZED_NAME_REPLACEMENTS[rewriteNr]);
+			}
 			
-			name = removeExtraSpaces(name).trim();
+			name = removeExtraSpaces(new String(buffer, 0, length)).trim();
 		}
 		
 		return name;
 	}
+	
+	
+	private static void appendStandardizedNameCharacter(StringBuilder standardizedName, char character) {
+		character = safeToUpperCase(character);
+		standardizedName.append(STANDARDIZED_NAME_SPACE_CHARACTERS.indexOf(character) == -1 ? character : ' ');
+	}
+	
+	
+	/**
+	 * Replaces all non-overlapping occurrences of pattern from left to right in the first
+	 * length characters of buffer. The replacement may not be longer than the pattern.
+	 * Returns the new length.
+	 */
+	private static int replaceAll(char[] buffer, int length, char[] pattern, char[] replacement) {
+		int readNr = 0;
+		int writeNr = 0;
+		char first = pattern[0];
+		while (readNr < length) {
+			char character = buffer[readNr];
+			if ((character == first) && (readNr + pattern.length <= length) && matchesAt(buffer, readNr, pattern)) {
+				for (int replacementCharNr = 0; replacementCharNr < replacement.length; replacementCharNr++) {
+					buffer[writeNr++] = replacement[replacementCharNr];
+				}
+				readNr += pattern.length;
+			}
+			else {
+				buffer[writeNr++] = character;
+				readNr++;
+			}
+		}
+		return writeNr;
+	}
+	
+	
+	private static boolean matchesAt(char[] buffer, int position, char[] pattern) {
+		for (int patternCharNr = 1; patternCharNr < pattern.length; patternCharNr++) {
+			if (buffer[position + patternCharNr] != pattern[patternCharNr]) {
+				return false;
+			}
+		}
+		return true;
+	}
 
 	
+	private static final int MAXIMUM_MATCHING_NAME_WORDS = 20;
+	
+	
 	public static List<String> generateMatchingNames(String name, String englishName) {
 		List<String> matchingNames = new ArrayList<String>();
-		Set<String> uniqueNames = new HashSet<String>();
-
-		name = safeToUpperCase(removeExtraSpaces(name).toUpperCase());
-		englishName = safeToUpperCase(removeExtraSpaces(englishName));
-		
-		if (uniqueNames.add(name)) {
-			matchingNames.add("SourceTerm: " + name);
+		for (String matchingName : getMatchingNames(name, englishName)) {
+			matchingNames.add(matchingName);
 		}
-		if ((englishName != null) && (!englishName.equals("")) && uniqueNames.add(englishName)) {
-			matchingNames.add("SourceTerm (Translated): " + englishName);
+		return matchingNames;
+	}
+	
+	
+	/**
+	 * Returns the same matching names as generateMatchingNames in the same
+	 * order, but the names are only generated while they are iterated over
+	 * and are not kept. A lookup that stops at the first name that matches
+	 * does not generate the other names.
+	 */
+	public static Iterable<String> getMatchingNames(final String name, final String englishName) {
+		return new Iterable<String>() {
+			
+			@Override
+			public Iterator<String> iterator() {
+				return new MatchingNameIterator(name, englishName);
+			}
+		};
+	}
+	
+	
+	/**
+	 * Returns the first words of the name for all word counts up to the
+	 * maximum in one pass. Element n is the same as getReducedName(name, n),
+	 * element 0 is not used.
+	 */
+	public static String[] getReducedNames(String name, int maxWords) {
+		String[] reducedNames = new String[maxWords + 1];
+		int[] reducedNameEnds = getReducedNameEnds(name, maxWords);
+		for (int nrWords = 1; nrWords <= maxWords; nrWords++) {
+			if (reducedNameEnds[nrWords] != -1) {
+				reducedNames[nrWords] = name.substring(0, reducedNameEnds[nrWords]);
+			}
 		}
-		for (Integer length = 20; length > 0; length--) {
-			String reducedName = getReducedName(name, length);
-			if (reducedName != null) {
-				if (uniqueNames.add(reducedName)) {
-					matchingNames.add("First " + length + " words from SourceTerm: " + reducedName);
-				}
-				if (uniqueNames.add(reducedName + " EXTRACT")) {
-					matchingNames.add("First " + length + " words + \" EXTRACT\" from SourceTerm: " + reducedName + " EXTRACT");
+		
+		return reducedNames;
+	}
+	
+	
+	/**
+	 * Returns the length of the first words of the name for all word counts
+	 * up to the maximum, or -1 when the name has less words.
+	 */
+	private static int[] getReducedNameEnds(String name, int maxWords) {
+		int[] reducedNameEnds = new int[maxWords + 1];
+		Arrays.fill(reducedNameEnds, -1);
+		int delimiterCount = 0;
+		boolean lastCharDelimiter = false;
+		for (int charNr = 1; (charNr <= name.length()) && (delimiterCount < maxWords); charNr++) {
+			if ((charNr == name.length()) || (WORD_DELIMITERS.indexOf(name.charAt(charNr)) != -1)) {
+				if (!lastCharDelimiter) {
+					delimiterCount++;
+					reducedNameEnds[delimiterCount] = charNr;
 				}
+				lastCharDelimiter = true;
 			}
-			if ((englishName != null) && (!englishName.equals(""))) {
-				reducedName = getReducedName(englishName, length);
-				if (reducedName != null) {
-					if (uniqueNames.add(reducedName)) {
-						matchingNames.add("First " + length + " words from SourceTerm (Translated): " + reducedName);
-					}
-					if (uniqueNames.add(reducedName + " EXTRACT")) {
-						matchingNames.add("First " + length + " words + \" EXTRACT\" from SourceTerm (Translated): " + reducedName + " EXTRACT");
-					}
-				}
+			else {
+				lastCharDelimiter = false;
 			}
 		}
-
-		return matchingNames;
+		
+		return reducedNameEnds;
 	}
 	
 	
@@ -241,7 +442,7 @@ public class DrugMappingStringUtilities {
 			int delimiterCount = 0;
 			boolean lastCharDelimiter = false;
 			for (int charNr = 1; charNr < name.length(); charNr++) {
-				if (" -[](),&+:;\"'/\\{}*%".contains(name.substring(charNr, charNr + 1))) {
+				if (WORD_DELIMITERS.contains(name.substring(charNr, charNr + 1))) {
 					if (!lastCharDelimiter) {
 						delimiterCount++;
 					}
@@ -271,173 +472,20 @@ public class DrugMappingStringUtilities {
 		String convertedText = null;
 		
 		if (text != null) {
-			convertedText = "";
+			StringBuilder convertedTextBuilder = new StringBuilder(text.length() + 8);
 			
 			for (int charNr = 0; charNr < text.length(); charNr++) {
 				char character = text.charAt(charNr);
-				
-				if (
-						(character != ' ') &&
-						(character != ',') &&
-						(character != '.') &&
-						(!characterInRange(character, 'a', 'z')) &&
-						(!characterInRange(character, 'A', 'Z')) &&
-						(!characterInRange(character, '0', '9'))
-				) {
-					if (characterInRange(character, 'À', 'Å')) {
-						convertedText += 'A';
-					}
-					else if (character == 'Æ') {
-						convertedText += "AE";
-					}
-					else if (character == 'Ç') {
-						convertedText += "C";
-					}
-					else if (characterInRange(character, 'È', 'Ë')) {
-						convertedText += 'E';
-					}
-					else if (characterInRange(character, 'Ì', 'Ï')) {
-						convertedText += 'I';
-					}
-					else if (character == 'Ð') {
-						convertedText += "D";
-					}
-					else if (character == 'Ñ') {
-						convertedText += "N";
-					}
-					else if (characterInRange(character, 'Ò', 'Ö')) {
-						convertedText += 'O';
-					}
-					else if (character == 'Ø') {
-						convertedText += "O";
-					}
-					else if (characterInRange(character, 'Ù', 'Ü')) {
-						convertedText += 'U';
-					}
-					else if (character == 'Ý') {
-						convertedText += "Y";
-					}
-					else if (character == 'Ý') {
-						convertedText += "Y";
-					}
-					else if (character == 'Þ') {
-						convertedText += "SH";
-					}
-					else if (character == 'α') {
-						convertedText += "a";
-					}
-					else if (character == 'ß') {
-						convertedText += "SS";
-					}
-					else if (characterInRange(character, 'à', 'å')) {
-						convertedText += 'a';
-					}
-					else if (character == 'æ') {
-						convertedText += "ae";
-					}
-					else if (character == 'ç') {
-						convertedText += "c";
-					}
-					else if (characterInRange(character, 'è', 'ë')) {
-						convertedText += 'e';
-					}
-					else if (characterInRange(character, 'ì', 'ï')) {
-						convertedText += 'i';
-					}
-					else if (character == 'ð') {
-						convertedText += "o";
-					}
-					else if (character == 'ñ') {
-						convertedText += "n";
-					}
-					else if (characterInRange(character, 'ò', 'ö')) {
-						convertedText += 'o';
-					}
-					else if (character == 'ø') {
-						convertedText += "o";
-					}
-					else if (characterInRange(character, 'ù', 'ü')) {
-						convertedText += 'u';
-					}
-					else if (character == 'ý') {
-						convertedText += "y";
-					}
-					else if (character == 'ÿ') {
-						convertedText += "y";
-					}
-					else if (character == 'þ') {
-						convertedText += "sh";
-					}
-
-					// Other characters
-					else if (character == '×') {
-						convertedText += "x";
-					}
-					else if (character == '÷') {
-						convertedText += "/";
-					}
-					else if (character == 'µ') {
-						convertedText += "u";
-					}
-					else if (character == '¶') {
-						convertedText += "n";
-					}
-					else if (character == '¹') {
-						convertedText += "1";
-					}
-					else if (character == '²') {
-						convertedText += "2";
-					}
-					else if (character == '³') {
-						convertedText += "3";
-					}
-					else if (character == '–') {
-						convertedText += "-";
-					}
-					else if (character == '¢') {
-						convertedText += "c";
-					}
-					else if (character == '¡') {
-						convertedText += "!";
-					}
-					else if (character == '¥') {
-						convertedText += "Y";
-					}
-					else if (character == 'ª') {
-						convertedText += "a";
-					}
-					else if (character == 'º') {
-						convertedText += "o";
-					}
-					else if (character == '¿') {
-						convertedText += "?";
-					}
-					else if (character == '©') {
-						convertedText += "(C)";
-					}
-					else if (character == '®') {
-						convertedText += "(R)";
-					}
-					else if (character == '¼') {
-						convertedText += "1/4";
-					}
-					else if (character == '½') {
-						convertedText += "1/2";
-					}
-					else if (character == '¾') {
-						convertedText += "3/4";
-					}
-					else if (character == '•') {
-						convertedText += "*";
-					}
-					else {
-						convertedText += character;
-					}
+				String replacement = getStandardCharacters(character);
+				if (replacement == null) {
+					convertedTextBuilder.append(character);
 				}
 				else {
-					convertedText += character;
+					convertedTextBuilder.append(replacement);
 				}
 			}
+			
+			convertedText = convertedTextBuilder.toString();
 		}
 		
 		return convertedText;
@@ -463,26 +511,13 @@ public class DrugMappingStringUtilities {
 	
 	
 	public static String safeToUpperCase(String string) {
-		String safeUpperCaseString = "";
+		StringBuilder safeUpperCaseString = new StringBuilder(string.length());
 		
 		for (int charNr = 0; charNr < string.length(); charNr++) {
-			Character character = string.charAt(charNr);
-			if (character == 'α') {
-				character = 'A';
-			}
-			if (
-					((character >=  97) && (character <= 122)) ||
-					((character >= 224) && (character <= 246)) ||
-					((character >= 248) && (character <= 253))
-			) {
-				safeUpperCaseString += Character.toUpperCase(character);
-			}
-			else {
-				safeUpperCaseString += character;
-			}
+			safeUpperCaseString.append(safeToUpperCase(string.charAt(charNr)));
 		}
 		
-		return safeUpperCaseString;
+		return safeUpperCaseString.toString();
 	}
 	
 	
@@ -531,28 +566,30 @@ public class DrugMappingStringUtilities {
 	public static String sortWords(String string) {
 		String splitCharacters = " ,.-()[]/\\*+&:'\"<>_=|{};#$%^@^~`\t\n\r";
 		List<String> words = new ArrayList<String>();
-		String word = "";
+		int wordStart = -1;
 		for (int charNr = 0; charNr < string.length(); charNr++) {
-			String currentCharacter = string.substring(charNr, charNr + 1);
-			if (splitCharacters.contains(currentCharacter)) {
-				if (!word.equals("")) {
-					words.add(word);
-					word = "";
+			if (splitCharacters.indexOf(string.charAt(charNr)) != -1) {
+				if (wordStart != -1) {
+					words.add(string.substring(wordStart, charNr));
+					wordStart = -1;
 				}
 			}
-			else {
-				word += currentCharacter;
+			else if (wordStart == -1) {
+				wordStart = charNr;
 			}
 		}
-		if (!word.equals("")) {
-			words.add(word);
+		if (wordStart != -1) {
+			words.add(string.substring(wordStart));
 		}
 		Collections.sort(words);
-		String result = "";
+		StringBuilder result = new StringBuilder(string.length());
 		for (String sortedWord : words) {
-			result += (result.equals("") ? "" : " ") + sortedWord;
+			if (result.length() > 0) {
+				result.append(' ');
+			}
+			result.append(sortedWord);
 		}
-		return result;
+		return result.toString();
 	}
 	
 	
@@ -575,5 +612,91 @@ public class DrugMappingStringUtilities {
 		System.out.println(test);
 		System.out.println(DrugMappingStringUtilities.sortWords(test));
 	}
+	
+	
+	/**
+	 * Generates the matching names of a name and its translation one at a
+	 * time in the order of generateMatchingNames: the name, the translated
+	 * name, and then for each word count from the maximum down to one the
+	 * first words of the name, with " EXTRACT" added, and the same for the
+	 * translated name. Names that were generated before are skipped.
+	 */
+	private static class MatchingNameIterator implements Iterator<String> {
+		private static final int VARIANTS_PER_WORD_COUNT = 4;
+		
+		private final String name;
+		private final String englishName;
+		private int[] reducedNameEnds = null;
+		private int[] reducedEnglishNameEnds = null;
+		private Set<String> uniqueNames = new HashSet<String>();
+		private int variantNr = 0;
+		private String nextMatchingName = null;
+		
+		
+		public MatchingNameIterator(String name, String englishName) {
+			this.name = safeToUpperCase(removeExtraSpaces(name).toUpperCase());
+			this.englishName = ((englishName != null) && (!englishName.equals(""))) ? safeToUpperCase(removeExtraSpaces(englishName)) : null;
+			nextMatchingName = generateNext();
+		}
 
+
+		@Override
+		public boolean hasNext() {
+			return nextMatchingName != null;
+		}
+
+
+		@Override
+		public String next() {
+			if (nextMatchingName == null) {
+				throw new NoSuchElementException();
+			}
+			String matchingName = nextMatchingName;
+			nextMatchingName = generateNext();
+			return matchingName;
+		}
+		
+		
+		private String generateNext() {
+			int lastVariantNr = 2 + (MAXIMUM_MATCHING_NAME_WORDS * VARIANTS_PER_WORD_COUNT);
+			while (variantNr < lastVariantNr) {
+				String matchingName = generateVariant(variantNr++);
+				if (matchingName != null) {
+					return matchingName;
+				}
+			}
+			return null;
+		}
+		
+		
+		private String generateVariant(int variantNr) {
+			if (variantNr == 0) {
+				return uniqueNames.add(name) ? "SourceTerm: " + name : null;
+			}
+			if (variantNr == 1) {
+				return ((englishName != null) && uniqueNames.add(englishName)) ? "SourceTerm (Translated): " + englishName : null;
+			}
+			
+			// The word ends are only searched for when the reduced names are needed
+			if (reducedNameEnds == null) {
+				reducedNameEnds = getReducedNameEnds(name, MAXIMUM_MATCHING_NAME_WORDS);
+				reducedEnglishNameEnds = englishName == null ? null : getReducedNameEnds(englishName, MAXIMUM_MATCHING_NAME_WORDS);
+			}
+			int length = MAXIMUM_MATCHING_NAME_WORDS - ((variantNr - 2) / VARIANTS_PER_WORD_COUNT);
+			int variant = (variantNr - 2) % VARIANTS_PER_WORD_COUNT;
+			boolean translated = variant >= 2;
+			boolean extract = (variant % 2) == 1;
+			
+			String fullName = translated ? englishName : name;
+			int[] ends = translated ? reducedEnglishNameEnds : reducedNameEnds;
+			if ((ends == null) || (ends[length] == -1)) {
+				return null;
+			}
+			String reducedName = fullName.substring(0, ends[length]) + (extract ? " EXTRACT" : "");
+			if (!uniqueNames.add(reducedName)) {
+				return null;
+			}
+			return "First " + length + " words" + (extract ? " + \" EXTRACT\"" : "") + " from SourceTerm" + (translated ? " (Translated)" : "") + ": " + reducedName;
+		}
+	}
 }